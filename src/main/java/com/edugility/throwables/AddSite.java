@@ -0,0 +1,458 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.throwables;
+
+import java.lang.StackWalker.StackFrame;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import java.util.function.Function;
+
+import java.util.stream.Stream;
+
+/**
+ * The place in the code from which a {@link Throwable} was
+ * {@linkplain ThrowableChain#add(Throwable) added} to a {@link
+ * ThrowableChain}, as opposed to the place from which it was thrown.
+ *
+ * <p>An {@link AddSite} consists of the topmost few stack frames of
+ * the code that called {@link ThrowableChain#add(Throwable)} or one
+ * of its relatives.  It is captured with a {@link StackWalker}
+ * rather than by creating a {@link Throwable}, and is interned, so
+ * that, up to a limit, every {@link Throwable} added from the same
+ * place shares a single {@link AddSite} instance.  {@link AddSite}s
+ * compare {@linkplain #equals(Object) equal} by value, so they group
+ * correctly even once that limit has been reached.</p>
+ *
+ * <p>Interned {@link AddSite}s identify their frames by class name,
+ * method name and bytecode index only, and never hold a reference to
+ * a {@link Class}, so interning an {@link AddSite} never prevents a
+ * {@link ClassLoader} from being garbage collected.</p>
+ *
+ * <p>Instances of this class are immutable and safe for use by
+ * multiple threads.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see ThrowableChain#setAddSiteDepth(int)
+ *
+ * @see ThrowableChain#getAddSite(Throwable)
+ */
+public final class AddSite {
+
+  /**
+   * The maximum number of distinct {@link AddSite}s interned; beyond
+   * this, {@link AddSite}s are created afresh each time.
+   */
+  private static final int MAXIMUM_INTERNED_SITES = 4096;
+
+  /**
+   * The {@link StackWalker} used to capture {@link AddSite}s.
+   *
+   * <p>This {@link StackWalker} does not retain {@link Class}
+   * references.</p>
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private static final StackWalker WALKER = StackWalker.getInstance();
+
+  /**
+   * The name of the {@link AddSite} class.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private static final String ADD_SITE_CLASS_NAME = AddSite.class.getName();
+
+  /**
+   * The name of the {@link ThrowableChain} class.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private static final String THROWABLE_CHAIN_CLASS_NAME = ThrowableChain.class.getName();
+
+  /**
+   * The interned {@link AddSite}s, indexed by {@link Key}.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private static final ConcurrentMap<Key, AddSite> SITES = new ConcurrentHashMap<Key, AddSite>();
+
+  /**
+   * A per-thread {@link Key} into which stacks are captured, so that
+   * capturing an {@link AddSite} that has already been interned
+   * allocates nothing.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private static final ThreadLocal<Key> BUFFER = new ThreadLocal<Key>();
+
+  /**
+   * The stack frames of this {@link AddSite}, topmost first.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final List<StackTraceElement> frames;
+
+  /**
+   * The hash code of this {@link AddSite}, computed from {@link
+   * #frames} at construction time.
+   */
+  private final int hash;
+
+  /**
+   * Creates a new {@link AddSite}.
+   *
+   * @param frames the stack frames; must not be {@code null}
+   */
+  private AddSite(final StackTraceElement[] frames) {
+    super();
+    this.frames = Collections.unmodifiableList(Arrays.asList(frames));
+    this.hash = this.frames.hashCode();
+  }
+
+  /**
+   * Returns the stack frames of this {@link AddSite}, topmost (that
+   * is, the immediate caller of {@link ThrowableChain}) first.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null}, immutable, non-empty {@link List} of
+   * {@link StackTraceElement}s
+   */
+  public final List<StackTraceElement> getFrames() {
+    return this.frames;
+  }
+
+  /**
+   * Returns a hash code for this {@link AddSite}, computed from its
+   * {@linkplain #getFrames() frames}.
+   *
+   * @return a hash code
+   */
+  @Override
+  public final int hashCode() {
+    return this.hash;
+  }
+
+  /**
+   * Returns {@code true} if the supplied {@link Object} is an {@link
+   * AddSite} whose {@linkplain #getFrames() frames} are equal to
+   * those of this {@link AddSite}: that is, whose frames name the same
+   * classes, methods, files and line numbers, in the same order.
+   *
+   * @param other the {@link Object} to compare; may be {@code null}
+   *
+   * @return {@code true} if the supplied {@link Object} is equal to
+   * this {@link AddSite}; {@code false} otherwise
+   */
+  @Override
+  public final boolean equals(final Object other) {
+    if (other == this) {
+      return true;
+    } else if (other instanceof AddSite) {
+      final AddSite her = (AddSite)other;
+      return this.hash == her.hash && this.frames.equals(her.frames);
+    } else {
+      return false;
+    }
+  }
+
+  /**
+   * Returns a {@link String} representation of this {@link AddSite}:
+   * its topmost frame, followed by any others, separated by {@code "
+   * < "}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} {@link String}
+   */
+  @Override
+  public final String toString() {
+    final StringBuilder sb = new StringBuilder();
+    for (final StackTraceElement frame : this.frames) {
+      if (sb.length() > 0) {
+        sb.append(" < ");
+      }
+      sb.append(frame);
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Returns the {@link AddSite} of the code that called into {@link
+   * ThrowableChain}, consisting of at most {@code depth} frames, or
+   * {@code null} if there is no such code.
+   *
+   * @param depth the maximum number of frames; must be greater than
+   * {@code 0}
+   *
+   * @return an {@link AddSite}, or {@code null}
+   */
+  static final AddSite capture(final int depth) {
+    assert depth > 0;
+    Key buffer = BUFFER.get();
+    if (buffer == null || buffer.classNames.length < depth) {
+      buffer = new Key(depth);
+      BUFFER.set(buffer);
+    }
+    buffer.limit = depth;
+    WALKER.walk(buffer);
+    try {
+      if (buffer.size == 0) {
+        return null;
+      }
+      AddSite site = SITES.get(buffer);
+      if (site == null) {
+        site = new AddSite(buffer.toStackTraceElements());
+        if (SITES.size() < MAXIMUM_INTERNED_SITES) {
+          final AddSite old = SITES.putIfAbsent(buffer.copy(), site);
+          if (old != null) {
+            site = old;
+          }
+        }
+      }
+      return site;
+    } finally {
+      buffer.clear();
+    }
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * The identity of a captured stack: the declaring class name, method
+   * name and bytecode index of each frame, which are cheap to obtain
+   * and compare and do not refer to any {@link Class}.
+   *
+   * <p>A {@link Key} is either a reusable, per-thread capture buffer,
+   * which is also the {@link Function} handed to {@link
+   * StackWalker#walk(Function)}, or an immutable {@linkplain #copy()
+   * copy} of one used as a key in the interned {@link AddSite}s.</p>
+   *
+   * @author <a href="http://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class Key implements Function<Stream<StackFrame>, Void> {
+
+    /**
+     * The declaring class names of the captured {@link StackFrame}s.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final String[] classNames;
+
+    /**
+     * The method names of the captured {@link StackFrame}s.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final String[] methodNames;
+
+    /**
+     * The bytecode indices of the captured {@link StackFrame}s.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final int[] byteCodeIndices;
+
+    /**
+     * The captured {@link StackFrame}s, used only to create {@link
+     * StackTraceElement}s; {@code null} in a {@linkplain #copy()
+     * copy}.
+     */
+    private final StackFrame[] frames;
+
+    /**
+     * The maximum number of {@link StackFrame}s to capture on the
+     * next {@linkplain #apply(Stream) walk}.
+     */
+    private int limit;
+
+    /**
+     * The number of {@link StackFrame}s captured.
+     */
+    private int size;
+
+    /**
+     * The hash code, computed at the end of each {@linkplain
+     * #apply(Stream) walk}.
+     */
+    private int hash;
+
+    /**
+     * Creates a new {@link Key} suitable for use as a capture buffer.
+     *
+     * @param capacity the maximum number of frames
+     */
+    private Key(final int capacity) {
+      super();
+      this.classNames = new String[capacity];
+      this.methodNames = new String[capacity];
+      this.byteCodeIndices = new int[capacity];
+      this.frames = new StackFrame[capacity];
+    }
+
+    /**
+     * Creates a new, immutable {@link Key} holding the captured
+     * identity of the supplied {@link Key}.
+     *
+     * @param source the {@link Key} to copy; must not be {@code null}
+     */
+    private Key(final Key source) {
+      super();
+      this.size = source.size;
+      this.hash = source.hash;
+      this.classNames = Arrays.copyOf(source.classNames, source.size);
+      this.methodNames = Arrays.copyOf(source.methodNames, source.size);
+      this.byteCodeIndices = Arrays.copyOf(source.byteCodeIndices, source.size);
+      this.frames = null;
+    }
+
+    /**
+     * Captures at most {@link #limit} of the supplied {@link
+     * StackFrame}s, skipping those belonging to {@link AddSite} and
+     * {@link ThrowableChain}, and computes this {@link Key}'s hash
+     * code.
+     *
+     * @param stackFrames the {@link StackFrame}s being walked; must
+     * not be {@code null}
+     *
+     * @return {@code null}
+     */
+    @Override
+    public final Void apply(final Stream<StackFrame> stackFrames) {
+      final Iterator<StackFrame> iterator = stackFrames.iterator();
+      final int limit = this.limit;
+      int size = 0;
+      int hash = 1;
+      boolean skipping = true;
+      while (size < limit && iterator.hasNext()) {
+        final StackFrame frame = iterator.next();
+        final String className = frame.getClassName();
+        if (skipping) {
+          if (className.equals(ADD_SITE_CLASS_NAME) || className.equals(THROWABLE_CHAIN_CLASS_NAME)) {
+            continue;
+          }
+          skipping = false;
+        }
+        final String methodName = frame.getMethodName();
+        final int byteCodeIndex = frame.getByteCodeIndex();
+        this.classNames[size] = className;
+        this.methodNames[size] = methodName;
+        this.byteCodeIndices[size] = byteCodeIndex;
+        this.frames[size] = frame;
+        hash = 31 * (31 * (31 * hash + className.hashCode()) + methodName.hashCode()) + byteCodeIndex;
+        size++;
+      }
+      this.size = size;
+      this.hash = hash;
+      return null;
+    }
+
+    /**
+     * Converts the captured {@link StackFrame}s into {@link
+     * StackTraceElement}s.
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * @return a new array of {@link StackTraceElement}s; never {@code
+     * null}
+     */
+    private final StackTraceElement[] toStackTraceElements() {
+      final StackTraceElement[] returnValue = new StackTraceElement[this.size];
+      for (int i = 0; i < this.size; i++) {
+        returnValue[i] = this.frames[i].toStackTraceElement();
+      }
+      return returnValue;
+    }
+
+    /**
+     * Returns an immutable copy of this {@link Key} that refers to
+     * nothing but {@link String}s, suitable for interning.
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * @return a new {@link Key}; never {@code null}
+     */
+    private final Key copy() {
+      return new Key(this);
+    }
+
+    /**
+     * Releases the references this capture buffer holds, so that a
+     * per-thread buffer never keeps a {@link StackFrame} or a {@link
+     * String} reachable after the capture that needed it.
+     */
+    private final void clear() {
+      Arrays.fill(this.classNames, null);
+      Arrays.fill(this.methodNames, null);
+      Arrays.fill(this.frames, null);
+      this.size = 0;
+    }
+
+    @Override
+    public final int hashCode() {
+      return this.hash;
+    }
+
+    @Override
+    public final boolean equals(final Object other) {
+      if (other == this) {
+        return true;
+      } else if (other instanceof Key) {
+        final Key her = (Key)other;
+        if (this.hash != her.hash || this.size != her.size) {
+          return false;
+        }
+        for (int i = 0; i < this.size; i++) {
+          if (this.byteCodeIndices[i] != her.byteCodeIndices[i] ||
+              !this.methodNames[i].equals(her.methodNames[i]) ||
+              !this.classNames[i].equals(her.classNames[i])) {
+            return false;
+          }
+        }
+        return true;
+      } else {
+        return false;
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,418 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.throwables;
+
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import java.util.function.Consumer;
+
+/**
+ * An immutable set of the optional collaborators&mdash;a {@link
+ * StormSuppressor}, a {@link RenderedTraceCache} and a rendering
+ * {@link ForkJoinPool}&mdash;with which a {@link ThrowableChain}
+ * prints the stack traces of its affiliated {@link Throwable}s,
+ * together with the logic that prints them.
+ *
+ * <p>A {@link ThrowableChain} replaces its {@link AffiliatePrinter}
+ * wholesale when one of its collaborators is changed, so a stack
+ * trace that is being printed is printed with one consistent set of
+ * collaborators throughout.</p>
+ *
+ * <p>Instances of this class are safe for use by multiple
+ * threads.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see ThrowableChain#setStormSuppressor(StormSuppressor)
+ *
+ * @see ThrowableChain#setRenderedTraceCache(RenderedTraceCache)
+ *
+ * @see ThrowableChain#setRenderingPool(ForkJoinPool)
+ */
+final class AffiliatePrinter {
+
+  /**
+   * An {@link AffiliatePrinter} with no collaborators, which prints
+   * every affiliated {@link Throwable} in full, on the calling thread.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  static final AffiliatePrinter DEFAULT = new AffiliatePrinter(null, null, null);
+
+  /**
+   * The number of affiliated {@link Throwable}s formatted together by
+   * one task when a rendering pool is installed.  {@link
+   * ThrowableChain}s with no more affiliates than this are always
+   * printed on the calling thread.
+   */
+  private static final int RENDERING_CHUNK_SIZE = 128;
+
+  /**
+   * The {@link StormSuppressor} to consult for each affiliated {@link
+   * Throwable}.
+   *
+   * <p>This field may be {@code null}.</p>
+   */
+  private final StormSuppressor stormSuppressor;
+
+  /**
+   * The {@link RenderedTraceCache} through which affiliated {@link
+   * Throwable}s are printed.
+   *
+   * <p>This field may be {@code null}.</p>
+   */
+  private final RenderedTraceCache renderedTraceCache;
+
+  /**
+   * The {@link ForkJoinPool} on which the stack traces of affiliated
+   * {@link Throwable}s are formatted in parallel.
+   *
+   * <p>This field may be {@code null}.</p>
+   */
+  private final ForkJoinPool renderingPool;
+
+  /**
+   * Creates a new {@link AffiliatePrinter}.
+   *
+   * @param stormSuppressor the {@link StormSuppressor}; may be {@code
+   * null}
+   *
+   * @param renderedTraceCache the {@link RenderedTraceCache}; may be
+   * {@code null}
+   *
+   * @param renderingPool the {@link ForkJoinPool}; may be {@code
+   * null}
+   */
+  private AffiliatePrinter(final StormSuppressor stormSuppressor,
+                           final RenderedTraceCache renderedTraceCache,
+                           final ForkJoinPool renderingPool) {
+    super();
+    this.stormSuppressor = stormSuppressor;
+    this.renderedTraceCache = renderedTraceCache;
+    this.renderingPool = renderingPool;
+  }
+
+  /**
+   * Returns the {@link StormSuppressor} consulted by this {@link
+   * AffiliatePrinter}, if any.
+   *
+   * @return the {@link StormSuppressor}, or {@code null}
+   */
+  final StormSuppressor getStormSuppressor() {
+    return this.stormSuppressor;
+  }
+
+  /**
+   * Returns a new {@link AffiliatePrinter} like this one but with the
+   * supplied {@link StormSuppressor}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param stormSuppressor the {@link StormSuppressor}; may be {@code
+   * null}
+   *
+   * @return a new {@link AffiliatePrinter}; never {@code null}
+   */
+  final AffiliatePrinter withStormSuppressor(final StormSuppressor stormSuppressor) {
+    return new AffiliatePrinter(stormSuppressor, this.renderedTraceCache, this.renderingPool);
+  }
+
+  /**
+   * Returns the {@link RenderedTraceCache} used by this {@link
+   * AffiliatePrinter}, if any.
+   *
+   * @return the {@link RenderedTraceCache}, or {@code null}
+   */
+  final RenderedTraceCache getRenderedTraceCache() {
+    return this.renderedTraceCache;
+  }
+
+  /**
+   * Returns a new {@link AffiliatePrinter} like this one but with the
+   * supplied {@link RenderedTraceCache}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param renderedTraceCache the {@link RenderedTraceCache}; may be
+   * {@code null}
+   *
+   * @return a new {@link AffiliatePrinter}; never {@code null}
+   */
+  final AffiliatePrinter withRenderedTraceCache(final RenderedTraceCache renderedTraceCache) {
+    return new AffiliatePrinter(this.stormSuppressor, renderedTraceCache, this.renderingPool);
+  }
+
+  /**
+   * Returns the {@link ForkJoinPool} used by this {@link
+   * AffiliatePrinter}, if any.
+   *
+   * @return the {@link ForkJoinPool}, or {@code null}
+   */
+  final ForkJoinPool getRenderingPool() {
+    return this.renderingPool;
+  }
+
+  /**
+   * Returns a new {@link AffiliatePrinter} like this one but with the
+   * supplied {@link ForkJoinPool}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param renderingPool the {@link ForkJoinPool}; may be {@code
+   * null}
+   *
+   * @return a new {@link AffiliatePrinter}; never {@code null}
+   */
+  final AffiliatePrinter withRenderingPool(final ForkJoinPool renderingPool) {
+    return new AffiliatePrinter(this.stormSuppressor, this.renderedTraceCache, renderingPool);
+  }
+
+  /**
+   * Returns {@code true} if a {@link ThrowableChain} with the supplied
+   * number of members should have its affiliates {@linkplain
+   * #render(List, Consumer) rendered} in parallel.
+   *
+   * @param size the number of members, including the {@link
+   * ThrowableChain} itself
+   *
+   * @return {@code true} if {@link #render(List, Consumer)} should be
+   * used
+   */
+  final boolean isParallel(final int size) {
+    return this.renderingPool != null && size > RENDERING_CHUNK_SIZE;
+  }
+
+  /**
+   * Prints the supplied affiliated {@link Throwable}: as a single
+   * line if the {@link StormSuppressor} suppresses it, and otherwise
+   * in full.
+   *
+   * @param t the {@link Throwable}; must not be {@code null}
+   *
+   * @param s the {@link PrintStream}; must not be {@code null}
+   */
+  final void print(final Throwable t, final PrintStream s) {
+    final StormSuppressor stormSuppressor = this.stormSuppressor;
+    if (stormSuppressor != null && !stormSuppressor.shouldEmit(t)) {
+      s.println("(suppressed) " + t);
+    } else {
+      this.printStackTrace(t, s);
+    }
+  }
+
+  /**
+   * Prints the supplied affiliated {@link Throwable}: as a single
+   * line if the {@link StormSuppressor} suppresses it, and otherwise
+   * in full.
+   *
+   * @param t the {@link Throwable}; must not be {@code null}
+   *
+   * @param w the {@link PrintWriter}; must not be {@code null}
+   */
+  final void print(final Throwable t, final PrintWriter w) {
+    final StormSuppressor stormSuppressor = this.stormSuppressor;
+    if (stormSuppressor != null && !stormSuppressor.shouldEmit(t)) {
+      w.println("(suppressed) " + t);
+    } else {
+      this.printStackTrace(t, w);
+    }
+  }
+
+  /**
+   * Formats the stack traces of the supplied members of a {@link
+   * ThrowableChain}, except the first (the {@link ThrowableChain}
+   * itself), numbered from {@code 2}, in chunks on the rendering
+   * {@link ForkJoinPool} and hands the formatted chunks, in order, to
+   * the supplied {@link Consumer}.
+   *
+   * <p>The {@link Consumer} is invoked only on the calling thread, as
+   * is the {@link StormSuppressor}.</p>
+   *
+   * @param members the members; must not be {@code null}
+   *
+   * @param sink the {@link Consumer} accepting formatted chunks; must
+   * not be {@code null}
+   *
+   * @see #isParallel(int)
+   */
+  final void render(final List<Throwable> members, final Consumer<? super String> sink) {
+    assert members != null;
+    assert sink != null;
+    final ForkJoinPool renderingPool = this.renderingPool;
+    assert renderingPool != null;
+    final StormSuppressor stormSuppressor = this.stormSuppressor;
+    final int size = members.size();
+    final boolean[] suppressed;
+    if (stormSuppressor == null) {
+      suppressed = null;
+    } else {
+      // StormSuppressors are stateful; consult them in order, here.
+      suppressed = new boolean[size];
+      for (int i = 1; i < size; i++) {
+        suppressed[i] = !stormSuppressor.shouldEmit(members.get(i));
+      }
+    }
+    final int window = Math.max(2, 2 * renderingPool.getParallelism());
+    final Deque<ForkJoinTask<String>> pending = new ArrayDeque<ForkJoinTask<String>>(window);
+    int from = 1;
+    try {
+      while (from < size || !pending.isEmpty()) {
+        while (from < size && pending.size() < window) {
+          final int start = from;
+          final int end = Math.min(size, start + RENDERING_CHUNK_SIZE);
+          final Callable<String> chunk = () -> this.renderChunk(members, start, end, suppressed);
+          pending.addLast(renderingPool.submit(chunk));
+          from = end;
+        }
+        sink.accept(pending.removeFirst().join());
+      }
+    } finally {
+      for (final ForkJoinTask<String> task : pending) {
+        task.cancel(false);
+      }
+    }
+  }
+
+  /**
+   * Formats the stack traces of the members found in the supplied
+   * {@link List} between the supplied indices exactly as {@link
+   * ThrowableChain#printStackTrace(PrintWriter)} would, and returns
+   * the result.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param members the {@link List} of members; must not be {@code
+   * null}
+   *
+   * @param start the index of the first member to format, inclusive
+   *
+   * @param end the index of the last member to format, exclusive
+   *
+   * @param suppressed which members have been suppressed by the
+   * {@link StormSuppressor}; may be {@code null}
+   *
+   * @return the formatted stack traces; never {@code null}
+   */
+  private final String renderChunk(final List<Throwable> members,
+                                   final int start,
+                                   final int end,
+                                   final boolean[] suppressed) {
+    final StringWriter sw = new StringWriter();
+    final PrintWriter w = new PrintWriter(sw);
+    for (int i = start; i < end; i++) {
+      final Throwable t = members.get(i);
+      w.print(i + 1);
+      w.print(". ");
+      if (suppressed != null && suppressed[i]) {
+        w.println("(suppressed) " + t);
+      } else {
+        this.printStackTrace(t, w);
+      }
+    }
+    w.flush();
+    return sw.toString();
+  }
+
+  /**
+   * Prints the stack trace of the supplied affiliated {@link
+   * Throwable}, decoding its stack frames from a {@link FrameArena}
+   * if it is the {@linkplain ThrowableSummary summary} of a cleared
+   * affiliate whose frames were archived there.
+   *
+   * @param t the {@link Throwable}; must not be {@code null}
+   *
+   * @param s the {@link PrintStream}; must not be {@code null}
+   */
+  private final void printStackTrace(final Throwable t, final PrintStream s) {
+    if (t instanceof ThrowableSummary) {
+      s.print("(cleared) ");
+      final StackTraceElement[] frames = ((ThrowableSummary)t).getArchivedStackTrace();
+      if (frames != null) {
+        // A ThrowableSummary has no cause and no suppressed
+        // Throwables, so this is all Throwable#printStackTrace() would
+        // print.
+        s.println(t);
+        for (final StackTraceElement frame : frames) {
+          s.println("\tat " + frame);
+        }
+        return;
+      }
+    }
+    final RenderedTraceCache renderedTraceCache = this.renderedTraceCache;
+    if (renderedTraceCache == null) {
+      t.printStackTrace(s);
+    } else {
+      renderedTraceCache.printStackTrace(t, s);
+    }
+  }
+
+  /**
+   * Prints the stack trace of the supplied affiliated {@link
+   * Throwable}, decoding its stack frames from a {@link FrameArena}
+   * if it is the {@linkplain ThrowableSummary summary} of a cleared
+   * affiliate whose frames were archived there.
+   *
+   * @param t the {@link Throwable}; must not be {@code null}
+   *
+   * @param w the {@link PrintWriter}; must not be {@code null}
+   */
+  private final void printStackTrace(final Throwable t, final PrintWriter w) {
+    if (t instanceof ThrowableSummary) {
+      w.print("(cleared) ");
+      final StackTraceElement[] frames = ((ThrowableSummary)t).getArchivedStackTrace();
+      if (frames != null) {
+        // A ThrowableSummary has no cause and no suppressed
+        // Throwables, so this is all Throwable#printStackTrace() would
+        // print.
+        w.println(t);
+        for (final StackTraceElement frame : frames) {
+          w.println("\tat " + frame);
+        }
+        return;
+      }
+    }
+    final RenderedTraceCache renderedTraceCache = this.renderedTraceCache;
+    if (renderedTraceCache == null) {
+      t.printStackTrace(w);
+    } else {
+      renderedTraceCache.printStackTrace(t, w);
+    }
+  }
+
+}
@@ -0,0 +1,818 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.throwables;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+
+/**
+ * A cache of facts about the {@linkplain Throwable#getCause() causal
+ * chains} of {@link Throwable}s that are inspected over and over
+ * again.
+ *
+ * <p>The first time a given {@link Throwable} is inspected by an
+ * instance of this class its causal chain is walked once and
+ * recorded.  Subsequent calls to the {@link
+ * #getRootCause(Throwable)}, {@link #getDepth(Throwable)} and {@link
+ * #firstInstance(Throwable, Class)} methods for the same {@link
+ * Throwable} are then answered without walking the chain again.</p>
+ *
+ * <p>{@link Throwable}s are compared by identity, not by {@link
+ * Object#equals(Object)}.  Both a cached {@link Throwable} and the
+ * members of its causal chain are only {@linkplain WeakReference
+ * weakly referenced}, so an instance of this class never prevents a
+ * {@link Throwable} from being garbage collected, even if one of its
+ * causes refers back to it.  The {@link Class}es passed to {@link
+ * #firstInstance(Throwable, Class)} are, however, referenced
+ * strongly for as long as the answers computed for them are
+ * cached.</p>
+ *
+ * <p>Internally the cache is split into a number of stripes.  Lookups
+ * of {@link Throwable}s that have already been recorded do not
+ * acquire any lock; recording a new {@link Throwable} locks only the
+ * stripe responsible for it, so threads inspecting different {@link
+ * Throwable}s rarely contend with one another.</p>
+ *
+ * <p>A {@link Throwable} whose causal chain has already been
+ * recorded may still have its {@linkplain Throwable#getCause() last
+ * cause} {@linkplain Throwable#initCause(Throwable) initialized}
+ * later on (a {@link ThrowableChain} whose first affiliate is {@linkplain
+ * ThrowableChain#add(Throwable) added} after it has been inspected is
+ * a common example).  Because that is the only way a causal chain
+ * can change, every lookup checks the recorded root cause in
+ * constant time and extends the recorded chain if necessary, so
+ * results are never stale.</p>
+ *
+ * <p>This class is safe for use by multiple threads.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see Throwables#getRootCause(Throwable)
+ *
+ * @see Throwables#firstInstance(Throwable, Class)
+ */
+public final class CausalChainCache {
+
+  /**
+   * A shared {@link CausalChainCache} suitable for use by unrelated
+   * components that inspect the same {@link Throwable}s.
+   *
+   * <p>This field is never {@code null}.</p>
+   *
+   * @see #getInstance()
+   */
+  private static final CausalChainCache INSTANCE = new CausalChainCache();
+
+  /**
+   * The independently locked portions of this {@link
+   * CausalChainCache}.
+   *
+   * <p>This field is never {@code null} and its length is always a
+   * power of two.</p>
+   */
+  private final Stripe[] stripes;
+
+  /**
+   * The mask used to select a {@link Stripe} from the {@link
+   * #stripes} array.
+   */
+  private final int mask;
+
+  /**
+   * Creates a new {@link CausalChainCache} with a default number of
+   * stripes.
+   */
+  public CausalChainCache() {
+    this(16);
+  }
+
+  /**
+   * Creates a new {@link CausalChainCache}.
+   *
+   * @param concurrencyLevel the estimated number of threads that
+   * will use this {@link CausalChainCache} at the same time; will be
+   * rounded up to the nearest power of two; must be greater than
+   * {@code 0}
+   *
+   * @exception IllegalArgumentException if {@code concurrencyLevel}
+   * is less than {@code 1}
+   */
+  public CausalChainCache(final int concurrencyLevel) {
+    super();
+    if (concurrencyLevel < 1) {
+      throw new IllegalArgumentException(String.format("concurrencyLevel < 1: %d", concurrencyLevel));
+    }
+    int size = 1;
+    while (size < concurrencyLevel && size < (1 << 16)) {
+      size <<= 1;
+    }
+    this.stripes = new Stripe[size];
+    for (int i = 0; i < size; i++) {
+      this.stripes[i] = new Stripe();
+    }
+    this.mask = size - 1;
+  }
+
+  /**
+   * Returns a shared {@link CausalChainCache} instance.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a shared {@link CausalChainCache}; never {@code null}
+   */
+  public static final CausalChainCache getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Returns the "deepest" {@linkplain Throwable#getCause() cause}
+   * reachable from the supplied {@link Throwable}.
+   *
+   * <p>This method returns the same value as the {@link
+   * Throwables#getRootCause(Throwable)} method.</p>
+   *
+   * @param t the {@link Throwable} to investigate; may be {@code null}
+   *
+   * @return the "deepest" {@linkplain Throwable#getCause() cause}
+   * reachable from the supplied {@link Throwable}, or {@code null}
+   *
+   * @see Throwables#getRootCause(Throwable)
+   */
+  public final Throwable getRootCause(final Throwable t) {
+    if (t == null) {
+      return null;
+    }
+    return this.getChain(t).getRootCause(t);
+  }
+
+  /**
+   * Returns the number of {@link Throwable}s in the {@linkplain
+   * Throwable#getCause() causal chain} of the supplied {@link
+   * Throwable}, including the supplied {@link Throwable} itself.
+   *
+   * <p>This method returns the same value as would be returned by
+   * the {@link ThrowableList#size()} method of a {@link
+   * ThrowableList} constructed with the supplied {@link
+   * Throwable}.</p>
+   *
+   * @param t the {@link Throwable} to investigate; may be {@code null}
+   * in which case {@code 0} will be returned
+   *
+   * @return the number of {@link Throwable}s in the supplied {@link
+   * Throwable}'s causal chain; never less than {@code 0}
+   */
+  public final int getDepth(final Throwable t) {
+    if (t == null) {
+      return 0;
+    }
+    return this.getChain(t).causes.length + 1;
+  }
+
+  /**
+   * Returns the first {@link Throwable} in the {@linkplain
+   * Throwable#getCause() causal chain} of the supplied {@link
+   * Throwable} (or the supplied {@link Throwable} itself) that is an
+   * instance of the supplied {@link Class}.
+   *
+   * <p>This method returns the same value as the {@link
+   * Throwables#firstInstance(Throwable, Class)} method.  The answer
+   * for a given {@link Throwable} and {@link Class} is remembered, so
+   * subsequent invocations with the same arguments do not inspect the
+   * chain at all.</p>
+   *
+   * <p>This method may return {@code null}.</p>
+   *
+   * @param t the {@link Throwable} whose causal chain should be
+   * investigated; may be {@code null} in which case {@code null} will
+   * be returned
+   *
+   * @param throwableClass the {@link Class} whose {@link
+   * Class#isInstance(Object)} method will be called; if {@code null}
+   * then {@code null} will be returned
+   *
+   * @return the first {@link Throwable} in the causal chain that is
+   * an instance of the supplied {@link Class}, or {@code null}
+   *
+   * @see Throwables#firstInstance(Throwable, Class)
+   */
+  public final <T extends Throwable> T firstInstance(final Throwable t, final Class<T> throwableClass) {
+    T returnValue = null;
+    if (t != null && throwableClass != null) {
+      final Chain chain = this.getChain(t);
+      final int index = chain.indexOfFirstInstance(t, throwableClass);
+      if (index == 0) {
+        returnValue = throwableClass.cast(t);
+      } else if (index > 0) {
+        returnValue = throwableClass.cast(chain.getCause(t, index - 1));
+      }
+    }
+    return returnValue;
+  }
+
+  /**
+   * Discards anything this {@link CausalChainCache} has recorded
+   * about the supplied {@link Throwable}.
+   *
+   * @param t the {@link Throwable} to forget; may be {@code null} in
+   * which case no action is taken
+   */
+  public final void remove(final Throwable t) {
+    if (t != null) {
+      final int hash = System.identityHashCode(t);
+      this.stripeFor(hash).remove(t, hash);
+    }
+  }
+
+  /**
+   * Returns the number of {@link Throwable}s about which this {@link
+   * CausalChainCache} currently holds information.  The return value
+   * may include {@link Throwable}s that have been garbage collected
+   * but whose records have not yet been discarded.
+   *
+   * @return the approximate number of {@link Throwable}s cached;
+   * never less than {@code 0}
+   */
+  public final int size() {
+    int size = 0;
+    for (final Stripe stripe : this.stripes) {
+      size += stripe.size();
+    }
+    return size;
+  }
+
+  /**
+   * Returns the {@link Stripe} responsible for {@link Throwable}s
+   * with the supplied identity hash code.
+   *
+   * @param hash the {@linkplain System#identityHashCode(Object)
+   * identity hash code} of a {@link Throwable}
+   *
+   * @return a {@link Stripe}; never {@code null}
+   */
+  private final Stripe stripeFor(final int hash) {
+    // Spread the higher bits down; identity hash codes are often
+    // sequential in their low bits.
+    return this.stripes[(hash ^ (hash >>> 16)) & this.mask];
+  }
+
+  /**
+   * Returns the current {@link Chain} for the supplied {@link
+   * Throwable}, creating or extending it as necessary.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param t the {@link Throwable} in question; must not be {@code
+   * null}
+   *
+   * @return a {@link Chain}; never {@code null}
+   */
+  private final Chain getChain(final Throwable t) {
+    assert t != null;
+    final int hash = System.identityHashCode(t);
+    final Stripe stripe = this.stripeFor(hash);
+    Node node = stripe.get(t, hash);
+    if (node == null) {
+      // Walk the chain outside of any lock.
+      node = stripe.putIfAbsent(t, hash, new Chain(t, null));
+    }
+    assert node != null;
+    Chain chain = node.chain;
+    assert chain != null;
+    if (chain.getRootCause(t).getCause() != null) {
+      // Someone called initCause() on the recorded root cause after
+      // we recorded it.  Pick up where we left off.  Racing threads
+      // will all compute equivalent Chains so the last write wins
+      // harmlessly.
+      chain = new Chain(t, chain);
+      node.chain = chain;
+    }
+    return chain;
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * An immutable record of a {@link Throwable}'s {@linkplain
+   * Throwable#getCause() causal chain}, together with memoized
+   * answers to {@link CausalChainCache#firstInstance(Throwable,
+   * Class)} queries.
+   *
+   * <p>A {@link Chain} never holds a strong reference to the {@link
+   * Throwable} it describes or to any of that {@link Throwable}'s
+   * causes.  Because a {@link Throwable} strongly references its own
+   * cause, the weakly referenced causes cannot be cleared while the
+   * {@link Throwable} itself is still in use.</p>
+   *
+   * @author <a href="http://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class Chain {
+
+    /**
+     * An empty {@link WeakReference} array.
+     */
+    private static final WeakReference<?>[] EMPTY = new WeakReference<?>[0];
+
+    /**
+     * An empty array of memoized answers.
+     */
+    private static final Object[] NO_ANSWERS = new Object[0];
+
+    /**
+     * The maximum number of answers to {@link
+     * #indexOfFirstInstance(Throwable, Class)} queries that a {@link
+     * Chain} will remember.
+     */
+    private static final int MAXIMUM_ANSWERS = 8;
+
+    /**
+     * {@linkplain WeakReference Weak references} to the {@linkplain
+     * Throwable#getCause() causes} of the {@link Throwable} described
+     * by this {@link Chain}, in order, excluding the {@link Throwable}
+     * itself.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final WeakReference<?>[] causes;
+
+    /**
+     * An immutable array of memoized answers to {@link
+     * #indexOfFirstInstance(Throwable, Class)} queries.
+     *
+     * <p>Even-numbered elements are the {@link Class}es that were
+     * sought; each is followed by an {@link Integer} index (where
+     * {@code 0} designates the {@link Throwable} itself, {@code 1}
+     * designates its cause and so on, and {@code -1} designates the
+     * absence of a match).  The array is replaced, never modified, so
+     * it may be read without locking; an answer lost to a racing
+     * replacement is simply computed again.</p>
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private volatile Object[] answers;
+
+    /**
+     * Creates a new {@link Chain}.
+     *
+     * @param t the {@link Throwable} to describe; must not be {@code
+     * null}
+     *
+     * @param prior a {@link Chain} previously recorded for {@code t}
+     * whose root cause has since acquired a cause of its own; may be
+     * {@code null}
+     */
+    private Chain(final Throwable t, final Chain prior) {
+      super();
+      assert t != null;
+      final Throwable start;
+      final int priorLength;
+      if (prior == null) {
+        start = t;
+        priorLength = 0;
+      } else {
+        start = prior.getRootCause(t);
+        priorLength = prior.causes.length;
+      }
+      int length = priorLength;
+      Throwable cause = start;
+      while ((cause = cause.getCause()) != null) {
+        length++;
+      }
+      if (length == 0) {
+        this.causes = EMPTY;
+      } else {
+        this.causes = new WeakReference<?>[length];
+        if (priorLength > 0) {
+          System.arraycopy(prior.causes, 0, this.causes, 0, priorLength);
+        }
+        // If the root cause acquired a cause of its own between the
+        // two walks, the array will simply be shorter than the true
+        // chain, and the next lookup will extend it.
+        int i = priorLength;
+        cause = start;
+        while (i < length && (cause = cause.getCause()) != null) {
+          this.causes[i++] = new WeakReference<Throwable>(cause);
+        }
+        assert i == length;
+      }
+      Object[] answers = NO_ANSWERS;
+      if (prior != null) {
+        // Positive answers remain correct when the chain grows;
+        // negative ones might not.
+        final Object[] priorAnswers = prior.answers;
+        int count = 0;
+        for (int i = 1; i < priorAnswers.length; i += 2) {
+          if (((Integer)priorAnswers[i]).intValue() >= 0) {
+            count += 2;
+          }
+        }
+        if (count > 0) {
+          answers = new Object[count];
+          int j = 0;
+          for (int i = 0; i < priorAnswers.length; i += 2) {
+            if (((Integer)priorAnswers[i + 1]).intValue() >= 0) {
+              answers[j++] = priorAnswers[i];
+              answers[j++] = priorAnswers[i + 1];
+            }
+          }
+        }
+      }
+      this.answers = answers;
+    }
+
+    /**
+     * Returns the cause at the supplied index in the chain described
+     * by this {@link Chain}.
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * @param t the {@link Throwable} this {@link Chain} describes;
+     * must not be {@code null}
+     *
+     * @param index the zero-based index of the cause, where {@code 0}
+     * designates {@code t}'s direct cause; must be less than the
+     * length of the {@link #causes} array
+     *
+     * @return the cause; never {@code null}
+     */
+    private final Throwable getCause(final Throwable t, final int index) {
+      Throwable cause = (Throwable)this.causes[index].get();
+      if (cause == null) {
+        // Only possible if getCause() is overridden to return
+        // something t does not itself hold on to.  Walk the chain.
+        cause = t;
+        for (int i = 0; i <= index && cause != null; i++) {
+          cause = cause.getCause();
+        }
+        if (cause == null) {
+          cause = t;
+        }
+      }
+      return cause;
+    }
+
+    /**
+     * Returns the root cause of the supplied {@link Throwable}, which
+     * must be the {@link Throwable} this {@link Chain} describes.
+     *
+     * @param t the {@link Throwable} this {@link Chain} describes;
+     * must not be {@code null}
+     *
+     * @return the root cause; never {@code null}
+     */
+    private final Throwable getRootCause(final Throwable t) {
+      final int length = this.causes.length;
+      return length == 0 ? t : this.getCause(t, length - 1);
+    }
+
+    /**
+     * Returns the index of the first {@link Throwable} in the chain
+     * described by this {@link Chain} that is an instance of the
+     * supplied {@link Class}, or {@code -1}.
+     *
+     * @param t the {@link Throwable} this {@link Chain} describes;
+     * must not be {@code null}
+     *
+     * @param throwableClass the {@link Class} to look for; must not
+     * be {@code null}
+     *
+     * @return an index, or {@code -1}
+     */
+    private final int indexOfFirstInstance(final Throwable t, final Class<?> throwableClass) {
+      final Object[] answers = this.answers;
+      for (int i = 0; i < answers.length; i += 2) {
+        if (answers[i] == throwableClass) {
+          return ((Integer)answers[i + 1]).intValue();
+        }
+      }
+      int index = -1;
+      if (throwableClass.isInstance(t)) {
+        index = 0;
+      } else {
+        for (int i = 0; i < this.causes.length; i++) {
+          if (throwableClass.isInstance(this.getCause(t, i))) {
+            index = i + 1;
+            break;
+          }
+        }
+      }
+      if (answers.length < MAXIMUM_ANSWERS * 2) {
+        final Object[] newAnswers = new Object[answers.length + 2];
+        System.arraycopy(answers, 0, newAnswers, 0, answers.length);
+        newAnswers[answers.length] = throwableClass;
+        newAnswers[answers.length + 1] = Integer.valueOf(index);
+        this.answers = newAnswers;
+      }
+      return index;
+    }
+
+  }
+
+  /**
+   * A {@link WeakReference} to a {@link Throwable} that also serves
+   * as a hash table entry.
+   *
+   * @author <a href="http://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class Node extends WeakReference<Throwable> {
+
+    /**
+     * The {@linkplain System#identityHashCode(Object) identity hash
+     * code} of the referent.
+     */
+    private final int hash;
+
+    /**
+     * The next {@link Node} in this {@link Node}'s bucket; may be
+     * {@code null}.
+     *
+     * <p>This field is only ever written while the owning {@link
+     * Stripe}'s monitor is held, and always refers to a {@link Node}
+     * that was installed earlier than this one, so that a reader
+     * traversing a bucket without locking can never loop.</p>
+     */
+    private Node next;
+
+    /**
+     * The current {@link Chain} describing the referent.
+     *
+     * <p>This field is never {@code null} once the {@link Node} has
+     * been safely published, but a reader that finds this {@link
+     * Node} without locking may briefly observe {@code null}.</p>
+     */
+    private volatile Chain chain;
+
+    /**
+     * Creates a new {@link Node}.
+     *
+     * @param t the referent; must not be {@code null}
+     *
+     * @param hash the {@linkplain System#identityHashCode(Object)
+     * identity hash code} of {@code t}
+     *
+     * @param chain the {@link Chain} describing {@code t}; must not
+     * be {@code null}
+     *
+     * @param queue the {@link ReferenceQueue} with which this {@link
+     * Node} should be registered; must not be {@code null}
+     *
+     * @param next the next {@link Node} in the bucket; may be {@code
+     * null}
+     */
+    private Node(final Throwable t, final int hash, final Chain chain, final ReferenceQueue<Throwable> queue, final Node next) {
+      super(t, queue);
+      this.hash = hash;
+      this.chain = chain;
+      this.next = next;
+    }
+
+  }
+
+  /**
+   * A small identity- and weak-keyed hash table whose modifications
+   * are guarded by its own monitor and whose lookups are not.
+   *
+   * <p>A lookup that races with a modification may miss a {@link
+   * Node} that is present; every miss is therefore rechecked under
+   * the monitor by {@link #putIfAbsent(Throwable, int, Chain)}.</p>
+   *
+   * @author <a href="http://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class Stripe {
+
+    /**
+     * The buckets of this {@link Stripe}.
+     *
+     * <p>This field is never {@code null} and its length is always a
+     * power of two.</p>
+     */
+    private volatile Node[] table;
+
+    /**
+     * The number of {@link Node}s in the {@link #table}.
+     */
+    private int count;
+
+    /**
+     * The {@link ReferenceQueue} with which all {@link Node}s in this
+     * {@link Stripe} are registered.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final ReferenceQueue<Throwable> queue;
+
+    /**
+     * Creates a new {@link Stripe}.
+     */
+    private Stripe() {
+      super();
+      this.table = new Node[16];
+      this.queue = new ReferenceQueue<Throwable>();
+    }
+
+    /**
+     * Returns the {@link Node} for the supplied {@link Throwable}, or
+     * {@code null}, without locking.
+     *
+     * <p>This method may return {@code null} even though a {@link
+     * Node} for the supplied {@link Throwable} is present if it races
+     * with a modification of this {@link Stripe}.  A non-{@code null}
+     * return value always has a non-{@code null} {@link Node#chain}
+     * as observed by this method.</p>
+     *
+     * @param t the {@link Throwable}; must not be {@code null}
+     *
+     * @param hash the {@linkplain System#identityHashCode(Object)
+     * identity hash code} of {@code t}
+     *
+     * @return a {@link Node} or {@code null}
+     */
+    private final Node get(final Throwable t, final int hash) {
+      final Node[] table = this.table;
+      for (Node node = table[hash & (table.length - 1)]; node != null; node = node.next) {
+        if (node.hash == hash && node.get() == t) {
+          return node.chain == null ? null : node;
+        }
+      }
+      return null;
+    }
+
+    /**
+     * Installs a new {@link Node} for the supplied {@link Throwable}
+     * unless one is already present, and returns whichever {@link
+     * Node} is present afterwards.
+     *
+     * @param t the {@link Throwable}; must not be {@code null}
+     *
+     * @param hash the {@linkplain System#identityHashCode(Object)
+     * identity hash code} of {@code t}
+     *
+     * @param chain the {@link Chain} to install; must not be {@code
+     * null}
+     *
+     * @return a {@link Node}; never {@code null}
+     */
+    private synchronized final Node putIfAbsent(final Throwable t, final int hash, final Chain chain) {
+      this.expungeStaleNodes();
+      Node node = this.get(t, hash);
+      if (node == null) {
+        if (this.count >= (this.table.length >> 1) + (this.table.length >> 2)) {
+          this.resize();
+        }
+        final Node[] table = this.table;
+        final int index = hash & (table.length - 1);
+        node = new Node(t, hash, chain, this.queue, table[index]);
+        table[index] = node;
+        this.count++;
+      }
+      return node;
+    }
+
+    /**
+     * Removes the {@link Node} for the supplied {@link Throwable}, if
+     * there is one.
+     *
+     * @param t the {@link Throwable}; must not be {@code null}
+     *
+     * @param hash the {@linkplain System#identityHashCode(Object)
+     * identity hash code} of {@code t}
+     */
+    private synchronized final void remove(final Throwable t, final int hash) {
+      this.expungeStaleNodes();
+      final Node node = this.get(t, hash);
+      if (node != null) {
+        this.unlink(node);
+      }
+    }
+
+    /**
+     * Returns the number of {@link Node}s in this {@link Stripe}.
+     *
+     * @return the number of {@link Node}s in this {@link Stripe}
+     */
+    private synchronized final int size() {
+      this.expungeStaleNodes();
+      return this.count;
+    }
+
+    /**
+     * Removes all {@link Node}s whose referents have been garbage
+     * collected.
+     */
+    private final void expungeStaleNodes() {
+      assert Thread.holdsLock(this);
+      Reference<? extends Throwable> reference;
+      while ((reference = this.queue.poll()) != null) {
+        this.unlink((Node)reference);
+      }
+    }
+
+    /**
+     * Unlinks the supplied {@link Node} from its bucket.
+     *
+     * @param target the {@link Node} to unlink; must not be {@code
+     * null}
+     */
+    private final void unlink(final Node target) {
+      assert Thread.holdsLock(this);
+      final Node[] table = this.table;
+      final int index = target.hash & (table.length - 1);
+      Node previous = null;
+      for (Node node = table[index]; node != null; node = node.next) {
+        if (node == target) {
+          if (previous == null) {
+            table[index] = node.next;
+          } else {
+            previous.next = node.next;
+          }
+          node.next = null;
+          this.count--;
+          break;
+        }
+        previous = node;
+      }
+    }
+
+    /**
+     * Doubles the size of the {@link #table}.
+     *
+     * <p>Each old bucket is split into two new buckets with the
+     * relative order of its {@link Node}s preserved, so that every
+     * {@link Node#next} link continues to point at an older {@link
+     * Node} and unlocked readers can never loop.</p>
+     */
+    private final void resize() {
+      assert Thread.holdsLock(this);
+      final Node[] oldTable = this.table;
+      final int oldLength = oldTable.length;
+      final Node[] newTable = new Node[oldLength << 1];
+      for (int i = 0; i < oldLength; i++) {
+        Node lowHead = null;
+        Node lowTail = null;
+        Node highHead = null;
+        Node highTail = null;
+        for (Node node = oldTable[i]; node != null; node = node.next) {
+          if ((node.hash & oldLength) == 0) {
+            if (lowTail == null) {
+              lowHead = node;
+            } else {
+              lowTail.next = node;
+            }
+            lowTail = node;
+          } else {
+            if (highTail == null) {
+              highHead = node;
+            } else {
+              highTail.next = node;
+            }
+            highTail = node;
+          }
+        }
+        if (lowTail != null) {
+          lowTail.next = null;
+        }
+        if (highTail != null) {
+          highTail.next = null;
+        }
+        newTable[i] = lowHead;
+        newTable[i + oldLength] = highHead;
+      }
+      this.table = newTable;
+    }
+
+  }
+
+}
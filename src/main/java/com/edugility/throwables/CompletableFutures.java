@@ -0,0 +1,176 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.throwables;
+
+import java.lang.reflect.InvocationTargetException;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A class to assist with combining {@link CompletionStage}s such that
+ * <em>all</em> of their failures, and not just the first, are
+ * reported.
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see ThrowableChain
+ */
+public final class CompletableFutures {
+
+  /**
+   * Creates a new {@link CompletableFutures} object.
+   */
+  private CompletableFutures() {
+    super();
+  }
+
+  /**
+   * Returns a new {@link CompletableFuture} that completes when all of
+   * the supplied {@link CompletionStage}s have completed, either
+   * normally with a {@link List} of all of their results, or
+   * exceptionally with a single {@link ThrowableChain} describing
+   * every failure.
+   *
+   * <p>Unlike {@link CompletableFuture#allOf(CompletableFuture[])},
+   * the returned {@link CompletableFuture} reports every failure.  Each
+   * failure is first {@linkplain Throwables#unwrap(Throwable)
+   * stripped} of any enclosing wrappers, such as {@link
+   * CompletionException}, {@link ExecutionException} and {@link
+   * InvocationTargetException}.  The {@link ThrowableChain}'s
+   * {@linkplain ThrowableChain#getCause() cause} is the failure of the
+   * earliest failed {@link CompletionStage} in iteration order, and
+   * the remaining failures follow as {@linkplain
+   * ThrowableChain#getAffiliatedThrowables() affiliates}, also in
+   * iteration order.</p>
+   *
+   * <p>This method never blocks.  Each completing {@link
+   * CompletionStage} records its outcome in its own slot and
+   * decrements a shared counter; no locks are taken, so completion
+   * threads never contend with one another.  The thread that
+   * completes the last {@link CompletionStage} assembles the result
+   * and completes the returned {@link CompletableFuture}.</p>
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param <T> the type of the results
+   *
+   * @param stages the {@link CompletionStage}s to combine; may be
+   * {@code null} or empty in which case a {@link CompletableFuture}
+   * that has already completed with an {@linkplain List#isEmpty()
+   * empty} {@link List} will be returned; must not contain {@code
+   * null} elements
+   *
+   * @return a new {@link CompletableFuture} that will complete with
+   * an {@linkplain Collections#unmodifiableList(List) unmodifiable}
+   * {@link List} of results in iteration order, or exceptionally with
+   * a {@link ThrowableChain}; never {@code null}
+   *
+   * @exception NullPointerException if {@code stages} contains a
+   * {@code null} element
+   */
+  public static final <T> CompletableFuture<List<T>> allOf(final Collection<? extends CompletionStage<? extends T>> stages) {
+    if (stages == null || stages.isEmpty()) {
+      return CompletableFuture.completedFuture(Collections.<T>emptyList());
+    }
+    final int size = stages.size();
+    final CompletableFuture<List<T>> returnValue = new CompletableFuture<List<T>>();
+    final Object[] results = new Object[size];
+    final Throwable[] failures = new Throwable[size];
+    final AtomicInteger remaining = new AtomicInteger(size);
+    int i = 0;
+    for (final CompletionStage<? extends T> stage : stages) {
+      if (stage == null) {
+        throw new NullPointerException("stages contains a null element");
+      }
+      final int index = i++;
+      stage.whenComplete((result, failure) -> {
+          // Each slot is written by exactly one thread; the
+          // decrement below publishes the write to whichever thread
+          // performs the final decrement.
+          if (failure == null) {
+            results[index] = result;
+          } else {
+            failures[index] = Throwables.unwrap(failure);
+          }
+          if (remaining.decrementAndGet() == 0) {
+            complete(returnValue, results, failures);
+          }
+        });
+    }
+    return returnValue;
+  }
+
+  /**
+   * Completes the supplied {@link CompletableFuture} with either the
+   * supplied results or a {@link ThrowableChain} containing the
+   * supplied failures.
+   *
+   * @param <T> the type of the results
+   *
+   * @param future the {@link CompletableFuture} to complete; must not
+   * be {@code null}
+   *
+   * @param results the results; must not be {@code null}
+   *
+   * @param failures the failures, some or all of which may be {@code
+   * null}; must not be {@code null}
+   */
+  private static final <T> void complete(final CompletableFuture<List<T>> future, final Object[] results, final Throwable[] failures) {
+    int failureCount = 0;
+    for (final Throwable failure : failures) {
+      if (failure != null) {
+        failureCount++;
+      }
+    }
+    if (failureCount == 0) {
+      @SuppressWarnings("unchecked")
+      final List<T> list = (List<T>)Arrays.asList(results);
+      future.complete(Collections.unmodifiableList(list));
+    } else {
+      final ThrowableChain chain = ThrowableChain.formatted("%d of %d stages failed", failureCount, failures.length);
+      for (final Throwable failure : failures) {
+        if (failure != null) {
+          chain.add(failure);
+        }
+      }
+      future.completeExceptionally(chain);
+    }
+  }
+
+}
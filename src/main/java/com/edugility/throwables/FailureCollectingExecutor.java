@@ -0,0 +1,402 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.throwables;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs a collection of independent tasks concurrently and reports
+ * <em>every</em> failure, not just the first, as a single {@link
+ * ThrowableChain}.
+ *
+ * <p>A {@link FailureCollectingExecutor} is configured with three
+ * things:</p>
+ *
+ * <ul>
+ *
+ * <li>An {@link ExecutorService} that actually runs the tasks.  By
+ * default, a new {@link ExecutorService} that starts a virtual thread
+ * per task is used when the Java platform supports virtual threads,
+ * so that thousands of blocking, I/O-bound tasks can run at once
+ * without a platform thread apiece; on older platforms a cached pool
+ * of daemon threads is used instead.</li>
+ *
+ * <li>A <em>parallelism</em> limit: the maximum number of tasks that
+ * may be running (or queued with the {@link ExecutorService}) at any
+ * one time.  Further tasks are submitted only as earlier ones
+ * complete.</li>
+ *
+ * <li>A <em>failure threshold</em>: the number of failures after which
+ * all remaining tasks are {@linkplain Future#cancel(boolean)
+ * cancelled} (with interruption) and no further tasks are started.
+ * A threshold of {@link #FAIL_FAST} stops at the first failure;
+ * {@link #COLLECT_ALL} runs every task to completion; any value in
+ * between stops after that many failures.</li>
+ *
+ * </ul>
+ *
+ * <p>All bookkeeping is performed by the thread that calls {@link
+ * #invokeAll(Collection)}, so tasks themselves never contend on any
+ * lock to report their outcomes.</p>
+ *
+ * <p>This class is safe for use by multiple threads.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see #invokeAll(Collection)
+ *
+ * @see ThrowableChain
+ */
+public final class FailureCollectingExecutor {
+
+  /**
+   * A failure threshold indicating that remaining tasks should be
+   * cancelled as soon as one task fails.
+   */
+  public static final int FAIL_FAST = 1;
+
+  /**
+   * A failure threshold indicating that all tasks should be run
+   * regardless of how many fail.
+   */
+  public static final int COLLECT_ALL = Integer.MAX_VALUE;
+
+  /**
+   * The {@link ExecutorService} that will run tasks, or {@code null}
+   * if a {@linkplain #newDefaultExecutorService() new default
+   * <code>ExecutorService</code>} should be created (and shut down)
+   * for each invocation of {@link #invokeAll(Collection)}.
+   */
+  private final ExecutorService executorService;
+
+  /**
+   * The maximum number of tasks that may be outstanding at any one
+   * time; always greater than {@code 0}.
+   */
+  private final int parallelism;
+
+  /**
+   * The number of failures after which remaining tasks are
+   * cancelled; always greater than {@code 0}.
+   */
+  private final int failureThreshold;
+
+  /**
+   * Creates a new {@link FailureCollectingExecutor} that uses a
+   * {@linkplain #newDefaultExecutorService() default
+   * <code>ExecutorService</code>}, places no limit on parallelism and
+   * {@linkplain #COLLECT_ALL collects all failures}.
+   */
+  public FailureCollectingExecutor() {
+    this(null, Integer.MAX_VALUE, COLLECT_ALL);
+  }
+
+  /**
+   * Creates a new {@link FailureCollectingExecutor} that uses a
+   * {@linkplain #newDefaultExecutorService() default
+   * <code>ExecutorService</code>}.
+   *
+   * @param parallelism the maximum number of tasks that may be
+   * outstanding at any one time; must be greater than {@code 0}
+   *
+   * @param failureThreshold the number of failures after which
+   * remaining tasks will be cancelled; must be greater than {@code
+   * 0}; see {@link #FAIL_FAST} and {@link #COLLECT_ALL}
+   *
+   * @exception IllegalArgumentException if either {@code
+   * parallelism} or {@code failureThreshold} is less than {@code 1}
+   */
+  public FailureCollectingExecutor(final int parallelism, final int failureThreshold) {
+    this(null, parallelism, failureThreshold);
+  }
+
+  /**
+   * Creates a new {@link FailureCollectingExecutor}.
+   *
+   * @param executorService the {@link ExecutorService} that will run
+   * tasks; may be {@code null} in which case a {@linkplain
+   * #newDefaultExecutorService() new default
+   * <code>ExecutorService</code>} will be created (and shut down) for
+   * each invocation of the {@link #invokeAll(Collection)} method; if
+   * non-{@code null}, it will not be shut down by this {@link
+   * FailureCollectingExecutor}
+   *
+   * @param parallelism the maximum number of tasks that may be
+   * outstanding at any one time; must be greater than {@code 0}
+   *
+   * @param failureThreshold the number of failures after which
+   * remaining tasks will be cancelled; must be greater than {@code
+   * 0}; see {@link #FAIL_FAST} and {@link #COLLECT_ALL}
+   *
+   * @exception IllegalArgumentException if either {@code
+   * parallelism} or {@code failureThreshold} is less than {@code 1}
+   */
+  public FailureCollectingExecutor(final ExecutorService executorService, final int parallelism, final int failureThreshold) {
+    super();
+    if (parallelism < 1) {
+      throw new IllegalArgumentException(String.format("parallelism < 1: %d", parallelism));
+    }
+    if (failureThreshold < 1) {
+      throw new IllegalArgumentException(String.format("failureThreshold < 1: %d", failureThreshold));
+    }
+    this.executorService = executorService;
+    this.parallelism = parallelism;
+    this.failureThreshold = failureThreshold;
+  }
+
+  /**
+   * Runs all of the supplied tasks, subject to this {@link
+   * FailureCollectingExecutor}'s parallelism limit and failure
+   * threshold, and returns their results in iteration order.
+   *
+   * <p>If any task fails, a {@link ThrowableChain} is thrown instead.
+   * Its {@linkplain ThrowableChain#getCause() cause} is the failure of
+   * the earliest failed task in iteration order, and the failures of
+   * all other failed tasks follow as {@linkplain
+   * ThrowableChain#getAffiliatedThrowables() affiliates}, also in
+   * iteration order.  A failure reported by way of an {@link
+   * ExecutionException} is unwrapped.  Tasks that were cancelled or
+   * never started because the failure threshold was reached do not
+   * contribute failures.</p>
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param <T> the type of the tasks' results
+   *
+   * @param tasks the tasks to run; may be {@code null} or empty in
+   * which case an {@linkplain List#isEmpty() empty} {@link List} will
+   * be returned; must not contain {@code null} elements
+   *
+   * @return an {@linkplain Collections#unmodifiableList(List)
+   * unmodifiable} {@link List} of the tasks' results, in iteration
+   * order; never {@code null}
+   *
+   * @exception ThrowableChain if any task failed
+   *
+   * @exception InterruptedException if the calling thread was
+   * interrupted while waiting for tasks to complete; all outstanding
+   * tasks will have been cancelled
+   *
+   * @exception java.util.concurrent.RejectedExecutionException if the
+   * {@link ExecutorService} refused a task; all outstanding tasks
+   * will have been cancelled
+   *
+   * @exception NullPointerException if {@code tasks} contains a
+   * {@code null} element
+   */
+  public final <T> List<T> invokeAll(final Collection<? extends Callable<? extends T>> tasks) throws ThrowableChain, InterruptedException {
+    if (tasks == null || tasks.isEmpty()) {
+      return Collections.emptyList();
+    }
+    final ExecutorService executorService;
+    if (this.executorService == null) {
+      executorService = newDefaultExecutorService();
+    } else {
+      executorService = this.executorService;
+    }
+    try {
+      return this.invokeAll(executorService, tasks);
+    } finally {
+      if (executorService != this.executorService) {
+        executorService.shutdownNow();
+      }
+    }
+  }
+
+  /**
+   * Runs all of the supplied tasks using the supplied {@link
+   * ExecutorService}.
+   *
+   * @param <T> the type of the tasks' results
+   *
+   * @param executorService the {@link ExecutorService} to use; must
+   * not be {@code null}
+   *
+   * @param tasks the tasks to run; must not be {@code null} or empty
+   *
+   * @return an {@linkplain Collections#unmodifiableList(List)
+   * unmodifiable} {@link List} of the tasks' results, in iteration
+   * order; never {@code null}
+   *
+   * @exception ThrowableChain if any task failed
+   *
+   * @exception InterruptedException if the calling thread was
+   * interrupted
+   *
+   * @see #invokeAll(Collection)
+   */
+  private final <T> List<T> invokeAll(final ExecutorService executorService, final Collection<? extends Callable<? extends T>> tasks) throws ThrowableChain, InterruptedException {
+    assert executorService != null;
+    assert tasks != null;
+    final int size = tasks.size();
+    final List<T> results = new ArrayList<T>(Collections.<T>nCopies(size, null));
+    final Throwable[] failures = new Throwable[size];
+    int failureCount = 0;
+    int cancelledCount = 0;
+
+    final CompletionService<T> completionService = new ExecutorCompletionService<T>(executorService);
+    final Map<Future<T>, Integer> outstanding = new IdentityHashMap<Future<T>, Integer>();
+    final Iterator<? extends Callable<? extends T>> iterator = tasks.iterator();
+    int index = 0;
+    boolean normalCompletion = false;
+    try {
+      while (outstanding.size() < this.parallelism && iterator.hasNext()) {
+        outstanding.put(completionService.submit(adapt(iterator.next())), Integer.valueOf(index++));
+      }
+      while (!outstanding.isEmpty()) {
+        final Future<T> future = completionService.take();
+        final Integer i = outstanding.remove(future);
+        assert i != null;
+        try {
+          results.set(i.intValue(), future.get());
+        } catch (final CancellationException cancelled) {
+          cancelledCount++;
+        } catch (final ExecutionException executionException) {
+          final Throwable cause = executionException.getCause();
+          failures[i.intValue()] = cause == null ? executionException : cause;
+          if (++failureCount >= this.failureThreshold) {
+            // Cancelled Futures still show up in the completion
+            // service's queue, so the loop drains them normally.
+            for (final Future<T> f : outstanding.keySet()) {
+              f.cancel(true);
+            }
+          }
+        }
+        if (failureCount < this.failureThreshold && iterator.hasNext()) {
+          outstanding.put(completionService.submit(adapt(iterator.next())), Integer.valueOf(index++));
+        }
+      }
+      normalCompletion = true;
+    } finally {
+      if (!normalCompletion) {
+        for (final Future<T> f : outstanding.keySet()) {
+          f.cancel(true);
+        }
+      }
+    }
+
+    if (failureCount > 0) {
+      final ThrowableChain chain = ThrowableChain.formatted("%d of %d tasks failed; %d not started; %d cancelled", failureCount, size, size - index, cancelledCount);
+      for (final Throwable failure : failures) {
+        if (failure != null) {
+          chain.add(failure);
+        }
+      }
+      throw chain;
+    }
+    return Collections.unmodifiableList(results);
+  }
+
+  /**
+   * Returns a new {@link ExecutorService} that starts a new virtual
+   * thread for each task if the Java platform supports virtual
+   * threads, or that uses a cached pool of daemon threads if it does
+   * not.
+   *
+   * <p>The caller is responsible for {@linkplain
+   * ExecutorService#shutdown() shutting down} the returned {@link
+   * ExecutorService}.</p>
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a new {@link ExecutorService}; never {@code null}
+   */
+  public static final ExecutorService newDefaultExecutorService() {
+    ExecutorService returnValue = null;
+    try {
+      // Java 21 and later.
+      final Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      returnValue = (ExecutorService)m.invoke(null);
+    } catch (final NoSuchMethodException noVirtualThreads) {
+      returnValue = null;
+    } catch (final IllegalAccessException unavailable) {
+      returnValue = null;
+    } catch (final InvocationTargetException unavailable) {
+      // For example, virtual threads are a preview feature that has
+      // not been enabled.
+      returnValue = null;
+    }
+    if (returnValue == null) {
+      returnValue = Executors.newCachedThreadPool(new ThreadFactory() {
+          @Override
+          public final Thread newThread(final Runnable r) {
+            final Thread t = new Thread(r, FailureCollectingExecutor.class.getSimpleName());
+            t.setDaemon(true);
+            return t;
+          }
+        });
+    }
+    return returnValue;
+  }
+
+  /**
+   * Adapts a {@link Callable} returning a subtype of {@code T} to one
+   * returning {@code T}.
+   *
+   * @param <T> the result type
+   *
+   * @param task the {@link Callable} to adapt; must not be {@code
+   * null}
+   *
+   * @return a {@link Callable}; never {@code null}
+   *
+   * @exception NullPointerException if {@code task} is {@code null}
+   */
+  private static final <T> Callable<T> adapt(final Callable<? extends T> task) {
+    if (task == null) {
+      throw new NullPointerException("task");
+    }
+    return new Callable<T>() {
+      @Override
+      public final T call() throws Exception {
+        return task.call();
+      }
+    };
+  }
+
+}
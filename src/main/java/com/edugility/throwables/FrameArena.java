@@ -0,0 +1,427 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.throwables;
+
+import java.nio.ByteBuffer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An off-heap store of {@link StackTraceElement}s, intended for
+ * {@link Throwable}s that are retained for a long time.
+ *
+ * <p>{@linkplain #store(StackTraceElement[]) Storing} an array of
+ * {@link StackTraceElement}s encodes each one as a fixed-size record
+ * of {@code int}s in a {@linkplain ByteBuffer#allocateDirect(int)
+ * direct <code>ByteBuffer</code>} and returns a {@code long} handle.
+ * The strings the records refer to&mdash;class, method, file and
+ * module names&mdash;are kept once each in a dictionary, so the
+ * heap holds only the handle and one copy of each distinct name.
+ * {@linkplain #load(long) Loading} a handle decodes new {@link
+ * StackTraceElement}s that print identically to the originals; the
+ * names of the JDK's built-in class loaders and the versions of JDK
+ * modules, which are never printed, are not retained.</p>
+ *
+ * <p>Storage is allocated in chunks and is never reused.  {@linkplain
+ * #close() Closing} a {@link FrameArena} invalidates every handle it
+ * issued and drops its references to its buffers, but does not free
+ * them: there is no supported way to free a direct {@link ByteBuffer}
+ * explicitly, so the off-heap memory is returned to the operating
+ * system only once the garbage collector has collected the buffers,
+ * subject, like any direct memory, to the JVM's {@code
+ * -XX:MaxDirectMemorySize} limit in the meantime.  Applications that
+ * create and close many arenas should size that limit
+ * accordingly.</p>
+ *
+ * <p>Instances of this class are safe for use by multiple
+ * threads.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see ThrowableChain#setFrameArena(FrameArena)
+ */
+public final class FrameArena implements AutoCloseable {
+
+  /**
+   * The default size, in bytes, of each chunk of off-heap storage.
+   */
+  public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+
+  /**
+   * The number of bytes occupied by an encoded {@link
+   * StackTraceElement}: six string identifiers and a line number.
+   */
+  private static final int FRAME_SIZE = 7 * 4;
+
+  /**
+   * A zero-length {@link StackTraceElement} array.
+   */
+  private static final StackTraceElement[] EMPTY = new StackTraceElement[0];
+
+  /**
+   * The size, in bytes, of each chunk of off-heap storage.
+   */
+  private final int chunkSize;
+
+  /**
+   * The chunks of off-heap storage, in allocation order, or {@code
+   * null} if this {@link FrameArena} has been {@linkplain #close()
+   * closed}.
+   *
+   * <p>This field is guarded by {@code this}.</p>
+   */
+  private List<ByteBuffer> chunks;
+
+  /**
+   * The string identifiers, indexed by string.
+   *
+   * <p>This field is guarded by {@code this}.</p>
+   */
+  private Map<String, Integer> stringIds;
+
+  /**
+   * The strings, indexed by identifier.
+   *
+   * <p>This field is guarded by {@code this}.</p>
+   */
+  private String[] strings;
+
+  /**
+   * The number of bytes of off-heap storage allocated.
+   *
+   * <p>This field is guarded by {@code this}.</p>
+   */
+  private long capacity;
+
+  /**
+   * The number of bytes of off-heap storage in use.
+   *
+   * <p>This field is guarded by {@code this}.</p>
+   */
+  private long byteCount;
+
+  /**
+   * Creates a new {@link FrameArena} that allocates storage in chunks
+   * of {@link #DEFAULT_CHUNK_SIZE} bytes.
+   */
+  public FrameArena() {
+    this(DEFAULT_CHUNK_SIZE);
+  }
+
+  /**
+   * Creates a new {@link FrameArena}.
+   *
+   * @param chunkSize the size, in bytes, of each chunk of off-heap
+   * storage; must be at least large enough to hold one {@link
+   * StackTraceElement}
+   *
+   * @exception IllegalArgumentException if {@code chunkSize} is too
+   * small
+   */
+  public FrameArena(final int chunkSize) {
+    super();
+    if (chunkSize < 4 + FRAME_SIZE) {
+      throw new IllegalArgumentException(String.format("chunkSize < %d: %d", 4 + FRAME_SIZE, chunkSize));
+    }
+    this.chunkSize = chunkSize;
+    this.chunks = new ArrayList<ByteBuffer>();
+    this.stringIds = new HashMap<String, Integer>();
+    this.strings = new String[64];
+  }
+
+  /**
+   * Encodes the supplied {@link StackTraceElement}s into this {@link
+   * FrameArena} and returns a handle that can be used to {@linkplain
+   * #load(long) load} them again.
+   *
+   * @param frames the {@link StackTraceElement}s; must not be {@code
+   * null} and must not contain {@code null} elements
+   *
+   * @return a handle
+   *
+   * @exception IllegalArgumentException if {@code frames} is {@code
+   * null}
+   *
+   * @exception IllegalStateException if this {@link FrameArena} has
+   * been {@linkplain #close() closed}
+   */
+  public final synchronized long store(final StackTraceElement[] frames) {
+    if (frames == null) {
+      throw new IllegalArgumentException("frames", new NullPointerException("frames"));
+    }
+    this.ensureOpen();
+    final int length = 4 + frames.length * FRAME_SIZE;
+    ByteBuffer chunk = this.chunks.isEmpty() ? null : this.chunks.get(this.chunks.size() - 1);
+    if (chunk == null || chunk.remaining() < length) {
+      // Oversized traces get a chunk of their own.
+      chunk = ByteBuffer.allocateDirect(Math.max(this.chunkSize, length));
+      this.chunks.add(chunk);
+      this.capacity += chunk.capacity();
+    }
+    final long returnValue = ((long)(this.chunks.size() - 1) << 32) | chunk.position();
+    chunk.putInt(frames.length);
+    for (final StackTraceElement frame : frames) {
+      final String moduleName = frame.getModuleName();
+      chunk.putInt(this.stringId(isBuiltInClassLoaderName(frame.getClassLoaderName()) ? null : frame.getClassLoaderName()));
+      chunk.putInt(this.stringId(moduleName));
+      chunk.putInt(this.stringId(isJdkModuleName(moduleName) ? null : frame.getModuleVersion()));
+      chunk.putInt(this.stringId(frame.getClassName()));
+      chunk.putInt(this.stringId(frame.getMethodName()));
+      chunk.putInt(this.stringId(frame.getFileName()));
+      chunk.putInt(frame.getLineNumber());
+    }
+    this.byteCount += length;
+    return returnValue;
+  }
+
+  /**
+   * Decodes and returns the {@link StackTraceElement}s stored under
+   * the supplied handle.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param handle a handle returned by {@link
+   * #store(StackTraceElement[])}
+   *
+   * @return a new array of {@link StackTraceElement}s; never {@code
+   * null}
+   *
+   * @exception IllegalArgumentException if {@code handle} was not
+   * issued by this {@link FrameArena}
+   *
+   * @exception IllegalStateException if this {@link FrameArena} has
+   * been {@linkplain #close() closed}
+   */
+  public final synchronized StackTraceElement[] load(final long handle) {
+    this.ensureOpen();
+    final ByteBuffer chunk = this.chunk(handle);
+    int position = (int)handle;
+    final int count = chunk.getInt(position);
+    if (count == 0) {
+      return EMPTY;
+    }
+    position += 4;
+    final StackTraceElement[] returnValue = new StackTraceElement[count];
+    for (int i = 0; i < count; i++) {
+      returnValue[i] = new StackTraceElement(this.strings[chunk.getInt(position)],
+                                             this.strings[chunk.getInt(position + 4)],
+                                             this.strings[chunk.getInt(position + 8)],
+                                             this.strings[chunk.getInt(position + 12)],
+                                             this.strings[chunk.getInt(position + 16)],
+                                             this.strings[chunk.getInt(position + 20)],
+                                             chunk.getInt(position + 24));
+      position += FRAME_SIZE;
+    }
+    return returnValue;
+  }
+
+  /**
+   * Returns the number of {@link StackTraceElement}s stored under the
+   * supplied handle, without decoding them.
+   *
+   * @param handle a handle returned by {@link
+   * #store(StackTraceElement[])}
+   *
+   * @return the number of {@link StackTraceElement}s; never less
+   * than {@code 0}
+   *
+   * @exception IllegalArgumentException if {@code handle} was not
+   * issued by this {@link FrameArena}
+   *
+   * @exception IllegalStateException if this {@link FrameArena} has
+   * been {@linkplain #close() closed}
+   */
+  public final synchronized int getFrameCount(final long handle) {
+    this.ensureOpen();
+    return this.chunk(handle).getInt((int)handle);
+  }
+
+  /**
+   * Returns the number of bytes of off-heap storage this {@link
+   * FrameArena} has allocated.
+   *
+   * @return the number of bytes allocated; never less than {@code
+   * 0}; {@code 0} once this {@link FrameArena} has been {@linkplain
+   * #close() closed}
+   */
+  public final synchronized long getCapacity() {
+    return this.capacity;
+  }
+
+  /**
+   * Returns the number of bytes of off-heap storage this {@link
+   * FrameArena} has filled with encoded {@link StackTraceElement}s.
+   *
+   * @return the number of bytes in use; never less than {@code 0};
+   * {@code 0} once this {@link FrameArena} has been {@linkplain
+   * #close() closed}
+   */
+  public final synchronized long getByteCount() {
+    return this.byteCount;
+  }
+
+  /**
+   * Returns the number of distinct strings in this {@link
+   * FrameArena}'s on-heap dictionary.
+   *
+   * @return the number of distinct strings; never less than {@code
+   * 0}
+   */
+  public final synchronized int getStringCount() {
+    return this.stringIds == null ? 0 : this.stringIds.size();
+  }
+
+  /**
+   * Returns {@code true} if this {@link FrameArena} has been
+   * {@linkplain #close() closed}.
+   *
+   * @return {@code true} if this {@link FrameArena} has been closed
+   */
+  public final synchronized boolean isClosed() {
+    return this.chunks == null;
+  }
+
+  /**
+   * Closes this {@link FrameArena}, invalidating every handle it has
+   * issued and dropping its references to its storage and its
+   * dictionary.  Calling this method more than once has no further
+   * effect.
+   *
+   * <p>This method does not free the off-heap storage itself; that
+   * happens when the garbage collector collects the underlying direct
+   * {@link ByteBuffer}s, which, once this method returns, nothing in
+   * this {@link FrameArena} refers to.</p>
+   */
+  @Override
+  public final synchronized void close() {
+    this.chunks = null;
+    this.stringIds = null;
+    this.strings = null;
+    this.capacity = 0L;
+    this.byteCount = 0L;
+  }
+
+  /**
+   * Throws an {@link IllegalStateException} if this {@link
+   * FrameArena} has been {@linkplain #close() closed}.
+   *
+   * @exception IllegalStateException if this {@link FrameArena} has
+   * been closed
+   */
+  private final void ensureOpen() {
+    assert Thread.holdsLock(this);
+    if (this.chunks == null) {
+      throw new IllegalStateException("closed");
+    }
+  }
+
+  /**
+   * Returns the chunk addressed by the supplied handle.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param handle the handle
+   *
+   * @return a non-{@code null} {@link ByteBuffer}
+   *
+   * @exception IllegalArgumentException if {@code handle} was not
+   * issued by this {@link FrameArena}
+   */
+  private final ByteBuffer chunk(final long handle) {
+    assert Thread.holdsLock(this);
+    final int index = (int)(handle >>> 32);
+    final int position = (int)handle;
+    if (index < 0 || index >= this.chunks.size() || position < 0 || position + 4 > this.chunks.get(index).position()) {
+      throw new IllegalArgumentException(String.format("Invalid handle: %x", handle));
+    }
+    return this.chunks.get(index);
+  }
+
+  /**
+   * Returns {@code true} if the supplied class loader name is that of
+   * one of the JDK's built-in class loaders, which {@link
+   * StackTraceElement#toString()} omits.  A {@link StackTraceElement}
+   * created by its public constructor cannot know this, so such names
+   * are not stored, keeping decoded frames printing exactly as their
+   * originals did.
+   *
+   * @param classLoaderName the class loader name; may be {@code null}
+   *
+   * @return {@code true} if the name should not be stored
+   */
+  private static final boolean isBuiltInClassLoaderName(final String classLoaderName) {
+    return "app".equals(classLoaderName) || "platform".equals(classLoaderName);
+  }
+
+  /**
+   * Returns {@code true} if the supplied module name is that of a JDK
+   * module, whose version {@link StackTraceElement#toString()}
+   * omits.
+   *
+   * @param moduleName the module name; may be {@code null}
+   *
+   * @return {@code true} if the module's version should not be stored
+   */
+  private static final boolean isJdkModuleName(final String moduleName) {
+    return moduleName != null && (moduleName.startsWith("java.") || moduleName.startsWith("jdk."));
+  }
+
+  /**
+   * Returns the dictionary identifier of the supplied string,
+   * assigning one if necessary.  The identifier of {@code null} is
+   * always {@code 0}.
+   *
+   * @param s the string; may be {@code null}
+   *
+   * @return the identifier; never less than {@code 0}
+   */
+  private final int stringId(final String s) {
+    assert Thread.holdsLock(this);
+    if (s == null) {
+      return 0;
+    }
+    Integer id = this.stringIds.get(s);
+    if (id == null) {
+      // Identifier 0 is reserved for null.
+      final int next = this.stringIds.size() + 1;
+      if (next == this.strings.length) {
+        this.strings = Arrays.copyOf(this.strings, next * 2);
+      }
+      this.strings[next] = s;
+      id = Integer.valueOf(next);
+      this.stringIds.put(s, id);
+    }
+    return id.intValue();
+  }
+
+}
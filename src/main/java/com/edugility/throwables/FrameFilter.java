@@ -0,0 +1,410 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.throwables;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import java.util.regex.Pattern;
+
+/**
+ * A rule for removing uninteresting {@linkplain
+ * Throwable#getStackTrace() stack frames}&mdash;reflection, proxies,
+ * container and framework plumbing&mdash;from {@link Throwable}s.
+ *
+ * <p>A frame is <em>filtered</em> if its {@linkplain
+ * StackTraceElement#getClassName() class name} lies in one of a set
+ * of packages (a package prefix of {@code "sun.reflect"} filters
+ * {@code sun.reflect.GeneratedMethodAccessor1} and classes in {@code
+ * sun.reflect}'s subpackages, but not {@code sun.reflectx.Foo}) or
+ * matches a regular expression.  Package prefixes are held in a trie
+ * of name segments, and the decision for each class name is cached,
+ * so filtering a frame usually costs a single hash lookup.</p>
+ *
+ * <p>{@linkplain #filter(StackTraceElement[]) Filtering} a stack
+ * trace replaces each run of consecutive filtered frames with a
+ * single marker frame whose {@linkplain
+ * StackTraceElement#getClassName() class name} is {@link
+ * #MARKER_CLASS_NAME} and whose {@linkplain
+ * StackTraceElement#getMethodName() method name} records how many
+ * frames were removed.  If a maximum depth was specified, frames
+ * beyond it are replaced by one more marker frame.</p>
+ *
+ * <p>Instances of this class are immutable and safe for use by
+ * multiple threads.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see #apply(Throwable)
+ *
+ * @see ThrowableChain#setFrameFilter(FrameFilter)
+ */
+public final class FrameFilter {
+
+  /**
+   * The {@linkplain StackTraceElement#getClassName() class name} of
+   * the marker frames that replace filtered or trimmed frames.
+   */
+  public static final String MARKER_CLASS_NAME = "...";
+
+  /**
+   * The maximum number of class name decisions cached; beyond this,
+   * decisions are computed afresh each time.
+   */
+  private static final int MAXIMUM_CACHED_DECISIONS = 1 << 16;
+
+  /**
+   * The root of the trie of filtered package name segments.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final Node packages;
+
+  /**
+   * The {@link Pattern} that filtered class names match, or {@code
+   * null}.
+   */
+  private final Pattern classNamePattern;
+
+  /**
+   * The maximum number of frames, including marker frames, retained
+   * for any one {@link Throwable}, or {@code 0} if there is no
+   * maximum.
+   */
+  private final int maximumDepth;
+
+  /**
+   * The cached decisions, indexed by class name.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final ConcurrentMap<String, Boolean> decisions;
+
+  /**
+   * Creates a new {@link FrameFilter} that filters frames whose
+   * classes lie in the supplied packages.
+   *
+   * @param packagePrefixes the package prefixes; may be {@code null}
+   *
+   * @exception IllegalArgumentException if {@code packagePrefixes}
+   * contains an empty or {@code null} element
+   */
+  public FrameFilter(final Collection<? extends String> packagePrefixes) {
+    this(packagePrefixes, null, 0);
+  }
+
+  /**
+   * Creates a new {@link FrameFilter}.
+   *
+   * @param packagePrefixes the package prefixes of classes whose
+   * frames will be filtered; may be {@code null}
+   *
+   * @param classNamePattern a {@link Pattern} that {@linkplain
+   * java.util.regex.Matcher#matches() matches} the names of
+   * additional classes whose frames will be filtered; may be {@code
+   * null}
+   *
+   * @param maximumDepth the maximum number of frames, including
+   * marker frames, retained for any one {@link Throwable}; {@code 0}
+   * means there is no maximum; otherwise must be greater than {@code
+   * 1}, so that at least one real frame survives
+   *
+   * @exception IllegalArgumentException if {@code packagePrefixes}
+   * contains an empty or {@code null} element, or if {@code
+   * maximumDepth} is negative or {@code 1}
+   */
+  public FrameFilter(final Collection<? extends String> packagePrefixes, final Pattern classNamePattern, final int maximumDepth) {
+    super();
+    if (maximumDepth < 0 || maximumDepth == 1) {
+      throw new IllegalArgumentException(String.format("Invalid maximumDepth: %d", maximumDepth));
+    }
+    this.packages = new Node();
+    if (packagePrefixes != null) {
+      for (final String packagePrefix : packagePrefixes) {
+        if (packagePrefix == null || packagePrefix.isEmpty()) {
+          throw new IllegalArgumentException(String.format("Invalid package prefix: %s", packagePrefix));
+        }
+        Node node = this.packages;
+        for (final String segment : packagePrefix.split("\\.")) {
+          node = node.child(segment);
+        }
+        node.terminal = true;
+      }
+    }
+    this.classNamePattern = classNamePattern;
+    this.maximumDepth = maximumDepth;
+    this.decisions = new ConcurrentHashMap<String, Boolean>();
+  }
+
+  /**
+   * Returns the maximum number of frames, including marker frames,
+   * retained for any one {@link Throwable}, or {@code 0} if there is
+   * no maximum.
+   *
+   * @return the maximum depth, or {@code 0}
+   */
+  public final int getMaximumDepth() {
+    return this.maximumDepth;
+  }
+
+  /**
+   * Returns {@code true} if frames belonging to the class with the
+   * supplied name are filtered.
+   *
+   * @param className the class name; may be {@code null} in which
+   * case {@code false} will be returned
+   *
+   * @return {@code true} if frames of the class are filtered
+   */
+  public final boolean isFiltered(final String className) {
+    if (className == null) {
+      return false;
+    }
+    Boolean decision = this.decisions.get(className);
+    if (decision == null) {
+      decision = Boolean.valueOf(this.decide(className));
+      if (this.decisions.size() < MAXIMUM_CACHED_DECISIONS) {
+        this.decisions.putIfAbsent(className, decision);
+      }
+    }
+    return decision.booleanValue();
+  }
+
+  /**
+   * Returns a filtered copy of the supplied stack trace, or the
+   * supplied stack trace itself if nothing in it is filtered or
+   * trimmed.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param frames the stack trace; must not be {@code null}
+   *
+   * @return a non-{@code null} array of {@link StackTraceElement}s
+   *
+   * @exception IllegalArgumentException if {@code frames} is {@code
+   * null}
+   */
+  public final StackTraceElement[] filter(final StackTraceElement[] frames) {
+    if (frames == null) {
+      throw new IllegalArgumentException("frames", new NullPointerException("frames"));
+    }
+    List<StackTraceElement> kept = null;
+    int run = 0;
+    for (int i = 0; i < frames.length; i++) {
+      final StackTraceElement frame = frames[i];
+      if (frame != null && !MARKER_CLASS_NAME.equals(frame.getClassName()) && this.isFiltered(frame.getClassName())) {
+        if (kept == null) {
+          kept = new ArrayList<StackTraceElement>(frames.length);
+          for (int j = 0; j < i; j++) {
+            kept.add(frames[j]);
+          }
+        }
+        run++;
+      } else {
+        if (run > 0) {
+          kept.add(marker(run, "filtered"));
+          run = 0;
+        }
+        if (kept != null) {
+          kept.add(frame);
+        }
+      }
+    }
+    if (run > 0) {
+      kept.add(marker(run, "filtered"));
+    }
+    final int maximumDepth = this.maximumDepth;
+    final int size = kept == null ? frames.length : kept.size();
+    if (maximumDepth > 0 && size > maximumDepth) {
+      if (kept == null) {
+        kept = new ArrayList<StackTraceElement>(frames.length);
+        Collections.addAll(kept, frames);
+      }
+      final int trimmed = size - (maximumDepth - 1);
+      kept.subList(maximumDepth - 1, size).clear();
+      kept.add(marker(trimmed, "trimmed"));
+    }
+    return kept == null ? frames : kept.toArray(new StackTraceElement[kept.size()]);
+  }
+
+  /**
+   * {@linkplain #filter(StackTraceElement[]) Filters} the {@linkplain
+   * Throwable#setStackTrace(StackTraceElement[]) stack trace} of the
+   * supplied {@link Throwable} and of every {@link Throwable} in its
+   * {@linkplain Throwable#getCause() causal chain} and among their
+   * {@linkplain Throwable#getSuppressed() suppressed
+   * <code>Throwable</code>s}, in place.
+   *
+   * @param t the {@link Throwable}; may be {@code null} in which case
+   * no action is taken
+   *
+   * @see Throwables#filterStackTraces(Throwable, FrameFilter)
+   */
+  public final void apply(final Throwable t) {
+    if (t != null) {
+      this.apply(t, new IdentityHashMap<Throwable, Throwable>());
+    }
+  }
+
+  /**
+   * Filters the stack trace of the supplied {@link Throwable}, its
+   * cause and its suppressed {@link Throwable}s, skipping any that
+   * have already been visited.
+   *
+   * @param t the {@link Throwable}; may be {@code null}
+   *
+   * @param visited the {@link Throwable}s already visited; must not
+   * be {@code null}
+   */
+  private final void apply(Throwable t, final Map<Throwable, Throwable> visited) {
+    while (t != null && visited.put(t, t) == null) {
+      final StackTraceElement[] frames = t.getStackTrace();
+      final StackTraceElement[] filtered = this.filter(frames);
+      if (filtered != frames) {
+        t.setStackTrace(filtered);
+      }
+      for (final Throwable suppressed : t.getSuppressed()) {
+        this.apply(suppressed, visited);
+      }
+      t = t.getCause();
+    }
+  }
+
+  /**
+   * Decides whether frames of the class with the supplied name are
+   * filtered, without consulting the cache.
+   *
+   * @param className the class name; must not be {@code null}
+   *
+   * @return {@code true} if frames of the class are filtered
+   */
+  private final boolean decide(final String className) {
+    assert className != null;
+    Node node = this.packages;
+    int start = 0;
+    int dot;
+    // Only package segments (everything before the last dot) are
+    // consulted, so a prefix never matches part of a class name.
+    while (!node.terminal && (dot = className.indexOf('.', start)) >= 0) {
+      node = node.children == null ? null : node.children.get(className.substring(start, dot));
+      if (node == null) {
+        break;
+      }
+      start = dot + 1;
+    }
+    if (node != null && node.terminal) {
+      return true;
+    }
+    return this.classNamePattern != null && this.classNamePattern.matcher(className).matches();
+  }
+
+  /**
+   * Returns a new marker frame standing for the supplied number of
+   * removed frames.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param count the number of frames removed
+   *
+   * @param verb how they were removed
+   *
+   * @return a new {@link StackTraceElement}; never {@code null}
+   */
+  private static final StackTraceElement marker(final int count, final String verb) {
+    return new StackTraceElement(MARKER_CLASS_NAME, String.format("%d frames %s", count, verb), null, -1);
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * A node in a trie of package name segments.
+   *
+   * <p>Instances of this class are mutated only during construction
+   * of a {@link FrameFilter}.</p>
+   *
+   * @author <a href="http://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class Node {
+
+    /**
+     * Whether the path to this {@link Node} is a filtered package.
+     */
+    private boolean terminal;
+
+    /**
+     * The children of this {@link Node}, indexed by segment; may be
+     * {@code null}.
+     */
+    private Map<String, Node> children;
+
+    /**
+     * Creates a new {@link Node}.
+     */
+    private Node() {
+      super();
+    }
+
+    /**
+     * Returns the child of this {@link Node} for the supplied
+     * segment, creating it if necessary.
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * @param segment the segment; must not be {@code null}
+     *
+     * @return a non-{@code null} {@link Node}
+     */
+    private final Node child(final String segment) {
+      if (this.children == null) {
+        this.children = new HashMap<String, Node>();
+      }
+      Node child = this.children.get(segment);
+      if (child == null) {
+        child = new Node();
+        this.children.put(segment, child);
+      }
+      return child;
+    }
+
+  }
+
+}
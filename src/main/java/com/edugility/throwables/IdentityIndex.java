@@ -0,0 +1,191 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.throwables;
+
+import java.util.Arrays;
+
+import java.util.function.IntPredicate;
+
+/**
+ * A multimap from the {@linkplain System#identityHashCode(Object)
+ * identity hash codes} of objects to the positions, or slots, at which
+ * their owner records them, that holds no reference to the objects
+ * themselves.
+ *
+ * <p>An {@link IdentityIndex} lets an owner that holds its elements
+ * only by {@linkplain java.lang.ref.Reference reference}, or not at
+ * all, find the slot of an element by identity without keeping the
+ * element reachable.  Because identity hash codes are not unique, and
+ * because an owner may index more than one object for a slot, {@link
+ * #find(Object, IntPredicate)} asks the owner to confirm each
+ * candidate slot.  Entries are never removed; an owner whose slots
+ * move or disappear creates a new {@link IdentityIndex}.</p>
+ *
+ * <p>Instances of this class are <strong>not</strong> safe for use by
+ * multiple threads; each is guarded by its owner.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see RetainedAffiliates
+ *
+ * @see SpilledAffiliates
+ */
+final class IdentityIndex {
+
+  /**
+   * For each bucket, one more than the position of the most recently
+   * added entry in that bucket, or {@code 0} if the bucket is empty.
+   * Its length is always a power of two.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private int[] buckets;
+
+  /**
+   * The identity hash code of each entry.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private int[] hashes;
+
+  /**
+   * The slot of each entry.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private int[] slots;
+
+  /**
+   * For each entry, one more than the position of the previous entry
+   * in the same bucket, or {@code 0} if it is the first.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private int[] next;
+
+  /**
+   * The number of entries.
+   */
+  private int size;
+
+  /**
+   * Creates a new, empty {@link IdentityIndex}.
+   */
+  IdentityIndex() {
+    super();
+    this.buckets = new int[16];
+    this.hashes = new int[16];
+    this.slots = new int[16];
+    this.next = new int[16];
+  }
+
+  /**
+   * Returns the number of entries in this {@link IdentityIndex},
+   * including any that no longer correspond to their slots.
+   *
+   * @return the number of entries; never less than {@code 0}
+   */
+  final int size() {
+    return this.size;
+  }
+
+  /**
+   * Records that the supplied {@link Object} may be found at the
+   * supplied slot.
+   *
+   * @param o the {@link Object}; must not be {@code null}
+   *
+   * @param slot the slot; must not be less than {@code 0}
+   */
+  final void add(final Object o, final int slot) {
+    assert o != null;
+    assert slot >= 0;
+    final int size = this.size;
+    if (size == this.hashes.length) {
+      this.hashes = Arrays.copyOf(this.hashes, size * 2);
+      this.slots = Arrays.copyOf(this.slots, size * 2);
+      this.next = Arrays.copyOf(this.next, size * 2);
+      this.rehash(this.buckets.length * 2);
+    }
+    final int hash = System.identityHashCode(o);
+    final int bucket = hash & (this.buckets.length - 1);
+    this.hashes[size] = hash;
+    this.slots[size] = slot;
+    this.next[size] = this.buckets[bucket];
+    this.buckets[bucket] = size + 1;
+    this.size = size + 1;
+  }
+
+  /**
+   * Returns the most recently recorded slot at which the supplied
+   * {@link Object} may be found and that the supplied {@link
+   * IntPredicate} confirms actually holds it, or {@code -1} if there
+   * is none.
+   *
+   * @param o the {@link Object}; may be {@code null} in which case
+   * {@code -1} is returned
+   *
+   * @param holds an {@link IntPredicate} that returns {@code true} if
+   * the slot it is given holds {@code o}; must not be {@code null}
+   *
+   * @return a slot, or {@code -1}
+   */
+  final int find(final Object o, final IntPredicate holds) {
+    assert holds != null;
+    if (o != null) {
+      final int hash = System.identityHashCode(o);
+      for (int entry = this.buckets[hash & (this.buckets.length - 1)]; entry != 0; entry = this.next[entry - 1]) {
+        if (this.hashes[entry - 1] == hash) {
+          final int slot = this.slots[entry - 1];
+          if (holds.test(slot)) {
+            return slot;
+          }
+        }
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Redistributes every entry among the supplied number of buckets.
+   *
+   * @param bucketCount the number of buckets; must be a power of two
+   */
+  private final void rehash(final int bucketCount) {
+    assert Integer.bitCount(bucketCount) == 1;
+    final int[] buckets = new int[bucketCount];
+    for (int entry = 0; entry < this.size; entry++) {
+      final int bucket = this.hashes[entry] & (bucketCount - 1);
+      this.next[entry] = buckets[bucket];
+      buckets[bucket] = entry + 1;
+    }
+    this.buckets = buckets;
+  }
+
+}
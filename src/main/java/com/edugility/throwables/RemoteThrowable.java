@@ -0,0 +1,925 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.throwables;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+
+import java.nio.charset.StandardCharsets;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * A stand-in for a {@link Throwable}, typically received from another
+ * node, that records the original's class name, message, stack
+ * frames, {@linkplain Throwable#getCause() cause}, {@linkplain
+ * Throwable#getSuppressed() suppressed <code>Throwable</code>s} and
+ * {@linkplain ThrowableChain affiliates} without requiring its class
+ * to be loadable.
+ *
+ * <p>A {@link Throwable} is {@linkplain #encode(Throwable) encoded}
+ * into a compact binary record on the sending side and {@linkplain
+ * #decode(byte[], int) decoded} on the receiving side into a {@link
+ * RemoteThrowable} that is merely a view over the received bytes:
+ * each piece of information is decoded only when it is first asked
+ * for.  A {@link RemoteThrowable} behaves like an ordinary {@link
+ * Throwable} with respect to {@link #getCause()}, {@link
+ * #getStackTrace()}, {@link #getMessage()}, {@link #toString()} and
+ * the {@code printStackTrace} methods, so it works with {@link
+ * Throwables#toList(Throwable)}, {@link
+ * Throwables#getRootCause(Throwable)}, {@link ThrowableChain} and so
+ * on.  Like a {@link ThrowableChain}, it is {@link Iterable}: it
+ * iterates over itself followed by the original's affiliates, if
+ * any.</p>
+ *
+ * <p>Several records may be concatenated into a single batch and
+ * {@linkplain #decodeAll(byte[]) streamed} over without decoding
+ * anything but their lengths.</p>
+ *
+ * <p>Instances of this class are safe for use by multiple
+ * threads.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see #encode(Throwable)
+ *
+ * @see #decode(byte[], int)
+ */
+public final class RemoteThrowable extends Exception implements Iterable<Throwable> {
+
+  /**
+   * The version of this class for {@linkplain java.io.Serializable
+   * serialization purposes}.
+   */
+  private static final long serialVersionUID = 1L;
+
+  /*
+   * The record format.  All integers are big-endian.  A record
+   * begins with a fixed-size header:
+   *
+   *   int totalLength      (of the whole record, header included)
+   *   int messageOffset    (relative to the record; 0 if null)
+   *   int framesOffset
+   *   int causeOffset      (0 if there is no cause)
+   *   int suppressedOffset (0 if there are none)
+   *   int affiliatesOffset (0 if there are none)
+   *   string className
+   *
+   * A string is an int byte length (-1 for null) followed by that
+   * many bytes of UTF-8.  The frames section is an int count followed
+   * by, for each frame, the strings classLoaderName, moduleName,
+   * moduleVersion, className, methodName and fileName and the int
+   * lineNumber.  The cause section is a nested record.  The
+   * suppressed and affiliates sections are an int count followed by
+   * that many nested records.
+   */
+
+  /**
+   * The offset of the {@code totalLength} header field.
+   */
+  private static final int TOTAL_LENGTH = 0;
+
+  /**
+   * The offset of the {@code messageOffset} header field.
+   */
+  private static final int MESSAGE_OFFSET = 4;
+
+  /**
+   * The offset of the {@code framesOffset} header field.
+   */
+  private static final int FRAMES_OFFSET = 8;
+
+  /**
+   * The offset of the {@code causeOffset} header field.
+   */
+  private static final int CAUSE_OFFSET = 12;
+
+  /**
+   * The offset of the {@code suppressedOffset} header field.
+   */
+  private static final int SUPPRESSED_OFFSET = 16;
+
+  /**
+   * The offset of the {@code affiliatesOffset} header field.
+   */
+  private static final int AFFILIATES_OFFSET = 20;
+
+  /**
+   * The offset of the class name.
+   */
+  private static final int CLASS_NAME = 24;
+
+  /**
+   * The bytes containing this {@link RemoteThrowable}'s record.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final byte[] bytes;
+
+  /**
+   * The offset within {@link #bytes} of this {@link
+   * RemoteThrowable}'s record.
+   */
+  private final int offset;
+
+  /**
+   * The decoded class name, or {@code null} if it has not yet been
+   * decoded.
+   */
+  private transient volatile String className;
+
+  /**
+   * The decoded message, or {@code null} if it has not yet been
+   * decoded.
+   */
+  private transient volatile String message;
+
+  /**
+   * The decoded cause, or {@code null} if it has not yet been
+   * decoded or there is none.
+   */
+  private transient volatile RemoteThrowable cause;
+
+  /**
+   * Whether the stack trace has been decoded and {@linkplain
+   * #setStackTrace(StackTraceElement[]) installed}.
+   *
+   * <p>This field is guarded by {@code this}.</p>
+   */
+  private transient boolean stackTraceDecoded;
+
+  /**
+   * Creates a new {@link RemoteThrowable} over the record at the
+   * supplied offset.
+   *
+   * @param bytes the bytes; must not be {@code null}
+   *
+   * @param offset the offset of the record
+   */
+  private RemoteThrowable(final byte[] bytes, final int offset) {
+    super(null, null, true, true);
+    assert bytes != null;
+    this.bytes = bytes;
+    this.offset = offset;
+    // Suppressed Throwables cannot be supplied lazily, because
+    // getSuppressed() is final, but creating their views costs
+    // nothing more than reading their offsets.
+    final int suppressedOffset = this.readInt(SUPPRESSED_OFFSET);
+    if (suppressedOffset != 0) {
+      int position = offset + suppressedOffset;
+      final int count = readInt(bytes, position);
+      position += 4;
+      for (int i = 0; i < count; i++) {
+        this.addSuppressed(new RemoteThrowable(bytes, position));
+        position += readInt(bytes, position + TOTAL_LENGTH);
+      }
+    }
+  }
+
+  /**
+   * Does nothing, since a {@link RemoteThrowable}'s stack trace is
+   * that of the {@link Throwable} it represents.
+   *
+   * @return this {@link RemoteThrowable}
+   */
+  @Override
+  public final synchronized Throwable fillInStackTrace() {
+    return this;
+  }
+
+  /**
+   * Returns the name of the class of the {@link Throwable} this
+   * {@link RemoteThrowable} represents.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return the remote class name; never {@code null}
+   */
+  public final String getRemoteClassName() {
+    String className = this.className;
+    if (className == null) {
+      className = this.readString(this.offset + CLASS_NAME);
+      this.className = className;
+    }
+    return className;
+  }
+
+  /**
+   * Returns the message of the {@link Throwable} this {@link
+   * RemoteThrowable} represents.
+   *
+   * @return the message, or {@code null}
+   */
+  @Override
+  public final String getMessage() {
+    String message = this.message;
+    if (message == null) {
+      final int messageOffset = this.readInt(MESSAGE_OFFSET);
+      if (messageOffset != 0) {
+        message = this.readString(this.offset + messageOffset);
+        this.message = message;
+      }
+    }
+    return message;
+  }
+
+  /**
+   * Returns a {@link RemoteThrowable} representing the cause of the
+   * {@link Throwable} this {@link RemoteThrowable} represents.
+   *
+   * @return the cause, or {@code null}
+   */
+  @Override
+  public final Throwable getCause() {
+    RemoteThrowable cause = this.cause;
+    if (cause == null) {
+      final int causeOffset = this.readInt(CAUSE_OFFSET);
+      if (causeOffset != 0) {
+        synchronized (this) {
+          cause = this.cause;
+          if (cause == null) {
+            cause = new RemoteThrowable(this.bytes, this.offset + causeOffset);
+            this.cause = cause;
+          }
+        }
+      }
+    }
+    return cause;
+  }
+
+  /**
+   * Returns the number of stack frames recorded for the {@link
+   * Throwable} this {@link RemoteThrowable} represents, without
+   * decoding them.
+   *
+   * @return the number of stack frames; never less than {@code 0}
+   */
+  public final int getStackTraceDepth() {
+    return readInt(this.bytes, this.offset + this.readInt(FRAMES_OFFSET));
+  }
+
+  /**
+   * Returns the stack frames of the {@link Throwable} this {@link
+   * RemoteThrowable} represents, decoding them the first time this
+   * method is called.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a new array of {@link StackTraceElement}s; never {@code
+   * null}
+   */
+  @Override
+  public final StackTraceElement[] getStackTrace() {
+    this.decodeStackTrace();
+    return super.getStackTrace();
+  }
+
+  /**
+   * Decodes this {@link RemoteThrowable}'s stack frames and installs
+   * them as its stack trace, if that has not already been done.
+   */
+  private final synchronized void decodeStackTrace() {
+    if (!this.stackTraceDecoded) {
+      int position = this.offset + this.readInt(FRAMES_OFFSET);
+      final int count = readInt(this.bytes, position);
+      position += 4;
+      final StackTraceElement[] frames = new StackTraceElement[count];
+      final String[] strings = new String[6];
+      for (int i = 0; i < count; i++) {
+        for (int j = 0; j < strings.length; j++) {
+          strings[j] = this.readString(position);
+          position += stringLength(this.bytes, position);
+        }
+        final int lineNumber = readInt(this.bytes, position);
+        position += 4;
+        frames[i] = new StackTraceElement(strings[0], strings[1], strings[2], strings[3], strings[4], strings[5], lineNumber);
+      }
+      this.setStackTrace(frames);
+      this.stackTraceDecoded = true;
+    }
+  }
+
+  /**
+   * Returns an {@link Iterator} over this {@link RemoteThrowable}
+   * followed by {@link RemoteThrowable}s representing the affiliates
+   * of the {@link Throwable} it represents (as, for example, when it
+   * represents a {@link ThrowableChain}).
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} {@link Iterator}
+   */
+  @Override
+  public final Iterator<Throwable> iterator() {
+    final int affiliatesOffset = this.readInt(AFFILIATES_OFFSET);
+    if (affiliatesOffset == 0) {
+      return Collections.<Throwable>singleton(this).iterator();
+    }
+    final int position = this.offset + affiliatesOffset;
+    return new RecordIterator(this, this.bytes, position + 4, readInt(this.bytes, position));
+  }
+
+  /**
+   * Returns a {@link String} representation of this {@link
+   * RemoteThrowable} in the same form as {@link Throwable#toString()}
+   * would for the {@link Throwable} it represents.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} {@link String}
+   */
+  @Override
+  public final String toString() {
+    final String message = this.getLocalizedMessage();
+    final String className = this.getRemoteClassName();
+    return message == null ? className : className + ": " + message;
+  }
+
+  /**
+   * Prints the stack trace of the {@link Throwable} this {@link
+   * RemoteThrowable} represents to the supplied {@link PrintStream}.
+   * If it has affiliates, they are printed afterwards, numbered in
+   * the same way as by {@link
+   * ThrowableChain#printStackTrace(PrintStream)}.
+   *
+   * @param s the {@link PrintStream}; must not be {@code null}
+   */
+  @Override
+  public final void printStackTrace(final PrintStream s) {
+    if (s != null) {
+      synchronized (s) {
+        int i = 1;
+        final boolean numbered = this.readInt(AFFILIATES_OFFSET) != 0;
+        for (final Throwable t : this) {
+          final RemoteThrowable r = (RemoteThrowable)t;
+          r.decodeStackTraces(new IdentityHashMap<Throwable, Throwable>());
+          if (numbered) {
+            s.format("%d. ", i++);
+          }
+          r.printOwnStackTrace(s);
+        }
+      }
+    }
+  }
+
+  /**
+   * Prints the stack trace of the {@link Throwable} this {@link
+   * RemoteThrowable} represents to the supplied {@link PrintWriter}.
+   * If it has affiliates, they are printed afterwards, numbered in
+   * the same way as by {@link
+   * ThrowableChain#printStackTrace(PrintWriter)}.
+   *
+   * @param w the {@link PrintWriter}; must not be {@code null}
+   */
+  @Override
+  public final void printStackTrace(final PrintWriter w) {
+    if (w != null) {
+      synchronized (w) {
+        int i = 1;
+        final boolean numbered = this.readInt(AFFILIATES_OFFSET) != 0;
+        for (final Throwable t : this) {
+          final RemoteThrowable r = (RemoteThrowable)t;
+          r.decodeStackTraces(new IdentityHashMap<Throwable, Throwable>());
+          if (numbered) {
+            w.format("%d. ", i++);
+          }
+          r.printOwnStackTrace(w);
+        }
+      }
+    }
+  }
+
+  /**
+   * Prints this {@link RemoteThrowable}'s stack trace, without its
+   * affiliates, to the supplied {@link PrintStream}.
+   *
+   * @param s the {@link PrintStream}; must not be {@code null}
+   */
+  private final void printOwnStackTrace(final PrintStream s) {
+    super.printStackTrace(s);
+  }
+
+  /**
+   * Prints this {@link RemoteThrowable}'s stack trace, without its
+   * affiliates, to the supplied {@link PrintWriter}.
+   *
+   * @param w the {@link PrintWriter}; must not be {@code null}
+   */
+  private final void printOwnStackTrace(final PrintWriter w) {
+    super.printStackTrace(w);
+  }
+
+  /**
+   * Decodes the stack traces of this {@link RemoteThrowable}, its
+   * causes and its suppressed {@link Throwable}s, since {@link
+   * Throwable}'s own stack trace printing reads them directly rather
+   * than through {@link #getStackTrace()}.
+   *
+   * @param seen the {@link RemoteThrowable}s already visited; must
+   * not be {@code null}
+   */
+  private final void decodeStackTraces(final Map<Throwable, Throwable> seen) {
+    if (seen.put(this, this) == null) {
+      this.decodeStackTrace();
+      final Throwable cause = this.getCause();
+      if (cause instanceof RemoteThrowable) {
+        ((RemoteThrowable)cause).decodeStackTraces(seen);
+      }
+      for (final Throwable suppressed : this.getSuppressed()) {
+        if (suppressed instanceof RemoteThrowable) {
+          ((RemoteThrowable)suppressed).decodeStackTraces(seen);
+        }
+      }
+    }
+  }
+
+  /**
+   * Reads the header field at the supplied offset within this {@link
+   * RemoteThrowable}'s record.
+   *
+   * @param field the field offset
+   *
+   * @return the value of the field
+   */
+  private final int readInt(final int field) {
+    return readInt(this.bytes, this.offset + field);
+  }
+
+  /**
+   * Decodes the string at the supplied absolute position.
+   *
+   * @param position the position
+   *
+   * @return the decoded {@link String}, or {@code null}
+   */
+  private final String readString(final int position) {
+    final int length = readInt(this.bytes, position);
+    if (length < 0) {
+      return null;
+    }
+    return new String(this.bytes, position + 4, length, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Returns a new {@link RemoteThrowable} over the record at the
+   * supplied offset of the supplied array, which is not copied and
+   * must not be modified afterwards.
+   *
+   * <p>Nothing but the record's suppressed {@link Throwable}
+   * offsets is decoded until it is needed.</p>
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param bytes the bytes, as produced by {@link #encode(Throwable)}
+   * or {@link #encode(Throwable, OutputStream)}; must not be {@code
+   * null}
+   *
+   * @param offset the offset of the record within {@code bytes}
+   *
+   * @return a new {@link RemoteThrowable}; never {@code null}
+   *
+   * @exception IllegalArgumentException if {@code bytes} is {@code
+   * null} or {@code offset} does not denote a plausible record
+   */
+  public static final RemoteThrowable decode(final byte[] bytes, final int offset) {
+    if (bytes == null) {
+      throw new IllegalArgumentException("bytes", new NullPointerException("bytes"));
+    }
+    if (offset < 0 || offset + CLASS_NAME + 4 > bytes.length) {
+      throw new IllegalArgumentException(String.format("offset: %d; length: %d", offset, bytes.length));
+    }
+    final int totalLength = readInt(bytes, offset + TOTAL_LENGTH);
+    if (totalLength < CLASS_NAME + 4 || offset + totalLength > bytes.length) {
+      throw new IllegalArgumentException(String.format("Invalid record length at offset %d: %d", offset, totalLength));
+    }
+    return new RemoteThrowable(bytes, offset);
+  }
+
+  /**
+   * Returns an {@link Iterable} over every record in the supplied
+   * batch of concatenated records, each decoded as by {@link
+   * #decode(byte[], int)} as it is reached.  Iteration reads only
+   * each record's length.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param batch the concatenated records; must not be {@code null}
+   *
+   * @return a non-{@code null} {@link Iterable}
+   *
+   * @exception IllegalArgumentException if {@code batch} is {@code
+   * null}
+   */
+  public static final Iterable<RemoteThrowable> decodeAll(final byte[] batch) {
+    if (batch == null) {
+      throw new IllegalArgumentException("batch", new NullPointerException("batch"));
+    }
+    return new Iterable<RemoteThrowable>() {
+      @Override
+      public final Iterator<RemoteThrowable> iterator() {
+        return new Iterator<RemoteThrowable>() {
+          private int position;
+
+          @Override
+          public final boolean hasNext() {
+            return this.position < batch.length;
+          }
+
+          @Override
+          public final RemoteThrowable next() {
+            if (!this.hasNext()) {
+              throw new NoSuchElementException();
+            }
+            final RemoteThrowable returnValue = decode(batch, this.position);
+            this.position += readInt(batch, this.position + TOTAL_LENGTH);
+            return returnValue;
+          }
+        };
+      }
+    };
+  }
+
+  /**
+   * Encodes the supplied {@link Throwable}, including its causal
+   * chain, suppressed {@link Throwable}s and (if it is an {@link
+   * Iterable} of {@link Throwable}s, like a {@link ThrowableChain})
+   * affiliates, into a new record.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param throwable the {@link Throwable} to encode; must not be
+   * {@code null}
+   *
+   * @return a new byte array; never {@code null}
+   *
+   * @exception IllegalArgumentException if {@code throwable} is
+   * {@code null}
+   *
+   * @see #decode(byte[], int)
+   */
+  public static final byte[] encode(final Throwable throwable) {
+    if (throwable == null) {
+      throw new IllegalArgumentException("throwable", new NullPointerException("throwable"));
+    }
+    final Encoder encoder = new Encoder();
+    encoder.record(throwable);
+    return encoder.toByteArray();
+  }
+
+  /**
+   * Encodes the supplied {@link Throwable} as by {@link
+   * #encode(Throwable)} and writes the record to the supplied {@link
+   * OutputStream}.  Records written one after another in this way form
+   * a batch that may be read with {@link #decodeAll(byte[])}.
+   *
+   * @param throwable the {@link Throwable} to encode; must not be
+   * {@code null}
+   *
+   * @param out the {@link OutputStream}; must not be {@code null}
+   *
+   * @exception IOException if {@code out} throws one
+   *
+   * @exception IllegalArgumentException if either parameter is {@code
+   * null}
+   */
+  public static final void encode(final Throwable throwable, final OutputStream out) throws IOException {
+    if (out == null) {
+      throw new IllegalArgumentException("out", new NullPointerException("out"));
+    }
+    out.write(encode(throwable));
+  }
+
+  /**
+   * Reads a big-endian {@code int} from the supplied array.
+   *
+   * @param bytes the array; must not be {@code null}
+   *
+   * @param position the position
+   *
+   * @return the {@code int}
+   */
+  private static final int readInt(final byte[] bytes, final int position) {
+    return
+      (bytes[position] << 24) |
+      ((bytes[position + 1] & 0xFF) << 16) |
+      ((bytes[position + 2] & 0xFF) << 8) |
+      (bytes[position + 3] & 0xFF);
+  }
+
+  /**
+   * Returns the number of bytes occupied by the encoded string at the
+   * supplied position.
+   *
+   * @param bytes the array; must not be {@code null}
+   *
+   * @param position the position
+   *
+   * @return the number of bytes
+   */
+  private static final int stringLength(final byte[] bytes, final int position) {
+    return 4 + Math.max(0, readInt(bytes, position));
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * An {@link Iterator} over a {@link RemoteThrowable} followed by a
+   * sequence of records.
+   *
+   * @author <a href="http://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class RecordIterator implements Iterator<Throwable> {
+
+    /**
+     * The {@link RemoteThrowable} to return first, or {@code null}
+     * once it has been returned.
+     */
+    private RemoteThrowable first;
+
+    /**
+     * The bytes.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final byte[] bytes;
+
+    /**
+     * The position of the next record.
+     */
+    private int position;
+
+    /**
+     * The number of records remaining.
+     */
+    private int remaining;
+
+    /**
+     * Creates a new {@link RecordIterator}.
+     *
+     * @param first the {@link RemoteThrowable} to return first; must
+     * not be {@code null}
+     *
+     * @param bytes the bytes; must not be {@code null}
+     *
+     * @param position the position of the first record
+     *
+     * @param count the number of records
+     */
+    private RecordIterator(final RemoteThrowable first, final byte[] bytes, final int position, final int count) {
+      super();
+      this.first = first;
+      this.bytes = bytes;
+      this.position = position;
+      this.remaining = count;
+    }
+
+    @Override
+    public final boolean hasNext() {
+      return this.first != null || this.remaining > 0;
+    }
+
+    @Override
+    public final Throwable next() {
+      if (this.first != null) {
+        final Throwable returnValue = this.first;
+        this.first = null;
+        return returnValue;
+      }
+      if (this.remaining <= 0) {
+        throw new NoSuchElementException();
+      }
+      final RemoteThrowable returnValue = new RemoteThrowable(this.bytes, this.position);
+      this.position += readInt(this.bytes, this.position + TOTAL_LENGTH);
+      this.remaining--;
+      return returnValue;
+    }
+
+  }
+
+  /**
+   * Encodes {@link Throwable}s into records.
+   *
+   * <p>Instances of this class are not safe for use by multiple
+   * threads.</p>
+   *
+   * @author <a href="http://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class Encoder {
+
+    /**
+     * The buffer.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private byte[] buffer;
+
+    /**
+     * The number of bytes written.
+     */
+    private int position;
+
+    /**
+     * The {@link Throwable}s currently being encoded, to break
+     * cycles.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final Map<Throwable, Throwable> ancestors;
+
+    /**
+     * Creates a new {@link Encoder}.
+     */
+    private Encoder() {
+      super();
+      this.buffer = new byte[1024];
+      this.ancestors = new IdentityHashMap<Throwable, Throwable>();
+    }
+
+    /**
+     * Encodes the supplied {@link Throwable} as a record.
+     *
+     * @param t the {@link Throwable}; must not be {@code null}
+     */
+    private final void record(final Throwable t) {
+      assert t != null;
+      this.ancestors.put(t, t);
+      final int start = this.position;
+      this.position += CLASS_NAME;
+      this.ensureCapacity(0);
+      this.string(t instanceof RemoteThrowable ? ((RemoteThrowable)t).getRemoteClassName() : t.getClass().getName());
+
+      final String message = t.getMessage();
+      if (message != null) {
+        this.patch(start + MESSAGE_OFFSET, this.position - start);
+        this.string(message);
+      }
+
+      this.patch(start + FRAMES_OFFSET, this.position - start);
+      final StackTraceElement[] frames = t.getStackTrace();
+      this.integer(frames.length);
+      for (final StackTraceElement frame : frames) {
+        this.string(frame.getClassLoaderName());
+        this.string(frame.getModuleName());
+        this.string(frame.getModuleVersion());
+        this.string(frame.getClassName());
+        this.string(frame.getMethodName());
+        this.string(frame.getFileName());
+        this.integer(frame.getLineNumber());
+      }
+
+      final Throwable cause = t.getCause();
+      if (cause != null && !this.ancestors.containsKey(cause)) {
+        this.patch(start + CAUSE_OFFSET, this.position - start);
+        this.record(cause);
+      }
+
+      final Throwable[] suppressed = t.getSuppressed();
+      if (suppressed.length > 0) {
+        this.patch(start + SUPPRESSED_OFFSET, this.position - start);
+        this.records(Arrays.asList(suppressed));
+      }
+
+      if (t instanceof Iterable) {
+        final int affiliatesOffset = this.position - start;
+        if (this.records((Iterable<?>)t) > 0) {
+          this.patch(start + AFFILIATES_OFFSET, affiliatesOffset);
+        } else {
+          this.position = start + affiliatesOffset;
+        }
+      }
+
+      this.patch(start + TOTAL_LENGTH, this.position - start);
+      this.ancestors.remove(t);
+    }
+
+    /**
+     * Encodes a count followed by a record for each {@link Throwable}
+     * in the supplied {@link Iterable} that is not already being
+     * encoded.
+     *
+     * @param throwables the {@link Iterable}; must not be {@code null}
+     *
+     * @return the number of records written
+     */
+    private final int records(final Iterable<?> throwables) {
+      final int countPosition = this.position;
+      this.integer(0);
+      int count = 0;
+      for (final Object o : throwables) {
+        if (o instanceof Throwable && !this.ancestors.containsKey(o)) {
+          this.record((Throwable)o);
+          count++;
+        }
+      }
+      this.patch(countPosition, count);
+      return count;
+    }
+
+    /**
+     * Writes the supplied {@link String}.
+     *
+     * @param s the {@link String}; may be {@code null}
+     */
+    private final void string(final String s) {
+      if (s == null) {
+        this.integer(-1);
+      } else {
+        final byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+        this.integer(utf8.length);
+        this.ensureCapacity(utf8.length);
+        System.arraycopy(utf8, 0, this.buffer, this.position, utf8.length);
+        this.position += utf8.length;
+      }
+    }
+
+    /**
+     * Writes the supplied {@code int}.
+     *
+     * @param value the value
+     */
+    private final void integer(final int value) {
+      this.ensureCapacity(4);
+      this.patch(this.position, value);
+      this.position += 4;
+    }
+
+    /**
+     * Overwrites the {@code int} at the supplied position.
+     *
+     * @param position the position
+     *
+     * @param value the value
+     */
+    private final void patch(final int position, final int value) {
+      this.buffer[position] = (byte)(value >>> 24);
+      this.buffer[position + 1] = (byte)(value >>> 16);
+      this.buffer[position + 2] = (byte)(value >>> 8);
+      this.buffer[position + 3] = (byte)value;
+    }
+
+    /**
+     * Ensures that the buffer can hold the supplied number of bytes
+     * beyond the current position.
+     *
+     * @param length the number of bytes
+     */
+    private final void ensureCapacity(final int length) {
+      final int required = this.position + length;
+      if (required > this.buffer.length) {
+        this.buffer = Arrays.copyOf(this.buffer, Math.max(required, this.buffer.length * 2));
+      }
+    }
+
+    /**
+     * Returns a copy of the bytes written.
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * @return a new byte array; never {@code null}
+     */
+    private final byte[] toByteArray() {
+      return Arrays.copyOf(this.buffer, this.position);
+    }
+
+  }
+
+}
@@ -0,0 +1,762 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.throwables;
+
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A bounded cache of the rendered stack trace text of {@link
+ * Throwable}s that are printed over and over again.
+ *
+ * <p>The first time a given {@link Throwable} is {@linkplain
+ * #printStackTrace(Throwable, PrintStream) printed} through an
+ * instance of this class its {@linkplain
+ * Throwable#printStackTrace(PrintWriter) stack trace} is rendered
+ * once and recorded as a compact byte array (one byte per character
+ * when the text permits, as with {@link String}s).  Subsequent
+ * printings of the same {@link Throwable} copy the recorded text in
+ * bulk instead of formatting every frame again.</p>
+ *
+ * <p>{@link Throwable}s are compared by identity, not by {@link
+ * Object#equals(Object)}, and are only {@linkplain WeakReference
+ * weakly referenced}, so an instance of this class never prevents a
+ * {@link Throwable} from being garbage collected.  The total size of
+ * the recorded text is bounded; when the bound is exceeded the least
+ * recently printed entries are evicted.  As with {@link
+ * CausalChainCache}, the cache is split into a number of
+ * independently locked stripes, each of which is given an equal
+ * share of the bound.</p>
+ *
+ * <p>A recorded rendering is discarded and recomputed if the {@link
+ * Throwable} has since {@linkplain Throwable#initCause(Throwable)
+ * acquired a cause} or {@linkplain
+ * Throwable#addSuppressed(Throwable) new suppressed
+ * <code>Throwable</code>s}.  Other changes&mdash;to the {@linkplain
+ * Throwable#setStackTrace(StackTraceElement[]) stack trace}, or to
+ * the {@link Throwable}s it refers to&mdash;are not detected; callers
+ * making such changes should {@linkplain #remove(Throwable) remove}
+ * the {@link Throwable} from the cache.  {@link ThrowableChain}s,
+ * whose affiliates change as a matter of course, are never
+ * recorded.</p>
+ *
+ * <p>This class is safe for use by multiple threads.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see ThrowableChain#setRenderedTraceCache(RenderedTraceCache)
+ */
+public final class RenderedTraceCache {
+
+  /**
+   * The default maximum number of bytes of rendered text retained by
+   * a {@link RenderedTraceCache}.
+   */
+  public static final long DEFAULT_MAXIMUM_BYTES = 8L * 1024L * 1024L;
+
+  /**
+   * A shared {@link RenderedTraceCache} suitable for use by unrelated
+   * components that print the same {@link Throwable}s.
+   *
+   * <p>This field is never {@code null}.</p>
+   *
+   * @see #getInstance()
+   */
+  private static final RenderedTraceCache INSTANCE = new RenderedTraceCache();
+
+  /**
+   * The maximum number of bytes of rendered text retained by this
+   * {@link RenderedTraceCache}.
+   */
+  private final long maximumBytes;
+
+  /**
+   * The independently locked portions of this {@link
+   * RenderedTraceCache}.
+   *
+   * <p>This field is never {@code null} and its length is always a
+   * power of two.</p>
+   */
+  private final Stripe[] stripes;
+
+  /**
+   * The mask used to select a {@link Stripe} from the {@link
+   * #stripes} array.
+   */
+  private final int mask;
+
+  /**
+   * Creates a new {@link RenderedTraceCache} that retains at most
+   * {@link #DEFAULT_MAXIMUM_BYTES} bytes of rendered text and has a
+   * default number of stripes.
+   */
+  public RenderedTraceCache() {
+    this(DEFAULT_MAXIMUM_BYTES, 16);
+  }
+
+  /**
+   * Creates a new {@link RenderedTraceCache}.
+   *
+   * @param maximumBytes the maximum number of bytes of rendered text
+   * to retain; must be greater than {@code 0}
+   *
+   * @param concurrencyLevel the estimated number of threads that
+   * will use this {@link RenderedTraceCache} at the same time; will
+   * be rounded up to the nearest power of two; must be greater than
+   * {@code 0}
+   *
+   * @exception IllegalArgumentException if either parameter is less
+   * than {@code 1}
+   */
+  public RenderedTraceCache(final long maximumBytes, final int concurrencyLevel) {
+    super();
+    if (maximumBytes < 1L) {
+      throw new IllegalArgumentException(String.format("maximumBytes < 1: %d", maximumBytes));
+    }
+    if (concurrencyLevel < 1) {
+      throw new IllegalArgumentException(String.format("concurrencyLevel < 1: %d", concurrencyLevel));
+    }
+    int size = 1;
+    while (size < concurrencyLevel && size < (1 << 16)) {
+      size <<= 1;
+    }
+    this.maximumBytes = maximumBytes;
+    this.stripes = new Stripe[size];
+    final long stripeBudget = Math.max(1L, maximumBytes / size);
+    for (int i = 0; i < size; i++) {
+      this.stripes[i] = new Stripe(stripeBudget);
+    }
+    this.mask = size - 1;
+  }
+
+  /**
+   * Returns a shared {@link RenderedTraceCache} instance.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a shared {@link RenderedTraceCache}; never {@code null}
+   */
+  public static final RenderedTraceCache getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Returns the maximum number of bytes of rendered text this {@link
+   * RenderedTraceCache} will retain.
+   *
+   * @return the maximum number of bytes; always greater than {@code
+   * 0}
+   */
+  public final long getMaximumBytes() {
+    return this.maximumBytes;
+  }
+
+  /**
+   * Returns the text that {@link
+   * Throwable#printStackTrace(PrintWriter)} would print for the
+   * supplied {@link Throwable}, rendering and recording it if
+   * necessary.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param t the {@link Throwable}; must not be {@code null}
+   *
+   * @return the rendered stack trace; never {@code null}
+   *
+   * @exception IllegalArgumentException if {@code t} is {@code null}
+   */
+  public final String render(final Throwable t) {
+    if (t == null) {
+      throw new IllegalArgumentException("t", new NullPointerException("t"));
+    }
+    if (t instanceof ThrowableChain) {
+      return renderDirectly(t);
+    }
+    final boolean hasCause = t.getCause() != null;
+    final int suppressedCount = t.getSuppressed().length;
+    final int hash = System.identityHashCode(t);
+    final Stripe stripe = this.stripeFor(hash);
+    final Node node = stripe.get(t, hash);
+    if (node != null && node.hasCause == hasCause && node.suppressedCount == suppressedCount) {
+      return node.text();
+    }
+    // Render outside of any lock.  Racing threads will all render
+    // equivalent text so the last write wins harmlessly.
+    final String text = renderDirectly(t);
+    stripe.put(t, hash, hasCause, suppressedCount, text);
+    return text;
+  }
+
+  /**
+   * Prints the stack trace of the supplied {@link Throwable} to the
+   * supplied {@link PrintStream}, exactly as {@link
+   * Throwable#printStackTrace(PrintStream)} would, using recorded
+   * text if possible.
+   *
+   * @param t the {@link Throwable}; must not be {@code null}
+   *
+   * @param s the {@link PrintStream}; must not be {@code null}
+   *
+   * @exception IllegalArgumentException if either parameter is {@code
+   * null}
+   */
+  public final void printStackTrace(final Throwable t, final PrintStream s) {
+    if (s == null) {
+      throw new IllegalArgumentException("s", new NullPointerException("s"));
+    }
+    if (t instanceof ThrowableChain) {
+      t.printStackTrace(s);
+    } else {
+      s.print(this.render(t));
+    }
+  }
+
+  /**
+   * Prints the stack trace of the supplied {@link Throwable} to the
+   * supplied {@link PrintWriter}, exactly as {@link
+   * Throwable#printStackTrace(PrintWriter)} would, using recorded
+   * text if possible.
+   *
+   * @param t the {@link Throwable}; must not be {@code null}
+   *
+   * @param w the {@link PrintWriter}; must not be {@code null}
+   *
+   * @exception IllegalArgumentException if either parameter is {@code
+   * null}
+   */
+  public final void printStackTrace(final Throwable t, final PrintWriter w) {
+    if (w == null) {
+      throw new IllegalArgumentException("w", new NullPointerException("w"));
+    }
+    if (t instanceof ThrowableChain) {
+      t.printStackTrace(w);
+    } else {
+      w.print(this.render(t));
+    }
+  }
+
+  /**
+   * Discards any text this {@link RenderedTraceCache} has recorded
+   * for the supplied {@link Throwable}.
+   *
+   * @param t the {@link Throwable} to forget; may be {@code null} in
+   * which case no action is taken
+   */
+  public final void remove(final Throwable t) {
+    if (t != null) {
+      final int hash = System.identityHashCode(t);
+      this.stripeFor(hash).remove(t, hash);
+    }
+  }
+
+  /**
+   * Returns the number of {@link Throwable}s for which this {@link
+   * RenderedTraceCache} currently holds text.  The return value may
+   * include {@link Throwable}s that have been garbage collected but
+   * whose text has not yet been discarded.
+   *
+   * @return the approximate number of {@link Throwable}s cached;
+   * never less than {@code 0}
+   */
+  public final int size() {
+    int size = 0;
+    for (final Stripe stripe : this.stripes) {
+      size += stripe.size();
+    }
+    return size;
+  }
+
+  /**
+   * Returns the number of bytes of rendered text this {@link
+   * RenderedTraceCache} currently holds.
+   *
+   * @return the number of bytes held; never less than {@code 0} and
+   * never greater than the return value of {@link #getMaximumBytes()}
+   */
+  public final long getByteCount() {
+    long bytes = 0L;
+    for (final Stripe stripe : this.stripes) {
+      bytes += stripe.byteCount();
+    }
+    return bytes;
+  }
+
+  /**
+   * Returns the {@link Stripe} responsible for {@link Throwable}s
+   * with the supplied identity hash code.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param hash the {@linkplain System#identityHashCode(Object)
+   * identity hash code} of a {@link Throwable}
+   *
+   * @return a {@link Stripe}; never {@code null}
+   */
+  private final Stripe stripeFor(final int hash) {
+    return this.stripes[(hash ^ (hash >>> 16)) & this.mask];
+  }
+
+  /**
+   * Renders the stack trace of the supplied {@link Throwable} without
+   * consulting any cache.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param t the {@link Throwable}; must not be {@code null}
+   *
+   * @return the rendered stack trace; never {@code null}
+   */
+  private static final String renderDirectly(final Throwable t) {
+    assert t != null;
+    final StringWriter sw = new StringWriter(1024);
+    t.printStackTrace(new PrintWriter(sw));
+    return sw.toString();
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * A {@link WeakReference} to a {@link Throwable} that also serves
+   * as a hash table entry and as a link in its {@link Stripe}'s
+   * least-recently-printed list.
+   *
+   * @author <a href="http://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class Node extends WeakReference<Throwable> {
+
+    /**
+     * The {@linkplain System#identityHashCode(Object) identity hash
+     * code} of the referent.
+     */
+    private final int hash;
+
+    /**
+     * Whether the referent had a cause when it was rendered.
+     */
+    private final boolean hasCause;
+
+    /**
+     * The number of suppressed {@link Throwable}s the referent had
+     * when it was rendered.
+     */
+    private final int suppressedCount;
+
+    /**
+     * The rendered text, encoded as ISO-8859-1 if {@link #latin1} is
+     * {@code true} and as UTF-8 otherwise.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final byte[] bytes;
+
+    /**
+     * Whether {@link #bytes} is encoded as ISO-8859-1.
+     */
+    private final boolean latin1;
+
+    /**
+     * The next {@link Node} in this {@link Node}'s bucket; may be
+     * {@code null}.
+     */
+    private Node next;
+
+    /**
+     * The {@link Node} printed less recently than this one; may be
+     * {@code null}.
+     */
+    private Node older;
+
+    /**
+     * The {@link Node} printed more recently than this one; may be
+     * {@code null}.
+     */
+    private Node newer;
+
+    /**
+     * Creates a new {@link Node}.
+     *
+     * @param t the referent; must not be {@code null}
+     *
+     * @param hash the {@linkplain System#identityHashCode(Object)
+     * identity hash code} of {@code t}
+     *
+     * @param hasCause whether {@code t} had a cause when it was
+     * rendered
+     *
+     * @param suppressedCount the number of suppressed {@link
+     * Throwable}s {@code t} had when it was rendered
+     *
+     * @param text the rendered text; must not be {@code null}
+     *
+     * @param queue the {@link ReferenceQueue} with which this {@link
+     * Node} should be registered; must not be {@code null}
+     */
+    private Node(final Throwable t, final int hash, final boolean hasCause, final int suppressedCount, final String text, final ReferenceQueue<Throwable> queue) {
+      super(t, queue);
+      this.hash = hash;
+      this.hasCause = hasCause;
+      this.suppressedCount = suppressedCount;
+      boolean latin1 = true;
+      for (int i = 0; i < text.length(); i++) {
+        if (text.charAt(i) > 0xFF) {
+          latin1 = false;
+          break;
+        }
+      }
+      this.latin1 = latin1;
+      this.bytes = text.getBytes(latin1 ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the rendered text.
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * @return the rendered text; never {@code null}
+     */
+    private final String text() {
+      return new String(this.bytes, this.latin1 ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_8);
+    }
+
+  }
+
+  /**
+   * A small identity- and weak-keyed hash table guarded by its own
+   * monitor, whose entries are also kept in least-recently-printed
+   * order so that they may be evicted when the table holds too many
+   * bytes.
+   *
+   * @author <a href="http://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class Stripe {
+
+    /**
+     * The maximum number of bytes of rendered text this {@link
+     * Stripe} may hold.
+     */
+    private final long budget;
+
+    /**
+     * The buckets of this {@link Stripe}.
+     *
+     * <p>This field is never {@code null} and its length is always a
+     * power of two.</p>
+     */
+    private Node[] table;
+
+    /**
+     * The number of {@link Node}s in the {@link #table}.
+     */
+    private int count;
+
+    /**
+     * The number of bytes of rendered text held by the {@link Node}s
+     * in the {@link #table}.
+     */
+    private long bytes;
+
+    /**
+     * The least recently printed {@link Node}; may be {@code null}.
+     */
+    private Node oldest;
+
+    /**
+     * The most recently printed {@link Node}; may be {@code null}.
+     */
+    private Node newest;
+
+    /**
+     * The {@link ReferenceQueue} with which all {@link Node}s in this
+     * {@link Stripe} are registered.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final ReferenceQueue<Throwable> queue;
+
+    /**
+     * Creates a new {@link Stripe}.
+     *
+     * @param budget the maximum number of bytes of rendered text the
+     * new {@link Stripe} may hold
+     */
+    private Stripe(final long budget) {
+      super();
+      this.budget = budget;
+      this.table = new Node[16];
+      this.queue = new ReferenceQueue<Throwable>();
+    }
+
+    /**
+     * Returns the {@link Node} for the supplied {@link Throwable},
+     * marking it as the most recently printed, or {@code null}.
+     *
+     * @param t the {@link Throwable}; must not be {@code null}
+     *
+     * @param hash the {@linkplain System#identityHashCode(Object)
+     * identity hash code} of {@code t}
+     *
+     * @return a {@link Node} or {@code null}
+     */
+    private synchronized final Node get(final Throwable t, final int hash) {
+      this.expungeStaleNodes();
+      final Node node = this.find(t, hash);
+      if (node != null && node != this.newest) {
+        this.detach(node);
+        this.append(node);
+      }
+      return node;
+    }
+
+    /**
+     * Records the supplied rendered text for the supplied {@link
+     * Throwable}, replacing any text already recorded for it and
+     * evicting the least recently printed {@link Node}s as necessary.
+     *
+     * @param t the {@link Throwable}; must not be {@code null}
+     *
+     * @param hash the {@linkplain System#identityHashCode(Object)
+     * identity hash code} of {@code t}
+     *
+     * @param hasCause whether {@code t} had a cause when it was
+     * rendered
+     *
+     * @param suppressedCount the number of suppressed {@link
+     * Throwable}s {@code t} had when it was rendered
+     *
+     * @param text the rendered text; must not be {@code null}
+     */
+    private final void put(final Throwable t, final int hash, final boolean hasCause, final int suppressedCount, final String text) {
+      // Encode outside of the lock.
+      final Node node = new Node(t, hash, hasCause, suppressedCount, text, this.queue);
+      if (node.bytes.length > this.budget) {
+        node.clear();
+        return;
+      }
+      synchronized (this) {
+        this.expungeStaleNodes();
+        final Node old = this.find(t, hash);
+        if (old != null) {
+          this.unlink(old);
+        }
+        if (this.count >= (this.table.length >> 1) + (this.table.length >> 2)) {
+          this.resize();
+        }
+        final Node[] table = this.table;
+        final int index = hash & (table.length - 1);
+        node.next = table[index];
+        table[index] = node;
+        this.append(node);
+        this.count++;
+        this.bytes += node.bytes.length;
+        while (this.bytes > this.budget) {
+          this.unlink(this.oldest);
+        }
+      }
+    }
+
+    /**
+     * Removes the {@link Node} for the supplied {@link Throwable}, if
+     * there is one.
+     *
+     * @param t the {@link Throwable}; must not be {@code null}
+     *
+     * @param hash the {@linkplain System#identityHashCode(Object)
+     * identity hash code} of {@code t}
+     */
+    private synchronized final void remove(final Throwable t, final int hash) {
+      this.expungeStaleNodes();
+      final Node node = this.find(t, hash);
+      if (node != null) {
+        this.unlink(node);
+      }
+    }
+
+    /**
+     * Returns the number of {@link Node}s in this {@link Stripe}.
+     *
+     * @return the number of {@link Node}s in this {@link Stripe}
+     */
+    private synchronized final int size() {
+      this.expungeStaleNodes();
+      return this.count;
+    }
+
+    /**
+     * Returns the number of bytes of rendered text held by this
+     * {@link Stripe}.
+     *
+     * @return the number of bytes held
+     */
+    private synchronized final long byteCount() {
+      this.expungeStaleNodes();
+      return this.bytes;
+    }
+
+    /**
+     * Returns the {@link Node} for the supplied {@link Throwable}, or
+     * {@code null}, without otherwise affecting this {@link Stripe}.
+     *
+     * @param t the {@link Throwable}; must not be {@code null}
+     *
+     * @param hash the {@linkplain System#identityHashCode(Object)
+     * identity hash code} of {@code t}
+     *
+     * @return a {@link Node} or {@code null}
+     */
+    private final Node find(final Throwable t, final int hash) {
+      assert Thread.holdsLock(this);
+      final Node[] table = this.table;
+      for (Node node = table[hash & (table.length - 1)]; node != null; node = node.next) {
+        if (node.hash == hash && node.get() == t) {
+          return node;
+        }
+      }
+      return null;
+    }
+
+    /**
+     * Removes all {@link Node}s whose referents have been garbage
+     * collected.
+     */
+    private final void expungeStaleNodes() {
+      assert Thread.holdsLock(this);
+      Reference<? extends Throwable> reference;
+      while ((reference = this.queue.poll()) != null) {
+        this.unlink((Node)reference);
+      }
+    }
+
+    /**
+     * Makes the supplied {@link Node} the most recently printed one.
+     *
+     * @param node the {@link Node}; must not be {@code null} and must
+     * not currently be linked into the least-recently-printed list
+     */
+    private final void append(final Node node) {
+      assert Thread.holdsLock(this);
+      node.older = this.newest;
+      node.newer = null;
+      if (this.newest == null) {
+        this.oldest = node;
+      } else {
+        this.newest.newer = node;
+      }
+      this.newest = node;
+    }
+
+    /**
+     * Removes the supplied {@link Node} from the
+     * least-recently-printed list.
+     *
+     * @param node the {@link Node}; must not be {@code null}
+     */
+    private final void detach(final Node node) {
+      assert Thread.holdsLock(this);
+      if (node.older == null) {
+        this.oldest = node.newer;
+      } else {
+        node.older.newer = node.newer;
+      }
+      if (node.newer == null) {
+        this.newest = node.older;
+      } else {
+        node.newer.older = node.older;
+      }
+      node.older = null;
+      node.newer = null;
+    }
+
+    /**
+     * Unlinks the supplied {@link Node} from its bucket and from the
+     * least-recently-printed list, if it is still present.
+     *
+     * @param target the {@link Node} to unlink; must not be {@code
+     * null}
+     */
+    private final void unlink(final Node target) {
+      assert Thread.holdsLock(this);
+      final Node[] table = this.table;
+      final int index = target.hash & (table.length - 1);
+      Node previous = null;
+      for (Node node = table[index]; node != null; node = node.next) {
+        if (node == target) {
+          if (previous == null) {
+            table[index] = node.next;
+          } else {
+            previous.next = node.next;
+          }
+          node.next = null;
+          this.detach(node);
+          this.count--;
+          this.bytes -= node.bytes.length;
+          // The Node may already be enqueued; clearing it is harmless
+          // because a second unlink() will not find it.
+          node.clear();
+          break;
+        }
+        previous = node;
+      }
+    }
+
+    /**
+     * Doubles the size of the {@link #table}.
+     */
+    private final void resize() {
+      assert Thread.holdsLock(this);
+      final Node[] oldTable = this.table;
+      final Node[] newTable = new Node[oldTable.length << 1];
+      for (int i = 0; i < oldTable.length; i++) {
+        Node node = oldTable[i];
+        while (node != null) {
+          final Node next = node.next;
+          final int index = node.hash & (newTable.length - 1);
+          node.next = newTable[index];
+          newTable[index] = node;
+          node = next;
+        }
+      }
+      this.table = newTable;
+    }
+
+  }
+
+}
@@ -0,0 +1,502 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.throwables;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+import java.util.function.Predicate;
+
+/**
+ * The affiliated {@link Throwable}s that a {@link ThrowableChain}
+ * {@linkplain ThrowableChain#setRetention(ThrowableChain.Retention)
+ * retains only by reference}, each paired with the {@link
+ * ThrowableSummary} that stands in for it once the garbage collector
+ * has cleared it.
+ *
+ * <p>Each retained affiliate occupies a slot.  An {@link
+ * IdentityIndex} finds the slot of an affiliate, of its {@link
+ * ThrowableSummary} and of the {@link Reference} to it by identity,
+ * without keeping the affiliate reachable, so that {@link
+ * #contains(Object)} takes time independent of the number of retained
+ * affiliates.  {@linkplain #remove(Collection) Removal} copies the
+ * slots, so {@linkplain #snapshot() snapshots} taken earlier are
+ * unaffected.  Cleared references are noticed lazily, as affiliates
+ * are appended, listed or removed.</p>
+ *
+ * <p>Instances of this class are safe for use by multiple
+ * threads.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see ThrowableChain#setRetention(ThrowableChain.Retention)
+ */
+final class RetainedAffiliates {
+
+  /**
+   * The {@link ReferenceQueue} on which cleared references are
+   * enqueued.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final ReferenceQueue<Throwable> queue;
+
+  /**
+   * The references to the retained affiliates, in order; only the
+   * first {@link #size} elements are meaningful, and an element is
+   * {@code null} once its reference has been found cleared.  Grown,
+   * and compacted by {@link #remove(Collection)}, by copying, so a
+   * reference to an older array remains valid for the elements it
+   * held.
+   *
+   * <p>This field is never {@code null}.  It is guarded by {@code
+   * this}.</p>
+   */
+  private Reference<?>[] references;
+
+  /**
+   * The {@link ThrowableSummary} instances corresponding to the
+   * {@link #references}.
+   *
+   * <p>This field is never {@code null}.  It is guarded by {@code
+   * this}.</p>
+   */
+  private ThrowableSummary[] summaries;
+
+  /**
+   * The {@link RootCauseIndex.Key}s under which the {@link #summaries}
+   * were {@linkplain #indexed(ThrowableSummary, RootCauseIndex.Key)
+   * indexed}; an element is {@code null} until then.
+   *
+   * <p>This field is never {@code null}.  It is guarded by {@code
+   * this}.</p>
+   */
+  private RootCauseIndex.Key[] keys;
+
+  /**
+   * The {@link IdentityIndex} locating the slots of retained
+   * affiliates, their {@link ThrowableSummary} instances and the
+   * {@link #references} to them.
+   *
+   * <p>This field is never {@code null}.  It is guarded by {@code
+   * this}.</p>
+   */
+  private IdentityIndex index;
+
+  /**
+   * The number of retained affiliates.
+   */
+  private volatile int size;
+
+  /**
+   * The number of retained affiliates whose references have been
+   * found cleared.
+   *
+   * <p>This field is guarded by {@code this}.</p>
+   */
+  private int clearedCount;
+
+  /**
+   * Creates a new {@link RetainedAffiliates}.
+   */
+  RetainedAffiliates() {
+    super();
+    this.queue = new ReferenceQueue<Throwable>();
+    this.references = new Reference<?>[16];
+    this.summaries = new ThrowableSummary[16];
+    this.keys = new RootCauseIndex.Key[16];
+    this.index = new IdentityIndex();
+  }
+
+  /**
+   * Returns the number of retained affiliates, cleared or not.
+   *
+   * @return the number of retained affiliates
+   */
+  final int size() {
+    return this.size;
+  }
+
+  /**
+   * Returns the number of retained affiliates found cleared so far.
+   *
+   * @return the number of cleared affiliates
+   */
+  final synchronized int getClearedCount() {
+    this.drain();
+    return this.clearedCount;
+  }
+
+  /**
+   * Retains the supplied {@link Throwable} by reference, unless it is
+   * already retained.
+   *
+   * @param t the {@link Throwable}; must not be {@code null}
+   *
+   * @param retention the {@link ThrowableChain.Retention} to use;
+   * must be {@link ThrowableChain.Retention#SOFT} or {@link
+   * ThrowableChain.Retention#WEAK}
+   *
+   * @param summary the {@link ThrowableSummary} to report if {@code
+   * t} is cleared; must not be {@code null}
+   *
+   * @return {@code true} if {@code t} was retained; {@code false} if
+   * it already was
+   */
+  final synchronized boolean append(final Throwable t, final ThrowableChain.Retention retention, final ThrowableSummary summary) {
+    assert t != null;
+    assert summary != null;
+    this.drain();
+    if (this.find(t) >= 0) {
+      return false;
+    }
+    final int size = this.size;
+    if (size == this.references.length) {
+      this.references = Arrays.copyOf(this.references, size * 2);
+      this.summaries = Arrays.copyOf(this.summaries, size * 2);
+      this.keys = Arrays.copyOf(this.keys, size * 2);
+    }
+    final Reference<Throwable> reference;
+    if (retention == ThrowableChain.Retention.WEAK) {
+      reference = new WeakReference<Throwable>(t, this.queue);
+    } else {
+      assert retention == ThrowableChain.Retention.SOFT;
+      reference = new SoftReference<Throwable>(t, this.queue);
+    }
+    this.references[size] = reference;
+    this.summaries[size] = summary;
+    this.index(size);
+    this.size = size + 1;
+    return true;
+  }
+
+  /**
+   * Records the {@link RootCauseIndex.Key} under which the retained
+   * affiliate represented by the supplied {@link ThrowableSummary} was
+   * added to a {@link RootCauseIndex}, so that it can be removed from
+   * it if the affiliate is {@linkplain #remove(Collection) removed}.
+   *
+   * @param summary the {@link ThrowableSummary} that was {@linkplain
+   * #append(Throwable, ThrowableChain.Retention, ThrowableSummary)
+   * appended}; must not be {@code null}
+   *
+   * @param key the {@link RootCauseIndex.Key}; may be {@code null}
+   *
+   * @return {@code true} if the affiliate is still retained; {@code
+   * false} if it has been removed already, in which case the caller
+   * must remove it from the {@link RootCauseIndex} itself
+   */
+  final synchronized boolean indexed(final ThrowableSummary summary, final RootCauseIndex.Key key) {
+    assert summary != null;
+    final ThrowableSummary[] summaries = this.summaries;
+    final int slot = this.index.find(summary, s -> summaries[s] == summary);
+    if (slot < 0) {
+      return false;
+    }
+    this.keys[slot] = key;
+    return true;
+  }
+
+  /**
+   * Returns {@code true} if the supplied {@link Object} is a retained
+   * affiliate that has not been cleared, or the {@link
+   * ThrowableSummary} of one that has.  Affiliates are compared by
+   * identity.
+   *
+   * @param o the {@link Object}; may be {@code null}
+   *
+   * @return {@code true} if {@code o} is a retained affiliate
+   */
+  final synchronized boolean contains(final Object o) {
+    return this.find(o) >= 0;
+  }
+
+  /**
+   * Removes every retained affiliate that is identical to an element
+   * of the supplied {@link Collection}, and returns, for each, the
+   * {@link ThrowableSummary} and {@link RootCauseIndex.Key} with which
+   * it was indexed, so that the caller can {@linkplain
+   * RootCauseIndex#remove(Throwable, RootCauseIndex.Key) remove} it
+   * from its {@link RootCauseIndex}.
+   *
+   * <p>This method takes time proportional to the number of retained
+   * affiliates if any is removed, and otherwise to the size of the
+   * supplied {@link Collection}.</p>
+   *
+   * @param c the affiliates to remove; must not be {@code null}
+   *
+   * @return a non-{@code null} {@link List} of {@link Map.Entry}
+   * instances, one for each removed affiliate, whose keys are its
+   * {@link ThrowableSummary} and whose values are its {@link
+   * RootCauseIndex.Key}, or {@code null} if it has not yet been
+   * {@linkplain #indexed(ThrowableSummary, RootCauseIndex.Key)
+   * indexed}
+   */
+  final synchronized List<Map.Entry<ThrowableSummary, RootCauseIndex.Key>> remove(final Collection<?> c) {
+    assert c != null;
+    this.drain();
+    final int size = this.size;
+    final boolean[] removed = new boolean[size];
+    int removedCount = 0;
+    for (final Object o : c) {
+      final int slot = this.find(o);
+      if (slot >= 0 && !removed[slot]) {
+        removed[slot] = true;
+        removedCount++;
+      }
+    }
+    if (removedCount == 0) {
+      return Collections.emptyList();
+    }
+    final List<Map.Entry<ThrowableSummary, RootCauseIndex.Key>> returnValue = new ArrayList<Map.Entry<ThrowableSummary, RootCauseIndex.Key>>(removedCount);
+    final int capacity = Math.max(16, size - removedCount);
+    final Reference<?>[] references = new Reference<?>[capacity];
+    final ThrowableSummary[] summaries = new ThrowableSummary[capacity];
+    final RootCauseIndex.Key[] keys = new RootCauseIndex.Key[capacity];
+    int survivors = 0;
+    for (int i = 0; i < size; i++) {
+      if (removed[i]) {
+        returnValue.add(new AbstractMap.SimpleImmutableEntry<ThrowableSummary, RootCauseIndex.Key>(this.summaries[i], this.keys[i]));
+        if (this.references[i] == null) {
+          this.clearedCount--;
+        }
+      } else {
+        references[survivors] = this.references[i];
+        summaries[survivors] = this.summaries[i];
+        keys[survivors] = this.keys[i];
+        survivors++;
+      }
+    }
+    this.references = references;
+    this.summaries = summaries;
+    this.keys = keys;
+    this.index = new IdentityIndex();
+    for (int i = 0; i < survivors; i++) {
+      this.index(i);
+    }
+    this.size = survivors;
+    return returnValue;
+  }
+
+  /**
+   * Returns an unmodifiable {@link List} of the affiliates retained
+   * so far, each resolved when retrieved.
+   *
+   * @return a {@link List}; never {@code null}
+   */
+  final List<Throwable> snapshot() {
+    final Reference<?>[] references;
+    final ThrowableSummary[] summaries;
+    final int size;
+    synchronized (this) {
+      this.drain();
+      references = this.references;
+      summaries = this.summaries;
+      size = this.size;
+    }
+    return new RetainedList(references, summaries, size);
+  }
+
+  /**
+   * Clears and enqueues the reference to every retained affiliate
+   * that the supplied {@link Predicate} accepts, exactly as the
+   * garbage collector would.
+   *
+   * @param predicate the {@link Predicate}; must not be {@code null}
+   *
+   * @return the number of references cleared
+   *
+   * @see ThrowableChain#clearRetained(Predicate)
+   */
+  final synchronized int clear(final Predicate<? super Throwable> predicate) {
+    assert predicate != null;
+    int count = 0;
+    for (int i = 0; i < this.size; i++) {
+      final Reference<?> reference = this.references[i];
+      if (reference != null) {
+        final Throwable t = (Throwable)reference.get();
+        if (t != null && predicate.test(t)) {
+          reference.clear();
+          reference.enqueue();
+          count++;
+        }
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Returns the slot of the supplied {@link Object} if it is a
+   * retained affiliate that has not been cleared, or the {@link
+   * ThrowableSummary} of one that has, or {@code -1}.
+   *
+   * <p>This method must be invoked while holding this {@link
+   * RetainedAffiliates}' monitor.</p>
+   *
+   * @param o the {@link Object}; may be {@code null}
+   *
+   * @return a slot, or {@code -1}
+   */
+  private final int find(final Object o) {
+    assert Thread.holdsLock(this);
+    final Reference<?>[] references = this.references;
+    final ThrowableSummary[] summaries = this.summaries;
+    return this.index.find(o, slot -> {
+        final Reference<?> reference = references[slot];
+        final Object referent = reference == null ? null : reference.get();
+        return o == (referent == null ? summaries[slot] : referent);
+      });
+  }
+
+  /**
+   * Adds the retained affiliate in the supplied slot, its {@link
+   * ThrowableSummary} and the reference to it to the {@link #index}.
+   *
+   * <p>This method must be invoked while holding this {@link
+   * RetainedAffiliates}' monitor.</p>
+   *
+   * @param slot the slot
+   */
+  private final void index(final int slot) {
+    assert Thread.holdsLock(this);
+    final Reference<?> reference = this.references[slot];
+    if (reference != null) {
+      final Object referent = reference.get();
+      if (referent != null) {
+        this.index.add(referent, slot);
+      }
+      this.index.add(reference, slot);
+    }
+    this.index.add(this.summaries[slot], slot);
+  }
+
+  /**
+   * Forgets every reference that the garbage collector has cleared
+   * and enqueued since the last invocation.
+   *
+   * <p>This method must be invoked while holding this {@link
+   * RetainedAffiliates}' monitor.</p>
+   */
+  private final void drain() {
+    assert Thread.holdsLock(this);
+    final Reference<?>[] references = this.references;
+    Reference<?> r;
+    while ((r = this.queue.poll()) != null) {
+      final Reference<?> cleared = r;
+      final int slot = this.index.find(cleared, s -> references[s] == cleared);
+      // A reference to an affiliate that has since been removed is
+      // no longer found.
+      if (slot >= 0) {
+        references[slot] = null;
+        this.clearedCount++;
+      }
+    }
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * An unmodifiable {@link List} of affiliated {@link Throwable}s
+   * retained by reference, each of which resolves to its {@link
+   * ThrowableSummary} once cleared.
+   *
+   * @author <a href="http://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class RetainedList extends AbstractList<Throwable> implements RandomAccess {
+
+    /**
+     * The references; only the first {@link #size} are used.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final Reference<?>[] references;
+
+    /**
+     * The summaries; only the first {@link #size} are used.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final ThrowableSummary[] summaries;
+
+    /**
+     * The number of affiliates in this {@link RetainedList}.
+     */
+    private final int size;
+
+    /**
+     * Creates a new {@link RetainedList}.
+     *
+     * @param references the references; must not be {@code null}
+     *
+     * @param summaries the summaries; must not be {@code null}
+     *
+     * @param size the number of affiliates to use
+     */
+    private RetainedList(final Reference<?>[] references, final ThrowableSummary[] summaries, final int size) {
+      super();
+      this.references = references;
+      this.summaries = summaries;
+      this.size = size;
+    }
+
+    @Override
+    public final Throwable get(final int index) {
+      if (index < 0 || index >= this.size) {
+        throw new IndexOutOfBoundsException(String.format("index: %d; size: %d", index, this.size));
+      }
+      final Reference<?> reference = this.references[index];
+      final Throwable t = reference == null ? null : (Throwable)reference.get();
+      return t == null ? this.summaries[index] : t;
+    }
+
+    @Override
+    public final int size() {
+      return this.size;
+    }
+
+  }
+
+}
@@ -0,0 +1,553 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.throwables;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import java.util.function.BiFunction;
+
+/**
+ * A running summary of a collection of {@link Throwable}s, grouped by
+ * the {@linkplain Class class} of their {@linkplain
+ * Throwables#getRootCause(Throwable) root causes} and by their
+ * {@linkplain Throwables#fingerprint(Throwable, int) fingerprints}.
+ *
+ * <p>A {@link ThrowableChain} maintains a {@link RootCauseIndex} of
+ * its affiliated {@link Throwable}s, updating it as each one is
+ * {@linkplain ThrowableChain#add(Throwable) added} or {@linkplain
+ * ThrowableChain#remove(Object) removed}, so that summarizing even a
+ * very large {@link ThrowableChain} costs time proportional to the
+ * number of {@linkplain Group groups}, not the number of
+ * members.</p>
+ *
+ * <p>Each {@link Group} reports how many members it has and retains a
+ * small number of representative members.  A {@link ThrowableChain}
+ * supplies the {@linkplain ThrowableSummary summaries} of affiliates
+ * it does not itself hold on the heap as their representatives, so
+ * that its index does not keep them reachable.</p>
+ *
+ * <p>Instances of this class are safe for use by multiple
+ * threads.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see ThrowableChain#getRootCauseIndex()
+ */
+public final class RootCauseIndex {
+
+  /**
+   * The default number of stack frames considered when {@linkplain
+   * Throwables#fingerprint(Throwable, int) fingerprinting}.
+   */
+  public static final int DEFAULT_FINGERPRINT_FRAMES = 3;
+
+  /**
+   * The default number of representative members retained by each
+   * {@link Group}.
+   */
+  public static final int DEFAULT_MAXIMUM_REPRESENTATIVES = 3;
+
+  /**
+   * The number of stack frames considered when {@linkplain
+   * Throwables#fingerprint(Throwable, int) fingerprinting}.
+   */
+  private final int fingerprintFrames;
+
+  /**
+   * The number of representative members retained by each {@link
+   * Group}.
+   */
+  private final int maximumRepresentatives;
+
+  /**
+   * The {@link Group}s indexed by root cause class.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final ConcurrentMap<Class<? extends Throwable>, Group> byRootCauseClass;
+
+  /**
+   * The {@link Group}s indexed by fingerprint.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final ConcurrentMap<Long, Group> byFingerprint;
+
+  /**
+   * Creates a new {@link RootCauseIndex} with the {@linkplain
+   * #DEFAULT_FINGERPRINT_FRAMES default number of fingerprint frames}
+   * and the {@linkplain #DEFAULT_MAXIMUM_REPRESENTATIVES default
+   * number of representatives per group}.
+   */
+  public RootCauseIndex() {
+    this(DEFAULT_FINGERPRINT_FRAMES, DEFAULT_MAXIMUM_REPRESENTATIVES);
+  }
+
+  /**
+   * Creates a new {@link RootCauseIndex}.
+   *
+   * @param fingerprintFrames the number of stack frames considered
+   * when {@linkplain Throwables#fingerprint(Throwable, int)
+   * fingerprinting}; must not be less than {@code 0}
+   *
+   * @param maximumRepresentatives the number of representative
+   * members retained by each {@link Group}; must not be less than
+   * {@code 0}
+   *
+   * @exception IllegalArgumentException if either parameter is less
+   * than {@code 0}
+   */
+  public RootCauseIndex(final int fingerprintFrames, final int maximumRepresentatives) {
+    super();
+    if (fingerprintFrames < 0) {
+      throw new IllegalArgumentException(String.format("fingerprintFrames < 0: %d", fingerprintFrames));
+    }
+    if (maximumRepresentatives < 0) {
+      throw new IllegalArgumentException(String.format("maximumRepresentatives < 0: %d", maximumRepresentatives));
+    }
+    this.fingerprintFrames = fingerprintFrames;
+    this.maximumRepresentatives = maximumRepresentatives;
+    this.byRootCauseClass = new ConcurrentHashMap<Class<? extends Throwable>, Group>();
+    this.byFingerprint = new ConcurrentHashMap<Long, Group>();
+  }
+
+  /**
+   * Records the supplied {@link Throwable} and returns the {@link Key}
+   * under which it was recorded.
+   *
+   * @param t the {@link Throwable} to record; may be {@code null} in
+   * which case no action is taken and {@code null} is returned
+   *
+   * @return the {@link Key} to supply to {@link #remove(Throwable,
+   * Key)} if {@code t} is later removed, or {@code null}
+   */
+  final Key add(final Throwable t) {
+    return this.add(t, t);
+  }
+
+  /**
+   * Records the supplied {@link Throwable}, retaining the supplied
+   * representative in its place if it becomes one of its {@link
+   * Group}s' {@linkplain Group#getRepresentatives() representatives},
+   * and returns the {@link Key} under which it was recorded.
+   *
+   * @param t the {@link Throwable} to record; may be {@code null} in
+   * which case no action is taken and {@code null} is returned
+   *
+   * @param representative the {@link Throwable}, usually {@code t}
+   * itself or its {@link ThrowableSummary}, to retain as a
+   * representative of {@code t}; must not be {@code null} if {@code
+   * t} is not {@code null}
+   *
+   * @return the {@link Key} to supply to {@link #remove(Throwable,
+   * Key)} if {@code t} is later removed, or {@code null}
+   */
+  final Key add(final Throwable t, final Throwable representative) {
+    Key returnValue = null;
+    if (t != null) {
+      assert representative != null;
+      returnValue = new Key(Throwables.getRootCause(t).getClass(), Long.valueOf(Throwables.fingerprint(t, this.fingerprintFrames)));
+      final Adder adder = new Adder(representative, returnValue.rootCauseClass);
+      this.byRootCauseClass.compute(returnValue.rootCauseClass, adder);
+      this.byFingerprint.compute(returnValue.fingerprint, adder);
+    }
+    return returnValue;
+  }
+
+  /**
+   * Removes the supplied {@link Throwable}, which must previously
+   * have been {@linkplain #add(Throwable) added}, from this {@link
+   * RootCauseIndex}.
+   *
+   * <p>The {@link Throwable} is removed from the {@link Group}s it was
+   * added to, as recorded by the supplied {@link Key}, even if its
+   * causal chain or stack frames have changed since.</p>
+   *
+   * @param t the {@link Throwable} to remove, or the representative
+   * it was {@linkplain #add(Throwable, Throwable) added} with; may be
+   * {@code null} if the caller knows that it is not a {@linkplain
+   * Group#getRepresentatives() representative}
+   *
+   * @param key the {@link Key} returned when {@code t} was {@linkplain
+   * #add(Throwable) added}; may be {@code null} in which case no
+   * action is taken
+   */
+  final void remove(final Throwable t, final Key key) {
+    if (key != null) {
+      final Remover remover = new Remover(t);
+      this.byRootCauseClass.computeIfPresent(key.rootCauseClass, remover);
+      this.byFingerprint.computeIfPresent(key.fingerprint, remover);
+    }
+  }
+
+  /**
+   * Returns {@code true} if the supplied {@link Throwable} is
+   * currently a {@linkplain Group#getRepresentatives() representative}
+   * of either {@link Group} identified by the supplied {@link Key}.
+   *
+   * <p>A {@link Throwable} that is not a representative of its {@link
+   * Group}s immediately after it has been {@linkplain #add(Throwable,
+   * Throwable) added} never becomes one, so a caller may use this
+   * method to decide whether the representative needs to be kept in
+   * order to {@linkplain #remove(Throwable, Key) remove} it
+   * later.</p>
+   *
+   * @param key the {@link Key}; may be {@code null} in which case
+   * {@code false} is returned
+   *
+   * @param t the {@link Throwable}, compared by identity; may be
+   * {@code null} in which case {@code false} is returned
+   *
+   * @return {@code true} if {@code t} is a representative
+   */
+  final boolean isRepresentative(final Key key, final Throwable t) {
+    if (key != null && t != null) {
+      for (final Group group : new Group[] { this.byRootCauseClass.get(key.rootCauseClass), this.byFingerprint.get(key.fingerprint) }) {
+        if (group != null) {
+          for (final Throwable representative : group.representatives) {
+            if (representative == t) {
+              return true;
+            }
+          }
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns a read-only, live {@link Map} of {@link Group}s indexed
+   * by the {@linkplain Class class} of their members' {@linkplain
+   * Throwables#getRootCause(Throwable) root causes}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} {@link Map}
+   */
+  public final Map<Class<? extends Throwable>, Group> getRootCauseGroups() {
+    return Collections.unmodifiableMap(this.byRootCauseClass);
+  }
+
+  /**
+   * Returns a read-only, live {@link Map} of {@link Group}s indexed
+   * by their members' {@linkplain Throwables#fingerprint(Throwable,
+   * int) fingerprints}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} {@link Map}
+   *
+   * @see #getFingerprintFrames()
+   */
+  public final Map<Long, Group> getFingerprintGroups() {
+    return Collections.unmodifiableMap(this.byFingerprint);
+  }
+
+  /**
+   * Returns the number of stack frames considered when {@linkplain
+   * Throwables#fingerprint(Throwable, int) fingerprinting}.
+   *
+   * @return the number of stack frames; never less than {@code 0}
+   */
+  public final int getFingerprintFrames() {
+    return this.fingerprintFrames;
+  }
+
+  /**
+   * Returns a {@link String} representation of this {@link
+   * RootCauseIndex}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} {@link String}
+   */
+  @Override
+  public String toString() {
+    return this.byRootCauseClass.values().toString();
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * An immutable group of {@link Throwable}s sharing a root cause
+   * class or fingerprint.
+   *
+   * <p>A {@link RootCauseIndex} replaces a {@link Group} each time its
+   * membership changes, so a {@link Group} is a consistent
+   * snapshot.</p>
+   *
+   * @author <a href="http://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  public static final class Group {
+
+    /**
+     * The class of the root cause of the first member of this {@link
+     * Group}.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final Class<? extends Throwable> rootCauseClass;
+
+    /**
+     * The number of members.
+     */
+    private final int count;
+
+    /**
+     * Representative members.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final Throwable[] representatives;
+
+    /**
+     * Creates a new {@link Group}.
+     *
+     * @param rootCauseClass the class of the root cause of the first
+     * member; must not be {@code null}
+     *
+     * @param count the number of members
+     *
+     * @param representatives representative members; must not be
+     * {@code null}
+     */
+    private Group(final Class<? extends Throwable> rootCauseClass, final int count, final Throwable[] representatives) {
+      super();
+      assert rootCauseClass != null;
+      assert representatives != null;
+      this.rootCauseClass = rootCauseClass;
+      this.count = count;
+      this.representatives = representatives;
+    }
+
+    /**
+     * Returns the {@link Class} of the {@linkplain
+     * Throwables#getRootCause(Throwable) root cause} of the members of
+     * this {@link Group}.  For a group of members with the same
+     * {@linkplain RootCauseIndex#getFingerprintGroups() fingerprint},
+     * this is the root cause class of the first such member.
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * @return a non-{@code null} {@link Class}
+     */
+    public final Class<? extends Throwable> getRootCauseClass() {
+      return this.rootCauseClass;
+    }
+
+    /**
+     * Returns the number of members of this {@link Group}.
+     *
+     * @return the number of members; always greater than {@code 0}
+     */
+    public final int getCount() {
+      return this.count;
+    }
+
+    /**
+     * Returns an unmodifiable {@link List} of some of the members of
+     * this {@link Group}, usually the earliest added.
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * @return a non-{@code null} {@link List}
+     */
+    public final List<Throwable> getRepresentatives() {
+      return Collections.unmodifiableList(Arrays.asList(this.representatives));
+    }
+
+    /**
+     * Returns a {@link String} representation of this {@link Group}.
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * @return a non-{@code null} {@link String}
+     */
+    @Override
+    public String toString() {
+      return String.format("%s x %d", this.rootCauseClass.getName(), this.count);
+    }
+
+  }
+
+  /**
+   * The root cause class and fingerprint under which a {@link
+   * Throwable} was {@linkplain RootCauseIndex#add(Throwable) added} to
+   * a {@link RootCauseIndex}.
+   *
+   * @author <a href="http://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  static final class Key {
+
+    /**
+     * The class of the root cause of the {@link Throwable}.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final Class<? extends Throwable> rootCauseClass;
+
+    /**
+     * The {@linkplain Throwables#fingerprint(Throwable, int)
+     * fingerprint} of the {@link Throwable}.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final Long fingerprint;
+
+    /**
+     * Creates a new {@link Key}.
+     *
+     * @param rootCauseClass the class of the root cause; must not be
+     * {@code null}
+     *
+     * @param fingerprint the fingerprint; must not be {@code null}
+     */
+    private Key(final Class<? extends Throwable> rootCauseClass, final Long fingerprint) {
+      super();
+      assert rootCauseClass != null;
+      assert fingerprint != null;
+      this.rootCauseClass = rootCauseClass;
+      this.fingerprint = fingerprint;
+    }
+
+  }
+
+  /**
+   * A {@link BiFunction} that produces a {@link Group} with one more
+   * member.
+   *
+   * @author <a href="http://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private final class Adder implements BiFunction<Object, Group, Group> {
+
+    /**
+     * The member being added.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final Throwable t;
+
+    /**
+     * The class of the root cause of the member being added.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final Class<? extends Throwable> rootCauseClass;
+
+    /**
+     * Creates a new {@link Adder}.
+     *
+     * @param t the member being added; must not be {@code null}
+     *
+     * @param rootCauseClass the class of its root cause; must not be
+     * {@code null}
+     */
+    private Adder(final Throwable t, final Class<? extends Throwable> rootCauseClass) {
+      super();
+      this.t = t;
+      this.rootCauseClass = rootCauseClass;
+    }
+
+    @Override
+    public final Group apply(final Object key, final Group group) {
+      final int max = RootCauseIndex.this.maximumRepresentatives;
+      if (group == null) {
+        return new Group(this.rootCauseClass, 1, max > 0 ? new Throwable[] { this.t } : new Throwable[0]);
+      }
+      Throwable[] representatives = group.representatives;
+      if (representatives.length < max) {
+        representatives = Arrays.copyOf(representatives, representatives.length + 1);
+        representatives[representatives.length - 1] = this.t;
+      }
+      return new Group(group.rootCauseClass, group.count + 1, representatives);
+    }
+
+  }
+
+  /**
+   * A {@link BiFunction} that produces a {@link Group} with one fewer
+   * member, or {@code null} if the {@link Group} would be empty.
+   *
+   * @author <a href="http://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class Remover implements BiFunction<Object, Group, Group> {
+
+    /**
+     * The member being removed, or the representative it was added
+     * with.
+     *
+     * <p>This field may be {@code null}, in which case it is known not
+     * to be a representative.</p>
+     */
+    private final Throwable t;
+
+    /**
+     * Creates a new {@link Remover}.
+     *
+     * @param t the member being removed, or the representative it was
+     * added with; may be {@code null}
+     */
+    private Remover(final Throwable t) {
+      super();
+      this.t = t;
+    }
+
+    @Override
+    public final Group apply(final Object key, final Group group) {
+      if (group.count <= 1) {
+        return null;
+      }
+      final List<Throwable> representatives = new ArrayList<Throwable>(Arrays.asList(group.representatives));
+      for (int i = 0; i < representatives.size(); i++) {
+        if (representatives.get(i) == this.t) {
+          representatives.remove(i);
+          break;
+        }
+      }
+      return new Group(group.rootCauseClass, group.count - 1, representatives.toArray(new Throwable[representatives.size()]));
+    }
+
+  }
+
+}
@@ -0,0 +1,447 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.throwables;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * An append-only sequence of distinct (by identity) elements that can
+ * produce immutable {@linkplain #snapshot() snapshots} of itself in
+ * constant time.
+ *
+ * <p>Elements are stored in a series of segments, each twice the size
+ * of the one before it.  Segments are never reallocated and elements
+ * are never moved or overwritten, so appending is amortized constant
+ * time without any copying, and a snapshot need only record the
+ * current size: everything below that size is already frozen.</p>
+ *
+ * <p>Appends are serialized by a lock.  Reads, including {@linkplain
+ * #contains(Object) membership tests} and those made through
+ * snapshots, acquire no locks: membership is recorded in an
+ * open-addressed identity hash table that is only ever added to, and
+ * that is replaced, not resized in place, when it fills up.</p>
+ *
+ * <p>A {@link SegmentedLog} may be {@linkplain #seal() sealed}, after
+ * which nothing more can be appended to it; this lets an owner that
+ * must remove elements replace it with a new {@link SegmentedLog}
+ * without losing concurrent appends.</p>
+ *
+ * <p>Instances of this class are safe for use by multiple
+ * threads.</p>
+ *
+ * @param <E> the type of element
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see ThrowableChain#asList()
+ */
+final class SegmentedLog<E> {
+
+  /**
+   * The base-2 logarithm of the size of the first segment.
+   */
+  private static final int FIRST_SEGMENT_SHIFT = 3;
+
+  /**
+   * The segments.  Segment {@code k} holds {@code 1 <<
+   * (FIRST_SEGMENT_SHIFT + k)} elements; enough segments are provided
+   * to hold {@link Integer#MAX_VALUE} elements.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final Object[][] segments;
+
+  /**
+   * The number of elements.  A write to this field publishes the
+   * elements (and segments) written before it.
+   */
+  private volatile int size;
+
+  /**
+   * The elements, for fast identity-based membership tests: an
+   * open-addressed hash table, probed linearly from each element's
+   * {@linkplain System#identityHashCode(Object) identity hash code},
+   * whose length is always a power of two and which is never more
+   * than half full.  Elements are never removed from it.  When it
+   * would become more than half full it is replaced by a copy twice
+   * its length.
+   *
+   * <p>This field is never {@code null}.  It is only written, and
+   * its elements only set, while holding {@code this}; it is read
+   * without locking.</p>
+   */
+  private volatile AtomicReferenceArray<Object> members;
+
+  /**
+   * The number of elements in the {@link #members} table.
+   *
+   * <p>This field is guarded by {@code this}.</p>
+   */
+  private int memberCount;
+
+  /**
+   * Whether this {@link SegmentedLog} has been {@linkplain #seal()
+   * sealed}.
+   *
+   * <p>This field is guarded by {@code this}.</p>
+   */
+  private boolean sealed;
+
+  /**
+   * Creates a new, empty {@link SegmentedLog}.
+   */
+  SegmentedLog() {
+    super();
+    this.segments = new Object[32 - FIRST_SEGMENT_SHIFT][];
+    this.members = new AtomicReferenceArray<Object>(16);
+  }
+
+  /**
+   * Creates a new {@link SegmentedLog} containing the distinct
+   * elements of the supplied {@link Iterable}.
+   *
+   * @param elements the elements; may be {@code null}
+   */
+  SegmentedLog(final Iterable<? extends E> elements) {
+    this();
+    this.addAll(elements);
+  }
+
+  /**
+   * Appends the supplied element if it is not {@code null} and not
+   * already present.
+   *
+   * @param element the element to append; may be {@code null} in
+   * which case no action is taken
+   *
+   * @return {@code true} if the element was appended; {@code false}
+   * if it was {@code null}, was already present or if this {@link
+   * SegmentedLog} is {@linkplain #isSealed() sealed}
+   */
+  final synchronized boolean add(final E element) {
+    if (element == null || this.sealed) {
+      return false;
+    }
+    final int size = this.size;
+    if (!this.write(element, size)) {
+      return false;
+    }
+    this.size = size + 1; // publishes the element
+    return true;
+  }
+
+  /**
+   * Appends each distinct element of the supplied {@link Iterable}
+   * that is not already present.
+   *
+   * @param elements the elements; may be {@code null} in which case
+   * no action is taken
+   *
+   * @return {@code true} if any element was appended
+   *
+   * @see #appendAll(Iterable)
+   */
+  final synchronized boolean addAll(final Iterable<? extends E> elements) {
+    final List<E> appended = this.appendAll(elements);
+    return appended != null && !appended.isEmpty();
+  }
+
+  /**
+   * Appends each distinct, non-{@code null} element of the supplied
+   * {@link Iterable} that is not already present, publishing them all
+   * to readers at once, and returns the elements actually appended,
+   * in order.
+   *
+   * <p>This method takes time proportional to the number of elements
+   * supplied.</p>
+   *
+   * @param elements the elements; may be {@code null} in which case
+   * no action is taken
+   *
+   * @return an immutable {@link List} of the appended elements, or
+   * {@code null} if this {@link SegmentedLog} is {@linkplain
+   * #isSealed() sealed}
+   */
+  final synchronized List<E> appendAll(final Iterable<? extends E> elements) {
+    if (this.sealed) {
+      return null;
+    }
+    final int start = this.size;
+    int size = start;
+    if (elements != null) {
+      for (final E element : elements) {
+        if (element != null && this.write(element, size)) {
+          size++;
+        }
+      }
+    }
+    this.size = size; // publishes every element written
+    return new Snapshot<E>(this.segments, size).subList(start, size);
+  }
+
+  /**
+   * Records the supplied element at the supplied index, without
+   * publishing it, if it is not already present.
+   *
+   * @param element the element; must not be {@code null}
+   *
+   * @param size the index at which to write it, which must be the
+   * number of elements written so far
+   *
+   * @return {@code true} if the element was written
+   *
+   * @exception IllegalStateException if there is no room for the
+   * element
+   */
+  private final boolean write(final E element, final int size) {
+    assert Thread.holdsLock(this);
+    assert element != null;
+    AtomicReferenceArray<Object> members = this.members;
+    if (contains(members, element)) {
+      return false;
+    }
+    if (size == Integer.MAX_VALUE) {
+      throw new IllegalStateException("Too many elements");
+    }
+    if (2 * (this.memberCount + 1) > members.length()) {
+      final AtomicReferenceArray<Object> larger = new AtomicReferenceArray<Object>(2 * members.length());
+      for (int i = 0; i < members.length(); i++) {
+        final Object member = members.get(i);
+        if (member != null) {
+          insert(larger, member);
+        }
+      }
+      this.members = larger; // publishes the copy
+      members = larger;
+    }
+    insert(members, element);
+    this.memberCount++;
+    final int j = size + (1 << FIRST_SEGMENT_SHIFT);
+    final int highBit = 31 - Integer.numberOfLeadingZeros(j);
+    final int segment = highBit - FIRST_SEGMENT_SHIFT;
+    if (this.segments[segment] == null) {
+      this.segments[segment] = new Object[1 << highBit];
+    }
+    this.segments[segment][j - (1 << highBit)] = element;
+    return true;
+  }
+
+  /**
+   * Prevents any further elements from being appended to this {@link
+   * SegmentedLog} and returns a {@linkplain #snapshot() snapshot} of
+   * its final contents.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null}, immutable {@link List}
+   */
+  final synchronized List<E> seal() {
+    this.sealed = true;
+    return this.snapshot();
+  }
+
+  /**
+   * Returns {@code true} if this {@link SegmentedLog} has been
+   * {@linkplain #seal() sealed}.
+   *
+   * @return {@code true} if this {@link SegmentedLog} has been sealed
+   */
+  final synchronized boolean isSealed() {
+    return this.sealed;
+  }
+
+  /**
+   * Returns {@code true} if the supplied {@link Object} is an element
+   * of this {@link SegmentedLog}, compared by identity.
+   *
+   * <p>This method acquires no locks.  Every element present in a
+   * {@linkplain #snapshot() snapshot} taken before this method is
+   * called is reported as present; an element that is in the middle
+   * of being {@linkplain #appendAll(Iterable) appended} may be
+   * reported as present slightly before it appears in snapshots.</p>
+   *
+   * @param o the {@link Object}; may be {@code null}
+   *
+   * @return {@code true} if {@code o} is an element
+   */
+  final boolean contains(final Object o) {
+    return o != null && contains(this.members, o);
+  }
+
+  /**
+   * Returns {@code true} if the supplied {@link Object} is present in
+   * the supplied {@linkplain #members membership table}.
+   *
+   * @param members the table; must not be {@code null} and must have
+   * at least one {@code null} element
+   *
+   * @param o the {@link Object}; must not be {@code null}
+   *
+   * @return {@code true} if {@code o} is present
+   */
+  private static final boolean contains(final AtomicReferenceArray<Object> members, final Object o) {
+    assert members != null;
+    assert o != null;
+    final int mask = members.length() - 1;
+    for (int i = indexFor(o, mask); ; i = (i + 1) & mask) {
+      final Object member = members.get(i);
+      if (member == o) {
+        return true;
+      } else if (member == null) {
+        return false;
+      }
+    }
+  }
+
+  /**
+   * Adds the supplied {@link Object}, which must not already be
+   * present, to the supplied {@linkplain #members membership table}.
+   *
+   * @param members the table; must not be {@code null} and must have
+   * at least one {@code null} element
+   *
+   * @param o the {@link Object}; must not be {@code null}
+   */
+  private static final void insert(final AtomicReferenceArray<Object> members, final Object o) {
+    assert members != null;
+    assert o != null;
+    final int mask = members.length() - 1;
+    int i = indexFor(o, mask);
+    while (members.get(i) != null) {
+      assert members.get(i) != o;
+      i = (i + 1) & mask;
+    }
+    members.set(i, o);
+  }
+
+  /**
+   * Returns the index in a {@linkplain #members membership table} at
+   * which probing for the supplied {@link Object} begins.
+   *
+   * @param o the {@link Object}; must not be {@code null}
+   *
+   * @param mask one less than the length of the table
+   *
+   * @return an index between {@code 0} and {@code mask}, inclusive
+   */
+  private static final int indexFor(final Object o, final int mask) {
+    final int h = System.identityHashCode(o);
+    return (h ^ (h >>> 16)) & mask;
+  }
+
+  /**
+   * Returns the number of elements.
+   *
+   * @return the number of elements; never less than {@code 0}
+   */
+  final int size() {
+    return this.size;
+  }
+
+  /**
+   * Returns an immutable {@link List} of the elements of this {@link
+   * SegmentedLog} as of the moment of invocation.  Elements appended
+   * afterwards do not appear in it.
+   *
+   * <p>This method runs in constant time and never returns {@code
+   * null}.</p>
+   *
+   * @return a non-{@code null}, immutable {@link List}
+   */
+  final List<E> snapshot() {
+    return new Snapshot<E>(this.segments, this.size);
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * An immutable {@link List} of the first {@link #size} elements of a
+   * {@link SegmentedLog}.
+   *
+   * @param <E> the type of element
+   *
+   * @author <a href="http://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class Snapshot<E> extends AbstractList<E> implements RandomAccess {
+
+    /**
+     * The segments of the {@link SegmentedLog}, shared with it.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final Object[][] segments;
+
+    /**
+     * The number of elements in this {@link Snapshot}.
+     */
+    private final int size;
+
+    /**
+     * Creates a new {@link Snapshot}.
+     *
+     * @param segments the segments; must not be {@code null}
+     *
+     * @param size the number of elements; must have been read (from a
+     * {@code volatile} field) after the elements were written
+     */
+    private Snapshot(final Object[][] segments, final int size) {
+      super();
+      assert segments != null;
+      this.segments = segments;
+      this.size = size;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public final E get(final int index) {
+      if (index < 0 || index >= this.size) {
+        throw new IndexOutOfBoundsException(String.format("index: %d; size: %d", index, this.size));
+      }
+      final int j = index + (1 << FIRST_SEGMENT_SHIFT);
+      final int highBit = 31 - Integer.numberOfLeadingZeros(j);
+      return (E)this.segments[highBit - FIRST_SEGMENT_SHIFT][j - (1 << highBit)];
+    }
+
+    @Override
+    public final int size() {
+      return this.size;
+    }
+
+  }
+
+}
@@ -0,0 +1,661 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.throwables;
+
+import java.io.IOException;
+
+import java.lang.ref.Reference;
+import java.lang.ref.WeakReference;
+
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * The affiliated {@link Throwable}s that a {@link ThrowableChain} has
+ * {@linkplain ThrowableChain#spillTo(ThrowableSpillFile, int, long)
+ * spilled} to a {@link ThrowableSpillFile}.
+ *
+ * <p>Each spilled affiliate occupies a slot, which records its
+ * record number in the {@link ThrowableSpillFile} and a {@link
+ * WeakReference} to the affiliate itself.  As long as anything else
+ * keeps the affiliate reachable, it, rather than a decoded copy, is
+ * what {@linkplain #snapshot() snapshots} report; after that, a
+ * decoded copy is reported, and the same copy is reported again for
+ * as long as anything keeps <em>it</em> reachable.  An {@link
+ * IdentityIndex} finds the slot of either by identity, so that {@link
+ * #contains(Object)} and {@link #remove(Collection)} are consistent
+ * with iteration, and {@link #contains(Object)} takes time
+ * independent of the number of spilled affiliates.  Removal copies
+ * the slots, so snapshots taken earlier are unaffected; the records
+ * of removed affiliates remain in the {@link ThrowableSpillFile}.</p>
+ *
+ * <p>Instances of this class are safe for use by multiple
+ * threads.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see ThrowableChain#spillTo(ThrowableSpillFile, int, long)
+ */
+final class SpilledAffiliates {
+
+  /**
+   * A value returned by {@link #append(Throwable)} indicating that the
+   * {@link Throwable} was spilled.
+   */
+  static final int SPILLED = 0;
+
+  /**
+   * A value returned by {@link #append(Throwable)} indicating that the
+   * {@link Throwable} had already been spilled.
+   */
+  static final int PRESENT = 1;
+
+  /**
+   * A value returned by {@link #append(Throwable)} indicating that the
+   * {@link Throwable} could not be encoded and should be kept on the
+   * heap instead.
+   */
+  static final int UNENCODABLE = 2;
+
+  /**
+   * The {@link ThrowableSpillFile} to spill to.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final ThrowableSpillFile file;
+
+  /**
+   * The member count at which spilling begins.
+   */
+  private final int memberThreshold;
+
+  /**
+   * The estimated affiliate heap footprint at which spilling begins.
+   */
+  private final long byteBudget;
+
+  /**
+   * The estimated heap footprint of affiliates added so far.
+   *
+   * <p>This field is guarded by {@code this}.</p>
+   */
+  private long heapBytes;
+
+  /**
+   * Whether spilling has begun.
+   */
+  private volatile boolean spilling;
+
+  /**
+   * The {@link ThrowableSpillFile} record numbers of the spilled
+   * affiliates, in order; only the first {@link #size} elements are
+   * meaningful.  This and the other per-slot arrays are grown, and
+   * compacted by {@link #remove(Collection)}, by copying, so a
+   * reference to an older array remains valid for the elements it
+   * held.
+   *
+   * <p>This field is never {@code null}.  It is guarded by {@code
+   * this}.</p>
+   */
+  private int[] records;
+
+  /**
+   * {@link WeakReference}s to the spilled affiliates themselves.
+   *
+   * <p>This field is never {@code null}.  It is guarded by {@code
+   * this}.</p>
+   */
+  private Reference<?>[] originals;
+
+  /**
+   * {@link WeakReference}s to the copies most recently decoded for
+   * spilled affiliates that had been collected; an element is {@code
+   * null} if no copy has been decoded.
+   *
+   * <p>This field is never {@code null}.  It is guarded by {@code
+   * this}.</p>
+   */
+  private Reference<?>[] copies;
+
+  /**
+   * The {@link RootCauseIndex.Key}s under which spilled affiliates
+   * were {@linkplain #indexed(Throwable, RootCauseIndex.Key,
+   * ThrowableSummary) indexed}; an element is {@code null} until
+   * then.
+   *
+   * <p>This field is never {@code null}.  It is guarded by {@code
+   * this}.</p>
+   */
+  private RootCauseIndex.Key[] keys;
+
+  /**
+   * The {@link ThrowableSummary} instances that are {@linkplain
+   * RootCauseIndex#isRepresentative(RootCauseIndex.Key, Throwable)
+   * representatives} in a {@link RootCauseIndex} of the spilled
+   * affiliates they summarize; an element is {@code null} for most
+   * affiliates.
+   *
+   * <p>This field is never {@code null}.  It is guarded by {@code
+   * this}.</p>
+   */
+  private ThrowableSummary[] representatives;
+
+  /**
+   * The {@link IdentityIndex} locating the slots of spilled affiliates
+   * and of their decoded copies.
+   *
+   * <p>This field is never {@code null}.  It is guarded by {@code
+   * this}.</p>
+   */
+  private IdentityIndex index;
+
+  /**
+   * The number of spilled affiliates.
+   */
+  private volatile int size;
+
+  /**
+   * Creates a new {@link SpilledAffiliates}.
+   *
+   * @param file the {@link ThrowableSpillFile}; must not be {@code
+   * null}
+   *
+   * @param memberThreshold the member count at which spilling begins
+   *
+   * @param byteBudget the estimated heap footprint at which spilling
+   * begins
+   *
+   * @param heapBytes the estimated heap footprint of existing
+   * affiliates
+   *
+   * @param prior an existing {@link SpilledAffiliates} for the same
+   * {@link ThrowableSpillFile} whose affiliates should be carried
+   * over; may be {@code null}
+   */
+  SpilledAffiliates(final ThrowableSpillFile file, final int memberThreshold, final long byteBudget, final long heapBytes, final SpilledAffiliates prior) {
+    super();
+    assert file != null;
+    assert prior == null || prior.file == file;
+    this.file = file;
+    this.memberThreshold = memberThreshold;
+    this.byteBudget = byteBudget;
+    this.heapBytes = heapBytes;
+    if (prior == null) {
+      this.records = new int[16];
+      this.originals = new Reference<?>[16];
+      this.copies = new Reference<?>[16];
+      this.keys = new RootCauseIndex.Key[16];
+      this.representatives = new ThrowableSummary[16];
+      this.index = new IdentityIndex();
+    } else {
+      synchronized (prior) {
+        // The prior instance is abandoned, so its arrays and index
+        // can be taken over as they are.
+        this.records = prior.records;
+        this.originals = prior.originals;
+        this.copies = prior.copies;
+        this.keys = prior.keys;
+        this.representatives = prior.representatives;
+        this.index = prior.index;
+        this.size = prior.size;
+        this.spilling = prior.spilling;
+      }
+    }
+  }
+
+  /**
+   * Returns the {@link ThrowableSpillFile} spilled to.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return the {@link ThrowableSpillFile}; never {@code null}
+   */
+  final ThrowableSpillFile getFile() {
+    return this.file;
+  }
+
+  /**
+   * Returns the number of spilled affiliates.
+   *
+   * @return the number of spilled affiliates
+   */
+  final int size() {
+    return this.size;
+  }
+
+  /**
+   * Returns {@code true} if the supplied {@link Throwable}, about to
+   * be added, should be spilled.
+   *
+   * @param heapCount the number of members currently on the heap
+   *
+   * @param t the {@link Throwable} about to be added; must not be
+   * {@code null}
+   *
+   * @return {@code true} if {@code t} should be spilled
+   */
+  final boolean shouldSpill(final int heapCount, final Throwable t) {
+    if (this.spilling) {
+      return true;
+    }
+    final long size = estimateSize(t);
+    synchronized (this) {
+      if (!this.spilling) {
+        if (heapCount >= this.memberThreshold || this.heapBytes + size > this.byteBudget) {
+          this.spilling = true;
+        } else {
+          this.heapBytes += size;
+        }
+      }
+      return this.spilling;
+    }
+  }
+
+  /**
+   * Spills the supplied {@link Throwable}, unless it has already been
+   * spilled.
+   *
+   * @param t the {@link Throwable} to spill; must not be {@code null}
+   *
+   * @return {@link #SPILLED} if the {@link Throwable} was spilled,
+   * {@link #PRESENT} if it already had been, or {@link #UNENCODABLE}
+   * if it could not be encoded and should be kept on the heap instead
+   */
+  final synchronized int append(final Throwable t) {
+    assert t != null;
+    if (this.find(t) >= 0) {
+      return PRESENT;
+    }
+    final int record;
+    try {
+      record = this.file.append(t);
+    } catch (final IOException notSerializable) {
+      return UNENCODABLE;
+    }
+    final int size = this.size;
+    if (size == this.records.length) {
+      this.records = Arrays.copyOf(this.records, size * 2);
+      this.originals = Arrays.copyOf(this.originals, size * 2);
+      this.copies = Arrays.copyOf(this.copies, size * 2);
+      this.keys = Arrays.copyOf(this.keys, size * 2);
+      this.representatives = Arrays.copyOf(this.representatives, size * 2);
+    }
+    this.records[size] = record;
+    this.originals[size] = new WeakReference<Throwable>(t);
+    this.index.add(t, size);
+    this.size = size + 1;
+    return SPILLED;
+  }
+
+  /**
+   * Records the {@link RootCauseIndex.Key} under which the supplied
+   * spilled affiliate was added to a {@link RootCauseIndex}, so that
+   * it can be removed from it if the affiliate is {@linkplain
+   * #remove(Collection) removed}.
+   *
+   * @param t the {@link Throwable} that was {@linkplain
+   * #append(Throwable) spilled}; must not be {@code null}
+   *
+   * @param key the {@link RootCauseIndex.Key}; may be {@code null}
+   *
+   * @param representative the {@link ThrowableSummary} of {@code t},
+   * if it is a {@linkplain
+   * RootCauseIndex#isRepresentative(RootCauseIndex.Key, Throwable)
+   * representative}; otherwise {@code null}
+   *
+   * @return {@code true} if the affiliate is still spilled; {@code
+   * false} if it is not, in which case the caller must remove it from
+   * the {@link RootCauseIndex} itself
+   */
+  final synchronized boolean indexed(final Throwable t, final RootCauseIndex.Key key, final ThrowableSummary representative) {
+    assert t != null;
+    final Reference<?>[] originals = this.originals;
+    final int slot = this.index.find(t, s -> originals[s].get() == t);
+    if (slot < 0) {
+      return false;
+    }
+    this.keys[slot] = key;
+    this.representatives[slot] = representative;
+    return true;
+  }
+
+  /**
+   * Returns {@code true} if the supplied {@link Object} is a spilled
+   * affiliate, or the copy of one most recently {@linkplain
+   * #snapshot() reported}.  Affiliates are compared by identity.
+   *
+   * @param o the {@link Object}; may be {@code null}
+   *
+   * @return {@code true} if {@code o} is a spilled affiliate
+   */
+  final synchronized boolean contains(final Object o) {
+    return this.find(o) >= 0;
+  }
+
+  /**
+   * Removes every spilled affiliate that is identical to an element
+   * of the supplied {@link Collection}, and returns, for each, the
+   * representative and {@link RootCauseIndex.Key} with which it was
+   * indexed, so that the caller can {@linkplain
+   * RootCauseIndex#remove(Throwable, RootCauseIndex.Key) remove} it
+   * from its {@link RootCauseIndex}.
+   *
+   * <p>This method takes time proportional to the number of spilled
+   * affiliates if any is removed, and otherwise to the size of the
+   * supplied {@link Collection}.  Nothing is decoded.</p>
+   *
+   * @param c the affiliates to remove; must not be {@code null}
+   *
+   * @return a non-{@code null} {@link List} of {@link Map.Entry}
+   * instances, one for each removed affiliate, whose keys are its
+   * representative {@link ThrowableSummary}, or {@code null} if it has
+   * none, and whose values are its {@link RootCauseIndex.Key}, or
+   * {@code null} if it has not yet been {@linkplain #indexed(Throwable,
+   * RootCauseIndex.Key, ThrowableSummary) indexed}
+   */
+  final synchronized List<Map.Entry<ThrowableSummary, RootCauseIndex.Key>> remove(final Collection<?> c) {
+    assert c != null;
+    final int size = this.size;
+    final boolean[] removed = new boolean[size];
+    int removedCount = 0;
+    for (final Object o : c) {
+      final int slot = this.find(o);
+      if (slot >= 0 && !removed[slot]) {
+        removed[slot] = true;
+        removedCount++;
+      }
+    }
+    if (removedCount == 0) {
+      return Collections.emptyList();
+    }
+    final List<Map.Entry<ThrowableSummary, RootCauseIndex.Key>> returnValue = new ArrayList<Map.Entry<ThrowableSummary, RootCauseIndex.Key>>(removedCount);
+    final int capacity = Math.max(16, size - removedCount);
+    final int[] records = new int[capacity];
+    final Reference<?>[] originals = new Reference<?>[capacity];
+    final Reference<?>[] copies = new Reference<?>[capacity];
+    final RootCauseIndex.Key[] keys = new RootCauseIndex.Key[capacity];
+    final ThrowableSummary[] representatives = new ThrowableSummary[capacity];
+    int survivors = 0;
+    for (int i = 0; i < size; i++) {
+      if (removed[i]) {
+        returnValue.add(new AbstractMap.SimpleImmutableEntry<ThrowableSummary, RootCauseIndex.Key>(this.representatives[i], this.keys[i]));
+      } else {
+        records[survivors] = this.records[i];
+        originals[survivors] = this.originals[i];
+        copies[survivors] = this.copies[i];
+        keys[survivors] = this.keys[i];
+        representatives[survivors] = this.representatives[i];
+        survivors++;
+      }
+    }
+    this.records = records;
+    this.originals = originals;
+    this.copies = copies;
+    this.keys = keys;
+    this.representatives = representatives;
+    this.reindex(survivors);
+    this.size = survivors;
+    return returnValue;
+  }
+
+  /**
+   * Returns an unmodifiable {@link List} of the affiliates spilled so
+   * far, each decoded on demand if it has been collected.
+   *
+   * @return a {@link List}; never {@code null}
+   */
+  final List<Throwable> snapshot() {
+    final int[] records;
+    final Reference<?>[] originals;
+    final Reference<?>[] copies;
+    final int size;
+    synchronized (this) {
+      records = this.records;
+      originals = this.originals;
+      copies = this.copies;
+      size = this.size;
+    }
+    return new SpilledList(records, originals, copies, size);
+  }
+
+  /**
+   * Returns the affiliate in the supplied slot of the supplied
+   * arrays, which need not be current, decoding a copy of it if
+   * necessary.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param records the record numbers; must not be {@code null}
+   *
+   * @param originals the references to the affiliates themselves;
+   * must not be {@code null}
+   *
+   * @param copies the references to decoded copies; must not be
+   * {@code null}
+   *
+   * @param slot the slot
+   *
+   * @return the affiliate or a copy of it; never {@code null}
+   */
+  private final Throwable get(final int[] records, final Reference<?>[] originals, final Reference<?>[] copies, final int slot) {
+    Throwable t = (Throwable)originals[slot].get();
+    if (t == null) {
+      synchronized (this) {
+        t = resolve(copies[slot]);
+      }
+      if (t == null) {
+        // Decode outside the lock; then report whichever copy was
+        // recorded first.
+        final Throwable decoded = this.file.get(records[slot]);
+        synchronized (this) {
+          t = resolve(copies[slot]);
+          if (t == null) {
+            t = decoded;
+            copies[slot] = new WeakReference<Throwable>(decoded);
+            if (copies == this.copies) {
+              this.index.add(decoded, slot);
+              if (this.index.size() > 4 * this.size + 16) {
+                // Forget copies that have since been collected.
+                this.reindex(this.size);
+              }
+            }
+          }
+        }
+      }
+    }
+    return t;
+  }
+
+  /**
+   * Returns the slot of the supplied {@link Object} if it is a spilled
+   * affiliate or the copy of one most recently reported, or {@code
+   * -1}.
+   *
+   * <p>This method must be invoked while holding this {@link
+   * SpilledAffiliates}' monitor.</p>
+   *
+   * @param o the {@link Object}; may be {@code null}
+   *
+   * @return a slot, or {@code -1}
+   */
+  private final int find(final Object o) {
+    assert Thread.holdsLock(this);
+    final Reference<?>[] originals = this.originals;
+    final Reference<?>[] copies = this.copies;
+    return this.index.find(o, slot -> originals[slot].get() == o || resolve(copies[slot]) == o);
+  }
+
+  /**
+   * Replaces the {@link #index} with one holding only the affiliates,
+   * and decoded copies, in the supplied number of slots that are still
+   * reachable.
+   *
+   * <p>This method must be invoked while holding this {@link
+   * SpilledAffiliates}' monitor.</p>
+   *
+   * @param size the number of slots
+   */
+  private final void reindex(final int size) {
+    assert Thread.holdsLock(this);
+    final IdentityIndex index = new IdentityIndex();
+    for (int i = 0; i < size; i++) {
+      final Throwable original = (Throwable)this.originals[i].get();
+      if (original != null) {
+        index.add(original, i);
+      }
+      final Throwable copy = resolve(this.copies[i]);
+      if (copy != null) {
+        index.add(copy, i);
+      }
+    }
+    this.index = index;
+  }
+
+  /**
+   * Returns the referent of the supplied {@link Reference}, if any.
+   *
+   * @param reference the {@link Reference}; may be {@code null}
+   *
+   * @return the referent, or {@code null}
+   */
+  private static final Throwable resolve(final Reference<?> reference) {
+    return reference == null ? null : (Throwable)reference.get();
+  }
+
+  /**
+   * Returns a rough estimate of the number of heap bytes retained by
+   * the supplied {@link Throwable}, its stack trace and its
+   * {@linkplain Throwable#getCause() causes}.
+   *
+   * @param throwable the {@link Throwable}; may be {@code null}
+   *
+   * @return an estimate; never less than {@code 0}
+   */
+  static final long estimateSize(final Throwable throwable) {
+    long size = 0L;
+    for (Throwable t = throwable; t != null; t = t.getCause()) {
+      // Object header and fields, plus each StackTraceElement with
+      // its (frequently shared) strings.
+      size += 64L + 56L * t.getStackTrace().length;
+      final String message = t.getMessage();
+      if (message != null) {
+        size += 40L + 2L * message.length();
+      }
+    }
+    return size;
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * An unmodifiable {@link List} of spilled {@link Throwable}s, each
+   * decoded from a {@link ThrowableSpillFile} when retrieved if it has
+   * been collected.
+   *
+   * @author <a href="http://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private final class SpilledList extends AbstractList<Throwable> implements RandomAccess {
+
+    /**
+     * The record numbers; only the first {@link #size} are used.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final int[] records;
+
+    /**
+     * The references to the affiliates themselves; only the first
+     * {@link #size} are used.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final Reference<?>[] originals;
+
+    /**
+     * The references to decoded copies; only the first {@link #size}
+     * are used.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final Reference<?>[] copies;
+
+    /**
+     * The number of affiliates in this {@link SpilledList}.
+     */
+    private final int size;
+
+    /**
+     * Creates a new {@link SpilledList}.
+     *
+     * @param records the record numbers; must not be {@code null}
+     *
+     * @param originals the references to the affiliates themselves;
+     * must not be {@code null}
+     *
+     * @param copies the references to decoded copies; must not be
+     * {@code null}
+     *
+     * @param size the number of affiliates to use
+     */
+    private SpilledList(final int[] records, final Reference<?>[] originals, final Reference<?>[] copies, final int size) {
+      super();
+      this.records = records;
+      this.originals = originals;
+      this.copies = copies;
+      this.size = size;
+    }
+
+    @Override
+    public final Throwable get(final int index) {
+      if (index < 0 || index >= this.size) {
+        throw new IndexOutOfBoundsException(String.format("index: %d; size: %d", index, this.size));
+      }
+      return SpilledAffiliates.this.get(this.records, this.originals, this.copies, index);
+    }
+
+    @Override
+    public final int size() {
+      return this.size;
+    }
+
+  }
+
+}
@@ -0,0 +1,639 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.throwables;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import java.util.concurrent.TimeUnit;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Decides whether a {@link Throwable} should be emitted (logged,
+ * printed, reported) or merely counted, so that during an error storm
+ * only the first few occurrences of each distinct <em>shape</em> of
+ * failure are emitted.
+ *
+ * <p>A {@link Throwable}'s shape is its {@linkplain
+ * Throwables#fingerprint(Throwable, int) fingerprint}: its class
+ * chain plus the topmost stack frames of its root cause.  Each call
+ * to {@link #shouldEmit(Throwable)} counts one occurrence of the
+ * supplied {@link Throwable}'s shape and returns {@code true} only if
+ * no more than {@link #getEmitLimit()} occurrences of that shape have
+ * been counted within the most recent window of time.</p>
+ *
+ * <p>Occurrences are counted by a <a
+ * href="http://en.wikipedia.org/wiki/Count%E2%80%93min_sketch">count-min
+ * sketch</a> divided into a ring of time slots that together span the
+ * window, so that old occurrences age out.  A count-min sketch may
+ * overcount when distinct shapes collide, so a rare shape is
+ * occasionally suppressed early.  Because slots are cleared and
+ * reused without locking, an occurrence counted at the moment its
+ * slot is recycled may also be lost, so a shape may occasionally be
+ * emitted slightly more than {@link #getEmitLimit()} times in one
+ * window.  Neither effect changes whether a sustained storm is
+ * suppressed.  A small table of the most frequent shapes seen in the
+ * current window is also kept; see {@link #getHeavyHitters()}.</p>
+ *
+ * <p>The memory used by a {@link StormSuppressor} is fixed at
+ * construction time and does not depend on how many distinct shapes
+ * are counted.  All updates are lock-free.</p>
+ *
+ * <p>Instances of this class are safe for use by multiple
+ * threads.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see ThrowableChain#setStormSuppressor(StormSuppressor)
+ */
+public final class StormSuppressor {
+
+  /**
+   * The default number of occurrences of a shape emitted per window.
+   */
+  public static final int DEFAULT_EMIT_LIMIT = 10;
+
+  /**
+   * The default window length in seconds.
+   */
+  public static final long DEFAULT_WINDOW_SECONDS = 60L;
+
+  /**
+   * The number of time slots the window is divided into.
+   */
+  private static final int SLOTS = 6;
+
+  /**
+   * The default number of counters per sketch row; a power of two.
+   */
+  private static final int DEFAULT_WIDTH = 1024;
+
+  /**
+   * The default number of sketch rows.
+   */
+  private static final int DEFAULT_DEPTH = 4;
+
+  /**
+   * The default number of heavy hitters tracked.
+   */
+  private static final int DEFAULT_HEAVY_HITTER_COUNT = 16;
+
+  /**
+   * The maximum number of occurrences of a shape that will be
+   * emitted per window.
+   */
+  private final int emitLimit;
+
+  /**
+   * The length of a time slot in nanoseconds.
+   */
+  private final long slotNanos;
+
+  /**
+   * The number of stack frames considered when {@linkplain
+   * Throwables#fingerprint(Throwable, int) fingerprinting}.
+   */
+  private final int fingerprintFrames;
+
+  /**
+   * The number of counters per sketch row, minus one.
+   */
+  private final int mask;
+
+  /**
+   * The number of sketch rows.
+   */
+  private final int depth;
+
+  /**
+   * The counters, laid out slot by slot and, within each slot, row by
+   * row.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final AtomicIntegerArray counters;
+
+  /**
+   * The epoch (the time divided by {@link #slotNanos}) that each slot
+   * currently counts.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final AtomicLongArray slotEpochs;
+
+  /**
+   * The heavy hitter table; elements may be {@code null}.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final AtomicReferenceArray<HeavyHitter> heavyHitters;
+
+  /**
+   * The number of times {@link #shouldEmit(Throwable)} has returned
+   * {@code false}.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final LongAdder suppressedCount;
+
+  /**
+   * The source of the current time in nanoseconds.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final LongSupplier nanoTime;
+
+  /**
+   * Creates a new {@link StormSuppressor} that emits at most {@link
+   * #DEFAULT_EMIT_LIMIT} occurrences of each shape per {@link
+   * #DEFAULT_WINDOW_SECONDS} seconds.
+   */
+  public StormSuppressor() {
+    this(DEFAULT_EMIT_LIMIT, DEFAULT_WINDOW_SECONDS, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Creates a new {@link StormSuppressor}.
+   *
+   * @param emitLimit the maximum number of occurrences of each shape
+   * that will be emitted per window; must not be less than {@code 0}
+   *
+   * @param window the length of the window; must be greater than
+   * {@code 0}
+   *
+   * @param unit the {@link TimeUnit} of {@code window}; must not be
+   * {@code null}
+   *
+   * @exception IllegalArgumentException if any parameter is invalid
+   */
+  public StormSuppressor(final int emitLimit, final long window, final TimeUnit unit) {
+    this(emitLimit, window, unit, RootCauseIndex.DEFAULT_FINGERPRINT_FRAMES, DEFAULT_WIDTH, DEFAULT_DEPTH, DEFAULT_HEAVY_HITTER_COUNT, null);
+  }
+
+  /**
+   * Creates a new {@link StormSuppressor}.
+   *
+   * @param emitLimit the maximum number of occurrences of each shape
+   * that will be emitted per window; must not be less than {@code 0}
+   *
+   * @param window the length of the window; must be greater than
+   * {@code 0}
+   *
+   * @param unit the {@link TimeUnit} of {@code window}; must not be
+   * {@code null}
+   *
+   * @param fingerprintFrames the number of stack frames considered
+   * when {@linkplain Throwables#fingerprint(Throwable, int)
+   * fingerprinting}; must not be less than {@code 0}
+   *
+   * @param width the number of counters per sketch row; will be
+   * rounded up to a power of two; must be greater than {@code 0}
+   *
+   * @param depth the number of sketch rows; must be greater than
+   * {@code 0}
+   *
+   * @param heavyHitterCount the number of heavy hitters to track;
+   * must not be less than {@code 0}
+   *
+   * @param nanoTime the source of the current time in nanoseconds;
+   * may be {@code null} in which case {@link System#nanoTime()} will
+   * be used
+   *
+   * @exception IllegalArgumentException if any parameter is invalid
+   */
+  StormSuppressor(final int emitLimit,
+                  final long window,
+                  final TimeUnit unit,
+                  final int fingerprintFrames,
+                  final int width,
+                  final int depth,
+                  final int heavyHitterCount,
+                  final LongSupplier nanoTime) {
+    super();
+    if (emitLimit < 0) {
+      throw new IllegalArgumentException(String.format("emitLimit < 0: %d", emitLimit));
+    }
+    if (window <= 0L) {
+      throw new IllegalArgumentException(String.format("window <= 0: %d", window));
+    }
+    if (unit == null) {
+      throw new IllegalArgumentException("unit", new NullPointerException("unit"));
+    }
+    if (fingerprintFrames < 0) {
+      throw new IllegalArgumentException(String.format("fingerprintFrames < 0: %d", fingerprintFrames));
+    }
+    if (width < 1 || width > 1 << 30) {
+      throw new IllegalArgumentException(String.format("width: %d", width));
+    }
+    if (depth < 1) {
+      throw new IllegalArgumentException(String.format("depth < 1: %d", depth));
+    }
+    if (heavyHitterCount < 0) {
+      throw new IllegalArgumentException(String.format("heavyHitterCount < 0: %d", heavyHitterCount));
+    }
+    this.emitLimit = emitLimit;
+    this.slotNanos = Math.max(1L, unit.toNanos(window) / SLOTS);
+    this.fingerprintFrames = fingerprintFrames;
+    final int roundedWidth = Integer.highestOneBit(width) == width ? width : Integer.highestOneBit(width) << 1;
+    this.mask = roundedWidth - 1;
+    this.depth = depth;
+    this.counters = new AtomicIntegerArray(SLOTS * depth * roundedWidth);
+    this.slotEpochs = new AtomicLongArray(SLOTS);
+    for (int i = 0; i < SLOTS; i++) {
+      this.slotEpochs.set(i, Long.MIN_VALUE);
+    }
+    this.heavyHitters = new AtomicReferenceArray<HeavyHitter>(heavyHitterCount);
+    this.suppressedCount = new LongAdder();
+    if (nanoTime == null) {
+      this.nanoTime = new LongSupplier() {
+          @Override
+          public final long getAsLong() {
+            return System.nanoTime();
+          }
+        };
+    } else {
+      this.nanoTime = nanoTime;
+    }
+  }
+
+  /**
+   * Counts one occurrence of the supplied {@link Throwable}'s shape
+   * and returns {@code true} if it should be emitted, i.e. if no more
+   * than {@linkplain #getEmitLimit() the emit limit} occurrences of its
+   * shape have been counted within the current window.
+   *
+   * @param t the {@link Throwable} in question; may be {@code null} in
+   * which case {@code false} will be returned
+   *
+   * @return {@code true} if the supplied {@link Throwable} should be
+   * emitted; {@code false} if it should merely be counted
+   */
+  public final boolean shouldEmit(final Throwable t) {
+    if (t == null) {
+      return false;
+    }
+    final long fingerprint = Throwables.fingerprint(t, this.fingerprintFrames);
+    final long epoch = this.advance();
+    final int rowLength = this.mask + 1;
+    final int slotBase = (int)Math.floorMod(epoch, (long)SLOTS) * this.depth * rowLength;
+    for (int row = 0; row < this.depth; row++) {
+      this.counters.incrementAndGet(slotBase + row * rowLength + this.column(fingerprint, row));
+    }
+    final long count = this.estimate(fingerprint, epoch);
+    this.recordHeavyHitter(fingerprint, count, epoch, t);
+    final boolean returnValue = count <= this.emitLimit;
+    if (!returnValue) {
+      this.suppressedCount.increment();
+    }
+    return returnValue;
+  }
+
+  /**
+   * Returns the (over)estimated number of occurrences of the supplied
+   * {@link Throwable}'s shape counted within the current window.
+   *
+   * @param t the {@link Throwable} in question; may be {@code null}
+   * in which case {@code 0} will be returned
+   *
+   * @return the estimated count; never less than {@code 0}
+   */
+  public final long getCount(final Throwable t) {
+    if (t == null) {
+      return 0L;
+    }
+    return this.estimate(Throwables.fingerprint(t, this.fingerprintFrames), this.advance());
+  }
+
+  /**
+   * Returns the most frequent shapes counted within the current
+   * window, most frequent first.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null}, unmodifiable {@link List} of {@link
+   * HeavyHitter}s
+   */
+  public final List<HeavyHitter> getHeavyHitters() {
+    final long epoch = this.advance();
+    final int size = this.heavyHitters.length();
+    final List<HeavyHitter> returnValue = new ArrayList<HeavyHitter>(size);
+    final Set<Long> seen = new HashSet<Long>();
+    for (int i = 0; i < size; i++) {
+      final HeavyHitter h = this.heavyHitters.get(i);
+      if (h != null && seen.add(Long.valueOf(h.fingerprint))) {
+        final long count = this.estimate(h.fingerprint, epoch);
+        if (count > 0L) {
+          returnValue.add(new HeavyHitter(h.fingerprint, h.example, count, epoch));
+        }
+      }
+    }
+    Collections.sort(returnValue, new Comparator<HeavyHitter>() {
+        @Override
+        public final int compare(final HeavyHitter a, final HeavyHitter b) {
+          return Long.compare(b.count, a.count);
+        }
+      });
+    return Collections.unmodifiableList(returnValue);
+  }
+
+  /**
+   * Returns the number of times {@link #shouldEmit(Throwable)} has
+   * returned {@code false}.
+   *
+   * @return the number of suppressed occurrences; never less than
+   * {@code 0}
+   */
+  public final long getSuppressedCount() {
+    return this.suppressedCount.sum();
+  }
+
+  /**
+   * Returns the maximum number of occurrences of each shape that will
+   * be emitted per window.
+   *
+   * @return the emit limit; never less than {@code 0}
+   */
+  public final int getEmitLimit() {
+    return this.emitLimit;
+  }
+
+  /**
+   * Returns the current epoch, first clearing the slot for it if that
+   * slot still holds counts from an earlier epoch.
+   *
+   * <p>A thread that loses the race to clear a slot proceeds at once,
+   * so a few increments racing with the clearing may be lost; this is
+   * in keeping with the approximate nature of the sketch.</p>
+   *
+   * @return the current epoch
+   */
+  private final long advance() {
+    final long epoch = Math.floorDiv(this.nanoTime.getAsLong(), this.slotNanos);
+    final int slot = (int)Math.floorMod(epoch, (long)SLOTS);
+    final long slotEpoch = this.slotEpochs.get(slot);
+    if (slotEpoch < epoch && this.slotEpochs.compareAndSet(slot, slotEpoch, epoch)) {
+      final int slotLength = this.depth * (this.mask + 1);
+      final int base = slot * slotLength;
+      for (int i = 0; i < slotLength; i++) {
+        this.counters.set(base + i, 0);
+      }
+    }
+    return epoch;
+  }
+
+  /**
+   * Returns the estimated count of the supplied fingerprint over the
+   * slots that are live as of the supplied epoch: the minimum, over
+   * all rows, of the sum of that row's counters.
+   *
+   * @param fingerprint the fingerprint
+   *
+   * @param epoch the current epoch
+   *
+   * @return the estimate; never less than {@code 0}
+   */
+  private final long estimate(final long fingerprint, final long epoch) {
+    final int rowLength = this.mask + 1;
+    final int slotLength = this.depth * rowLength;
+    long min = Long.MAX_VALUE;
+    for (int row = 0; row < this.depth; row++) {
+      final int offset = row * rowLength + this.column(fingerprint, row);
+      long sum = 0L;
+      for (int slot = 0; slot < SLOTS; slot++) {
+        if (this.slotEpochs.get(slot) > epoch - SLOTS) {
+          sum += this.counters.get(slot * slotLength + offset);
+        }
+      }
+      if (sum < min) {
+        min = sum;
+      }
+    }
+    return min;
+  }
+
+  /**
+   * Returns the column, within the supplied row, that counts the
+   * supplied fingerprint.
+   *
+   * @param fingerprint the fingerprint
+   *
+   * @param row the row
+   *
+   * @return the column
+   */
+  private final int column(final long fingerprint, final int row) {
+    // Derive one hash per row from the two halves of the fingerprint
+    // (Kirsch and Mitzenmacher, "Less Hashing, Same Performance").
+    final int h1 = (int)fingerprint;
+    final int h2 = (int)(fingerprint >>> 32) | 1;
+    return (h1 + row * h2) & this.mask;
+  }
+
+  /**
+   * Records the supplied fingerprint in the heavy hitter table if its
+   * count is high enough.
+   *
+   * @param fingerprint the fingerprint
+   *
+   * @param count its current estimated count
+   *
+   * @param epoch the current epoch
+   *
+   * @param t an example {@link Throwable} with the fingerprint; must
+   * not be {@code null}
+   */
+  private final void recordHeavyHitter(final long fingerprint, final long count, final long epoch, final Throwable t) {
+    final int size = this.heavyHitters.length();
+    int minIndex = -1;
+    HeavyHitter min = null;
+    long minCount = Long.MAX_VALUE;
+    for (int i = 0; i < size; i++) {
+      final HeavyHitter h = this.heavyHitters.get(i);
+      if (h == null) {
+        if (minCount > -1L) {
+          minIndex = i;
+          min = null;
+          minCount = -1L;
+        }
+      } else if (h.fingerprint == fingerprint) {
+        if (count > h.count || epoch != h.epoch) {
+          this.heavyHitters.compareAndSet(i, h, new HeavyHitter(fingerprint, h.example, count, epoch));
+        }
+        return;
+      } else {
+        // Entries not updated within the window no longer count.
+        final long hCount = h.epoch > epoch - SLOTS ? h.count : 0L;
+        if (hCount < minCount) {
+          minIndex = i;
+          min = h;
+          minCount = hCount;
+        }
+      }
+    }
+    if (minIndex >= 0 && count > minCount) {
+      this.heavyHitters.compareAndSet(minIndex, min, new HeavyHitter(fingerprint, t.toString(), count, epoch));
+    }
+  }
+
+  /**
+   * Returns a {@link String} representation of this {@link
+   * StormSuppressor}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} {@link String}
+   */
+  @Override
+  public String toString() {
+    return String.format("%s[emitLimit=%d; suppressed=%d; heavyHitters=%s]",
+                         this.getClass().getSimpleName(),
+                         this.getEmitLimit(),
+                         this.getSuppressedCount(),
+                         this.getHeavyHitters());
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * An immutable record of a frequently occurring shape of {@link
+   * Throwable}.
+   *
+   * @author <a href="http://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   *
+   * @see StormSuppressor#getHeavyHitters()
+   */
+  public static final class HeavyHitter {
+
+    /**
+     * The fingerprint of the shape.
+     */
+    private final long fingerprint;
+
+    /**
+     * The {@linkplain Throwable#toString() <code>String</code> form}
+     * of an example {@link Throwable} with this shape.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final String example;
+
+    /**
+     * The estimated count.
+     */
+    private final long count;
+
+    /**
+     * The epoch at which {@link #count} was estimated.
+     */
+    private final long epoch;
+
+    /**
+     * Creates a new {@link HeavyHitter}.
+     *
+     * @param fingerprint the fingerprint
+     *
+     * @param example the example; must not be {@code null}
+     *
+     * @param count the estimated count
+     *
+     * @param epoch the epoch of the estimate
+     */
+    private HeavyHitter(final long fingerprint, final String example, final long count, final long epoch) {
+      super();
+      assert example != null;
+      this.fingerprint = fingerprint;
+      this.example = example;
+      this.count = count;
+      this.epoch = epoch;
+    }
+
+    /**
+     * Returns the {@linkplain Throwables#fingerprint(Throwable, int)
+     * fingerprint} of this shape.
+     *
+     * @return the fingerprint
+     */
+    public final long getFingerprint() {
+      return this.fingerprint;
+    }
+
+    /**
+     * Returns the {@linkplain Throwable#toString()
+     * <code>String</code> form} of an example {@link Throwable} with
+     * this shape.
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * @return a non-{@code null} {@link String}
+     */
+    public final String getExample() {
+      return this.example;
+    }
+
+    /**
+     * Returns the estimated number of occurrences of this shape within
+     * the window.
+     *
+     * @return the estimated count; never less than {@code 0}
+     */
+    public final long getCount() {
+      return this.count;
+    }
+
+    /**
+     * Returns a {@link String} representation of this {@link
+     * HeavyHitter}.
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * @return a non-{@code null} {@link String}
+     */
+    @Override
+    public String toString() {
+      return String.format("%s x %d", this.example, this.count);
+    }
+
+  }
+
+}
@@ -0,0 +1,837 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.throwables;
+
+import java.time.Instant;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import java.util.concurrent.TimeUnit;
+
+import java.util.logging.ConsoleHandler;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogManager;
+import java.util.logging.LogRecord;
+
+/**
+ * A {@link Handler} that buffers {@link LogRecord}s bearing
+ * {@linkplain LogRecord#getThrown() <code>Throwable</code>s} for a
+ * short window, groups them by {@linkplain
+ * LogRecord#getLoggerName() logger} and {@linkplain
+ * Throwables#fingerprint(Throwable, int) fingerprint}, and hands one
+ * aggregated {@link LogRecord} per group to a target {@link Handler}.
+ *
+ * <p>During a failure storm, when every failed request logs its own
+ * {@link LogRecord} with a full stack trace, this turns thousands of
+ * nearly identical stack traces into a handful.  A group of more than
+ * one {@link LogRecord} is reported as a copy of its first {@link
+ * LogRecord} (with the group's most severe {@linkplain
+ * LogRecord#getLevel() level}) whose {@link Throwable} is replaced by
+ * a {@link ThrowableChain} whose message gives the number of {@link
+ * LogRecord}s in the group and the time span they covered, whose
+ * {@linkplain ThrowableChain#getCause() cause} is the first
+ * {@link Throwable} of the group and which, if they differ, is also
+ * affiliated with the last one.  A group of one {@link LogRecord} is
+ * passed on unchanged, as are {@link LogRecord}s without a {@link
+ * Throwable}.  {@link LogRecord}s and groups are passed on in the
+ * order in which they (first) arrived.</p>
+ *
+ * <p>A batch of buffered {@link LogRecord}s is passed on when the
+ * window that began with its first {@link LogRecord} has elapsed, when
+ * it holds {@linkplain #getMaximumBatchSize() the maximum number} of
+ * groups and ungrouped {@link LogRecord}s, or when this {@link
+ * ThrowableAggregatingHandler} is {@linkplain #flush() flushed} or
+ * {@linkplain #close() closed}, whichever happens first.  The window
+ * therefore bounds latency and the maximum batch size bounds memory:
+ * a {@link LogRecord} joining an existing group costs nothing but a
+ * counter increment, and a thread logging a {@link LogRecord} that
+ * would make a batch exceed its maximum size waits until the previous
+ * batch has been handed off.</p>
+ *
+ * <p>All formatting and I/O is done by the target {@link Handler} on
+ * a single background daemon thread, so logging threads only pay for
+ * {@linkplain Throwables#fingerprint(Throwable, int) fingerprinting}
+ * and a brief critical section.</p>
+ *
+ * <p>When created by its zero-argument constructor, as it is when
+ * named in a {@link LogManager} configuration, a {@link
+ * ThrowableAggregatingHandler} reads the following {@link LogManager}
+ * properties, each prefixed with its class name and a period:</p>
+ *
+ * <ul>
+ *
+ * <li>{@code target}: the name of the class of the target {@link
+ * Handler}, which must have a zero-argument constructor (default:
+ * {@link ConsoleHandler})</li>
+ *
+ * <li>{@code window}: the window, in milliseconds (default: {@link
+ * #DEFAULT_WINDOW_MILLISECONDS})</li>
+ *
+ * <li>{@code maximumBatchSize}: the {@linkplain #getMaximumBatchSize()
+ * maximum batch size} (default: {@link
+ * #DEFAULT_MAXIMUM_BATCH_SIZE})</li>
+ *
+ * <li>{@code level}: the {@linkplain #setLevel(Level) level} of this
+ * {@link ThrowableAggregatingHandler} (default: {@link
+ * Level#ALL})</li>
+ *
+ * </ul>
+ *
+ * <p>Instances of this class are safe for use by multiple
+ * threads.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see ThrowableChain
+ *
+ * @see Throwables#fingerprint(Throwable, int)
+ */
+public final class ThrowableAggregatingHandler extends Handler {
+
+  /**
+   * The default window, in milliseconds.
+   */
+  public static final long DEFAULT_WINDOW_MILLISECONDS = 1000L;
+
+  /**
+   * The default maximum number of groups and ungrouped {@link
+   * LogRecord}s in a batch.
+   */
+  public static final int DEFAULT_MAXIMUM_BATCH_SIZE = 1000;
+
+  /**
+   * An empty array of {@link StackTraceElement}s, used as the stack
+   * trace of every aggregating {@link ThrowableChain}, since where
+   * such a {@link ThrowableChain} was created is of no interest.
+   */
+  private static final StackTraceElement[] NO_FRAMES = new StackTraceElement[0];
+
+  /**
+   * The {@link Handler} to which {@link LogRecord}s are passed on.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final Handler target;
+
+  /**
+   * The window, in nanoseconds.
+   */
+  private final long windowNanos;
+
+  /**
+   * The maximum number of groups and ungrouped {@link LogRecord}s in
+   * a batch.
+   */
+  private final int maximumBatchSize;
+
+  /**
+   * The background {@link Thread} that passes batches on to the
+   * {@link #target}.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final Thread worker;
+
+  /**
+   * The {@link Batch} currently accepting {@link LogRecord}s.
+   *
+   * <p>This field is never {@code null}.  It is guarded by {@code
+   * this}.</p>
+   */
+  private Batch batch;
+
+  /**
+   * The number of the most recent {@link Batch} that has been passed
+   * on in its entirety.
+   *
+   * <p>This field is guarded by {@code this}.</p>
+   */
+  private long handedOff;
+
+  /**
+   * Whether the current {@link Batch} should be passed on right away.
+   *
+   * <p>This field is guarded by {@code this}.</p>
+   */
+  private boolean flushRequested;
+
+  /**
+   * Whether this {@link ThrowableAggregatingHandler} has been
+   * {@linkplain #close() closed}.
+   *
+   * <p>This field is guarded by {@code this}.</p>
+   */
+  private boolean closed;
+
+  /**
+   * Creates a new {@link ThrowableAggregatingHandler} configured from
+   * {@link LogManager} properties as described in the {@linkplain
+   * ThrowableAggregatingHandler class documentation}.
+   */
+  public ThrowableAggregatingHandler() {
+    this(createTarget(), configuredWindow(), TimeUnit.MILLISECONDS, configuredMaximumBatchSize());
+    final String level = LogManager.getLogManager().getProperty(ThrowableAggregatingHandler.class.getName() + ".level");
+    if (level != null) {
+      try {
+        this.setLevel(Level.parse(level.trim()));
+      } catch (final IllegalArgumentException badLevel) {
+        this.reportError("Invalid level: " + level, badLevel, ErrorManager.GENERIC_FAILURE);
+      }
+    }
+  }
+
+  /**
+   * Creates a new {@link ThrowableAggregatingHandler}.
+   *
+   * @param target the {@link Handler} to which aggregated {@link
+   * LogRecord}s are passed on; must not be {@code null}
+   *
+   * @param window the length of time for which {@link LogRecord}s are
+   * buffered; must be greater than {@code 0}
+   *
+   * @param unit the {@link TimeUnit} of {@code window}; must not be
+   * {@code null}
+   *
+   * @param maximumBatchSize the maximum number of groups and ungrouped
+   * {@link LogRecord}s in a batch; must be greater than {@code 0}
+   *
+   * @exception IllegalArgumentException if any parameter is invalid
+   */
+  public ThrowableAggregatingHandler(final Handler target, final long window, final TimeUnit unit, final int maximumBatchSize) {
+    super();
+    if (target == null) {
+      throw new IllegalArgumentException("target", new NullPointerException("target"));
+    }
+    if (window <= 0L) {
+      throw new IllegalArgumentException(String.format("window <= 0: %d", window));
+    }
+    if (unit == null) {
+      throw new IllegalArgumentException("unit", new NullPointerException("unit"));
+    }
+    if (maximumBatchSize < 1) {
+      throw new IllegalArgumentException(String.format("maximumBatchSize < 1: %d", maximumBatchSize));
+    }
+    this.target = target;
+    this.windowNanos = unit.toNanos(window);
+    this.maximumBatchSize = maximumBatchSize;
+    this.batch = new Batch(1L);
+    this.setLevel(Level.ALL);
+    this.worker = new Thread(this::run, "ThrowableAggregatingHandler");
+    this.worker.setDaemon(true);
+    this.worker.start();
+  }
+
+  /**
+   * Creates the target {@link Handler} named by the {@link LogManager}
+   * property described in the {@linkplain ThrowableAggregatingHandler
+   * class documentation}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a new {@link Handler}; never {@code null}
+   */
+  private static final Handler createTarget() {
+    final String className = LogManager.getLogManager().getProperty(ThrowableAggregatingHandler.class.getName() + ".target");
+    if (className != null && !className.trim().isEmpty()) {
+      try {
+        return (Handler)ClassLoader.getSystemClassLoader().loadClass(className.trim()).getDeclaredConstructor().newInstance();
+      } catch (final ReflectiveOperationException | ClassCastException | LinkageError badTarget) {
+        new ErrorManager().error("Cannot create target Handler " + className, badTarget instanceof Exception ? (Exception)badTarget : null, ErrorManager.OPEN_FAILURE);
+      }
+    }
+    return new ConsoleHandler();
+  }
+
+  /**
+   * Returns the window, in milliseconds, named by the {@link
+   * LogManager} property described in the {@linkplain
+   * ThrowableAggregatingHandler class documentation}.
+   *
+   * @return the window in milliseconds; always greater than {@code 0}
+   */
+  private static final long configuredWindow() {
+    final String window = LogManager.getLogManager().getProperty(ThrowableAggregatingHandler.class.getName() + ".window");
+    if (window != null) {
+      try {
+        final long returnValue = Long.parseLong(window.trim());
+        if (returnValue > 0L) {
+          return returnValue;
+        }
+      } catch (final NumberFormatException badWindow) {
+        new ErrorManager().error("Invalid window: " + window, badWindow, ErrorManager.GENERIC_FAILURE);
+      }
+    }
+    return DEFAULT_WINDOW_MILLISECONDS;
+  }
+
+  /**
+   * Returns the maximum batch size named by the {@link LogManager}
+   * property described in the {@linkplain ThrowableAggregatingHandler
+   * class documentation}.
+   *
+   * @return the maximum batch size; always greater than {@code 0}
+   */
+  private static final int configuredMaximumBatchSize() {
+    final String maximumBatchSize = LogManager.getLogManager().getProperty(ThrowableAggregatingHandler.class.getName() + ".maximumBatchSize");
+    if (maximumBatchSize != null) {
+      try {
+        final int returnValue = Integer.parseInt(maximumBatchSize.trim());
+        if (returnValue > 0) {
+          return returnValue;
+        }
+      } catch (final NumberFormatException badSize) {
+        new ErrorManager().error("Invalid maximumBatchSize: " + maximumBatchSize, badSize, ErrorManager.GENERIC_FAILURE);
+      }
+    }
+    return DEFAULT_MAXIMUM_BATCH_SIZE;
+  }
+
+  /**
+   * Returns the {@link Handler} to which this {@link
+   * ThrowableAggregatingHandler} passes {@link LogRecord}s on.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return the target {@link Handler}; never {@code null}
+   */
+  public final Handler getTarget() {
+    return this.target;
+  }
+
+  /**
+   * Returns the maximum number of groups and ungrouped {@link
+   * LogRecord}s that a batch may hold.
+   *
+   * @return the maximum batch size; always greater than {@code 0}
+   */
+  public final int getMaximumBatchSize() {
+    return this.maximumBatchSize;
+  }
+
+  /**
+   * Buffers the supplied {@link LogRecord}, if it is {@linkplain
+   * #isLoggable(LogRecord) loggable}, to be passed on to the target
+   * {@link Handler} later, alone or as part of a group.
+   *
+   * <p>If the current batch is full and the supplied {@link LogRecord}
+   * does not belong to any of its groups, the calling thread waits
+   * until the background thread has taken the batch.</p>
+   *
+   * @param record the {@link LogRecord}; may be {@code null} in which
+   * case no action will be taken
+   */
+  @Override
+  public final void publish(final LogRecord record) {
+    if (record == null || !this.isLoggable(record)) {
+      return;
+    }
+    final Throwable thrown = record.getThrown();
+    final Key key;
+    if (thrown == null) {
+      key = null;
+    } else {
+      // Fingerprinting walks stack frames; do it outside the lock.
+      key = new Key(record.getLoggerName(), Throwables.fingerprint(thrown, RootCauseIndex.DEFAULT_FINGERPRINT_FRAMES));
+    }
+    final long now = System.nanoTime();
+    synchronized (this) {
+      while (!this.closed) {
+        final Batch batch = this.batch;
+        if (batch.accept(key, record, now, this.maximumBatchSize)) {
+          if (batch.size() == 1 || batch.size() >= this.maximumBatchSize) {
+            // The worker needs to start a window or hand off a full
+            // batch.
+            this.notifyAll();
+          }
+          return;
+        }
+        this.notifyAll();
+        try {
+          do {
+            this.wait();
+          } while (this.batch == batch && !this.closed);
+        } catch (final InterruptedException interrupted) {
+          Thread.currentThread().interrupt();
+          // Exceed the maximum rather than lose the record.
+          this.batch.accept(key, record, now, Integer.MAX_VALUE);
+          return;
+        }
+      }
+    }
+  }
+
+  /**
+   * Passes on every buffered {@link LogRecord} and then {@linkplain
+   * Handler#flush() flushes} the target {@link Handler}.
+   *
+   * <p>This method blocks until the background thread has passed on
+   * every {@link LogRecord} buffered at the time of invocation.</p>
+   */
+  @Override
+  public final void flush() {
+    boolean interrupted = false;
+    synchronized (this) {
+      final Batch batch = this.batch;
+      final long awaited = batch.isEmpty() ? batch.number - 1L : batch.number;
+      this.flushRequested = true;
+      this.notifyAll();
+      while (this.handedOff < awaited && this.worker.isAlive()) {
+        try {
+          this.wait();
+        } catch (final InterruptedException e) {
+          interrupted = true;
+          break;
+        }
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    } else {
+      this.target.flush();
+    }
+  }
+
+  /**
+   * Passes on every buffered {@link LogRecord}, stops the background
+   * thread and {@linkplain Handler#close() closes} the target {@link
+   * Handler}.  {@link LogRecord}s {@linkplain #publish(LogRecord)
+   * published} afterwards are ignored.
+   *
+   * <p>This method blocks until the background thread has finished.
+   * Closing a {@link ThrowableAggregatingHandler} that is already
+   * closed has no effect.</p>
+   */
+  @Override
+  public final void close() {
+    synchronized (this) {
+      if (this.closed) {
+        return;
+      }
+      this.closed = true;
+      this.notifyAll();
+    }
+    boolean interrupted = false;
+    while (this.worker.isAlive()) {
+      try {
+        this.worker.join();
+      } catch (final InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    this.target.close();
+  }
+
+  /**
+   * Takes batches as they become due and passes them on to the
+   * target {@link Handler}, until this {@link
+   * ThrowableAggregatingHandler} is {@linkplain #close() closed}.
+   *
+   * <p>This method is run by the background thread.</p>
+   */
+  private final void run() {
+    while (true) {
+      final Batch batch;
+      synchronized (this) {
+        try {
+          while (!this.isDue()) {
+            final Batch current = this.batch;
+            if (current.isEmpty()) {
+              this.wait();
+            } else {
+              final long remainingNanos = current.startNanos + this.windowNanos - System.nanoTime();
+              TimeUnit.NANOSECONDS.timedWait(this, Math.max(1L, remainingNanos));
+            }
+          }
+        } catch (final InterruptedException interrupted) {
+          // Only close() stops this thread; an interrupt hands off
+          // what has been buffered so far.
+          Thread.interrupted();
+        }
+        batch = this.batch;
+        this.batch = new Batch(batch.number + 1L);
+        this.flushRequested = false;
+        // Wake any publishers waiting for room.
+        this.notifyAll();
+      }
+      batch.handOff(this);
+      synchronized (this) {
+        this.handedOff = batch.number;
+        this.notifyAll();
+        if (this.closed && this.batch.isEmpty()) {
+          return;
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns {@code true} if the current {@link Batch} should be handed
+   * off now.
+   *
+   * <p>This method must be invoked while holding this {@link
+   * ThrowableAggregatingHandler}'s monitor.</p>
+   *
+   * @return {@code true} if the current {@link Batch} is due
+   */
+  private final boolean isDue() {
+    assert Thread.holdsLock(this);
+    final Batch batch = this.batch;
+    return this.closed ||
+      this.flushRequested ||
+      (!batch.isEmpty() && (batch.size() >= this.maximumBatchSize || System.nanoTime() - batch.startNanos >= this.windowNanos));
+  }
+
+  /**
+   * Passes the supplied {@link LogRecord} on to the target {@link
+   * Handler}, {@linkplain #reportError(String, Exception, int)
+   * reporting} any failure.
+   *
+   * <p>This method is invoked by the background thread.</p>
+   *
+   * @param record the {@link LogRecord}; must not be {@code null}
+   */
+  private final void handOff(final LogRecord record) {
+    try {
+      this.target.publish(record);
+    } catch (final RuntimeException e) {
+      this.reportError(null, e, ErrorManager.WRITE_FAILURE);
+    }
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * The grouping key of a {@link LogRecord} bearing a {@link
+   * Throwable}.
+   *
+   * @author <a href="http://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class Key {
+
+    /**
+     * The {@linkplain LogRecord#getLoggerName() logger name}; may be
+     * {@code null}.
+     */
+    private final String loggerName;
+
+    /**
+     * The {@linkplain Throwables#fingerprint(Throwable, int)
+     * fingerprint} of the {@link LogRecord}'s {@link Throwable}.
+     */
+    private final long fingerprint;
+
+    /**
+     * Creates a new {@link Key}.
+     *
+     * @param loggerName the logger name; may be {@code null}
+     *
+     * @param fingerprint the fingerprint
+     */
+    private Key(final String loggerName, final long fingerprint) {
+      super();
+      this.loggerName = loggerName;
+      this.fingerprint = fingerprint;
+    }
+
+    @Override
+    public final int hashCode() {
+      return 31 * (this.loggerName == null ? 0 : this.loggerName.hashCode()) + Long.hashCode(this.fingerprint);
+    }
+
+    @Override
+    public final boolean equals(final Object other) {
+      if (other == this) {
+        return true;
+      } else if (other instanceof Key) {
+        final Key her = (Key)other;
+        return this.fingerprint == her.fingerprint &&
+          (this.loggerName == null ? her.loggerName == null : this.loggerName.equals(her.loggerName));
+      } else {
+        return false;
+      }
+    }
+
+  }
+
+  /**
+   * {@link LogRecord}s bearing {@link Throwable}s of the same shape
+   * logged by the same logger.
+   *
+   * @author <a href="http://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class Group {
+
+    /**
+     * The first {@link LogRecord} of this {@link Group}.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final LogRecord first;
+
+    /**
+     * The last {@link LogRecord} of this {@link Group}.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private LogRecord last;
+
+    /**
+     * The most severe {@link Level} of the {@link LogRecord}s of this
+     * {@link Group}.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private Level level;
+
+    /**
+     * The number of {@link LogRecord}s in this {@link Group}.
+     */
+    private int count;
+
+    /**
+     * Creates a new {@link Group}.
+     *
+     * @param first the first {@link LogRecord}; must not be {@code
+     * null}
+     */
+    private Group(final LogRecord first) {
+      super();
+      this.first = first;
+      this.last = first;
+      this.level = first.getLevel();
+      this.count = 1;
+    }
+
+    /**
+     * Adds the supplied {@link LogRecord} to this {@link Group}.
+     *
+     * @param record the {@link LogRecord}; must not be {@code null}
+     */
+    private final void add(final LogRecord record) {
+      this.last = record;
+      if (record.getLevel().intValue() > this.level.intValue()) {
+        this.level = record.getLevel();
+      }
+      this.count++;
+    }
+
+    /**
+     * Returns the {@link LogRecord} that represents this {@link
+     * Group}.
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * @return a {@link LogRecord}; never {@code null}
+     */
+    private final LogRecord toLogRecord() {
+      final LogRecord first = this.first;
+      if (this.count == 1) {
+        return first;
+      }
+      final LogRecord last = this.last;
+      final String loggerName = first.getLoggerName();
+      final Instant from = first.getInstant();
+      final Instant to = last.getInstant();
+      final ThrowableChain chain =
+        new ThrowableChain(String.format("%d records like this were logged by %s between %s and %s",
+                                         this.count,
+                                         loggerName == null ? "an anonymous logger" : loggerName,
+                                         from,
+                                         to));
+      chain.setStackTrace(NO_FRAMES);
+      chain.add(first.getThrown()); // becomes the cause
+      chain.add(last.getThrown());
+      final LogRecord returnValue = new LogRecord(this.level, first.getMessage());
+      returnValue.setLoggerName(loggerName);
+      returnValue.setParameters(first.getParameters());
+      returnValue.setResourceBundle(first.getResourceBundle());
+      returnValue.setResourceBundleName(first.getResourceBundleName());
+      returnValue.setSourceClassName(first.getSourceClassName());
+      returnValue.setSourceMethodName(first.getSourceMethodName());
+      returnValue.setInstant(from);
+      returnValue.setThrown(chain);
+      return returnValue;
+    }
+
+  }
+
+  /**
+   * The {@link LogRecord}s buffered during one window.
+   *
+   * <p>Instances of this class are guarded by the monitor of the
+   * {@link ThrowableAggregatingHandler} that created them until they
+   * are {@linkplain #handOff(ThrowableAggregatingHandler) handed
+   * off}.</p>
+   *
+   * @author <a href="http://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class Batch {
+
+    /**
+     * The number of this {@link Batch}; {@link Batch}es are numbered
+     * consecutively, starting with {@code 1}.
+     */
+    private final long number;
+
+    /**
+     * The {@link Group}s and ungrouped {@link LogRecord}s of this
+     * {@link Batch}, in order of (first) arrival.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final List<Object> entries;
+
+    /**
+     * The {@link Group}s of this {@link Batch}, indexed by {@link Key}.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final Map<Key, Group> groups;
+
+    /**
+     * The {@link System#nanoTime()} at which the first {@link
+     * LogRecord} arrived.
+     */
+    private long startNanos;
+
+    /**
+     * Creates a new, empty {@link Batch}.
+     *
+     * @param number the number of this {@link Batch}
+     */
+    private Batch(final long number) {
+      super();
+      this.number = number;
+      this.entries = new ArrayList<Object>();
+      this.groups = new HashMap<Key, Group>();
+    }
+
+    /**
+     * Returns {@code true} if this {@link Batch} holds nothing.
+     *
+     * @return {@code true} if this {@link Batch} is empty
+     */
+    private final boolean isEmpty() {
+      return this.entries.isEmpty();
+    }
+
+    /**
+     * Returns the number of {@link Group}s and ungrouped {@link
+     * LogRecord}s in this {@link Batch}.
+     *
+     * @return the size of this {@link Batch}
+     */
+    private final int size() {
+      return this.entries.size();
+    }
+
+    /**
+     * Adds the supplied {@link LogRecord} to this {@link Batch}, if
+     * there is room.
+     *
+     * @param key the {@link Key} of the {@link LogRecord}, or {@code
+     * null} if it is not to be grouped
+     *
+     * @param record the {@link LogRecord}; must not be {@code null}
+     *
+     * @param now the current {@link System#nanoTime()}
+     *
+     * @param maximumSize the maximum number of {@link Group}s and
+     * ungrouped {@link LogRecord}s
+     *
+     * @return {@code true} if the {@link LogRecord} was added; {@code
+     * false} if this {@link Batch} is full
+     */
+    private final boolean accept(final Key key, final LogRecord record, final long now, final int maximumSize) {
+      if (key != null) {
+        final Group group = this.groups.get(key);
+        if (group != null) {
+          group.add(record);
+          return true;
+        }
+      }
+      if (this.entries.size() >= maximumSize) {
+        return false;
+      }
+      if (this.entries.isEmpty()) {
+        this.startNanos = now;
+      }
+      if (key == null) {
+        this.entries.add(record);
+      } else {
+        final Group group = new Group(record);
+        this.groups.put(key, group);
+        this.entries.add(group);
+      }
+      return true;
+    }
+
+    /**
+     * Passes every {@link Group} and ungrouped {@link LogRecord} of
+     * this {@link Batch}, in order, on to the target of the supplied
+     * {@link ThrowableAggregatingHandler}.
+     *
+     * @param handler the {@link ThrowableAggregatingHandler}; must not
+     * be {@code null}
+     */
+    private final void handOff(final ThrowableAggregatingHandler handler) {
+      for (final Object entry : this.entries) {
+        if (entry instanceof Group) {
+          final LogRecord record;
+          try {
+            record = ((Group)entry).toLogRecord();
+          } catch (final RuntimeException e) {
+            handler.reportError(null, e, ErrorManager.FORMAT_FAILURE);
+            continue;
+          }
+          handler.handOff(record);
+        } else {
+          handler.handOff((LogRecord)entry);
+        }
+      }
+    }
+
+  }
+
+}
@@ -27,15 +27,35 @@
  */
 package com.edugility.throwables;
 
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.PrintStream;
 import java.io.PrintWriter;
 
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+
+import java.util.AbstractList;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
 
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 
 /**
  * An {@link Exception} (and an implementation of the {@link
@@ -50,6 +70,26 @@ import java.util.concurrent.CopyOnWriteArrayList;
  * value of its {@link #size()} method is always at least {@code
  * 1}.</p>
  *
+ * <p>A {@link ThrowableChain} that may accumulate a very large number
+ * of affiliates can be told to {@linkplain
+ * #spillTo(ThrowableSpillFile, int, long) spill} them to a {@link
+ * ThrowableSpillFile} once it has grown past a certain size.</p>
+ *
+ * <p>Consumers that want to learn about affiliates as they are added,
+ * rather than by repeatedly rescanning a {@link ThrowableChain}, may
+ * {@linkplain ThrowablePublisher#subscribe(java.util.concurrent.Flow.Subscriber)
+ * subscribe} to its {@linkplain #getPublisher() publisher}.</p>
+ *
+ * <p>Affiliates are summarized by {@linkplain
+ * Throwables#getRootCause(Throwable) root cause} class and
+ * {@linkplain Throwables#fingerprint(Throwable, int) fingerprint} as
+ * they are added; see {@link #getRootCauseIndex()}.</p>
+ *
+ * <p>A {@link ThrowableChain}'s message may be {@linkplain
+ * #supplied(Supplier, Throwable) supplied lazily}, so that the
+ * cost of building it is paid only if someone actually looks at
+ * it.</p>
+ *
  * @author <a href="http://about.me/lairdnelson"
  * target="_parent">Laird Nelson</a>
  *
@@ -64,12 +104,184 @@ public class ThrowableChain extends Exception implements Collection<Throwable> {
   private static final long serialVersionUID = 1L;
 
   /**
-   * The {@link List} containing additional affiliated {@link
-   * Throwable}s.  This field is never {@code null} and never
-   * {@linkplain List#isEmpty() empty} and <strong>always contains
-   * this {@link ThrowableChain} itself as its first element</strong>.
+   * The serializable fields of this class.  The members of a {@link
+   * ThrowableChain} are serialized as a {@link CopyOnWriteArrayList}
+   * named {@code list}, which is how they were stored by earlier
+   * versions of this class.
+   *
+   * @see #writeObject(ObjectOutputStream)
+   */
+  private static final ObjectStreamField[] serialPersistentFields = {
+    new ObjectStreamField("list", CopyOnWriteArrayList.class),
+    new ObjectStreamField("suppliedMessage", String.class)
+  };
+
+  /**
+   * The {@link SegmentedLog} containing additional affiliated {@link
+   * Throwable}s.  This field is never {@code null} once construction
+   * or deserialization has completed, its value is never {@linkplain
+   * SegmentedLog#size() empty} and <strong>always contains this {@link
+   * ThrowableChain} itself as its first element</strong>.
+   *
+   * <p>Because a {@link SegmentedLog} only ever grows, removing
+   * members replaces the value of this field with a new {@link
+   * SegmentedLog}; see {@link #removeMembers(Collection,
+   * boolean)}.</p>
+   */
+  private transient volatile SegmentedLog<Throwable> members;
+
+  /**
+   * The {@link SpilledAffiliates} holding affiliated {@link
+   * Throwable}s that have been spilled to a {@link
+   * ThrowableSpillFile}.
+   *
+   * <p>This field may be {@code null}.</p>
+   *
+   * @see #spillTo(ThrowableSpillFile, int, long)
+   */
+  private transient volatile SpilledAffiliates spill;
+
+  /**
+   * The {@link Retention} applied to affiliated {@link Throwable}s as
+   * they are added, or {@code null} if they are held strongly.
+   *
+   * @see #setRetention(Retention)
+   */
+  private transient volatile Retention retention;
+
+  /**
+   * The {@link RetainedAffiliates} holding affiliated {@link
+   * Throwable}s that are retained only by reference.
+   *
+   * <p>This field may be {@code null}.  It is never {@code null} when
+   * {@link #retention} is not.</p>
+   *
+   * @see #setRetention(Retention)
+   */
+  private transient volatile RetainedAffiliates retained;
+
+  /**
+   * The {@link ThrowablePublisher} to which affiliated {@link
+   * Throwable}s are {@linkplain ThrowablePublisher#publish(Throwable)
+   * published} as they are {@linkplain #add(Throwable) added}.
+   *
+   * <p>This field may be {@code null}.</p>
+   *
+   * @see #getPublisher()
+   */
+  private transient volatile ThrowablePublisher publisher;
+
+  /**
+   * The {@link RootCauseIndex} summarizing this {@link
+   * ThrowableChain}'s affiliated {@link Throwable}s.
+   *
+   * <p>This field is never {@code null} once construction or
+   * deserialization has completed.</p>
+   *
+   * @see #getRootCauseIndex()
+   */
+  private transient volatile RootCauseIndex rootCauseIndex;
+
+  /**
+   * The {@link AffiliatePrinter} used by the {@link
+   * #printStackTrace(PrintStream)} and {@link
+   * #printStackTrace(PrintWriter)} methods to print affiliated {@link
+   * Throwable}s.
+   *
+   * <p>This field is never {@code null} once construction or
+   * deserialization has completed.  It is replaced, never modified,
+   * while guarded by {@code this}.</p>
+   *
+   * @see #setStormSuppressor(StormSuppressor)
+   *
+   * @see #setRenderedTraceCache(RenderedTraceCache)
+   *
+   * @see #setRenderingPool(ForkJoinPool)
+   */
+  private transient volatile AffiliatePrinter printer;
+
+  /**
+   * The maximum number of stack frames recorded in the {@link
+   * AddSite} of each affiliated {@link Throwable}, or {@code 0} if
+   * {@link AddSite}s are not recorded.
+   *
+   * @see #setAddSiteDepth(int)
+   */
+  private transient volatile int addSiteDepth;
+
+  /**
+   * The {@link AddSite}s of affiliated {@link Throwable}s, indexed by
+   * {@link Throwable}.
+   *
+   * <p>This field may be {@code null}.  It is guarded by {@code
+   * this}.</p>
+   */
+  private transient Map<Throwable, AddSite> addSites;
+
+  /**
+   * The {@link RootCauseIndex.Key}s under which affiliated {@link
+   * Throwable}s held in the heap by this {@link ThrowableChain} were
+   * added to its {@link #rootCauseIndex}, indexed by {@link
+   * Throwable}, so that they can be removed from it even if their
+   * causal chains or stack frames have since changed.
+   *
+   * <p>A {@code null} value records a {@link Throwable} that was
+   * {@linkplain #remove(Object) removed} before its {@link
+   * RootCauseIndex.Key} was recorded.</p>
+   *
+   * <p>This field is never {@code null}.  It is guarded by {@code
+   * this}.</p>
+   */
+  private transient Map<Throwable, RootCauseIndex.Key> indexKeys;
+
+  /**
+   * The {@link FrameFilter} applied to {@link Throwable}s as they are
+   * {@linkplain #add(Throwable) added}.
+   *
+   * <p>This field may be {@code null}.</p>
+   *
+   * @see #setFrameFilter(FrameFilter)
+   */
+  private transient volatile FrameFilter frameFilter;
+
+  /**
+   * The {@link FrameArena} in which the stack frames of affiliated
+   * {@link Throwable}s {@linkplain #setRetention(Retention) retained
+   * only by reference} are archived as they are {@linkplain
+   * #add(Throwable) added}.
+   *
+   * <p>This field may be {@code null}.</p>
+   *
+   * @see #setFrameArena(FrameArena)
+   */
+  private transient volatile FrameArena frameArena;
+
+  /**
+   * The {@link PendingMessage} holding the {@link Supplier} of this
+   * {@link ThrowableChain}'s message, which has not yet been invoked.
+   * The {@link Supplier} is invoked while holding the {@link
+   * PendingMessage}'s monitor, not this {@link ThrowableChain}'s.
+   *
+   * <p>This field is {@code null} if this {@link ThrowableChain} was
+   * not created with a message {@link Supplier}, or once the {@link
+   * Supplier} has been invoked.</p>
+   *
+   * @see #getMessage()
+   */
+  private transient volatile PendingMessage pendingMessage;
+
+  /**
+   * The message produced by the {@link Supplier} held by the {@link
+   * #pendingMessage}.
+   *
+   * <p>This field may be {@code null}.  It is written before the
+   * {@link #pendingMessage} field is cleared, and read only after
+   * that field is seen to be {@code null}, so it need not itself be
+   * {@code volatile}.</p>
+   *
+   * @see #getMessage()
    */
-  private final CopyOnWriteArrayList<Throwable> list;
+  private String suppliedMessage;
 
   /**
    * Creates a new {@link ThrowableChain}.
@@ -88,7 +300,10 @@ public class ThrowableChain extends Exception implements Collection<Throwable> {
    */
   public ThrowableChain(final String message, final Throwable cause) {
     super(message);
-    this.list = new CopyOnWriteArrayList<Throwable>(Collections.singleton(this));
+    this.members = new SegmentedLog<Throwable>(Collections.singleton(this));
+    this.rootCauseIndex = new RootCauseIndex();
+    this.indexKeys = new IdentityHashMap<Throwable, RootCauseIndex.Key>();
+    this.printer = AffiliatePrinter.DEFAULT;
     assert this.size() == 1;
     if (cause != null) {
       this.initCause(cause);
@@ -115,6 +330,161 @@ public class ThrowableChain extends Exception implements Collection<Throwable> {
     this(null, cause);
   }
 
+  /**
+   * Creates and returns a new {@link ThrowableChain} whose message
+   * will be produced by the supplied {@link Supplier} the first time
+   * it is {@linkplain #getMessage() needed}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param messageSupplier the {@link Supplier} of the message; may
+   * be {@code null}
+   *
+   * @return a new {@link ThrowableChain}; never {@code null}
+   *
+   * @see #supplied(Supplier, Throwable)
+   */
+  public static final ThrowableChain supplied(final Supplier<? extends String> messageSupplier) {
+    return supplied(messageSupplier, null);
+  }
+
+  /**
+   * Creates and returns a new {@link ThrowableChain} with the supplied
+   * cause whose message will be produced by the supplied {@link
+   * Supplier} the first time it is {@linkplain #getMessage()
+   * needed}&mdash;that is, by the first call to {@link #getMessage()},
+   * {@link #toString()}, any of the {@code printStackTrace} methods,
+   * or by serialization.  A {@link ThrowableChain} that is never
+   * printed or inspected therefore never invokes its {@link
+   * Supplier}.
+   *
+   * <p>The {@link Supplier} is invoked at most once, even if several
+   * threads need the message at the same time, and is released once
+   * it has been invoked.  Anything the {@link Supplier} captures is
+   * retained until then.</p>
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param messageSupplier the {@link Supplier} of the message; may
+   * be {@code null}
+   *
+   * @param cause the cause; may be {@code null}
+   *
+   * @return a new {@link ThrowableChain}; never {@code null}
+   *
+   * @see #formatted(String, Object...)
+   */
+  public static final ThrowableChain supplied(final Supplier<? extends String> messageSupplier, final Throwable cause) {
+    final ThrowableChain returnValue = new ThrowableChain(cause);
+    if (messageSupplier != null) {
+      returnValue.pendingMessage = new PendingMessage(messageSupplier);
+    }
+    return returnValue;
+  }
+
+  /**
+   * Creates and returns a new {@link ThrowableChain} whose message
+   * will be the result of {@linkplain String#format(String,
+   * Object...) formatting} the supplied arguments, performed only if
+   * and when the message is {@linkplain #getMessage() needed}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param format the format {@link String}; may be {@code null} in
+   * which case the message will be {@code null}
+   *
+   * @param arguments the format arguments, which will be retained
+   * until the message is needed; may be {@code null}
+   *
+   * @return a new {@link ThrowableChain}; never {@code null}
+   *
+   * @see #supplied(Supplier, Throwable)
+   */
+  public static final ThrowableChain formatted(final String format, final Object... arguments) {
+    if (format == null) {
+      return new ThrowableChain();
+    }
+    return supplied(new Supplier<String>() {
+        @Override
+        public final String get() {
+          return String.format(format, arguments);
+        }
+      });
+  }
+
+  /**
+   * Returns this {@link ThrowableChain}'s message, invoking the
+   * message {@link Supplier} it was {@linkplain
+   * #supplied(Supplier, Throwable) created with}, if any, the
+   * first time this method is called.
+   *
+   * <p>The message {@link Supplier} is not invoked while holding this
+   * {@link ThrowableChain}'s monitor, so it may safely inspect this
+   * {@link ThrowableChain}, or wait for other threads that do.  Once
+   * the message has been produced, this method acquires no locks.  If
+   * the message {@link Supplier} throws a {@link
+   * RuntimeException}, the message will be {@code null} and the {@link
+   * RuntimeException} will be {@linkplain
+   * Throwable#addSuppressed(Throwable) recorded as suppressed} by this
+   * {@link ThrowableChain}.</p>
+   *
+   * @return the message, or {@code null}
+   */
+  @Override
+  public String getMessage() {
+    final PendingMessage pendingMessage = this.pendingMessage;
+    if (pendingMessage != null) {
+      RuntimeException messageSupplierFailed = null;
+      synchronized (pendingMessage) {
+        if (this.pendingMessage == pendingMessage) {
+          try {
+            this.suppliedMessage = pendingMessage.messageSupplier.get();
+          } catch (final RuntimeException e) {
+            messageSupplierFailed = e;
+          } finally {
+            this.pendingMessage = null;
+          }
+        }
+      }
+      if (messageSupplierFailed != null) {
+        // Throwable#addSuppressed(Throwable) synchronizes on this, so
+        // call it only once the PendingMessage's monitor is released.
+        this.addSuppressed(messageSupplierFailed);
+      }
+    }
+    final String suppliedMessage = this.suppliedMessage;
+    if (suppliedMessage != null) {
+      return suppliedMessage;
+    }
+    return super.getMessage();
+  }
+
+  /**
+   * Initializes this {@link ThrowableChain}'s {@linkplain #getCause()
+   * cause} to the supplied {@link Throwable}, as the {@link
+   * Throwable#initCause(Throwable)} method does, and records it in
+   * this {@link ThrowableChain}'s {@linkplain #getRootCauseIndex()
+   * root cause index}.
+   *
+   * @param cause the cause; may be {@code null}
+   *
+   * @return this {@link ThrowableChain}
+   *
+   * @exception IllegalArgumentException if {@code cause} is this
+   * {@link ThrowableChain}
+   *
+   * @exception IllegalStateException if the cause has already been
+   * initialized
+   */
+  @Override
+  public Throwable initCause(final Throwable cause) {
+    final Throwable returnValue = super.initCause(cause);
+    if (cause != null) {
+      this.rootCauseIndex.add(cause);
+    }
+    return returnValue;
+  }
+
   /**
    * Adds the supplied {@link Throwable} to this {@link
    * ThrowableChain} if it is non-{@code null} and not this {@link
@@ -148,9 +518,30 @@ public class ThrowableChain extends Exception implements Collection<Throwable> {
    * added to this {@link ThrowableChain}'s {@linkplain #asList() list
    * of affiliated <code>Throwable</code>s}.</p>
    *
+   * <p>If the supplied {@link Throwable} is added to this {@link
+   * ThrowableChain}'s {@linkplain #asList() list of affiliated
+   * <code>Throwable</code>s} and a {@linkplain #getPublisher()
+   * publisher} has been established, it is then {@linkplain
+   * ThrowablePublisher#publish(Throwable) published}, which, depending
+   * on the publisher's {@link ThrowablePublisher.OverflowPolicy}, may
+   * block.  (An affiliate that is {@linkplain
+   * #spillTo(ThrowableSpillFile, int, long) spilled} or {@linkplain
+   * #setRetention(Retention) retained only by reference} is published,
+   * and {@linkplain #getRootCauseIndex() indexed}, by way of its
+   * {@link ThrowableSummary}, so that neither keeps it on the
+   * heap.)</p>
+   *
+   * <p>If a {@linkplain #setFrameFilter(FrameFilter) frame filter}
+   * has been established, it is {@linkplain
+   * FrameFilter#apply(Throwable) applied} to the supplied {@link
+   * Throwable} before it becomes this {@link ThrowableChain}'s cause
+   * or is added to its {@linkplain #asList() list of affiliated
+   * <code>Throwable</code>s}.</p>
+   *
    * <p>If the supplied {@link Throwable} is already contained in this
    * {@link ThrowableChain}'s {@linkplain #asList() list of affiliated
-   * <code>Throwable</code>s}, then no action is taken.</p>
+   * <code>Throwable</code>s}, as determined by the {@link
+   * #contains(Object)} method, then no action is taken.</p>
    *
    * @param throwable the {@link Throwable} to add; may be {@code
    * null} in which case no action will be taken
@@ -161,22 +552,135 @@ public class ThrowableChain extends Exception implements Collection<Throwable> {
   @Override
   public final boolean add(final Throwable throwable) {
     boolean returnValue = false;
-    assert this.list != null;
+    assert this.members != null;
     if (throwable != null && throwable != this) {
-      final Throwable cause = this.getCause();
+      Throwable cause = this.getCause();
       if (cause == null) {
-        this.initCause(throwable);
-      } else if (throwable != cause) {
-        returnValue = this.list.addIfAbsent(throwable);
+        synchronized (this) {
+          // Two threads may race to add the first affiliate; only one
+          // of them may initialize the cause.
+          cause = this.getCause();
+          if (cause == null) {
+            Throwables.filterStackTraces(throwable, this.frameFilter);
+            super.initCause(throwable);
+            cause = throwable;
+          }
+        }
+        if (cause == throwable) {
+          // We initialized the cause; index it outside of the lock.
+          this.rootCauseIndex.add(throwable);
+          return false;
+        }
+      }
+      if (throwable != cause && !this.contains(throwable)) {
+        final FrameFilter frameFilter = this.frameFilter;
+        if (frameFilter != null) {
+          frameFilter.apply(throwable);
+        }
+        final SpilledAffiliates spill = this.spill;
+        final Retention retention = this.retention;
+        ThrowableSummary detached = null;
+        if (spill != null && spill.shouldSpill(this.members.size(), throwable)) {
+          final int outcome = spill.append(throwable);
+          if (outcome == SpilledAffiliates.PRESENT) {
+            // Another thread spilled it first.
+            return false;
+          } else if (outcome == SpilledAffiliates.SPILLED) {
+            returnValue = true;
+            detached = new ThrowableSummary(throwable, this.rootCauseIndex.getFingerprintFrames());
+          }
+        }
+        if (!returnValue) {
+          if (retention != null) {
+            detached = new ThrowableSummary(throwable, this.rootCauseIndex.getFingerprintFrames(), this.frameArena);
+            returnValue = this.retained.append(throwable, retention, detached);
+          } else {
+            SegmentedLog<Throwable> members = this.members;
+            while (!(returnValue = members.add(throwable)) && members.isSealed()) {
+              // A removal is replacing the log; wait for it to finish
+              // and then add to its replacement.
+              synchronized (this) {
+                members = this.members;
+              }
+            }
+          }
+        }
+        if (returnValue) {
+          final int addSiteDepth = this.addSiteDepth;
+          this.added(throwable, detached, addSiteDepth > 0 && detached == null ? AddSite.capture(addSiteDepth) : null);
+        }
       }
     }
     return returnValue;
   }
 
+  /**
+   * Indexes and publishes a {@link Throwable} that has just been
+   * added to this {@link ThrowableChain}.
+   *
+   * @param throwable the {@link Throwable}; must not be {@code null}
+   *
+   * @param detached if the {@link Throwable} was {@linkplain
+   * #spillTo(ThrowableSpillFile, int, long) spilled} or {@linkplain
+   * #setRetention(Retention) retained only by reference} rather than
+   * held in the heap by this {@link ThrowableChain}, a {@link
+   * ThrowableSummary} of it to index and publish in its place;
+   * otherwise {@code null}
+   *
+   * @param addSite the {@link AddSite} to record for the {@link
+   * Throwable}; may be {@code null}
+   */
+  private final void added(final Throwable throwable, final ThrowableSummary detached, final AddSite addSite) {
+    assert throwable != null;
+    if (addSite != null) {
+      synchronized (this) {
+        if (this.addSites == null) {
+          this.addSites = new IdentityHashMap<Throwable, AddSite>();
+        }
+        this.addSites.put(throwable, addSite);
+      }
+    }
+    final RootCauseIndex.Key indexKey = this.rootCauseIndex.add(throwable, detached == null ? throwable : detached);
+    if (detached == null) {
+      boolean removed = false;
+      synchronized (this) {
+        if (this.indexKeys.containsKey(throwable) && this.indexKeys.get(throwable) == null) {
+          // It was removed before we got here.
+          this.indexKeys.remove(throwable);
+          removed = true;
+        } else {
+          this.indexKeys.put(throwable, indexKey);
+        }
+      }
+      if (removed) {
+        this.rootCauseIndex.remove(throwable, indexKey);
+      }
+    } else {
+      final RetainedAffiliates retained = this.retained;
+      final SpilledAffiliates spill = this.spill;
+      if (!(retained != null && retained.indexed(detached, indexKey)) &&
+          !(spill != null && spill.indexed(throwable, indexKey, this.rootCauseIndex.isRepresentative(indexKey, detached) ? detached : null))) {
+        // It was removed before we got here.
+        this.rootCauseIndex.remove(detached, indexKey);
+      }
+    }
+    final ThrowablePublisher publisher = this.publisher;
+    if (publisher != null) {
+      publisher.publish(detached == null ? throwable : detached);
+    }
+  }
+
   /**
    * Adds every non-{@code null} element contained by the supplied
    * {@link Collection} of {@link Throwable}s to this {@link
-   * ThrowableChain}.
+   * ThrowableChain}, with the same effect as {@linkplain
+   * #add(Throwable) adding} each in turn.
+   *
+   * <p>Unless a {@linkplain #spillTo(ThrowableSpillFile, int, long)
+   * spill} is in effect, the new affiliates are appended in a single
+   * step, so the operation takes time proportional to the size of the
+   * supplied {@link Collection} and concurrent readers see either
+   * none or all of them.</p>
    *
    * @param c the {@link Collection} of {@link Throwable}s; may be
    * {@code null} in which case no action is taken
@@ -184,25 +688,167 @@ public class ThrowableChain extends Exception implements Collection<Throwable> {
    * @return {@code true} if at least one element was actually added
    *
    * @see #add(Throwable)
+   *
+   * @see #merge(Collection)
    */
   @Override
   public final boolean addAll(final Collection<? extends Throwable> c) {
+    if (c == null || c.isEmpty()) {
+      return false;
+    }
+    return this.addEach(c);
+  }
+
+  /**
+   * Merges the supplied {@link ThrowableChain}s into this one by
+   * {@linkplain #addAll(Collection) adding}, in order, the {@linkplain
+   * Throwable#getCause() cause} and affiliates of each.  An affiliate
+   * (or cause) that is itself a {@link ThrowableChain} is merged in
+   * the same way rather than added, so nested chains are flattened;
+   * the supplied {@link ThrowableChain}s themselves are not added.
+   * {@link Throwable}s are compared by identity, so one reachable
+   * from several of the supplied {@link ThrowableChain}s is added
+   * only once.
+   *
+   * <p>This method takes time proportional to the total number of
+   * members of the supplied {@link ThrowableChain}s.</p>
+   *
+   * @param chains the {@link ThrowableChain}s to merge; may be {@code
+   * null} in which case no action is taken
+   *
+   * @return {@code true} if at least one {@link Throwable} was
+   * actually added
+   *
+   * @see #addAll(Collection)
+   */
+  public final boolean merge(final Collection<? extends ThrowableChain> chains) {
+    if (chains == null || chains.isEmpty()) {
+      return false;
+    }
+    final Map<Throwable, Throwable> seen = new IdentityHashMap<Throwable, Throwable>();
+    seen.put(this, this);
+    final List<Throwable> throwables = new ArrayList<Throwable>();
+    final Deque<ThrowableChain> pending = new ArrayDeque<ThrowableChain>();
+    for (final ThrowableChain chain : chains) {
+      if (chain != null && seen.put(chain, chain) == null) {
+        pending.add(chain);
+      }
+    }
+    while (!pending.isEmpty()) {
+      final ThrowableChain chain = pending.removeFirst();
+      final Throwable cause = chain.getCause();
+      if (cause != null) {
+        collect(cause, seen, throwables, pending);
+      }
+      for (final Throwable t : chain.asList()) {
+        if (t != chain) {
+          collect(t, seen, throwables, pending);
+        }
+      }
+    }
+    return this.addEach(throwables);
+  }
+
+  /**
+   * Adds the supplied {@link Throwable} to the supplied {@link List},
+   * or, if it is a {@link ThrowableChain}, queues it to be merged,
+   * unless it has already been seen.
+   *
+   * @param t the {@link Throwable}; must not be {@code null}
+   *
+   * @param seen the {@link Throwable}s already seen; must not be
+   * {@code null}
+   *
+   * @param throwables the {@link Throwable}s to add; must not be
+   * {@code null}
+   *
+   * @param pending the {@link ThrowableChain}s still to be merged;
+   * must not be {@code null}
+   */
+  private static final void collect(final Throwable t, final Map<Throwable, Throwable> seen, final List<Throwable> throwables, final Deque<ThrowableChain> pending) {
+    if (seen.put(t, t) == null) {
+      if (t instanceof ThrowableChain) {
+        pending.add((ThrowableChain)t);
+      } else {
+        throwables.add(t);
+      }
+    }
+  }
+
+  /**
+   * Adds each of the supplied {@link Throwable}s to this {@link
+   * ThrowableChain} as if by {@link #add(Throwable)}, appending them
+   * in bulk where possible.
+   *
+   * @param throwables the {@link Throwable}s; must not be {@code null}
+   *
+   * @return {@code true} if at least one {@link Throwable} was
+   * actually added
+   */
+  private final boolean addEach(final Iterable<? extends Throwable> throwables) {
+    assert throwables != null;
     boolean returnValue = false;
-    if (c != null && !c.isEmpty()) {
-      for (final Throwable t : c) {
-        if (t != null && this.add(t)) {
-          returnValue = true;
+    final Iterator<? extends Throwable> iterator = throwables.iterator();
+
+    // The first Throwable ever added becomes the cause, spilling is
+    // decided Throwable by Throwable, and Throwables retained by
+    // reference need summaries; add() handles all three.
+    while (iterator.hasNext() && (this.getCause() == null || this.spill != null || this.retention != null)) {
+      final Throwable t = iterator.next();
+      if (t != null && this.add(t)) {
+        returnValue = true;
+      }
+    }
+    if (!iterator.hasNext()) {
+      return returnValue;
+    }
+
+    final Throwable cause = this.getCause();
+    final FrameFilter frameFilter = this.frameFilter;
+    final List<Throwable> candidates = new ArrayList<Throwable>();
+    while (iterator.hasNext()) {
+      final Throwable t = iterator.next();
+      if (t != null && t != this && t != cause && !this.contains(t)) {
+        if (frameFilter != null) {
+          frameFilter.apply(t);
         }
+        candidates.add(t);
+      }
+    }
+    SegmentedLog<Throwable> members = this.members;
+    List<Throwable> appended;
+    while ((appended = members.appendAll(candidates)) == null) {
+      // A removal is replacing the log; wait for it to finish and
+      // then append to its replacement.
+      synchronized (this) {
+        members = this.members;
       }
     }
+    final int addSiteDepth = this.addSiteDepth;
+    // Everything appended in bulk was added from the same place.
+    final AddSite addSite = addSiteDepth > 0 && !appended.isEmpty() ? AddSite.capture(addSiteDepth) : null;
+    for (final Throwable t : appended) {
+      this.added(t, null, addSite);
+      returnValue = true;
+    }
     return returnValue;
   }
 
   /**
-   * Removes the first instance of the supplied {@link Throwable} from
-   * this {@link ThrowableChain}'s list of affiliated {@link
-   * Throwable}s, provided that it is not {@code null} or this {@link
-   * ThrowableChain} itself.
+   * Removes the supplied {@link Throwable} from this {@link
+   * ThrowableChain}'s list of affiliated {@link Throwable}s, provided
+   * that it is not {@code null} or this {@link ThrowableChain} itself.
+   *
+   * <p>Removal takes time proportional to the number of members;
+   * {@linkplain #asList() snapshots} taken earlier are
+   * unaffected.</p>
+   *
+   * <p>Affiliates that have been {@linkplain
+   * #spillTo(ThrowableSpillFile, int, long) spilled} or that are
+   * {@linkplain #setRetention(Retention) retained only by reference}
+   * are removed in the same way, provided that the supplied {@link
+   * Throwable} is one that the {@link #contains(Object)} method
+   * finds.</p>
    *
    * @param throwable the affiliated {@link Throwable} to remove
    * provided it meets the conditions described
@@ -218,7 +864,13 @@ public class ThrowableChain extends Exception implements Collection<Throwable> {
     if (throwable == this) {
       throw new UnsupportedOperationException(new IllegalArgumentException("Cannot remove this ThrowableChain from itself"));
     }
-    return this.list.remove(throwable);
+    if (throwable == null) {
+      return false;
+    } else if (this.members.contains(throwable)) {
+      return this.removeMembers(Collections.singleton(throwable), false);
+    } else {
+      return this.removeDetached(Collections.singleton(throwable));
+    }
   }
 
   /**
@@ -249,7 +901,25 @@ public class ThrowableChain extends Exception implements Collection<Throwable> {
     if (!c.contains(this)) {
       throw new UnsupportedOperationException(new IllegalArgumentException("Cannot effectively remove this ThrowableChain"));
     }
-    return this.list.retainAll(c);
+    final boolean returnValue = this.removeMembers(c, true);
+    final List<Throwable> doomed = new ArrayList<Throwable>();
+    final RetainedAffiliates retained = this.retained;
+    if (retained != null) {
+      for (final Throwable t : retained.snapshot()) {
+        if (!c.contains(t)) {
+          doomed.add(t);
+        }
+      }
+    }
+    final SpilledAffiliates spill = this.spill;
+    if (spill != null) {
+      for (final Throwable t : spill.snapshot()) {
+        if (!c.contains(t)) {
+          doomed.add(t);
+        }
+      }
+    }
+    return this.removeDetached(doomed) || returnValue;
   }
 
   /**
@@ -274,10 +944,91 @@ public class ThrowableChain extends Exception implements Collection<Throwable> {
     } else if (c.contains(this)) {
       throw new UnsupportedOperationException(new IllegalArgumentException("Cannot call removeAll() with a Collection that contains this ThrowableChain"));
     } else {
-      return this.list.removeAll(c);
+      final boolean returnValue = this.removeMembers(c, false);
+      return this.removeDetached(c) || returnValue;
+    }
+  }
+
+  /**
+   * Removes from this {@link ThrowableChain} every in-heap affiliate
+   * that either is (if {@code retain} is {@code false}) or is not (if
+   * {@code retain} is {@code true}) {@linkplain
+   * Collection#contains(Object) contained} by the supplied {@link
+   * Collection}, and updates the {@link RootCauseIndex} to match.
+   *
+   * <p>The current {@link SegmentedLog} is {@linkplain
+   * SegmentedLog#seal() sealed} and replaced by a new one holding the
+   * surviving members, so this method runs in time proportional to the
+   * number of members.  {@linkplain #asList() Snapshots} taken
+   * earlier are unaffected.</p>
+   *
+   * @param c the {@link Collection}; must not be {@code null}
+   *
+   * @param retain whether the members contained by {@code c} are to
+   * be kept ({@code true}) or removed ({@code false})
+   *
+   * @return {@code true} if any member was removed
+   */
+  private final boolean removeMembers(final Collection<?> c, final boolean retain) {
+    assert c != null;
+    boolean returnValue = false;
+    synchronized (this) {
+      final SegmentedLog<Throwable> survivors = new SegmentedLog<Throwable>();
+      for (final Throwable t : this.members.seal()) {
+        if (t == this || c.contains(t) == retain) {
+          survivors.add(t);
+        } else {
+          if (this.indexKeys.containsKey(t)) {
+            this.rootCauseIndex.remove(t, this.indexKeys.remove(t));
+          } else {
+            // t has not been indexed yet; see added().
+            this.indexKeys.put(t, null);
+          }
+          returnValue = true;
+          if (this.addSites != null) {
+            this.addSites.remove(t);
+          }
+        }
+      }
+      this.members = survivors;
     }
+    return returnValue;
   }
   
+  /**
+   * Removes from this {@link ThrowableChain} every affiliate that has
+   * been {@linkplain #spillTo(ThrowableSpillFile, int, long) spilled}
+   * or that is {@linkplain #setRetention(Retention) retained only by
+   * reference} and that is identical to an element of the supplied
+   * {@link Collection}, and updates the {@link RootCauseIndex} to
+   * match.
+   *
+   * @param c the {@link Collection}; must not be {@code null}
+   *
+   * @return {@code true} if any affiliate was removed
+   */
+  private final boolean removeDetached(final Collection<?> c) {
+    assert c != null;
+    if (c.isEmpty()) {
+      return false;
+    }
+    final List<Map.Entry<ThrowableSummary, RootCauseIndex.Key>> removed = new ArrayList<Map.Entry<ThrowableSummary, RootCauseIndex.Key>>();
+    final RetainedAffiliates retained = this.retained;
+    if (retained != null) {
+      removed.addAll(retained.remove(c));
+    }
+    final SpilledAffiliates spill = this.spill;
+    if (spill != null) {
+      removed.addAll(spill.remove(c));
+    }
+    for (final Map.Entry<ThrowableSummary, RootCauseIndex.Key> entry : removed) {
+      // An affiliate that has not been indexed yet is removed from the
+      // index by added().
+      this.rootCauseIndex.remove(entry.getKey(), entry.getValue());
+    }
+    return !removed.isEmpty();
+  }
+
   /**
    * Throws an {@link UnsupportedOperationException}.
    *
@@ -290,7 +1041,18 @@ public class ThrowableChain extends Exception implements Collection<Throwable> {
 
   /**
    * Returns {@code true} if this {@link ThrowableChain} contains the
-   * supplied {@link Object}.
+   * supplied {@link Object}.  Members are compared by identity.
+   *
+   * <p>An affiliate that has been {@linkplain
+   * #spillTo(ThrowableSpillFile, int, long) spilled} is found as long
+   * as it is reachable, as is any decoded copy of it that {@linkplain
+   * #iterator() iteration} has reported and that is still reachable.
+   * An affiliate that is {@linkplain #setRetention(Retention) retained
+   * only by reference} is found until it has been cleared, and its
+   * {@link ThrowableSummary} is found afterwards.  In other words,
+   * every {@link Throwable} that iteration reports is found.  None of
+   * these lookups takes time proportional to the number of
+   * members.</p>
    *
    * @param o the {@link Object} to look for; may be {@code null}
    * 
@@ -299,8 +1061,16 @@ public class ThrowableChain extends Exception implements Collection<Throwable> {
    */
   @Override
   public final boolean contains(final Object o) {
-    return o == this || (o != null && this.list.contains(o));
-  }
+    if (o == this || this.members.contains(o)) {
+      return true;
+    }
+    final RetainedAffiliates retained = this.retained;
+    if (retained != null && retained.contains(o)) {
+      return true;
+    }
+    final SpilledAffiliates spill = this.spill;
+    return spill != null && spill.contains(o);
+  }
 
   /**
    * Returns {@code true} if all the elements of the supplied {@link
@@ -315,7 +1085,13 @@ public class ThrowableChain extends Exception implements Collection<Throwable> {
   public final boolean containsAll(final Collection<?> stuff) {
     boolean returnValue = stuff == this;
     if (!returnValue && stuff != null && !stuff.isEmpty()) {
-      returnValue = this.list.containsAll(stuff);
+      returnValue = true;
+      for (final Object o : stuff) {
+        if (!this.contains(o)) {
+          returnValue = false;
+          break;
+        }
+      }
     }
     return returnValue;
   }
@@ -343,7 +1119,7 @@ public class ThrowableChain extends Exception implements Collection<Throwable> {
    */
   @Override
   public final Object[] toArray() {
-    return this.list.toArray();
+    return this.asList().toArray();
   }
 
   /**
@@ -366,29 +1142,63 @@ public class ThrowableChain extends Exception implements Collection<Throwable> {
    */
   @Override
   public final <T> T[] toArray(final T[] a) {
-    return this.list.toArray(a);
+    return this.asList().toArray(a);
   }
 
   /**
-   * Returns a new {@linkplain Collections#unmodifiableList(List)
-   * unmodifiable view} of this {@link ThrowableChain}.  The returned
-   * {@link List} is non-{@code null}, is non-{@linkplain
+   * Returns an immutable snapshot of this {@link ThrowableChain}'s
+   * contents as of the moment of invocation.  The returned {@link
+   * List} is non-{@code null}, is non-{@linkplain
    * Collection#isEmpty() empty}, safe for iteration by multiple
    * threads without synchronization or locking, contains this {@link
-   * ThrowableChain} itself as the first element, and is behaviorally
-   * identical to the {@link List} instances returned by the {@link
-   * Collections#unmodifiableList(List)} method.
+   * ThrowableChain} itself as the first element, and throws an {@link
+   * UnsupportedOperationException} from any method that would modify
+   * it.
+   *
+   * <p>Taking a snapshot runs in constant time and copies nothing: the
+   * snapshot shares storage with this {@link ThrowableChain}, which
+   * only ever appends to that storage.  Affiliates {@linkplain
+   * #add(Throwable) added} after the snapshot was taken do not appear
+   * in it, and {@linkplain #remove(Object) removing} affiliates does
+   * not affect it.</p>
    *
    * <p>Please note that this method does <em>not</em> return a {@link
    * List} view of the {@linkplain Throwable#getCause() causal chain}
    * of this {@link ThrowableChain}.</p>
    *
-   * @return a read-only {@link List} view of this {@link
-   * ThrowableChain} and the underlying list of affiliated {@link
-   * Throwable}s; never {@code null}
+   * <p>If this {@link ThrowableChain} has {@linkplain
+   * #spillTo(ThrowableSpillFile, int, long) spilled} any affiliates,
+   * they follow the in-heap affiliates in the returned {@link List},
+   * and are decoded from the {@link ThrowableSpillFile} each time they
+   * are {@linkplain List#get(int) retrieved}.</p>
+   *
+   * <p>If this {@link ThrowableChain} {@linkplain
+   * #setRetention(Retention) retains} any affiliates only by
+   * reference, they follow the in-heap affiliates (and precede any
+   * spilled affiliates) in the returned {@link List}.  Each one that
+   * has been cleared by the garbage collector is represented by its
+   * {@link ThrowableSummary}.</p>
+   *
+   * @return an immutable {@link List} of this {@link ThrowableChain}
+   * and its affiliated {@link Throwable}s; never {@code null}
    */
   public final List<Throwable> asList() {
-    return Collections.unmodifiableList(this.list);
+    List<Throwable> members = this.members.snapshot();
+    final RetainedAffiliates retained = this.retained;
+    if (retained != null) {
+      final List<Throwable> referenced = retained.snapshot();
+      if (!referenced.isEmpty()) {
+        members = new ConcatenatedList(members, referenced);
+      }
+    }
+    final SpilledAffiliates spill = this.spill;
+    if (spill != null) {
+      final List<Throwable> spilled = spill.snapshot();
+      if (!spilled.isEmpty()) {
+        return new ConcatenatedList(members, spilled);
+      }
+    }
+    return members;
   }
 
   /**
@@ -413,7 +1223,7 @@ public class ThrowableChain extends Exception implements Collection<Throwable> {
     } else if (size == 1) {
       return Collections.emptyList();
     } else {
-      return Collections.unmodifiableList(this.list.subList(1, size));
+      return Collections.unmodifiableList(this.asList().subList(1, size));
     }
   }
 
@@ -426,7 +1236,590 @@ public class ThrowableChain extends Exception implements Collection<Throwable> {
    */
   @Override
   public int size() {
-    return this.list.size();
+    final SpilledAffiliates spill = this.spill;
+    final RetainedAffiliates retained = this.retained;
+    return this.members.size() + (retained == null ? 0 : retained.size()) + (spill == null ? 0 : spill.size());
+  }
+
+  /**
+   * Returns the {@link RootCauseIndex} that groups this {@link
+   * ThrowableChain}'s {@linkplain #getCause() cause} and affiliated
+   * {@link Throwable}s (including any that have been {@linkplain
+   * #spillTo(ThrowableSpillFile, int, long) spilled}, but excluding
+   * this {@link ThrowableChain} itself) by {@linkplain
+   * Throwables#getRootCause(Throwable) root cause} class and by
+   * {@linkplain Throwables#fingerprint(Throwable, int) fingerprint},
+   * so that its groups count every failure this {@link ThrowableChain}
+   * reports.
+   *
+   * <p>The {@link RootCauseIndex} is maintained incrementally as the
+   * cause is {@linkplain #initCause(Throwable) initialized} and as
+   * affiliates are {@linkplain #add(Throwable) added} and {@linkplain
+   * #remove(Object) removed}, so consulting it never requires visiting
+   * every member.  (A {@link Throwable}'s cause, once initialized, can
+   * never be removed, so neither can its entry.)</p>
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null}, read-only {@link RootCauseIndex}
+   */
+  public final RootCauseIndex getRootCauseIndex() {
+    return this.rootCauseIndex;
+  }
+
+  /**
+   * Returns the {@link StormSuppressor} consulted when printing stack
+   * traces, if any.
+   *
+   * @return the {@link StormSuppressor}, or {@code null}
+   *
+   * @see #setStormSuppressor(StormSuppressor)
+   */
+  public final StormSuppressor getStormSuppressor() {
+    return this.printer.getStormSuppressor();
+  }
+
+  /**
+   * Installs a {@link StormSuppressor} that the {@link
+   * #printStackTrace(PrintStream)} and {@link
+   * #printStackTrace(PrintWriter)} methods will {@linkplain
+   * StormSuppressor#shouldEmit(Throwable) consult} for each affiliated
+   * {@link Throwable}.  Affiliates it suppresses are printed as a
+   * single line instead of a full stack trace.
+   *
+   * <p>A single {@link StormSuppressor} is typically shared by many
+   * {@link ThrowableChain}s and by other code that logs failures.</p>
+   *
+   * @param stormSuppressor the {@link StormSuppressor}; may be {@code
+   * null} in which case every stack trace will be printed in full
+   */
+  public final synchronized void setStormSuppressor(final StormSuppressor stormSuppressor) {
+    this.printer = this.printer.withStormSuppressor(stormSuppressor);
+  }
+
+  /**
+   * Returns the {@link RenderedTraceCache} used when printing the
+   * stack traces of affiliated {@link Throwable}s, if any.
+   *
+   * @return the {@link RenderedTraceCache}, or {@code null}
+   *
+   * @see #setRenderedTraceCache(RenderedTraceCache)
+   */
+  public final RenderedTraceCache getRenderedTraceCache() {
+    return this.printer.getRenderedTraceCache();
+  }
+
+  /**
+   * Installs a {@link RenderedTraceCache} that the {@link
+   * #printStackTrace(PrintStream)} and {@link
+   * #printStackTrace(PrintWriter)} methods will use to {@linkplain
+   * RenderedTraceCache#printStackTrace(Throwable, PrintStream) print}
+   * each affiliated {@link Throwable}, so that a {@link Throwable}
+   * printed repeatedly, or affiliated with several {@link
+   * ThrowableChain}s sharing the same {@link RenderedTraceCache}, is
+   * only formatted once.
+   *
+   * @param renderedTraceCache the {@link RenderedTraceCache}; may be
+   * {@code null} in which case every stack trace will be formatted
+   * afresh
+   *
+   * @see RenderedTraceCache#getInstance()
+   */
+  public final synchronized void setRenderedTraceCache(final RenderedTraceCache renderedTraceCache) {
+    this.printer = this.printer.withRenderedTraceCache(renderedTraceCache);
+  }
+
+  /**
+   * Returns the {@link ForkJoinPool} used to format the stack traces
+   * of affiliated {@link Throwable}s in parallel, if any.
+   *
+   * @return the {@link ForkJoinPool}, or {@code null}
+   *
+   * @see #setRenderingPool(ForkJoinPool)
+   */
+  public final ForkJoinPool getRenderingPool() {
+    return this.printer.getRenderingPool();
+  }
+
+  /**
+   * Installs a {@link ForkJoinPool} that the {@link
+   * #printStackTrace(PrintStream)} and {@link
+   * #printStackTrace(PrintWriter)} methods will use to format the
+   * stack traces of affiliated {@link Throwable}s in parallel.
+   *
+   * <p>Affiliates are formatted in fixed-size chunks, each into its
+   * own buffer.  The calling thread writes the chunks to the target in
+   * order, each as soon as it and every chunk before it are ready, so
+   * the output is identical to that produced without a rendering pool
+   * and begins appearing before the last chunk has been formatted.
+   * Only a bounded number of chunks, proportional to the {@linkplain
+   * ForkJoinPool#getParallelism() parallelism} of the pool, are
+   * formatted ahead of the one being written.  Any {@linkplain
+   * #setStormSuppressor(StormSuppressor) storm suppressor} is still
+   * consulted on the calling thread, in order.</p>
+   *
+   * <p>{@link ThrowableChain}s with only a few affiliates are always
+   * printed on the calling thread.</p>
+   *
+   * @param renderingPool the {@link ForkJoinPool}; may be {@code
+   * null} in which case stack traces will be formatted on the calling
+   * thread
+   *
+   * @see ForkJoinPool#commonPool()
+   */
+  public final synchronized void setRenderingPool(final ForkJoinPool renderingPool) {
+    this.printer = this.printer.withRenderingPool(renderingPool);
+  }
+
+  /**
+   * Returns the {@link Retention} applied to affiliated {@link
+   * Throwable}s as they are added.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return the {@link Retention}; never {@code null}
+   *
+   * @see #setRetention(Retention)
+   */
+  public final Retention getRetention() {
+    final Retention retention = this.retention;
+    return retention == null ? Retention.STRONG : retention;
+  }
+
+  /**
+   * Sets how affiliated {@link Throwable}s {@linkplain
+   * #add(Throwable) added} from now on are held.
+   *
+   * <p>Under {@link Retention#SOFT} or {@link Retention#WEAK}
+   * retention, each affiliate (other than this {@link
+   * ThrowableChain}'s {@linkplain #getCause() cause}) is held only by
+   * a {@link SoftReference} or a {@link WeakReference}, respectively,
+   * together with a strongly held {@link ThrowableSummary} of it.
+   * Once the garbage collector has cleared an affiliate, {@linkplain
+   * #iterator() iteration}, the {@link #asList()} method and the
+   * {@code printStackTrace} methods report its {@link
+   * ThrowableSummary} in its place (printed stack traces prefix it
+   * with "<code>(cleared) </code>"), and the {@link #size()} method
+   * continues to count it.  Cleared references are noticed lazily, as
+   * affiliates are added and listed, so this costs nothing while
+   * memory is plentiful.</p>
+   *
+   * <p>Neither the {@linkplain #getRootCauseIndex() root cause index}
+   * nor the {@linkplain #getPublisher() publisher} keeps an affiliate
+   * retained by reference reachable: each is given the affiliate's
+   * {@link ThrowableSummary} instead.  Other holders may of course
+   * still keep an affiliate reachable.  {@linkplain
+   * #setAddSiteDepth(int) Add sites} are not recorded for affiliates
+   * retained by reference.  If a {@linkplain
+   * #setFrameArena(FrameArena) frame arena} has been established, all
+   * of an affiliate's stack frames are archived in it alongside its
+   * {@link ThrowableSummary}, so that they can still be reported
+   * after the affiliate itself has been cleared.</p>
+   *
+   * <p>Affiliates retained by reference follow in-heap affiliates in
+   * {@linkplain #iterator() iteration order}, so if {@link
+   * Retention#STRONG} retention is restored afterwards, affiliates
+   * added from then on are iterated before them.</p>
+   *
+   * @param retention the {@link Retention}; may be {@code null} in
+   * which case {@link Retention#STRONG} is used
+   *
+   * @see #getClearedCount()
+   *
+   * @see ThrowableSummary
+   */
+  public final void setRetention(final Retention retention) {
+    if (retention == null || retention == Retention.STRONG) {
+      this.retention = null;
+    } else {
+      synchronized (this) {
+        if (this.retained == null) {
+          this.retained = new RetainedAffiliates();
+        }
+        this.retention = retention;
+      }
+    }
+  }
+
+  /**
+   * Returns the number of affiliated {@link Throwable}s {@linkplain
+   * #setRetention(Retention) retained by reference} that the garbage
+   * collector has cleared so far and that are now represented by
+   * their {@linkplain ThrowableSummary summaries}.
+   *
+   * @return the number of cleared affiliates; never less than {@code
+   * 0}
+   *
+   * @see #setRetention(Retention)
+   */
+  public final int getClearedCount() {
+    final RetainedAffiliates retained = this.retained;
+    return retained == null ? 0 : retained.getClearedCount();
+  }
+
+  /**
+   * Clears and enqueues, exactly as the garbage collector would, the
+   * reference to every affiliated {@link Throwable} {@linkplain
+   * #setRetention(Retention) retained by reference} that the supplied
+   * {@link Predicate} accepts, so that the handling of cleared
+   * affiliates can be exercised without depending on the collector.
+   *
+   * @param predicate the {@link Predicate} selecting the affiliates
+   * to clear; must not be {@code null}
+   *
+   * @return the number of affiliates cleared; never less than {@code
+   * 0}
+   *
+   * @exception IllegalArgumentException if {@code predicate} is
+   * {@code null}
+   *
+   * @see #getClearedCount()
+   */
+  final int clearRetained(final Predicate<? super Throwable> predicate) {
+    if (predicate == null) {
+      throw new IllegalArgumentException("predicate", new NullPointerException("predicate"));
+    }
+    final RetainedAffiliates retained = this.retained;
+    return retained == null ? 0 : retained.clear(predicate);
+  }
+
+  /**
+   * Returns the {@link FrameFilter} applied to {@link Throwable}s as
+   * they are added to this {@link ThrowableChain}, if any.
+   *
+   * @return the {@link FrameFilter}, or {@code null}
+   *
+   * @see #setFrameFilter(FrameFilter)
+   */
+  public final FrameFilter getFrameFilter() {
+    return this.frameFilter;
+  }
+
+  /**
+   * Installs a {@link FrameFilter} that will be {@linkplain
+   * FrameFilter#apply(Throwable) applied}, once, to each {@link
+   * Throwable} subsequently {@linkplain #add(Throwable) added} to this
+   * {@link ThrowableChain}, before it is indexed, spilled, published
+   * or has its frames archived in a {@linkplain
+   * #setFrameArena(FrameArena) frame arena}.  The {@link Throwable}s
+   * are modified in place.
+   *
+   * <p>A single {@link FrameFilter} is typically shared by many
+   * {@link ThrowableChain}s.</p>
+   *
+   * @param frameFilter the {@link FrameFilter}; may be {@code null} in
+   * which case stack frames will not be filtered
+   */
+  public final void setFrameFilter(final FrameFilter frameFilter) {
+    this.frameFilter = frameFilter;
+  }
+
+  /**
+   * Returns the maximum number of stack frames recorded in the
+   * {@link AddSite} of each affiliated {@link Throwable}, or {@code 0}
+   * if {@link AddSite}s are not being recorded.
+   *
+   * @return the add site depth; never less than {@code 0}
+   *
+   * @see #setAddSiteDepth(int)
+   */
+  public final int getAddSiteDepth() {
+    return this.addSiteDepth;
+  }
+
+  /**
+   * Sets the maximum number of stack frames of the calling code to
+   * record, as an {@link AddSite}, for each {@link Throwable}
+   * subsequently {@linkplain #add(Throwable) added} to this {@link
+   * ThrowableChain}.  A depth of {@code 1} records just the immediate
+   * caller.  {@link Throwable}s added together by {@link
+   * #addAll(Collection)} or {@link #merge(Collection)} share one
+   * {@link AddSite}.
+   *
+   * @param addSiteDepth the add site depth; {@code 0} (the default)
+   * turns recording off; must not be less than {@code 0}
+   *
+   * @exception IllegalArgumentException if {@code addSiteDepth} is
+   * less than {@code 0}
+   *
+   * @see #getAddSite(Throwable)
+   *
+   * @see #printStackTraceByAddSite(PrintWriter)
+   */
+  public final void setAddSiteDepth(final int addSiteDepth) {
+    if (addSiteDepth < 0) {
+      throw new IllegalArgumentException(String.format("addSiteDepth < 0: %d", addSiteDepth));
+    }
+    this.addSiteDepth = addSiteDepth;
+  }
+
+  /**
+   * Returns the {@link AddSite} recorded for the supplied affiliated
+   * {@link Throwable}, if any.
+   *
+   * @param t the {@link Throwable}; may be {@code null}
+   *
+   * @return the {@link AddSite}, or {@code null}
+   *
+   * @see #setAddSiteDepth(int)
+   */
+  public final synchronized AddSite getAddSite(final Throwable t) {
+    return this.addSites == null ? null : this.addSites.get(t);
+  }
+
+  /**
+   * Returns this {@link ThrowableChain}'s affiliated {@link
+   * Throwable}s (not including this {@link ThrowableChain} itself)
+   * grouped by {@link AddSite}, in order of first appearance.
+   * Affiliates for which no {@link AddSite} was recorded are grouped
+   * under the {@code null} key.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a new, non-{@code null} {@link Map}
+   *
+   * @see #setAddSiteDepth(int)
+   */
+  public final Map<AddSite, List<Throwable>> getAffiliatesByAddSite() {
+    final Map<AddSite, List<Throwable>> returnValue = new LinkedHashMap<AddSite, List<Throwable>>();
+    final List<Throwable> affiliates = this.asList();
+    synchronized (this) {
+      final Map<Throwable, AddSite> addSites = this.addSites;
+      for (final Throwable t : affiliates) {
+        if (t != this) {
+          final AddSite addSite = addSites == null ? null : addSites.get(t);
+          List<Throwable> group = returnValue.get(addSite);
+          if (group == null) {
+            group = new ArrayList<Throwable>();
+            returnValue.put(addSite, group);
+          }
+          group.add(t);
+        }
+      }
+    }
+    return returnValue;
+  }
+
+  /**
+   * Returns the {@link FrameArena} in which the stack frames of
+   * affiliated {@link Throwable}s {@linkplain #setRetention(Retention)
+   * retained only by reference} are archived, if any.
+   *
+   * @return the {@link FrameArena}, or {@code null}
+   *
+   * @see #setFrameArena(FrameArena)
+   */
+  public final FrameArena getFrameArena() {
+    return this.frameArena;
+  }
+
+  /**
+   * Installs a {@link FrameArena} in which all of the stack frames of
+   * {@link Throwable}s subsequently {@linkplain #add(Throwable) added}
+   * to this {@link ThrowableChain} and {@linkplain
+   * #setRetention(Retention) retained only by reference} will be
+   * archived, so that a long-lived {@link ThrowableChain} whose
+   * affiliates have been garbage collected keeps only their compact
+   * {@linkplain ThrowableSummary summaries} on the heap, yet can still
+   * report their full stack traces.
+   *
+   * <p>Affiliates themselves are never modified: their stack traces
+   * are copied into the {@link FrameArena}, not moved.  Affiliates that
+   * this {@link ThrowableChain} holds strongly keep their own stack
+   * frames on the heap in any event, so their frames are not
+   * archived.  Archived frames are decoded whenever this {@link
+   * ThrowableChain} {@linkplain #printStackTrace(PrintWriter) prints
+   * its stack trace}, is {@linkplain #getStackTrace(Throwable) asked
+   * for them} or is {@linkplain ThrowableJsonEncoder encoded as JSON}
+   * and the affiliate in question has been cleared.  Frames archived
+   * in a {@link FrameArena} that has since been {@linkplain
+   * FrameArena#close() closed} are lost, in which case only the
+   * topmost frame recorded by each {@link ThrowableSummary} remains;
+   * installing a different {@link FrameArena} (or {@code null}) does
+   * not affect frames already archived.</p>
+   *
+   * <p>A single {@link FrameArena} is typically shared by many {@link
+   * ThrowableChain}s.</p>
+   *
+   * @param frameArena the {@link FrameArena}; may be {@code null} in
+   * which case stack frames will not be archived
+   *
+   * @see #setRetention(Retention)
+   */
+  public final void setFrameArena(final FrameArena frameArena) {
+    this.frameArena = frameArena;
+  }
+
+  /**
+   * Returns the stack frames of the supplied {@link Throwable},
+   * decoding them from the {@linkplain #setFrameArena(FrameArena)
+   * frame arena} in which they were archived if the supplied {@link
+   * Throwable} is the {@linkplain ThrowableSummary summary} of a
+   * cleared affiliate.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param t the {@link Throwable}; must not be {@code null}
+   *
+   * @return a non-{@code null} array of {@link StackTraceElement}s
+   *
+   * @exception IllegalArgumentException if {@code t} is {@code null}
+   */
+  public final StackTraceElement[] getStackTrace(final Throwable t) {
+    if (t == null) {
+      throw new IllegalArgumentException("t", new NullPointerException("t"));
+    }
+    if (t instanceof ThrowableSummary) {
+      final StackTraceElement[] frames = ((ThrowableSummary)t).getArchivedStackTrace();
+      if (frames != null) {
+        return frames;
+      }
+    }
+    return t.getStackTrace();
+  }
+
+  /**
+   * Returns the {@link ThrowablePublisher} to which every affiliated
+   * {@link Throwable} is {@linkplain
+   * ThrowablePublisher#publish(Throwable) published} as it is
+   * {@linkplain #add(Throwable) added} to this {@link
+   * ThrowableChain}, creating one with a {@linkplain
+   * ThrowablePublisher#ThrowablePublisher() default configuration} if
+   * necessary.
+   *
+   * <p>Affiliates added before a subscriber {@linkplain
+   * ThrowablePublisher#subscribe(java.util.concurrent.Flow.Subscriber)
+   * subscribes} are not replayed to it; a subscriber that needs them
+   * should subscribe first and then consult {@link #asList()}.  The
+   * {@linkplain #getCause() cause} initialized by the first
+   * {@linkplain #add(Throwable) addition} is not an affiliate and so is
+   * not published.  An affiliate that is {@linkplain
+   * #spillTo(ThrowableSpillFile, int, long) spilled} or {@linkplain
+   * #setRetention(Retention) retained only by reference} is published
+   * as its {@link ThrowableSummary}.</p>
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return the {@link ThrowablePublisher}; never {@code null}
+   *
+   * @see #setPublisher(ThrowablePublisher)
+   */
+  public final ThrowablePublisher getPublisher() {
+    ThrowablePublisher publisher = this.publisher;
+    if (publisher == null) {
+      synchronized (this) {
+        publisher = this.publisher;
+        if (publisher == null) {
+          publisher = new ThrowablePublisher();
+          this.publisher = publisher;
+        }
+      }
+    }
+    return publisher;
+  }
+
+  /**
+   * Installs the supplied {@link ThrowablePublisher} as the one to
+   * which affiliated {@link Throwable}s are {@linkplain
+   * ThrowablePublisher#publish(Throwable) published} as they are
+   * {@linkplain #add(Throwable) added}.  Use this method to choose a
+   * buffer size or {@link ThrowablePublisher.OverflowPolicy} other
+   * than the default, or to share one {@link ThrowablePublisher}
+   * among several {@link ThrowableChain}s.
+   *
+   * <p>Any previously installed {@link ThrowablePublisher} is
+   * <em>not</em> {@linkplain ThrowablePublisher#close() closed}.</p>
+   *
+   * @param publisher the {@link ThrowablePublisher}; may be {@code
+   * null} in which case affiliates will no longer be published
+   *
+   * @see #getPublisher()
+   */
+  public final void setPublisher(final ThrowablePublisher publisher) {
+    synchronized (this) {
+      this.publisher = publisher;
+    }
+  }
+
+  /**
+   * Arranges for affiliated {@link Throwable}s added to this {@link
+   * ThrowableChain} from now on to be stored in the supplied {@link
+   * ThrowableSpillFile}, rather than on the heap, once this {@link
+   * ThrowableChain} holds {@code memberThreshold} members or the
+   * estimated heap footprint of its affiliates (including their
+   * causes and stack traces) exceeds {@code byteBudget} bytes.
+   *
+   * <p>Once spilling begins, every subsequently {@linkplain
+   * #add(Throwable) added} affiliate is spilled, so the {@linkplain
+   * #iterator() iteration order} of this {@link ThrowableChain} remains
+   * the order in which affiliates were added.  (An affiliate that
+   * cannot be {@linkplain java.io.Serializable serialized} is kept on
+   * the heap instead, and will be iterated before any spilled
+   * affiliates.)  Only a small, fixed-size record of each spilled
+   * affiliate remains on the heap; the {@linkplain #getRootCauseIndex()
+   * root cause index} and {@linkplain #getPublisher() publisher} are
+   * given their {@linkplain ThrowableSummary summaries} instead.</p>
+   *
+   * <p>Spilled affiliates are transparently decoded, one at a time,
+   * by {@linkplain #iterator() iteration}, by the {@link #asList()}
+   * method and by the {@link #printStackTrace(PrintStream)} and {@link
+   * #printStackTrace(PrintWriter)} methods, and are counted by the
+   * {@link #size()} method.  A spilled affiliate that is still
+   * reachable from elsewhere is reported as itself rather than
+   * decoded, and a decoded copy is reported again for as long as it is
+   * reachable, so that spilled affiliates are {@linkplain
+   * #contains(Object) found} and {@linkplain #remove(Object) removed}
+   * consistently with iteration.  (The records of removed affiliates
+   * remain in the {@link ThrowableSpillFile}.)  When this {@link
+   * ThrowableChain} is serialized, spilled affiliates are decoded and
+   * serialized along with it.</p>
+   *
+   * <p>The caller remains responsible for {@linkplain
+   * ThrowableSpillFile#close() closing} the {@link
+   * ThrowableSpillFile}, which may be shared by several {@link
+   * ThrowableChain}s, once spilled affiliates are no longer
+   * needed.</p>
+   *
+   * @param file the {@link ThrowableSpillFile} to spill to; must not
+   * be {@code null}
+   *
+   * @param memberThreshold the number of members (including this
+   * {@link ThrowableChain} itself) at which spilling begins; must not
+   * be less than {@code 0}
+   *
+   * @param byteBudget the estimated number of heap bytes occupied by
+   * affiliates at which spilling begins; must not be less than {@code
+   * 0}
+   *
+   * @exception IllegalArgumentException if {@code file} is {@code
+   * null} or either threshold is negative
+   *
+   * @exception IllegalStateException if this {@link ThrowableChain}
+   * is already spilling to a different {@link ThrowableSpillFile}
+   */
+  public final void spillTo(final ThrowableSpillFile file, final int memberThreshold, final long byteBudget) {
+    if (file == null) {
+      throw new IllegalArgumentException("file", new NullPointerException("file"));
+    }
+    if (memberThreshold < 0) {
+      throw new IllegalArgumentException(String.format("memberThreshold < 0: %d", memberThreshold));
+    }
+    if (byteBudget < 0L) {
+      throw new IllegalArgumentException(String.format("byteBudget < 0: %d", byteBudget));
+    }
+    synchronized (this) {
+      final SpilledAffiliates old = this.spill;
+      if (old != null && old.getFile() != file) {
+        throw new IllegalStateException(String.format("Already spilling to %s", old.getFile()));
+      }
+      long heapBytes = 0L;
+      for (final Throwable t : this.members.snapshot()) {
+        if (t != this) {
+          heapBytes += SpilledAffiliates.estimateSize(t);
+        }
+      }
+      this.spill = new SpilledAffiliates(file, memberThreshold, byteBudget, heapBytes, old);
+    }
   }
 
   /**
@@ -459,6 +1852,23 @@ public class ThrowableChain extends Exception implements Collection<Throwable> {
    * text fragment is substituted with the ordinal position, starting
    * with {@code 1}, of the {@link Throwable} in question.</p>
    *
+   * <p>If a {@linkplain #setStormSuppressor(StormSuppressor) storm
+   * suppressor} is installed and it {@linkplain
+   * StormSuppressor#shouldEmit(Throwable) decides} that an affiliated
+   * {@link Throwable} should not be emitted, only that {@link
+   * Throwable}'s {@linkplain Throwable#toString() <code>String</code>
+   * form}, prefixed with "<code>(suppressed) </code>", is printed in
+   * place of its stack trace.</p>
+   *
+   * <p>If a {@linkplain #setRenderedTraceCache(RenderedTraceCache)
+   * rendered trace cache} is installed, affiliated {@link Throwable}s
+   * are printed through it.</p>
+   *
+   * <p>If a {@linkplain #setRenderingPool(ForkJoinPool) rendering
+   * pool} is installed, the stack traces of affiliated {@link
+   * Throwable}s may be formatted in parallel on it; the output is the
+   * same.</p>
+   *
    * @param s the {@link PrintStream} to print to; must not be {@code
    * null}
    */
@@ -473,6 +1883,13 @@ public class ThrowableChain extends Exception implements Collection<Throwable> {
         super.printStackTrace(s);
       } else {
         synchronized (s) {
+          final AffiliatePrinter printer = this.printer;
+          if (printer.isParallel(size)) {
+            s.print("1. ");
+            super.printStackTrace(s);
+            printer.render(this.asList(), s::print);
+            return;
+          }
           int i = 1;
           for (final Throwable t : this) {
             if (t != null) {
@@ -480,7 +1897,7 @@ public class ThrowableChain extends Exception implements Collection<Throwable> {
               if (t == this) {
                 super.printStackTrace(s);
               } else {
-                t.printStackTrace(s);
+                printer.print(t, s);
               }
             }
           }
@@ -498,6 +1915,23 @@ public class ThrowableChain extends Exception implements Collection<Throwable> {
    * is substituted with the ordinal position, starting with {@code
    * 1}, of the {@link Throwable} in question.</p>
    *
+   * <p>If a {@linkplain #setStormSuppressor(StormSuppressor) storm
+   * suppressor} is installed and it {@linkplain
+   * StormSuppressor#shouldEmit(Throwable) decides} that an affiliated
+   * {@link Throwable} should not be emitted, only that {@link
+   * Throwable}'s {@linkplain Throwable#toString() <code>String</code>
+   * form}, prefixed with "<code>(suppressed) </code>", is printed in
+   * place of its stack trace.</p>
+   *
+   * <p>If a {@linkplain #setRenderedTraceCache(RenderedTraceCache)
+   * rendered trace cache} is installed, affiliated {@link Throwable}s
+   * are printed through it.</p>
+   *
+   * <p>If a {@linkplain #setRenderingPool(ForkJoinPool) rendering
+   * pool} is installed, the stack traces of affiliated {@link
+   * Throwable}s may be formatted in parallel on it; the output is the
+   * same.</p>
+   *
    * @param w the {@link PrintWriter} to print to; must not be {@code
    * null}
    */
@@ -512,14 +1946,21 @@ public class ThrowableChain extends Exception implements Collection<Throwable> {
         super.printStackTrace(w);
       } else {
         synchronized (w) {
+          final AffiliatePrinter printer = this.printer;
+          if (printer.isParallel(size)) {
+            w.print("1. ");
+            super.printStackTrace(w);
+            printer.render(this.asList(), w::print);
+            return;
+          }
           int i = 1;
-          for (final Throwable t : this) {          
+          for (final Throwable t : this) {
             if (t != null) {
               w.format("%d. ", i++);
               if (t == this) {
                 super.printStackTrace(w);
-              } else if (t != null) {
-                t.printStackTrace(w);
+              } else {
+                printer.print(t, w);
               }
             }
           }
@@ -528,4 +1969,275 @@ public class ThrowableChain extends Exception implements Collection<Throwable> {
     }
   }
 
+  /**
+   * Prints the stack trace of this {@link ThrowableChain} as {@link
+   * #printStackTrace(PrintStream)} does, except that affiliated {@link
+   * Throwable}s are grouped by {@linkplain #getAddSite(Throwable) add
+   * site}, each group preceded by a line of the form "<code>Added at
+   * </code><i>site</i><code>:</code>" (or "<code>Added at an unknown
+   * site:</code>").
+   *
+   * @param s the {@link PrintStream} to print to; must not be {@code
+   * null}
+   *
+   * @see #setAddSiteDepth(int)
+   *
+   * @see #getAffiliatesByAddSite()
+   */
+  public void printStackTraceByAddSite(final PrintStream s) {
+    if (s != null) {
+      synchronized (s) {
+        final AffiliatePrinter printer = this.printer;
+        int i = 1;
+        s.format("%d. ", i++);
+        super.printStackTrace(s);
+        for (final Map.Entry<AddSite, List<Throwable>> entry : this.getAffiliatesByAddSite().entrySet()) {
+          final AddSite addSite = entry.getKey();
+          s.println(addSite == null ? "Added at an unknown site:" : "Added at " + addSite + ":");
+          for (final Throwable t : entry.getValue()) {
+            s.format("%d. ", i++);
+            printer.print(t, s);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Prints the stack trace of this {@link ThrowableChain} as {@link
+   * #printStackTrace(PrintWriter)} does, except that affiliated {@link
+   * Throwable}s are grouped by {@linkplain #getAddSite(Throwable) add
+   * site}, each group preceded by a line of the form "<code>Added at
+   * </code><i>site</i><code>:</code>" (or "<code>Added at an unknown
+   * site:</code>").
+   *
+   * @param w the {@link PrintWriter} to print to; must not be {@code
+   * null}
+   *
+   * @see #setAddSiteDepth(int)
+   *
+   * @see #getAffiliatesByAddSite()
+   */
+  public void printStackTraceByAddSite(final PrintWriter w) {
+    if (w != null) {
+      synchronized (w) {
+        final AffiliatePrinter printer = this.printer;
+        int i = 1;
+        w.format("%d. ", i++);
+        super.printStackTrace(w);
+        for (final Map.Entry<AddSite, List<Throwable>> entry : this.getAffiliatesByAddSite().entrySet()) {
+          final AddSite addSite = entry.getKey();
+          w.println(addSite == null ? "Added at an unknown site:" : "Added at " + addSite + ":");
+          for (final Throwable t : entry.getValue()) {
+            w.format("%d. ", i++);
+            printer.print(t, w);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Serializes this {@link ThrowableChain}, including any {@linkplain
+   * #spillTo(ThrowableSpillFile, int, long) spilled} affiliates and
+   * any affiliates {@linkplain #setRetention(Retention) retained by
+   * reference} (or, if they have been cleared, their {@linkplain
+   * ThrowableSummary summaries}).
+   *
+   * @param out the {@link ObjectOutputStream} to write to; must not
+   * be {@code null}
+   *
+   * @exception IOException if an error occurs
+   */
+  private void writeObject(final ObjectOutputStream out) throws IOException {
+    final ObjectOutputStream.PutField fields = out.putFields();
+    fields.put("list", new CopyOnWriteArrayList<Throwable>(this.members.snapshot()));
+    this.getMessage(); // resolves any message Supplier
+    fields.put("suppliedMessage", this.suppliedMessage);
+    out.writeFields();
+    // Affiliates retained by reference and spilled affiliates follow,
+    // in that order; they are read back onto the heap.
+    final RetainedAffiliates retained = this.retained;
+    final List<Throwable> referenced = retained == null ? Collections.<Throwable>emptyList() : retained.snapshot();
+    final SpilledAffiliates spill = this.spill;
+    final List<Throwable> spilled = spill == null ? Collections.<Throwable>emptyList() : spill.snapshot();
+    out.writeInt(referenced.size() + spilled.size());
+    for (final Throwable t : referenced) {
+      out.writeObject(t);
+    }
+    for (final Throwable t : spilled) {
+      out.writeObject(t);
+    }
+  }
+
+  /**
+   * Deserializes this {@link ThrowableChain}.  Affiliates that were
+   * spilled or retained by reference when this {@link ThrowableChain}
+   * was serialized are restored to the heap.
+   *
+   * @param in the {@link ObjectInputStream} to read from; must not be
+   * {@code null}
+   *
+   * @exception IOException if an error occurs
+   *
+   * @exception ClassNotFoundException if a class could not be found
+   */
+  private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException {
+    final ObjectInputStream.GetField fields = in.readFields();
+    final SegmentedLog<Throwable> members = new SegmentedLog<Throwable>();
+    members.add(this);
+    @SuppressWarnings("unchecked")
+    final Collection<Throwable> list = (Collection<Throwable>)fields.get("list", null);
+    if (list != null) {
+      members.addAll(list);
+    }
+    this.suppliedMessage = (String)fields.get("suppliedMessage", null);
+    int spilledCount;
+    try {
+      spilledCount = in.readInt();
+    } catch (final EOFException olderSerializedForm) {
+      spilledCount = 0;
+    }
+    for (int i = 0; i < spilledCount; i++) {
+      members.add((Throwable)in.readObject());
+    }
+    this.members = members;
+    final RootCauseIndex rootCauseIndex = new RootCauseIndex();
+    final Map<Throwable, RootCauseIndex.Key> indexKeys = new IdentityHashMap<Throwable, RootCauseIndex.Key>();
+    rootCauseIndex.add(this.getCause());
+    for (final Throwable t : members.snapshot()) {
+      if (t != this) {
+        indexKeys.put(t, rootCauseIndex.add(t));
+      }
+    }
+    this.rootCauseIndex = rootCauseIndex;
+    this.indexKeys = indexKeys;
+    this.printer = AffiliatePrinter.DEFAULT;
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * How a {@link ThrowableChain} holds the affiliated {@link
+   * Throwable}s added to it.
+   *
+   * @author <a href="http://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   *
+   * @see ThrowableChain#setRetention(Retention)
+   */
+  public static enum Retention {
+
+    /**
+     * Affiliates are held strongly.  This is the default.
+     */
+    STRONG,
+
+    /**
+     * Affiliates are held by {@link SoftReference}s, and so are
+     * cleared only when the garbage collector needs the memory.
+     */
+    SOFT,
+
+    /**
+     * Affiliates are held by {@link WeakReference}s, and so are
+     * cleared as soon as nothing else refers to them.
+     */
+    WEAK;
+
+  }
+
+  /**
+   * An unmodifiable {@link List} consisting of one {@link List} of
+   * {@link Throwable}s followed by another.
+   *
+   * @author <a href="http://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class ConcatenatedList extends AbstractList<Throwable> implements RandomAccess {
+
+    /**
+     * The first elements.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final List<Throwable> first;
+
+    /**
+     * The remaining elements.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final List<Throwable> rest;
+
+    /**
+     * Creates a new {@link ConcatenatedList}.
+     *
+     * @param first the first elements; must not be {@code null}
+     *
+     * @param rest the remaining elements; must not be {@code null}
+     */
+    private ConcatenatedList(final List<Throwable> first, final List<Throwable> rest) {
+      super();
+      this.first = first;
+      this.rest = rest;
+    }
+
+    @Override
+    public final Throwable get(final int index) {
+      final int firstSize = this.first.size();
+      if (index >= 0 && index < firstSize) {
+        return this.first.get(index);
+      }
+      return this.rest.get(index - firstSize);
+    }
+
+    @Override
+    public final int size() {
+      return this.first.size() + this.rest.size();
+    }
+
+  }
+
+  /**
+   * A holder for the message {@link Supplier} of a {@link
+   * ThrowableChain} whose monitor serializes its invocation.
+   *
+   * <p>A {@link PendingMessage} is private to the {@link
+   * ThrowableChain} that creates it, so unlike the {@link Supplier}
+   * itself, which may be shared, or the {@link ThrowableChain}, which
+   * is public, its monitor cannot be acquired by unrelated code.</p>
+   *
+   * @author <a href="http://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   *
+   * @see ThrowableChain#getMessage()
+   */
+  private static final class PendingMessage {
+
+    /**
+     * The {@link Supplier} of the message.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final Supplier<? extends String> messageSupplier;
+
+    /**
+     * Creates a new {@link PendingMessage}.
+     *
+     * @param messageSupplier the {@link Supplier} of the message; must
+     * not be {@code null}
+     */
+    private PendingMessage(final Supplier<? extends String> messageSupplier) {
+      super();
+      assert messageSupplier != null;
+      this.messageSupplier = messageSupplier;
+    }
+
+  }
+
 }
@@ -0,0 +1,268 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.throwables;
+
+import java.util.Arrays;
+
+import java.util.function.Supplier;
+
+/**
+ * A reusable accumulator of {@link Throwable}s that produces a {@link
+ * ThrowableChain} only when there is something to report.
+ *
+ * <p>A {@link ThrowableChainBuilder} is intended for tight loops in
+ * which each iteration might fail in several ways but very few
+ * actually do.  Rather than creating (and usually discarding) a {@link
+ * ThrowableChain} per iteration, a loop creates one {@link
+ * ThrowableChainBuilder}, {@linkplain #add(Throwable) adds} each
+ * failure to it, and at the end of each iteration either {@linkplain
+ * #throwIfNotEmpty(String) escalates} or {@linkplain #reset()
+ * resets} it:</p>
+ *
+ * <blockquote><pre>final ThrowableChainBuilder failures = new ThrowableChainBuilder();
+ *for (final Record record : records) {
+ *  try {
+ *    validateName(record);
+ *  } catch (final ValidationException e) {
+ *    failures.add(e);
+ *  }
+ *  try {
+ *    validateDate(record);
+ *  } catch (final ValidationException e) {
+ *    failures.add(e);
+ *  }
+ *  failures.throwIfNotEmpty("Invalid record"); // resets when empty, too
+ *}</pre></blockquote>
+ *
+ * <p>The buffer holding accumulated {@link Throwable}s is recycled, so
+ * an iteration that adds nothing, or that adds no more {@link
+ * Throwable}s than any earlier iteration, allocates nothing.</p>
+ *
+ * <p>Instances of this class are <strong>not</strong> safe for use by
+ * multiple threads; each should be confined to a single thread.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see ThrowableChain
+ */
+public final class ThrowableChainBuilder {
+
+  /**
+   * The initial capacity of the buffer.
+   */
+  private static final int INITIAL_CAPACITY = 4;
+
+  /**
+   * The capacity above which a {@linkplain #reset() reset} discards
+   * the buffer rather than recycling it, so that a single
+   * pathological iteration does not pin a large array forever.
+   */
+  private static final int MAXIMUM_RETAINED_CAPACITY = 1024;
+
+  /**
+   * The buffer of accumulated {@link Throwable}s; only the first
+   * {@link #size} elements are meaningful.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private Throwable[] buffer;
+
+  /**
+   * The number of accumulated {@link Throwable}s.
+   */
+  private int size;
+
+  /**
+   * Creates a new {@link ThrowableChainBuilder}.
+   */
+  public ThrowableChainBuilder() {
+    super();
+    this.buffer = new Throwable[INITIAL_CAPACITY];
+  }
+
+  /**
+   * Adds the supplied {@link Throwable} to this {@link
+   * ThrowableChainBuilder} if it is non-{@code null} and not already
+   * present.
+   *
+   * @param throwable the {@link Throwable} to add; may be {@code
+   * null} in which case no action is taken
+   *
+   * @return {@code true} if the supplied {@link Throwable} was
+   * actually added
+   */
+  public final boolean add(final Throwable throwable) {
+    if (throwable == null) {
+      return false;
+    }
+    for (int i = 0; i < this.size; i++) {
+      if (this.buffer[i] == throwable) {
+        return false;
+      }
+    }
+    if (this.size == this.buffer.length) {
+      this.buffer = Arrays.copyOf(this.buffer, this.size * 2);
+    }
+    this.buffer[this.size++] = throwable;
+    return true;
+  }
+
+  /**
+   * Returns the number of {@link Throwable}s accumulated since this
+   * {@link ThrowableChainBuilder} was last {@linkplain #reset() reset}.
+   *
+   * @return the number of accumulated {@link Throwable}s; never less
+   * than {@code 0}
+   */
+  public final int size() {
+    return this.size;
+  }
+
+  /**
+   * Returns {@code true} if no {@link Throwable}s have been
+   * accumulated since this {@link ThrowableChainBuilder} was last
+   * {@linkplain #reset() reset}.
+   *
+   * @return {@code true} if this {@link ThrowableChainBuilder} is
+   * empty
+   */
+  public final boolean isEmpty() {
+    return this.size == 0;
+  }
+
+  /**
+   * Discards all accumulated {@link Throwable}s so that this {@link
+   * ThrowableChainBuilder} may be reused.  Unless the buffer has grown
+   * unusually large, no allocation takes place.
+   */
+  public final void reset() {
+    if (this.buffer.length > MAXIMUM_RETAINED_CAPACITY) {
+      this.buffer = new Throwable[INITIAL_CAPACITY];
+    } else {
+      Arrays.fill(this.buffer, 0, this.size, null);
+    }
+    this.size = 0;
+  }
+
+  /**
+   * Returns a new {@link ThrowableChain} with the supplied message
+   * containing every accumulated {@link Throwable}, or {@code null} if
+   * there are none, and {@linkplain #reset() resets} this {@link
+   * ThrowableChainBuilder} in either case.
+   *
+   * <p>As with {@link ThrowableChain#add(Throwable)}, the first
+   * accumulated {@link Throwable} becomes the new {@link
+   * ThrowableChain}'s {@linkplain ThrowableChain#getCause() cause} and
+   * the rest become its affiliates.</p>
+   *
+   * @param message the message; may be {@code null}
+   *
+   * @return a new {@link ThrowableChain}, or {@code null}
+   */
+  public final ThrowableChain build(final String message) {
+    if (this.size == 0) {
+      return null;
+    }
+    return this.fill(new ThrowableChain(message));
+  }
+
+  /**
+   * Returns a new {@link ThrowableChain} whose message will be
+   * {@linkplain ThrowableChain#supplied(Supplier, Throwable)
+   * supplied lazily} containing every accumulated {@link Throwable},
+   * or {@code null} if there are none, and {@linkplain #reset()
+   * resets} this {@link ThrowableChainBuilder} in either case.
+   *
+   * @param messageSupplier the {@link Supplier} of the message; may
+   * be {@code null}
+   *
+   * @return a new {@link ThrowableChain}, or {@code null}
+   *
+   * @see #build(String)
+   */
+  public final ThrowableChain build(final Supplier<? extends String> messageSupplier) {
+    if (this.size == 0) {
+      return null;
+    }
+    return this.fill(ThrowableChain.supplied(messageSupplier));
+  }
+
+  /**
+   * Throws a new {@link ThrowableChain} with the supplied message
+   * containing every accumulated {@link Throwable}, if there are any,
+   * and otherwise simply {@linkplain #reset() resets} this {@link
+   * ThrowableChainBuilder}.
+   *
+   * @param message the message; may be {@code null}
+   *
+   * @exception ThrowableChain if any {@link Throwable}s have been
+   * accumulated
+   *
+   * @see #build(String)
+   */
+  public final void throwIfNotEmpty(final String message) throws ThrowableChain {
+    final ThrowableChain chain = this.build(message);
+    if (chain != null) {
+      throw chain;
+    }
+  }
+
+  /**
+   * Adds every accumulated {@link Throwable} to the supplied {@link
+   * ThrowableChain}, {@linkplain #reset() resets} this {@link
+   * ThrowableChainBuilder} and returns the {@link ThrowableChain}.
+   *
+   * @param chain the {@link ThrowableChain} to fill; must not be
+   * {@code null}
+   *
+   * @return {@code chain}
+   */
+  private final ThrowableChain fill(final ThrowableChain chain) {
+    assert chain != null;
+    for (int i = 0; i < this.size; i++) {
+      chain.add(this.buffer[i]);
+    }
+    this.reset();
+    return chain;
+  }
+
+  /**
+   * Returns a {@link String} representation of this {@link
+   * ThrowableChainBuilder}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} {@link String}
+   */
+  @Override
+  public String toString() {
+    return Arrays.asList(this.buffer).subList(0, this.size).toString();
+  }
+
+}
@@ -0,0 +1,497 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.throwables;
+
+import java.lang.ref.WeakReference;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A classifier of {@link Throwable}s whose decisions depend only on
+ * the sequence of {@link Class}es found in their {@linkplain
+ * Throwable#getCause() causal chains}, and which therefore remembers
+ * each decision it makes.
+ *
+ * <p>A {@link ThrowableClassifier} derives a compact <em>signature</em>
+ * from a {@link Throwable}: the {@link Class} of the {@link
+ * Throwable} itself, followed by the {@link Class} of its cause, and
+ * so on.  Decisions are cached by signature in a bounded cache that
+ * evicts the least recently used signatures first.  The {@link
+ * Rule} supplied at construction time is consulted only when a
+ * signature has not been seen before (or has been evicted), so in
+ * the common case where failures repeat a small number of shapes
+ * classification costs little more than a walk of the causal chain
+ * and a hash lookup.  No allocation takes place when a decision is
+ * found in the cache.</p>
+ *
+ * <p>Signatures refer to their {@link Class}es only {@linkplain
+ * WeakReference weakly}, so caching a decision never prevents a
+ * {@link Class}, or the {@link ClassLoader} that defined it, from
+ * being unloaded.  A signature one of whose {@link Class}es has been
+ * unloaded matches nothing, and is eventually evicted like any other
+ * signature that is no longer used.  Decisions themselves are held
+ * strongly.</p>
+ *
+ * <p>The {@link Rule} must therefore base its decision only on the
+ * {@link Class}es in the causal chain of the {@link Throwable} it is
+ * handed, and not on messages or other state.  A {@link
+ * ThrowableMatcher}'s {@link ThrowableMatcher#firstMatch(Throwable)}
+ * method is an example of a suitable basis for a {@link Rule}.</p>
+ *
+ * <p>This class is safe for use by multiple threads.</p>
+ *
+ * @param <D> the type of decision made by this {@link
+ * ThrowableClassifier}
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see Rule
+ */
+public final class ThrowableClassifier<D> {
+
+  /**
+   * A placeholder used to cache {@code null} decisions.
+   */
+  private static final Object NULL = new Object();
+
+  /**
+   * The {@link Rule} consulted on cache misses.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final Rule<? extends D> rule;
+
+  /**
+   * The independently locked, independently bounded portions of the
+   * cache.
+   *
+   * <p>This field is never {@code null} and its length is always a
+   * power of two.</p>
+   */
+  private final Segment[] segments;
+
+  /**
+   * The mask used to select a {@link Segment} from the {@link
+   * #segments} array.
+   */
+  private final int mask;
+
+  /**
+   * Creates a new {@link ThrowableClassifier} that caches at most
+   * {@code 1024} signatures.
+   *
+   * @param rule the {@link Rule} to consult when a signature has not
+   * been seen before; must not be {@code null}
+   *
+   * @exception IllegalArgumentException if {@code rule} is {@code
+   * null}
+   */
+  public ThrowableClassifier(final Rule<? extends D> rule) {
+    this(rule, 1024);
+  }
+
+  /**
+   * Creates a new {@link ThrowableClassifier}.
+   *
+   * @param rule the {@link Rule} to consult when a signature has not
+   * been seen before; must not be {@code null}
+   *
+   * @param maximumSize the maximum number of signatures to cache;
+   * must be greater than {@code 0}
+   *
+   * @exception IllegalArgumentException if {@code rule} is {@code
+   * null} or {@code maximumSize} is less than {@code 1}
+   */
+  public ThrowableClassifier(final Rule<? extends D> rule, final int maximumSize) {
+    super();
+    if (rule == null) {
+      throw new IllegalArgumentException("rule", new NullPointerException("rule"));
+    }
+    if (maximumSize < 1) {
+      throw new IllegalArgumentException(String.format("maximumSize < 1: %d", maximumSize));
+    }
+    this.rule = rule;
+    // Use more segments only when each one would still hold a
+    // reasonable number of signatures.
+    int segmentCount = 1;
+    while (segmentCount < 16 && segmentCount * 32 <= maximumSize) {
+      segmentCount <<= 1;
+    }
+    this.segments = new Segment[segmentCount];
+    final int capacity = (maximumSize + segmentCount - 1) / segmentCount;
+    for (int i = 0; i < segmentCount; i++) {
+      this.segments[i] = new Segment(capacity);
+    }
+    this.mask = segmentCount - 1;
+  }
+
+  /**
+   * Returns the decision for the supplied {@link Throwable},
+   * consulting this {@link ThrowableClassifier}'s {@link Rule} only if
+   * no decision has been cached for the supplied {@link Throwable}'s
+   * signature.
+   *
+   * <p>This method may return {@code null} if the {@link Rule} does.</p>
+   *
+   * @param throwable the {@link Throwable} to classify; may be {@code
+   * null} in which case the {@link Rule} is consulted directly and
+   * its decision is not cached
+   *
+   * @return the decision, which may be {@code null}
+   */
+  public final D classify(final Throwable throwable) {
+    if (throwable == null) {
+      return this.rule.classify(null);
+    }
+    final int hash = hash(throwable);
+    final Segment segment = this.segments[hash & this.mask];
+    Object decision = segment.get(throwable, hash);
+    if (decision == null) {
+      // Consult the rule outside of any lock.  Racing threads may
+      // both consult it; the decisions are by contract the same.
+      final D d = this.rule.classify(throwable);
+      decision = d == null ? NULL : d;
+      segment.put(new Signature(throwable, hash), decision);
+    }
+    if (decision == NULL) {
+      return null;
+    }
+    @SuppressWarnings("unchecked")
+    final D returnValue = (D)decision;
+    return returnValue;
+  }
+
+  /**
+   * Returns the number of signatures currently cached.
+   *
+   * @return the number of signatures cached; never less than {@code
+   * 0}
+   */
+  public final int size() {
+    int size = 0;
+    for (final Segment segment : this.segments) {
+      size += segment.size();
+    }
+    return size;
+  }
+
+  /**
+   * Discards all cached decisions.
+   */
+  public final void clear() {
+    for (final Segment segment : this.segments) {
+      segment.clear();
+    }
+  }
+
+  /**
+   * Computes the signature hash of the supplied {@link Throwable}.
+   *
+   * @param throwable the {@link Throwable}; must not be {@code null}
+   *
+   * @return the signature hash
+   */
+  private static final int hash(final Throwable throwable) {
+    int hash = 1;
+    for (Throwable t = throwable; t != null; t = t.getCause()) {
+      hash = 31 * hash + t.getClass().hashCode();
+    }
+    // Spread the higher bits down for segment selection.
+    return hash ^ (hash >>> 16);
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * A user-supplied decision procedure consulted by a {@link
+   * ThrowableClassifier} when it has not yet cached a decision for a
+   * particular signature.
+   *
+   * @param <D> the type of decision made by this {@link Rule}
+   *
+   * @author <a href="http://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   *
+   * @see ThrowableClassifier
+   */
+  public static interface Rule<D> {
+
+    /**
+     * Returns a decision for the supplied {@link Throwable}.
+     *
+     * <p>Implementations must return the same decision for any two
+     * {@link Throwable}s whose {@linkplain Throwable#getCause() causal
+     * chains} consist of the same {@link Class}es in the same
+     * order.</p>
+     *
+     * <p>Implementations of this method may return {@code null}.</p>
+     *
+     * @param throwable the {@link Throwable} to classify; may be
+     * {@code null}
+     *
+     * @return a decision, which may be {@code null}
+     */
+    public D classify(final Throwable throwable);
+
+  }
+
+  /**
+   * The cached, immutable signature of a {@link Throwable}: weak
+   * references to the {@link Class}es found in its {@linkplain
+   * Throwable#getCause() causal chain}, in order.
+   *
+   * @author <a href="http://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class Signature {
+
+    /**
+     * {@link WeakReference}s to the {@link Class}es in the causal
+     * chain.
+     *
+     * <p>This field is never {@code null} and never contains {@code
+     * null}, though the {@link WeakReference}s it contains may have
+     * been cleared.</p>
+     */
+    private final WeakReference<?>[] classes;
+
+    /**
+     * The signature hash.
+     */
+    private final int hash;
+
+    /**
+     * Creates a new {@link Signature}.
+     *
+     * @param throwable the {@link Throwable} whose signature should be
+     * recorded; must not be {@code null}
+     *
+     * @param hash the precomputed signature hash of {@code throwable}
+     */
+    private Signature(final Throwable throwable, final int hash) {
+      super();
+      final int length = new ThrowableList(throwable).size();
+      this.classes = new WeakReference<?>[length];
+      int i = 0;
+      for (Throwable t = throwable; t != null && i < length; t = t.getCause()) {
+        this.classes[i++] = new WeakReference<Class<?>>(t.getClass());
+      }
+      this.hash = hash;
+    }
+
+    @Override
+    public final int hashCode() {
+      return this.hash;
+    }
+
+    @Override
+    public final boolean equals(final Object other) {
+      if (other == this) {
+        return true;
+      } else if (other instanceof Signature) {
+        final Signature her = (Signature)other;
+        if (this.hash != her.hash || this.classes.length != her.classes.length) {
+          return false;
+        }
+        for (int i = 0; i < this.classes.length; i++) {
+          final Object c = this.classes[i].get();
+          // A cleared reference matches no other Signature.
+          if (c == null || c != her.classes[i].get()) {
+            return false;
+          }
+        }
+        return true;
+      } else if (other instanceof Probe) {
+        return other.equals(this);
+      } else {
+        return false;
+      }
+    }
+
+  }
+
+  /**
+   * A reusable lookup key that compares itself to a {@link Signature}
+   * by walking a {@link Throwable}'s {@linkplain Throwable#getCause()
+   * causal chain} directly, so that nothing need be allocated on a
+   * cache hit.
+   *
+   * <p>Each {@link Segment} owns one {@link Probe}, which is used only
+   * while holding that {@link Segment}'s monitor.</p>
+   *
+   * @author <a href="http://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class Probe {
+
+    /**
+     * The {@link Throwable} being classified.
+     *
+     * <p>This field is {@code null} when this {@link Probe} is not in
+     * use.</p>
+     */
+    private Throwable throwable;
+
+    /**
+     * The signature hash of the {@link #throwable}.
+     */
+    private int hash;
+
+    /**
+     * Creates a new {@link Probe}.
+     */
+    private Probe() {
+      super();
+    }
+
+    @Override
+    public final int hashCode() {
+      return this.hash;
+    }
+
+    @Override
+    public final boolean equals(final Object other) {
+      if (other == this) {
+        return true;
+      } else if (other instanceof Signature) {
+        final Signature signature = (Signature)other;
+        if (signature.hash != this.hash) {
+          return false;
+        }
+        final WeakReference<?>[] classes = signature.classes;
+        int i = 0;
+        for (Throwable t = this.throwable; t != null; t = t.getCause()) {
+          if (i >= classes.length || classes[i++].get() != t.getClass()) {
+            return false;
+          }
+        }
+        return i == classes.length;
+      } else {
+        return false;
+      }
+    }
+
+  }
+
+  /**
+   * A bounded, access-ordered {@link LinkedHashMap} guarded by its
+   * own monitor that evicts its least recently used entry when full.
+   *
+   * @author <a href="http://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class Segment extends LinkedHashMap<Object, Object> {
+
+    /**
+     * The version of this class for {@linkplain java.io.Serializable
+     * serialization purposes}.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The maximum number of entries this {@link Segment} may hold.
+     */
+    private final int capacity;
+
+    /**
+     * The {@link Probe} used to look up decisions.
+     *
+     * <p>This field is never {@code null}.  It is guarded by {@code
+     * this}.</p>
+     */
+    private final Probe probe;
+
+    /**
+     * Creates a new {@link Segment}.
+     *
+     * @param capacity the maximum number of entries; must be greater
+     * than {@code 0}
+     */
+    private Segment(final int capacity) {
+      super(16, 0.75f, true);
+      this.capacity = capacity;
+      this.probe = new Probe();
+    }
+
+    @Override
+    public synchronized final Object get(final Object key) {
+      return super.get(key);
+    }
+
+    /**
+     * Returns the decision cached for the signature of the supplied
+     * {@link Throwable}, or {@code null}, without allocating anything.
+     *
+     * @param throwable the {@link Throwable}; must not be {@code null}
+     *
+     * @param hash the signature hash of {@code throwable}
+     *
+     * @return the cached decision, or {@code null}
+     */
+    private synchronized final Object get(final Throwable throwable, final int hash) {
+      assert throwable != null;
+      final Probe probe = this.probe;
+      probe.throwable = throwable;
+      probe.hash = hash;
+      try {
+        return super.get(probe);
+      } finally {
+        // Don't keep the Throwable reachable.
+        probe.throwable = null;
+      }
+    }
+
+    @Override
+    public synchronized final Object put(final Object key, final Object value) {
+      return super.put(key, value);
+    }
+
+    @Override
+    public synchronized final int size() {
+      return super.size();
+    }
+
+    @Override
+    public synchronized final void clear() {
+      super.clear();
+    }
+
+    @Override
+    protected final boolean removeEldestEntry(final Map.Entry<Object, Object> eldest) {
+      return this.size() > this.capacity;
+    }
+
+  }
+
+}
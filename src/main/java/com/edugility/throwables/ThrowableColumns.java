@@ -0,0 +1,582 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.throwables;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import java.util.stream.IntStream;
+
+/**
+ * A columnar summary of a large number of {@link Throwable}s, in
+ * which each {@link Throwable} is described by a handful of {@code
+ * int}s rather than by its object graph.
+ *
+ * <p>An instance of this class is produced by the {@link
+ * #analyze(Collection)} method.  For the {@link Throwable} at index
+ * <i>i</i> of the analyzed {@link Collection}, it records:</p>
+ *
+ * <ul>
+ *
+ * <li>the identifier of its {@link Class} ({@link
+ * #getClassIds()});</li>
+ *
+ * <li>the number of {@link Throwable}s in its {@linkplain
+ * Throwable#getCause() causal chain}, including itself, as would be
+ * returned by {@link CausalChainCache#getDepth(Throwable)} ({@link
+ * #getDepths()});</li>
+ *
+ * <li>the identifier of the {@link Class} of its {@linkplain
+ * Throwables#getRootCause(Throwable) root cause} ({@link
+ * #getRootCauseClassIds()}); and</li>
+ *
+ * <li>the identifier of the topmost {@link StackTraceElement} of its
+ * root cause, or {@code -1} if the root cause has no stack trace
+ * ({@link #getTopFrameIds()}).</li>
+ *
+ * </ul>
+ *
+ * <p>Identifiers are small, dense, non-negative {@code int}s assigned
+ * in order of first appearance, so they may be used directly as
+ * indices into arrays of counters; see {@link #histogram(int[],
+ * int)}.  {@link Class}es are identified by {@link Class#getName()
+ * name} (a {@link RemoteThrowable} by its {@linkplain
+ * RemoteThrowable#getRemoteClassName() remote class name}), and
+ * {@link StackTraceElement}s by {@link
+ * StackTraceElement#equals(Object) equality}.</p>
+ *
+ * <p>Analysis is performed in parallel, in chunks, each with its own
+ * dictionaries; the dictionaries are merged afterwards, so threads
+ * never contend with one another.</p>
+ *
+ * <p>Instances of this class are immutable and safe for use by
+ * multiple threads.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see #analyze(Collection)
+ */
+public final class ThrowableColumns {
+
+  /**
+   * The number of {@link Throwable}s analyzed together by a single
+   * thread.
+   */
+  private static final int CHUNK_SIZE = 8192;
+
+  /**
+   * The class identifier column.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final int[] classIds;
+
+  /**
+   * The causal chain depth column.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final int[] depths;
+
+  /**
+   * The root cause class identifier column.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final int[] rootCauseClassIds;
+
+  /**
+   * The root cause top frame identifier column.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final int[] topFrameIds;
+
+  /**
+   * The class names, indexed by identifier.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final List<String> classNames;
+
+  /**
+   * The frames, indexed by identifier.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final List<StackTraceElement> frames;
+
+  /**
+   * Creates a new {@link ThrowableColumns}.
+   *
+   * @param classIds the class identifier column; must not be {@code
+   * null}
+   *
+   * @param depths the depth column; must not be {@code null}
+   *
+   * @param rootCauseClassIds the root cause class identifier column;
+   * must not be {@code null}
+   *
+   * @param topFrameIds the top frame identifier column; must not be
+   * {@code null}
+   *
+   * @param classNames the class names, indexed by identifier; must
+   * not be {@code null}
+   *
+   * @param frames the frames, indexed by identifier; must not be
+   * {@code null}
+   */
+  private ThrowableColumns(final int[] classIds, final int[] depths, final int[] rootCauseClassIds, final int[] topFrameIds, final List<String> classNames, final List<StackTraceElement> frames) {
+    super();
+    this.classIds = classIds;
+    this.depths = depths;
+    this.rootCauseClassIds = rootCauseClassIds;
+    this.topFrameIds = topFrameIds;
+    this.classNames = Collections.unmodifiableList(classNames);
+    this.frames = Collections.unmodifiableList(frames);
+  }
+
+  /**
+   * Returns the number of {@link Throwable}s analyzed.
+   *
+   * @return the number of {@link Throwable}s analyzed; never less
+   * than {@code 0}
+   */
+  public final int size() {
+    return this.classIds.length;
+  }
+
+  /**
+   * Returns a copy of the class identifier column.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a new {@code int} array with one element per analyzed
+   * {@link Throwable}; never {@code null}
+   *
+   * @see #getClassName(int)
+   */
+  public final int[] getClassIds() {
+    return this.classIds.clone();
+  }
+
+  /**
+   * Returns a copy of the causal chain depth column.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a new {@code int} array with one element per analyzed
+   * {@link Throwable}; never {@code null}
+   */
+  public final int[] getDepths() {
+    return this.depths.clone();
+  }
+
+  /**
+   * Returns a copy of the root cause class identifier column.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a new {@code int} array with one element per analyzed
+   * {@link Throwable}; never {@code null}
+   *
+   * @see #getClassName(int)
+   */
+  public final int[] getRootCauseClassIds() {
+    return this.rootCauseClassIds.clone();
+  }
+
+  /**
+   * Returns a copy of the root cause top frame identifier column.
+   * An element is {@code -1} if the corresponding root cause has no
+   * stack trace.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a new {@code int} array with one element per analyzed
+   * {@link Throwable}; never {@code null}
+   *
+   * @see #getFrame(int)
+   */
+  public final int[] getTopFrameIds() {
+    return this.topFrameIds.clone();
+  }
+
+  /**
+   * Returns the number of distinct class identifiers.
+   *
+   * @return the number of distinct class identifiers; never less
+   * than {@code 0}
+   */
+  public final int getClassCount() {
+    return this.classNames.size();
+  }
+
+  /**
+   * Returns the name of the {@link Class} with the supplied
+   * identifier.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param classId the identifier
+   *
+   * @return a non-{@code null} class name
+   *
+   * @exception IndexOutOfBoundsException if {@code classId} is not a
+   * valid identifier
+   */
+  public final String getClassName(final int classId) {
+    return this.classNames.get(classId);
+  }
+
+  /**
+   * Returns the number of distinct frame identifiers.
+   *
+   * @return the number of distinct frame identifiers; never less
+   * than {@code 0}
+   */
+  public final int getFrameCount() {
+    return this.frames.size();
+  }
+
+  /**
+   * Returns the {@link StackTraceElement} with the supplied
+   * identifier.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param frameId the identifier
+   *
+   * @return a non-{@code null} {@link StackTraceElement}
+   *
+   * @exception IndexOutOfBoundsException if {@code frameId} is not a
+   * valid identifier
+   */
+  public final StackTraceElement getFrame(final int frameId) {
+    return this.frames.get(frameId);
+  }
+
+  /**
+   * Counts the occurrences of each identifier in the supplied column.
+   * Negative identifiers are ignored.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param ids the column; must not be {@code null}
+   *
+   * @param cardinality the number of distinct identifiers, such as
+   * the return value of {@link #getClassCount()}; must not be less
+   * than {@code 0}
+   *
+   * @return a new {@code int} array of length {@code cardinality}
+   * whose element at index <i>i</i> is the number of times <i>i</i>
+   * appears in {@code ids}; never {@code null}
+   *
+   * @exception IllegalArgumentException if {@code ids} is {@code
+   * null} or {@code cardinality} is less than {@code 0}
+   *
+   * @exception ArrayIndexOutOfBoundsException if {@code ids} contains
+   * an identifier greater than or equal to {@code cardinality}
+   */
+  public static final int[] histogram(final int[] ids, final int cardinality) {
+    if (ids == null) {
+      throw new IllegalArgumentException("ids", new NullPointerException("ids"));
+    }
+    if (cardinality < 0) {
+      throw new IllegalArgumentException(String.format("cardinality < 0: %d", cardinality));
+    }
+    final int[] returnValue = new int[cardinality];
+    for (final int id : ids) {
+      if (id >= 0) {
+        returnValue[id]++;
+      }
+    }
+    return returnValue;
+  }
+
+  /**
+   * Analyzes the supplied {@link Throwable}s, in iteration order.
+   * {@code null} elements are described by a class identifier and
+   * root cause class identifier of {@code -1}, a depth of {@code 0}
+   * and a top frame identifier of {@code -1}.
+   *
+   * <p>A {@link ThrowableChain} may be supplied directly, in which
+   * case it and each of its affiliates are analyzed.</p>
+   *
+   * <p>The supplied {@link Collection} is {@linkplain
+   * Collection#toArray(Object[]) copied} before analysis begins, so
+   * it may be a concurrently modified one, such as a {@link
+   * ThrowableChain} that is still being added to.</p>
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param throwables the {@link Throwable}s to analyze; must not be
+   * {@code null}
+   *
+   * @return a new {@link ThrowableColumns}; never {@code null}
+   *
+   * @exception IllegalArgumentException if {@code throwables} is
+   * {@code null}
+   */
+  public static final ThrowableColumns analyze(final Collection<? extends Throwable> throwables) {
+    if (throwables == null) {
+      throw new IllegalArgumentException("throwables", new NullPointerException("throwables"));
+    }
+    final Throwable[] array = throwables.toArray(new Throwable[throwables.size()]);
+    final int size = array.length;
+    final int[] classIds = new int[size];
+    final int[] depths = new int[size];
+    final int[] rootCauseClassIds = new int[size];
+    final int[] topFrameIds = new int[size];
+    final int chunkCount = (size + CHUNK_SIZE - 1) / CHUNK_SIZE;
+
+    // Analyze each chunk with chunk-local dictionaries.
+    final Chunk[] chunks = new Chunk[chunkCount];
+    IntStream.range(0, chunkCount).parallel().forEach(c -> {
+        final int start = c * CHUNK_SIZE;
+        chunks[c] = new Chunk(array, start, Math.min(size, start + CHUNK_SIZE), classIds, depths, rootCauseClassIds, topFrameIds);
+      });
+
+    // Merge the dictionaries in chunk order, so that identifiers are
+    // assigned in order of first appearance.
+    final Map<String, Integer> classIndex = new HashMap<String, Integer>();
+    final List<String> classNames = new ArrayList<String>();
+    final Map<StackTraceElement, Integer> frameIndex = new HashMap<StackTraceElement, Integer>();
+    final List<StackTraceElement> frames = new ArrayList<StackTraceElement>();
+    final int[][] classMappings = new int[chunkCount][];
+    final int[][] frameMappings = new int[chunkCount][];
+    for (int c = 0; c < chunkCount; c++) {
+      classMappings[c] = merge(chunks[c].classNames, classIndex, classNames);
+      frameMappings[c] = merge(chunks[c].frames, frameIndex, frames);
+    }
+
+    // Rewrite chunk-local identifiers as global ones.
+    IntStream.range(0, chunkCount).parallel().forEach(c -> {
+        final int start = c * CHUNK_SIZE;
+        final int end = Math.min(size, start + CHUNK_SIZE);
+        final int[] classMapping = classMappings[c];
+        final int[] frameMapping = frameMappings[c];
+        for (int i = start; i < end; i++) {
+          if (classIds[i] >= 0) {
+            classIds[i] = classMapping[classIds[i]];
+            rootCauseClassIds[i] = classMapping[rootCauseClassIds[i]];
+          }
+          if (topFrameIds[i] >= 0) {
+            topFrameIds[i] = frameMapping[topFrameIds[i]];
+          }
+        }
+      });
+
+    return new ThrowableColumns(classIds, depths, rootCauseClassIds, topFrameIds, classNames, frames);
+  }
+
+  /**
+   * Merges a chunk-local dictionary into a global one.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param local the chunk-local values, indexed by chunk-local
+   * identifier; must not be {@code null}
+   *
+   * @param index the global identifiers, indexed by value; must not
+   * be {@code null}
+   *
+   * @param global the global values, indexed by global identifier;
+   * must not be {@code null}
+   *
+   * @return an array mapping chunk-local identifiers to global
+   * identifiers; never {@code null}
+   */
+  private static final <T> int[] merge(final List<T> local, final Map<T, Integer> index, final List<T> global) {
+    final int[] returnValue = new int[local.size()];
+    for (int i = 0; i < returnValue.length; i++) {
+      final T value = local.get(i);
+      Integer id = index.get(value);
+      if (id == null) {
+        id = Integer.valueOf(global.size());
+        index.put(value, id);
+        global.add(value);
+      }
+      returnValue[i] = id.intValue();
+    }
+    return returnValue;
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * The chunk-local dictionaries produced while analyzing one chunk
+   * of {@link Throwable}s.
+   *
+   * @author <a href="http://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class Chunk {
+
+    /**
+     * The chunk-local class identifiers, indexed by {@link Class} or,
+     * for {@link RemoteThrowable}s, by class name.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final Map<Object, Integer> classIndex;
+
+    /**
+     * The class names, indexed by chunk-local identifier.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final List<String> classNames;
+
+    /**
+     * The chunk-local frame identifiers, indexed by frame.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final Map<StackTraceElement, Integer> frameIndex;
+
+    /**
+     * The frames, indexed by chunk-local identifier.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final List<StackTraceElement> frames;
+
+    /**
+     * Analyzes the {@link Throwable}s between the supplied indices,
+     * writing chunk-local identifiers into the supplied columns.
+     *
+     * @param array the {@link Throwable}s; must not be {@code null}
+     *
+     * @param start the index of the first {@link Throwable} in the
+     * chunk
+     *
+     * @param end the index one past the last {@link Throwable} in
+     * the chunk
+     *
+     * @param classIds the class identifier column; must not be {@code
+     * null}
+     *
+     * @param depths the depth column; must not be {@code null}
+     *
+     * @param rootCauseClassIds the root cause class identifier
+     * column; must not be {@code null}
+     *
+     * @param topFrameIds the top frame identifier column; must not be
+     * {@code null}
+     */
+    private Chunk(final Throwable[] array, final int start, final int end, final int[] classIds, final int[] depths, final int[] rootCauseClassIds, final int[] topFrameIds) {
+      super();
+      this.classIndex = new HashMap<Object, Integer>();
+      this.classNames = new ArrayList<String>();
+      this.frameIndex = new HashMap<StackTraceElement, Integer>();
+      this.frames = new ArrayList<StackTraceElement>();
+      for (int i = start; i < end; i++) {
+        final Throwable t = array[i];
+        if (t == null) {
+          classIds[i] = -1;
+          rootCauseClassIds[i] = -1;
+          topFrameIds[i] = -1;
+        } else {
+          classIds[i] = this.classId(t);
+          // Walk the causal chain, guarding against cycles with a
+          // second reference that moves at half speed.
+          Throwable root = t;
+          Throwable slow = t;
+          int depth = 1;
+          Throwable cause;
+          while ((cause = root.getCause()) != null && cause != slow) {
+            root = cause;
+            depth++;
+            if ((depth & 1) == 0) {
+              slow = slow.getCause();
+            }
+          }
+          depths[i] = depth;
+          rootCauseClassIds[i] = this.classId(root);
+          final StackTraceElement[] stackTrace = root.getStackTrace();
+          topFrameIds[i] = stackTrace.length == 0 ? -1 : this.frameId(stackTrace[0]);
+        }
+      }
+    }
+
+    /**
+     * Returns the chunk-local identifier for the class of the supplied
+     * {@link Throwable}, assigning one if necessary.
+     *
+     * @param t the {@link Throwable}; must not be {@code null}
+     *
+     * @return the chunk-local identifier
+     */
+    private final int classId(final Throwable t) {
+      final Object key;
+      if (t instanceof RemoteThrowable) {
+        key = ((RemoteThrowable)t).getRemoteClassName();
+      } else {
+        key = t.getClass();
+      }
+      Integer id = this.classIndex.get(key);
+      if (id == null) {
+        id = Integer.valueOf(this.classNames.size());
+        this.classIndex.put(key, id);
+        this.classNames.add(key instanceof Class ? ((Class<?>)key).getName() : (String)key);
+      }
+      return id.intValue();
+    }
+
+    /**
+     * Returns the chunk-local identifier for the supplied {@link
+     * StackTraceElement}, assigning one if necessary.
+     *
+     * @param frame the {@link StackTraceElement}; must not be {@code
+     * null}
+     *
+     * @return the chunk-local identifier
+     */
+    private final int frameId(final StackTraceElement frame) {
+      Integer id = this.frameIndex.get(frame);
+      if (id == null) {
+        id = Integer.valueOf(this.frames.size());
+        this.frameIndex.put(frame, id);
+        this.frames.add(frame);
+      }
+      return id.intValue();
+    }
+
+  }
+
+}
@@ -0,0 +1,936 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.throwables;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+
+import java.nio.ByteBuffer;
+
+import java.util.Arrays;
+
+/**
+ * Writes {@link Throwable}s, their {@linkplain Throwable#getCause()
+ * causal chains}, {@linkplain Throwable#getSuppressed() suppressed
+ * <code>Throwable</code>s}, {@linkplain ThrowableChain affiliates} and
+ * stack frames directly as <a href="http://json.org/">JSON</a> or as
+ * <a href="http://ndjson.org/">newline-delimited JSON</a>, so that
+ * they need not be {@linkplain Throwable#printStackTrace() printed}
+ * as text and parsed back again.
+ *
+ * <p>Output is written to a caller-supplied {@link Appendable}, {@link
+ * ByteBuffer} or {@link OutputStream} (the latter two as UTF-8) as it
+ * is produced.  Escaping and number formatting are done inline, one
+ * character at a time; no intermediate {@link String}s, maps or
+ * builders are created.  (The only per-{@link Throwable} allocation is
+ * the copy of its stack trace made by {@link
+ * Throwable#getStackTrace()}, which cannot be avoided.)  The stack
+ * frames of a {@link ThrowableChain}'s affiliates are obtained from
+ * its {@link ThrowableChain#getStackTrace(Throwable)} method, so that
+ * the full frames of cleared affiliates archived in a {@linkplain
+ * ThrowableChain#setFrameArena(FrameArena) frame arena} are
+ * written.</p>
+ *
+ * <p>Each {@link Throwable} is written as an object of the following
+ * form, in which every member after {@code class} is omitted when it
+ * would be {@code null}, {@code 0} or empty:</p>
+ *
+ * <blockquote><pre>{
+ *  "class": "java.lang.IllegalStateException",
+ *  "message": "...",
+ *  "frames": [ { "module": "...", "class": "...", "method": "...", "file": "...", "line": 42 }, ... ],
+ *  "framesOmitted": 17,
+ *  "framesInCommon": 12,
+ *  "suppressed": [ { ... }, ... ],
+ *  "cause": { ... },
+ *  "affiliates": [ { ... }, ... ],
+ *  "circular": true
+ *}</pre></blockquote>
+ *
+ * <ul>
+ *
+ * <li>{@code framesOmitted} counts the frames left out because of the
+ * {@linkplain #getMaximumFrames() maximum frame count}.</li>
+ *
+ * <li>{@code framesInCommon} counts the frames left out, as with the
+ * "<code>... <i>n</i> more</code>" lines of {@link
+ * Throwable#printStackTrace()}, because they are identical to the
+ * trailing frames of the enclosing {@link Throwable}'s stack
+ * trace.</li>
+ *
+ * <li>{@code affiliates} lists the other members of a {@link
+ * ThrowableChain} (or of any {@link Throwable} that is also an {@link
+ * Iterable} of {@link Throwable}s).</li>
+ *
+ * <li>{@code circular} marks a {@link Throwable} that has already been
+ * written further up the same object; nothing else but its class is
+ * written.</li>
+ *
+ * </ul>
+ *
+ * <p>Instances of this class are immutable and safe for use by
+ * multiple threads.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see Throwable#printStackTrace()
+ */
+public final class ThrowableJsonEncoder {
+
+  /**
+   * The size of the buffer used when writing to an {@link
+   * OutputStream}.
+   */
+  private static final int BUFFER_SIZE = 8192;
+
+  /**
+   * Hexadecimal digits.
+   */
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  /**
+   * A reusable buffer, per thread, for writing to {@link
+   * OutputStream}s; its value is {@code null} while in use.
+   */
+  private static final ThreadLocal<byte[]> buffers = new ThreadLocal<byte[]>();
+
+  /**
+   * The maximum number of stack frames written for any one {@link
+   * Throwable}.
+   */
+  private final int maximumFrames;
+
+  /**
+   * Whether frames in common with an enclosing {@link Throwable} are
+   * elided.
+   */
+  private final boolean elideCommonFrames;
+
+  /**
+   * Creates a new {@link ThrowableJsonEncoder} that writes every
+   * stack frame but elides frames in common with an enclosing {@link
+   * Throwable}.
+   */
+  public ThrowableJsonEncoder() {
+    this(Integer.MAX_VALUE, true);
+  }
+
+  /**
+   * Creates a new {@link ThrowableJsonEncoder}.
+   *
+   * @param maximumFrames the maximum number of stack frames written
+   * for any one {@link Throwable}; must not be less than {@code 0}
+   *
+   * @param elideCommonFrames whether frames in common with an
+   * enclosing {@link Throwable} are elided
+   *
+   * @exception IllegalArgumentException if {@code maximumFrames} is
+   * less than {@code 0}
+   */
+  public ThrowableJsonEncoder(final int maximumFrames, final boolean elideCommonFrames) {
+    super();
+    if (maximumFrames < 0) {
+      throw new IllegalArgumentException(String.format("maximumFrames < 0: %d", maximumFrames));
+    }
+    this.maximumFrames = maximumFrames;
+    this.elideCommonFrames = elideCommonFrames;
+  }
+
+  /**
+   * Returns the maximum number of stack frames written for any one
+   * {@link Throwable}.
+   *
+   * @return the maximum number of stack frames; never less than
+   * {@code 0}
+   */
+  public final int getMaximumFrames() {
+    return this.maximumFrames;
+  }
+
+  /**
+   * Returns {@code true} if frames in common with an enclosing {@link
+   * Throwable} are elided.
+   *
+   * @return {@code true} if common frames are elided
+   */
+  public final boolean getElideCommonFrames() {
+    return this.elideCommonFrames;
+  }
+
+  /**
+   * Writes the supplied {@link Throwable} as a single JSON value to
+   * the supplied {@link Appendable}.
+   *
+   * @param throwable the {@link Throwable}; may be {@code null} in
+   * which case {@code null} is written
+   *
+   * @param out the {@link Appendable}; must not be {@code null}
+   *
+   * @exception IOException if {@code out} throws one
+   *
+   * @exception IllegalArgumentException if {@code out} is {@code
+   * null}
+   */
+  public final void encode(final Throwable throwable, final Appendable out) throws IOException {
+    if (out == null) {
+      throw new IllegalArgumentException("out", new NullPointerException("out"));
+    }
+    this.encode(throwable, new AppendableSink(out), false);
+  }
+
+  /**
+   * Writes the supplied {@link Throwable} as a single JSON value,
+   * encoded as UTF-8, to the supplied {@link ByteBuffer}.
+   *
+   * @param throwable the {@link Throwable}; may be {@code null} in
+   * which case {@code null} is written
+   *
+   * @param out the {@link ByteBuffer}; must not be {@code null}
+   *
+   * @exception java.nio.BufferOverflowException if {@code out} runs
+   * out of room, in which case its position is indeterminate
+   *
+   * @exception IllegalArgumentException if {@code out} is {@code
+   * null}
+   */
+  public final void encode(final Throwable throwable, final ByteBuffer out) {
+    if (out == null) {
+      throw new IllegalArgumentException("out", new NullPointerException("out"));
+    }
+    try {
+      this.encode(throwable, new ByteBufferSink(out), false);
+    } catch (final IOException impossible) {
+      throw new UncheckedIOException(impossible);
+    }
+  }
+
+  /**
+   * Writes the supplied {@link Throwable} as a single JSON value,
+   * encoded as UTF-8, to the supplied {@link OutputStream}, which is
+   * not {@linkplain OutputStream#flush() flushed}.
+   *
+   * @param throwable the {@link Throwable}; may be {@code null} in
+   * which case {@code null} is written
+   *
+   * @param out the {@link OutputStream}; must not be {@code null}
+   *
+   * @exception IOException if {@code out} throws one
+   *
+   * @exception IllegalArgumentException if {@code out} is {@code
+   * null}
+   */
+  public final void encode(final Throwable throwable, final OutputStream out) throws IOException {
+    if (out == null) {
+      throw new IllegalArgumentException("out", new NullPointerException("out"));
+    }
+    this.encodeToStream(throwable, out, false);
+  }
+
+  /**
+   * Writes the supplied {@link Throwable} as newline-delimited JSON to
+   * the supplied {@link Appendable}.
+   *
+   * <p>If the supplied {@link Throwable} is a {@link ThrowableChain}
+   * (or any other {@link Iterable} of {@link Throwable}s), each of its
+   * members is written as its own line, without an {@code affiliates}
+   * member; otherwise a single line is written.  Every line, including
+   * the last, is terminated by a newline character.</p>
+   *
+   * @param throwable the {@link Throwable}; may be {@code null} in
+   * which case nothing is written
+   *
+   * @param out the {@link Appendable}; must not be {@code null}
+   *
+   * @exception IOException if {@code out} throws one
+   *
+   * @exception IllegalArgumentException if {@code out} is {@code
+   * null}
+   */
+  public final void encodeLines(final Throwable throwable, final Appendable out) throws IOException {
+    if (out == null) {
+      throw new IllegalArgumentException("out", new NullPointerException("out"));
+    }
+    this.encode(throwable, new AppendableSink(out), true);
+  }
+
+  /**
+   * Writes the supplied {@link Throwable} as newline-delimited JSON,
+   * encoded as UTF-8, to the supplied {@link ByteBuffer}.
+   *
+   * @param throwable the {@link Throwable}; may be {@code null} in
+   * which case nothing is written
+   *
+   * @param out the {@link ByteBuffer}; must not be {@code null}
+   *
+   * @exception java.nio.BufferOverflowException if {@code out} runs
+   * out of room, in which case its position is indeterminate
+   *
+   * @exception IllegalArgumentException if {@code out} is {@code
+   * null}
+   *
+   * @see #encodeLines(Throwable, Appendable)
+   */
+  public final void encodeLines(final Throwable throwable, final ByteBuffer out) {
+    if (out == null) {
+      throw new IllegalArgumentException("out", new NullPointerException("out"));
+    }
+    try {
+      this.encode(throwable, new ByteBufferSink(out), true);
+    } catch (final IOException impossible) {
+      throw new UncheckedIOException(impossible);
+    }
+  }
+
+  /**
+   * Writes the supplied {@link Throwable} as newline-delimited JSON,
+   * encoded as UTF-8, to the supplied {@link OutputStream}, which is
+   * not {@linkplain OutputStream#flush() flushed}.
+   *
+   * @param throwable the {@link Throwable}; may be {@code null} in
+   * which case nothing is written
+   *
+   * @param out the {@link OutputStream}; must not be {@code null}
+   *
+   * @exception IOException if {@code out} throws one
+   *
+   * @exception IllegalArgumentException if {@code out} is {@code
+   * null}
+   *
+   * @see #encodeLines(Throwable, Appendable)
+   */
+  public final void encodeLines(final Throwable throwable, final OutputStream out) throws IOException {
+    if (out == null) {
+      throw new IllegalArgumentException("out", new NullPointerException("out"));
+    }
+    this.encodeToStream(throwable, out, true);
+  }
+
+  /**
+   * Writes the supplied {@link Throwable} to the supplied {@link
+   * OutputStream} through a buffer reused by the current thread.
+   *
+   * @param throwable the {@link Throwable}; may be {@code null}
+   *
+   * @param out the {@link OutputStream}; must not be {@code null}
+   *
+   * @param lines whether to write newline-delimited JSON
+   *
+   * @exception IOException if {@code out} throws one
+   */
+  private final void encodeToStream(final Throwable throwable, final OutputStream out, final boolean lines) throws IOException {
+    assert out != null;
+    byte[] buffer = buffers.get();
+    if (buffer == null) {
+      // First use on this thread, or a reentrant use (e.g. from a
+      // getMessage() implementation); either way, use a fresh one.
+      buffer = new byte[BUFFER_SIZE];
+    } else {
+      buffers.set(null);
+    }
+    try {
+      final OutputStreamSink sink = new OutputStreamSink(out, buffer);
+      this.encode(throwable, sink, lines);
+      sink.flush();
+    } finally {
+      buffers.set(buffer);
+    }
+  }
+
+  /**
+   * Writes the supplied {@link Throwable} to the supplied {@link
+   * Sink}.
+   *
+   * @param throwable the {@link Throwable}; may be {@code null}
+   *
+   * @param sink the {@link Sink}; must not be {@code null}
+   *
+   * @param lines whether to write newline-delimited JSON
+   *
+   * @exception IOException if {@code sink} throws one
+   */
+  private final void encode(final Throwable throwable, final Sink sink, final boolean lines) throws IOException {
+    assert sink != null;
+    if (!lines) {
+      if (throwable == null) {
+        sink.ascii("null");
+      } else {
+        this.writeThrowable(throwable, null, null, sink, true);
+      }
+    } else if (throwable != null) {
+      this.writeThrowable(throwable, null, null, sink, false);
+      sink.ascii('\n');
+      if (throwable instanceof Iterable) {
+        final ThrowableChain owner = throwable instanceof ThrowableChain ? (ThrowableChain)throwable : null;
+        for (final Object member : (Iterable<?>)throwable) {
+          if (member != throwable && member instanceof Throwable) {
+            this.writeThrowable((Throwable)member, owner, null, sink, false);
+            sink.ascii('\n');
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Writes the supplied {@link Throwable} as a JSON object.
+   *
+   * @param t the {@link Throwable}; must not be {@code null}
+   *
+   * @param owner the {@link ThrowableChain} of which {@code t} is an
+   * affiliate, whose {@link ThrowableChain#getStackTrace(Throwable)}
+   * method supplies {@code t}'s stack frames; may be {@code null}
+   *
+   * @param enclosingTrace the stack trace of the enclosing {@link
+   * Throwable}, if any, for eliding common frames; may be {@code null}
+   *
+   * @param sink the {@link Sink}; must not be {@code null}
+   *
+   * @param affiliates whether to write the members of {@link
+   * Iterable} {@link Throwable}s
+   *
+   * @exception IOException if {@code sink} throws one
+   */
+  private final void writeThrowable(final Throwable t,
+                                    final ThrowableChain owner,
+                                    final StackTraceElement[] enclosingTrace,
+                                    final Sink sink,
+                                    final boolean affiliates) throws IOException {
+    assert t != null;
+    sink.ascii("{\"class\":");
+    writeString(t.getClass().getName(), sink);
+    if (!sink.push(t)) {
+      sink.ascii(",\"circular\":true}");
+      return;
+    }
+    try {
+      final String message = t.getMessage();
+      if (message != null) {
+        sink.ascii(",\"message\":");
+        writeString(message, sink);
+      }
+
+      final StackTraceElement[] trace = owner == null ? t.getStackTrace() : owner.getStackTrace(t);
+      int m = trace.length - 1;
+      if (this.elideCommonFrames && enclosingTrace != null) {
+        int n = enclosingTrace.length - 1;
+        while (m >= 0 && n >= 0 && trace[m].equals(enclosingTrace[n])) {
+          m--;
+          n--;
+        }
+      }
+      final int unique = m + 1;
+      final int written = Math.min(unique, this.maximumFrames);
+      if (written > 0) {
+        sink.ascii(",\"frames\":[");
+        for (int i = 0; i < written; i++) {
+          if (i > 0) {
+            sink.ascii(',');
+          }
+          writeFrame(trace[i], sink);
+        }
+        sink.ascii(']');
+      }
+      if (unique > written) {
+        sink.ascii(",\"framesOmitted\":");
+        sink.integer(unique - written);
+      }
+      if (unique < trace.length) {
+        sink.ascii(",\"framesInCommon\":");
+        sink.integer(trace.length - unique);
+      }
+
+      final Throwable[] suppressed = t.getSuppressed();
+      if (suppressed.length > 0) {
+        sink.ascii(",\"suppressed\":[");
+        for (int i = 0; i < suppressed.length; i++) {
+          if (i > 0) {
+            sink.ascii(',');
+          }
+          this.writeThrowable(suppressed[i], null, trace, sink, affiliates);
+        }
+        sink.ascii(']');
+      }
+
+      final Throwable cause = t.getCause();
+      if (cause != null) {
+        sink.ascii(",\"cause\":");
+        this.writeThrowable(cause, null, trace, sink, affiliates);
+      }
+
+      if (affiliates && t instanceof Iterable) {
+        final ThrowableChain memberOwner = t instanceof ThrowableChain ? (ThrowableChain)t : null;
+        boolean first = true;
+        for (final Object member : (Iterable<?>)t) {
+          if (member != t && member instanceof Throwable) {
+            sink.ascii(first ? ",\"affiliates\":[" : ",");
+            first = false;
+            this.writeThrowable((Throwable)member, memberOwner, null, sink, true);
+          }
+        }
+        if (!first) {
+          sink.ascii(']');
+        }
+      }
+    } finally {
+      sink.pop();
+    }
+    sink.ascii('}');
+  }
+
+  /**
+   * Writes the supplied {@link StackTraceElement} as a JSON object.
+   *
+   * @param frame the {@link StackTraceElement}; must not be {@code
+   * null}
+   *
+   * @param sink the {@link Sink}; must not be {@code null}
+   *
+   * @exception IOException if {@code sink} throws one
+   */
+  private static final void writeFrame(final StackTraceElement frame, final Sink sink) throws IOException {
+    sink.ascii('{');
+    final String moduleName = frame.getModuleName();
+    if (moduleName != null) {
+      sink.ascii("\"module\":");
+      writeString(moduleName, sink);
+      sink.ascii(',');
+    }
+    sink.ascii("\"class\":");
+    writeString(frame.getClassName(), sink);
+    sink.ascii(",\"method\":");
+    writeString(frame.getMethodName(), sink);
+    final String fileName = frame.getFileName();
+    if (fileName != null) {
+      sink.ascii(",\"file\":");
+      writeString(fileName, sink);
+    }
+    final int lineNumber = frame.getLineNumber();
+    if (lineNumber >= 0) {
+      sink.ascii(",\"line\":");
+      sink.integer(lineNumber);
+    } else if (frame.isNativeMethod()) {
+      sink.ascii(",\"native\":true");
+    }
+    sink.ascii('}');
+  }
+
+  /**
+   * Writes the supplied {@link String} as a quoted and escaped JSON
+   * string.
+   *
+   * @param s the {@link String}; must not be {@code null}
+   *
+   * @param sink the {@link Sink}; must not be {@code null}
+   *
+   * @exception IOException if {@code sink} throws one
+   */
+  private static final void writeString(final String s, final Sink sink) throws IOException {
+    sink.ascii('"');
+    final int length = s.length();
+    for (int i = 0; i < length; i++) {
+      final char c = s.charAt(i);
+      switch (c) {
+      case '"':
+        sink.ascii('\\');
+        sink.ascii('"');
+        break;
+      case '\\':
+        sink.ascii('\\');
+        sink.ascii('\\');
+        break;
+      case '\n':
+        sink.ascii('\\');
+        sink.ascii('n');
+        break;
+      case '\r':
+        sink.ascii('\\');
+        sink.ascii('r');
+        break;
+      case '\t':
+        sink.ascii('\\');
+        sink.ascii('t');
+        break;
+      default:
+        if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+          // Control characters, and the line and paragraph separators
+          // that JavaScript treats as line terminators.
+          escape(c, sink);
+        } else if (c < 0x80) {
+          sink.ascii(c);
+        } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+          sink.codePoint(Character.toCodePoint(c, s.charAt(++i)));
+        } else if (Character.isSurrogate(c)) {
+          // An unpaired surrogate cannot be encoded as UTF-8.
+          escape(c, sink);
+        } else {
+          sink.codePoint(c);
+        }
+        break;
+      }
+    }
+    sink.ascii('"');
+  }
+
+  /**
+   * Writes the supplied {@code char} as a <code>&#92;u</code> escape.
+   *
+   * @param c the {@code char}
+   *
+   * @param sink the {@link Sink}; must not be {@code null}
+   *
+   * @exception IOException if {@code sink} throws one
+   */
+  private static final void escape(final char c, final Sink sink) throws IOException {
+    sink.ascii('\\');
+    sink.ascii('u');
+    sink.ascii(HEX[(c >> 12) & 0xF]);
+    sink.ascii(HEX[(c >> 8) & 0xF]);
+    sink.ascii(HEX[(c >> 4) & 0xF]);
+    sink.ascii(HEX[c & 0xF]);
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * A destination for encoded output that also tracks the {@link
+   * Throwable}s currently being written, in order to detect cycles.
+   *
+   * @author <a href="http://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static abstract class Sink {
+
+    /**
+     * The {@link Throwable}s currently being written, outermost
+     * first; only the first {@link #depth} elements are meaningful.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private Throwable[] ancestors;
+
+    /**
+     * The number of {@link Throwable}s currently being written.
+     */
+    private int depth;
+
+    /**
+     * Scratch space for formatting integers.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final char[] digits;
+
+    /**
+     * Creates a new {@link Sink}.
+     */
+    private Sink() {
+      super();
+      this.ancestors = new Throwable[8];
+      this.digits = new char[10];
+    }
+
+    /**
+     * Records that the supplied {@link Throwable} is being written,
+     * unless it is already being written.
+     *
+     * @param t the {@link Throwable}; must not be {@code null}
+     *
+     * @return {@code false} if {@code t} is already being written
+     */
+    final boolean push(final Throwable t) {
+      for (int i = 0; i < this.depth; i++) {
+        if (this.ancestors[i] == t) {
+          return false;
+        }
+      }
+      if (this.depth == this.ancestors.length) {
+        this.ancestors = Arrays.copyOf(this.ancestors, this.depth * 2);
+      }
+      this.ancestors[this.depth++] = t;
+      return true;
+    }
+
+    /**
+     * Records that the most recently {@linkplain #push(Throwable)
+     * pushed} {@link Throwable} has been written.
+     */
+    final void pop() {
+      this.ancestors[--this.depth] = null;
+    }
+
+    /**
+     * Writes the supplied non-negative {@code int} in decimal.
+     *
+     * @param value the value; must not be negative
+     *
+     * @exception IOException if an error occurs
+     */
+    final void integer(int value) throws IOException {
+      assert value >= 0;
+      int i = this.digits.length;
+      do {
+        this.digits[--i] = (char)('0' + value % 10);
+        value /= 10;
+      } while (value > 0);
+      for (; i < this.digits.length; i++) {
+        this.ascii(this.digits[i]);
+      }
+    }
+
+    /**
+     * Writes the supplied ASCII {@link String}.
+     *
+     * @param s the {@link String}; must not be {@code null} and must
+     * consist only of ASCII characters
+     *
+     * @exception IOException if an error occurs
+     */
+    void ascii(final String s) throws IOException {
+      final int length = s.length();
+      for (int i = 0; i < length; i++) {
+        this.ascii(s.charAt(i));
+      }
+    }
+
+    /**
+     * Writes the supplied ASCII character.
+     *
+     * @param c the character; must be less than {@code 0x80}
+     *
+     * @exception IOException if an error occurs
+     */
+    abstract void ascii(final char c) throws IOException;
+
+    /**
+     * Writes the supplied non-ASCII Unicode code point.
+     *
+     * @param codePoint the code point; must be at least {@code 0x80}
+     * and must not be a surrogate
+     *
+     * @exception IOException if an error occurs
+     */
+    abstract void codePoint(final int codePoint) throws IOException;
+
+  }
+
+  /**
+   * A {@link Sink} that writes to an {@link Appendable}.
+   *
+   * @author <a href="http://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class AppendableSink extends Sink {
+
+    /**
+     * The {@link Appendable}.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final Appendable out;
+
+    /**
+     * Creates a new {@link AppendableSink}.
+     *
+     * @param out the {@link Appendable}; must not be {@code null}
+     */
+    private AppendableSink(final Appendable out) {
+      super();
+      this.out = out;
+    }
+
+    @Override
+    final void ascii(final String s) throws IOException {
+      this.out.append(s);
+    }
+
+    @Override
+    final void ascii(final char c) throws IOException {
+      this.out.append(c);
+    }
+
+    @Override
+    final void codePoint(final int codePoint) throws IOException {
+      if (codePoint < Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+        this.out.append((char)codePoint);
+      } else {
+        this.out.append(Character.highSurrogate(codePoint));
+        this.out.append(Character.lowSurrogate(codePoint));
+      }
+    }
+
+  }
+
+  /**
+   * A {@link Sink} that writes UTF-8 bytes.
+   *
+   * @author <a href="http://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static abstract class ByteSink extends Sink {
+
+    /**
+     * Creates a new {@link ByteSink}.
+     */
+    private ByteSink() {
+      super();
+    }
+
+    @Override
+    final void ascii(final char c) throws IOException {
+      this.write((byte)c);
+    }
+
+    @Override
+    final void codePoint(final int codePoint) throws IOException {
+      if (codePoint < 0x800) {
+        this.write((byte)(0xC0 | (codePoint >> 6)));
+      } else {
+        if (codePoint < 0x10000) {
+          this.write((byte)(0xE0 | (codePoint >> 12)));
+        } else {
+          this.write((byte)(0xF0 | (codePoint >> 18)));
+          this.write((byte)(0x80 | ((codePoint >> 12) & 0x3F)));
+        }
+        this.write((byte)(0x80 | ((codePoint >> 6) & 0x3F)));
+      }
+      this.write((byte)(0x80 | (codePoint & 0x3F)));
+    }
+
+    /**
+     * Writes the supplied byte.
+     *
+     * @param b the byte
+     *
+     * @exception IOException if an error occurs
+     */
+    abstract void write(final byte b) throws IOException;
+
+  }
+
+  /**
+   * A {@link ByteSink} that writes to a {@link ByteBuffer}.
+   *
+   * @author <a href="http://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class ByteBufferSink extends ByteSink {
+
+    /**
+     * The {@link ByteBuffer}.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final ByteBuffer out;
+
+    /**
+     * Creates a new {@link ByteBufferSink}.
+     *
+     * @param out the {@link ByteBuffer}; must not be {@code null}
+     */
+    private ByteBufferSink(final ByteBuffer out) {
+      super();
+      this.out = out;
+    }
+
+    @Override
+    final void write(final byte b) {
+      this.out.put(b);
+    }
+
+  }
+
+  /**
+   * A {@link ByteSink} that writes to an {@link OutputStream} through
+   * a buffer.
+   *
+   * @author <a href="http://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class OutputStreamSink extends ByteSink {
+
+    /**
+     * The {@link OutputStream}.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final OutputStream out;
+
+    /**
+     * The buffer.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final byte[] buffer;
+
+    /**
+     * The number of bytes in the {@link #buffer}.
+     */
+    private int count;
+
+    /**
+     * Creates a new {@link OutputStreamSink}.
+     *
+     * @param out the {@link OutputStream}; must not be {@code null}
+     *
+     * @param buffer the buffer; must not be {@code null}
+     */
+    private OutputStreamSink(final OutputStream out, final byte[] buffer) {
+      super();
+      this.out = out;
+      this.buffer = buffer;
+    }
+
+    @Override
+    final void write(final byte b) throws IOException {
+      if (this.count == this.buffer.length) {
+        this.flush();
+      }
+      this.buffer[this.count++] = b;
+    }
+
+    /**
+     * Writes any buffered bytes to the {@link OutputStream}.
+     *
+     * @exception IOException if an error occurs
+     */
+    final void flush() throws IOException {
+      if (this.count > 0) {
+        this.out.write(this.buffer, 0, this.count);
+        this.count = 0;
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,913 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.throwables;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A compiled set of rules that describe the shapes of {@link
+ * Throwable}s and their {@linkplain Throwable#getCause() causal
+ * chains}, together with the means to determine, in a single pass,
+ * which of those rules a given {@link Throwable} matches.
+ *
+ * <p>Instances of this class are created using a {@link Builder}.
+ * Three kinds of rule are supported:</p>
+ *
+ * <ul>
+ *
+ * <li>{@linkplain Builder#causedBy(Object, Class[]) "caused by"
+ * rules}, which match if the causal chain contains an instance of
+ * each of a sequence of {@link Class}es, in order, though not
+ * necessarily adjacent to one another (for example, "a {@code
+ * SQLException} caused by a {@code SocketTimeoutException}")</li>
+ *
+ * <li>{@linkplain Builder#rootCause(Object, Class[]) "root cause"
+ * rules}, which are like "caused by" rules except that the last
+ * {@link Class} in the sequence must be matched by the {@linkplain
+ * Throwables#getRootCause(Throwable) root cause} (for example, "an
+ * {@code IOException} whose root cause is a {@code
+ * ConnectException}")</li>
+ *
+ * <li>{@linkplain Builder#member(Object, Class, Class[]) "member"
+ * rules}, which match if a {@link Throwable} in the causal chain
+ * that is also an {@link Iterable} (such as a {@link ThrowableChain})
+ * contains a member whose own causal chain matches a "caused by"
+ * sequence (for example, "a {@link ThrowableChain} containing at
+ * least one {@code ConstraintViolationException}"); the {@linkplain
+ * ThrowableChain#getCause() cause} of a {@link ThrowableChain}, which
+ * is the first {@link Throwable} {@linkplain
+ * ThrowableChain#add(Throwable) added} to it, counts as one of its
+ * members</li>
+ *
+ * </ul>
+ *
+ * <p>All rules are compiled into a single automaton whose states
+ * are created lazily and whose transitions are cached per concrete
+ * {@link Throwable} {@link Class}.  Once a given shape of causal
+ * chain has been seen, evaluating it again costs one hash lookup per
+ * {@link Throwable} in the chain, regardless of how many rules there
+ * are.</p>
+ *
+ * <p>This class is safe for use by multiple threads.</p>
+ *
+ * @param <K> the type of the keys that identify rules
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see Builder
+ */
+public final class ThrowableMatcher<K> {
+
+  /**
+   * The keys identifying this {@link ThrowableMatcher}'s rules, in
+   * the order in which the rules were added.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final List<K> keys;
+
+  /**
+   * For each rule, the index of the {@link Pattern} it uses.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final int[] rulePatterns;
+
+  /**
+   * For each rule, the {@link Class} of which a containing {@link
+   * Iterable} {@link Throwable} must be an instance, or {@code null}
+   * if the rule is not a member rule.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final Class<?>[] ruleContainers;
+
+  /**
+   * The distinct {@link Pattern}s used by this {@link
+   * ThrowableMatcher}'s rules.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final Pattern[] patterns;
+
+  /**
+   * For each {@link Pattern}, the indices of its steps in the {@link
+   * #stepClasses} array.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final int[][] patternSteps;
+
+  /**
+   * The distinct {@link Class}es mentioned by all {@link Pattern}s.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final Class<?>[] stepClasses;
+
+  /**
+   * Whether any rule is a member rule.
+   */
+  private final boolean hasMemberRules;
+
+  /**
+   * A cache of the {@linkplain #stepClasses step classes} matched by
+   * instances of a given concrete {@link Class}.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final ConcurrentMap<Class<?>, BitSet> symbols;
+
+  /**
+   * A cache of the member rules that apply to containers that are
+   * instances of a given concrete {@link Class}.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final ConcurrentMap<Class<?>, int[]> containerRules;
+
+  /**
+   * The interned {@link State}s of this {@link ThrowableMatcher}'s
+   * automaton, indexed by their progress vectors.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final ConcurrentMap<Progress, State> states;
+
+  /**
+   * The initial {@link State}.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final State start;
+
+  /**
+   * Creates a new {@link ThrowableMatcher}.
+   *
+   * @param builder the {@link Builder} holding the rules; must not be
+   * {@code null}
+   */
+  private ThrowableMatcher(final Builder<K> builder) {
+    super();
+    assert builder != null;
+    final int ruleCount = builder.keys.size();
+    this.keys = Collections.unmodifiableList(new ArrayList<K>(builder.keys));
+    this.rulePatterns = new int[ruleCount];
+    this.ruleContainers = builder.containers.toArray(new Class<?>[ruleCount]);
+
+    final Map<Pattern, Integer> patternIndices = new HashMap<Pattern, Integer>();
+    final List<Pattern> patterns = new ArrayList<Pattern>();
+    final List<int[]> patternSteps = new ArrayList<int[]>();
+    final Map<Class<?>, Integer> stepIndices = new HashMap<Class<?>, Integer>();
+    final List<Class<?>> stepClasses = new ArrayList<Class<?>>();
+    boolean hasMemberRules = false;
+    for (int i = 0; i < ruleCount; i++) {
+      final Pattern pattern = builder.patterns.get(i);
+      Integer index = patternIndices.get(pattern);
+      if (index == null) {
+        index = Integer.valueOf(patterns.size());
+        patternIndices.put(pattern, index);
+        patterns.add(pattern);
+        final int[] steps = new int[pattern.steps.length];
+        for (int j = 0; j < pattern.steps.length; j++) {
+          final Class<?> step = pattern.steps[j];
+          Integer stepIndex = stepIndices.get(step);
+          if (stepIndex == null) {
+            stepIndex = Integer.valueOf(stepClasses.size());
+            stepIndices.put(step, stepIndex);
+            stepClasses.add(step);
+          }
+          steps[j] = stepIndex.intValue();
+        }
+        patternSteps.add(steps);
+      }
+      this.rulePatterns[i] = index.intValue();
+      hasMemberRules = hasMemberRules || this.ruleContainers[i] != null;
+    }
+    this.patterns = patterns.toArray(new Pattern[patterns.size()]);
+    this.patternSteps = patternSteps.toArray(new int[patternSteps.size()][]);
+    this.stepClasses = stepClasses.toArray(new Class<?>[stepClasses.size()]);
+    this.hasMemberRules = hasMemberRules;
+
+    this.symbols = new ConcurrentHashMap<Class<?>, BitSet>();
+    this.containerRules = new ConcurrentHashMap<Class<?>, int[]>();
+    this.states = new ConcurrentHashMap<Progress, State>();
+    this.start = this.intern(new int[this.patterns.length]);
+  }
+
+  /**
+   * Returns an {@linkplain Collections#unmodifiableList(List)
+   * unmodifiable} {@link List} of the keys identifying this {@link
+   * ThrowableMatcher}'s rules, in the order in which they were
+   * added to the {@link Builder}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a {@link List} of rule keys; never {@code null}
+   */
+  public final List<K> getKeys() {
+    return this.keys;
+  }
+
+  /**
+   * Returns the keys of every rule matched by the supplied {@link
+   * Throwable}, in the order in which the rules were added to the
+   * {@link Builder}.
+   *
+   * <p>The supplied {@link Throwable}'s {@linkplain
+   * Throwable#getCause() causal chain} is walked exactly once.
+   * "Caused by" and "root cause" rules are evaluated against that
+   * causal chain.  Whenever a {@link Throwable} in the chain is also
+   * an {@link Iterable}, each of its members (other than itself) has
+   * its own causal chain walked exactly once for the purposes of
+   * evaluating member rules; this process is applied to nested {@link
+   * Iterable}s as well, so member rules match members at any depth.</p>
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param throwable the {@link Throwable} to evaluate; may be {@code
+   * null} in which case an {@linkplain Set#isEmpty() empty} {@link
+   * Set} will be returned
+   *
+   * @return a non-{@code null} {@linkplain
+   * Collections#unmodifiableSet(Set) unmodifiable} {@link Set} of
+   * rule keys
+   */
+  public final Set<K> match(final Throwable throwable) {
+    final BitSet rules = this.matchRules(throwable);
+    if (rules.isEmpty()) {
+      return Collections.emptySet();
+    }
+    final Set<K> returnValue = new LinkedHashSet<K>();
+    for (int i = rules.nextSetBit(0); i >= 0; i = rules.nextSetBit(i + 1)) {
+      returnValue.add(this.keys.get(i));
+    }
+    return Collections.unmodifiableSet(returnValue);
+  }
+
+  /**
+   * Returns the key of the first rule (in the order in which rules
+   * were added to the {@link Builder}) matched by the supplied {@link
+   * Throwable}, or {@code null} if no rule matches.
+   *
+   * <p>This method may return {@code null}.</p>
+   *
+   * @param throwable the {@link Throwable} to evaluate; may be {@code
+   * null} in which case {@code null} will be returned
+   *
+   * @return the key of the first matching rule, or {@code null}
+   *
+   * @see #match(Throwable)
+   */
+  public final K firstMatch(final Throwable throwable) {
+    final BitSet rules = this.matchRules(throwable);
+    final int index = rules.nextSetBit(0);
+    return index < 0 ? null : this.keys.get(index);
+  }
+
+  /**
+   * Returns a {@link BitSet} of the indices of the rules matched by
+   * the supplied {@link Throwable}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param throwable the {@link Throwable} to evaluate; may be {@code
+   * null}
+   *
+   * @return a non-{@code null} {@link BitSet}
+   */
+  private final BitSet matchRules(final Throwable throwable) {
+    final BitSet returnValue = new BitSet(this.keys.size());
+    if (throwable != null) {
+      final Map<Throwable, Boolean> visited;
+      if (this.hasMemberRules) {
+        visited = new IdentityHashMap<Throwable, Boolean>();
+      } else {
+        visited = null;
+      }
+      final BitSet matchedPatterns = this.evaluate(throwable, returnValue, visited);
+      for (int i = 0; i < this.rulePatterns.length; i++) {
+        if (this.ruleContainers[i] == null && matchedPatterns.get(this.rulePatterns[i])) {
+          returnValue.set(i);
+        }
+      }
+    }
+    return returnValue;
+  }
+
+  /**
+   * Runs the supplied {@link Throwable}'s {@linkplain
+   * Throwable#getCause() causal chain} through this {@link
+   * ThrowableMatcher}'s automaton and returns the indices of the
+   * {@link Pattern}s it matched, recording any member rules matched
+   * along the way in the supplied {@link BitSet}.
+   *
+   * @param throwable the {@link Throwable} to evaluate; must not be
+   * {@code null}
+   *
+   * @param memberRules a {@link BitSet} to which the indices of
+   * matched member rules will be added; must not be {@code null}
+   *
+   * @param visited an identity-based {@link Map} of the {@link
+   * Iterable} {@link Throwable}s already expanded, used to guard
+   * against cycles; must not be {@code null} if there are member
+   * rules
+   *
+   * @return a {@link BitSet} of matched {@link Pattern} indices;
+   * never {@code null}; must not be modified
+   */
+  private final BitSet evaluate(final Throwable throwable, final BitSet memberRules, final Map<Throwable, Boolean> visited) {
+    assert throwable != null;
+    State state = this.start;
+    State previous = state;
+    Throwable last = throwable;
+    for (Throwable t = throwable; t != null; t = t.getCause()) {
+      previous = state;
+      state = state.next(this, t.getClass());
+      last = t;
+      if (this.hasMemberRules && t instanceof Iterable && visited.put(t, Boolean.TRUE) == null) {
+        final int[] rules = this.getContainerRules(t.getClass());
+        if (t instanceof ThrowableChain) {
+          // The first Throwable added to a ThrowableChain becomes its
+          // cause, not a member, but it is just as much one of its
+          // failures.
+          final Throwable cause = t.getCause();
+          if (cause != null && cause != t) {
+            this.evaluateMember(cause, rules, memberRules, visited);
+          }
+        }
+        for (final Object member : (Iterable<?>)t) {
+          if (member != t && member instanceof Throwable) {
+            this.evaluateMember((Throwable)member, rules, memberRules, visited);
+          }
+        }
+      }
+    }
+    final BitSet rootMatches = previous.rootMatches(this, last.getClass());
+    if (rootMatches.isEmpty()) {
+      return state.matches;
+    }
+    final BitSet returnValue = (BitSet)state.matches.clone();
+    returnValue.or(rootMatches);
+    return returnValue;
+  }
+
+  /**
+   * {@linkplain #evaluate(Throwable, BitSet, Map) Evaluates} the
+   * supplied member of a container {@link Throwable} and records
+   * which of the supplied member rules it satisfies.
+   *
+   * @param member the member to evaluate; must not be {@code null}
+   *
+   * @param rules the indices of the member rules that apply to the
+   * container; must not be {@code null}
+   *
+   * @param memberRules a {@link BitSet} to which the indices of
+   * matched member rules will be added; must not be {@code null}
+   *
+   * @param visited an identity-based {@link Map} of the {@link
+   * Iterable} {@link Throwable}s already expanded; must not be {@code
+   * null}
+   */
+  private final void evaluateMember(final Throwable member, final int[] rules, final BitSet memberRules, final Map<Throwable, Boolean> visited) {
+    assert member != null;
+    final BitSet memberPatterns = this.evaluate(member, memberRules, visited);
+    for (final int rule : rules) {
+      if (memberPatterns.get(this.rulePatterns[rule])) {
+        memberRules.set(rule);
+      }
+    }
+  }
+
+  /**
+   * Returns a {@link BitSet} of the {@linkplain #stepClasses step
+   * classes} of which instances of the supplied {@link Class} are
+   * also instances.
+   *
+   * @param c the {@link Class} in question; must not be {@code null}
+   *
+   * @return a non-{@code null} {@link BitSet} that must not be
+   * modified
+   */
+  private final BitSet getSymbols(final Class<?> c) {
+    BitSet returnValue = this.symbols.get(c);
+    if (returnValue == null) {
+      returnValue = new BitSet(this.stepClasses.length);
+      for (int i = 0; i < this.stepClasses.length; i++) {
+        if (this.stepClasses[i].isAssignableFrom(c)) {
+          returnValue.set(i);
+        }
+      }
+      final BitSet old = this.symbols.putIfAbsent(c, returnValue);
+      if (old != null) {
+        returnValue = old;
+      }
+    }
+    return returnValue;
+  }
+
+  /**
+   * Returns the indices of the member rules whose container {@link
+   * Class} is assignable from the supplied {@link Class}.
+   *
+   * @param c the {@link Class} of an {@link Iterable} {@link
+   * Throwable}; must not be {@code null}
+   *
+   * @return a non-{@code null} array of rule indices that must not be
+   * modified
+   */
+  private final int[] getContainerRules(final Class<?> c) {
+    int[] returnValue = this.containerRules.get(c);
+    if (returnValue == null) {
+      int count = 0;
+      final int[] rules = new int[this.ruleContainers.length];
+      for (int i = 0; i < this.ruleContainers.length; i++) {
+        final Class<?> container = this.ruleContainers[i];
+        if (container != null && container.isAssignableFrom(c)) {
+          rules[count++] = i;
+        }
+      }
+      returnValue = Arrays.copyOf(rules, count);
+      final int[] old = this.containerRules.putIfAbsent(c, returnValue);
+      if (old != null) {
+        returnValue = old;
+      }
+    }
+    return returnValue;
+  }
+
+  /**
+   * Returns the canonical {@link State} for the supplied progress
+   * vector, creating it if necessary.
+   *
+   * @param progress the number of steps matched so far for each
+   * {@link Pattern}; must not be {@code null}; must not be modified
+   * afterwards
+   *
+   * @return a non-{@code null} {@link State}
+   */
+  private final State intern(final int[] progress) {
+    final Progress key = new Progress(progress);
+    State returnValue = this.states.get(key);
+    if (returnValue == null) {
+      final BitSet matches = new BitSet(this.patterns.length);
+      for (int i = 0; i < this.patterns.length; i++) {
+        final Pattern pattern = this.patterns[i];
+        if (!pattern.anchored && progress[i] >= pattern.steps.length) {
+          matches.set(i);
+        }
+      }
+      returnValue = new State(progress, matches);
+      final State old = this.states.putIfAbsent(key, returnValue);
+      if (old != null) {
+        returnValue = old;
+      }
+    }
+    return returnValue;
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * A builder of {@link ThrowableMatcher}s.
+   *
+   * <p>Instances of this class are not safe for use by multiple
+   * threads.</p>
+   *
+   * @param <K> the type of the keys that identify rules
+   *
+   * @author <a href="http://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   *
+   * @see ThrowableMatcher
+   */
+  public static final class Builder<K> {
+
+    /**
+     * The rule keys added so far.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final List<K> keys;
+
+    /**
+     * The {@link Pattern}s of the rules added so far.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final List<Pattern> patterns;
+
+    /**
+     * The container {@link Class}es of the rules added so far, or
+     * {@code null} elements for rules that are not member rules.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final List<Class<?>> containers;
+
+    /**
+     * Creates a new {@link Builder}.
+     */
+    public Builder() {
+      super();
+      this.keys = new ArrayList<K>();
+      this.patterns = new ArrayList<Pattern>();
+      this.containers = new ArrayList<Class<?>>();
+    }
+
+    /**
+     * Adds a rule that matches a {@link Throwable} whose {@linkplain
+     * Throwable#getCause() causal chain} (which includes the {@link
+     * Throwable} itself) contains an instance of each of the supplied
+     * {@link Class}es in order, though not necessarily adjacent to
+     * one another.
+     *
+     * @param key the key identifying the new rule; may be {@code
+     * null}
+     *
+     * @param classes the sequence of {@link Class}es; must not be
+     * {@code null} or empty and must not contain {@code null}
+     * elements
+     *
+     * @return this {@link Builder}; never {@code null}
+     *
+     * @exception IllegalArgumentException if {@code classes} is
+     * {@code null}, empty or contains {@code null} elements
+     */
+    public final Builder<K> causedBy(final K key, final Class<?>... classes) {
+      return this.add(key, null, new Pattern(classes, false));
+    }
+
+    /**
+     * Adds a rule that matches a {@link Throwable} whose {@linkplain
+     * Throwable#getCause() causal chain} contains an instance of each
+     * of the supplied {@link Class}es in order, where the last such
+     * instance must be the {@linkplain
+     * Throwables#getRootCause(Throwable) root cause}.
+     *
+     * <p>For example, a rule added with {@code rootCause(key,
+     * IOException.class, ConnectException.class)} matches an {@code
+     * IOException} (or anything caused by one) whose root cause is a
+     * distinct {@code ConnectException}.</p>
+     *
+     * @param key the key identifying the new rule; may be {@code
+     * null}
+     *
+     * @param classes the sequence of {@link Class}es; must not be
+     * {@code null} or empty and must not contain {@code null}
+     * elements
+     *
+     * @return this {@link Builder}; never {@code null}
+     *
+     * @exception IllegalArgumentException if {@code classes} is
+     * {@code null}, empty or contains {@code null} elements
+     */
+    public final Builder<K> rootCause(final K key, final Class<?>... classes) {
+      return this.add(key, null, new Pattern(classes, true));
+    }
+
+    /**
+     * Adds a rule that matches a {@link Throwable} whose {@linkplain
+     * Throwable#getCause() causal chain} contains an {@link Iterable}
+     * instance of the supplied {@code container} {@link Class} (a
+     * {@link ThrowableChain}, for example) that has at least one
+     * member whose own causal chain would match a {@linkplain
+     * #causedBy(Object, Class[]) "caused by" rule} built from the
+     * supplied {@code memberClasses}.
+     *
+     * @param key the key identifying the new rule; may be {@code
+     * null}
+     *
+     * @param container the {@link Class} of which the {@link
+     * Iterable} {@link Throwable} must be an instance; must not be
+     * {@code null}
+     *
+     * @param memberClasses the sequence of {@link Class}es a member's
+     * causal chain must contain; must not be {@code null} or empty
+     * and must not contain {@code null} elements
+     *
+     * @return this {@link Builder}; never {@code null}
+     *
+     * @exception IllegalArgumentException if {@code container} is
+     * {@code null}, or if {@code memberClasses} is {@code null},
+     * empty or contains {@code null} elements
+     */
+    public final Builder<K> member(final K key, final Class<?> container, final Class<?>... memberClasses) {
+      if (container == null) {
+        throw new IllegalArgumentException("container", new NullPointerException("container"));
+      }
+      return this.add(key, container, new Pattern(memberClasses, false));
+    }
+
+    /**
+     * Returns a new {@link ThrowableMatcher} compiled from the rules
+     * added to this {@link Builder} so far.
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * @return a new {@link ThrowableMatcher}; never {@code null}
+     */
+    public final ThrowableMatcher<K> build() {
+      return new ThrowableMatcher<K>(this);
+    }
+
+    /**
+     * Records a rule.
+     *
+     * @param key the rule key; may be {@code null}
+     *
+     * @param container the container {@link Class}; may be {@code
+     * null}
+     *
+     * @param pattern the {@link Pattern}; must not be {@code null}
+     *
+     * @return this {@link Builder}; never {@code null}
+     */
+    private final Builder<K> add(final K key, final Class<?> container, final Pattern pattern) {
+      assert pattern != null;
+      this.keys.add(key);
+      this.containers.add(container);
+      this.patterns.add(pattern);
+      return this;
+    }
+
+  }
+
+  /**
+   * A sequence of {@link Class}es to be matched, in order, against a
+   * causal chain.
+   *
+   * @author <a href="http://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class Pattern {
+
+    /**
+     * The {@link Class}es to match.
+     *
+     * <p>This field is never {@code null} or empty.</p>
+     */
+    private final Class<?>[] steps;
+
+    /**
+     * Whether the last step must be matched by the root cause.
+     */
+    private final boolean anchored;
+
+    /**
+     * Creates a new {@link Pattern}.
+     *
+     * @param steps the {@link Class}es to match; must not be {@code
+     * null} or empty and must not contain {@code null} elements
+     *
+     * @param anchored whether the last step must be matched by the
+     * root cause
+     *
+     * @exception IllegalArgumentException if {@code steps} is {@code
+     * null}, empty or contains {@code null} elements
+     */
+    private Pattern(final Class<?>[] steps, final boolean anchored) {
+      super();
+      if (steps == null || steps.length == 0) {
+        throw new IllegalArgumentException("At least one Class must be supplied");
+      }
+      for (final Class<?> step : steps) {
+        if (step == null) {
+          throw new IllegalArgumentException(String.format("null Class in %s", Arrays.asList(steps)));
+        }
+      }
+      this.steps = steps.clone();
+      this.anchored = anchored;
+    }
+
+    @Override
+    public final int hashCode() {
+      return 31 * Arrays.hashCode(this.steps) + (this.anchored ? 1 : 0);
+    }
+
+    @Override
+    public final boolean equals(final Object other) {
+      if (other == this) {
+        return true;
+      } else if (other instanceof Pattern) {
+        final Pattern her = (Pattern)other;
+        return this.anchored == her.anchored && Arrays.equals(this.steps, her.steps);
+      } else {
+        return false;
+      }
+    }
+
+  }
+
+  /**
+   * A progress vector suitable for use as a {@link Map} key.
+   *
+   * @author <a href="http://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class Progress {
+
+    /**
+     * The number of steps matched so far for each {@link Pattern}.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final int[] progress;
+
+    /**
+     * The cached hash code of the {@link #progress} vector.
+     */
+    private final int hashCode;
+
+    /**
+     * Creates a new {@link Progress}.
+     *
+     * @param progress the progress vector; must not be {@code null}
+     */
+    private Progress(final int[] progress) {
+      super();
+      this.progress = progress;
+      this.hashCode = Arrays.hashCode(progress);
+    }
+
+    @Override
+    public final int hashCode() {
+      return this.hashCode;
+    }
+
+    @Override
+    public final boolean equals(final Object other) {
+      return other instanceof Progress && Arrays.equals(this.progress, ((Progress)other).progress);
+    }
+
+  }
+
+  /**
+   * A state of a {@link ThrowableMatcher}'s automaton, together with
+   * its cached transitions.
+   *
+   * @author <a href="http://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class State {
+
+    /**
+     * The number of steps matched so far for each {@link Pattern}.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final int[] progress;
+
+    /**
+     * The unanchored {@link Pattern}s completely matched in this
+     * {@link State}.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final BitSet matches;
+
+    /**
+     * Cached transitions out of this {@link State}, indexed by the
+     * concrete {@link Class} of the next {@link Throwable}.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final ConcurrentMap<Class<?>, State> transitions;
+
+    /**
+     * Cached anchored {@link Pattern} matches, indexed by the
+     * concrete {@link Class} of a root cause that immediately follows
+     * this {@link State}.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final ConcurrentMap<Class<?>, BitSet> rootMatches;
+
+    /**
+     * Creates a new {@link State}.
+     *
+     * @param progress the progress vector; must not be {@code null}
+     *
+     * @param matches the unanchored {@link Pattern}s completely
+     * matched; must not be {@code null}
+     */
+    private State(final int[] progress, final BitSet matches) {
+      super();
+      this.progress = progress;
+      this.matches = matches;
+      this.transitions = new ConcurrentHashMap<Class<?>, State>(8, 0.75f, 1);
+      this.rootMatches = new ConcurrentHashMap<Class<?>, BitSet>(8, 0.75f, 1);
+    }
+
+    /**
+     * Returns the {@link State} that follows this one when a {@link
+     * Throwable} of the supplied {@link Class} is encountered.
+     *
+     * @param matcher the owning {@link ThrowableMatcher}; must not be
+     * {@code null}
+     *
+     * @param c the concrete {@link Class} of the {@link Throwable};
+     * must not be {@code null}
+     *
+     * @return a non-{@code null} {@link State}
+     */
+    private final State next(final ThrowableMatcher<?> matcher, final Class<?> c) {
+      State returnValue = this.transitions.get(c);
+      if (returnValue == null) {
+        final BitSet symbols = matcher.getSymbols(c);
+        final int[] progress = this.progress.clone();
+        for (int i = 0; i < progress.length; i++) {
+          final int[] stepIndices = matcher.patternSteps[i];
+          final int step = progress[i];
+          if (step < stepIndices.length && symbols.get(stepIndices[step])) {
+            progress[i] = step + 1;
+          }
+        }
+        returnValue = matcher.intern(progress);
+        final State old = this.transitions.putIfAbsent(c, returnValue);
+        if (old != null) {
+          returnValue = old;
+        }
+      }
+      return returnValue;
+    }
+
+    /**
+     * Returns the anchored {@link Pattern}s that are completely
+     * matched if the next {@link Throwable}, an instance of the
+     * supplied {@link Class}, is the root cause.
+     *
+     * @param matcher the owning {@link ThrowableMatcher}; must not be
+     * {@code null}
+     *
+     * @param c the concrete {@link Class} of the root cause; must not
+     * be {@code null}
+     *
+     * @return a non-{@code null} {@link BitSet} that must not be
+     * modified
+     */
+    private final BitSet rootMatches(final ThrowableMatcher<?> matcher, final Class<?> c) {
+      BitSet returnValue = this.rootMatches.get(c);
+      if (returnValue == null) {
+        final BitSet symbols = matcher.getSymbols(c);
+        returnValue = new BitSet(this.progress.length);
+        for (int i = 0; i < this.progress.length; i++) {
+          final int[] stepIndices = matcher.patternSteps[i];
+          final int last = stepIndices.length - 1;
+          if (matcher.patterns[i].anchored && this.progress[i] >= last && symbols.get(stepIndices[last])) {
+            returnValue.set(i);
+          }
+        }
+        final BitSet old = this.rootMatches.putIfAbsent(c, returnValue);
+        if (old != null) {
+          returnValue = old;
+        }
+      }
+      return returnValue;
+    }
+
+  }
+
+}
@@ -0,0 +1,360 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.throwables;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.SubmissionPublisher;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import java.util.function.BiPredicate;
+
+/**
+ * A {@link Flow.Publisher} of {@link Throwable}s that pushes each
+ * {@linkplain #publish(Throwable) published} {@link Throwable} to its
+ * {@linkplain #subscribe(Flow.Subscriber) subscribers}, honoring
+ * their {@linkplain Flow.Subscription#request(long) demand}.
+ *
+ * <p>A {@link ThrowableChain} can {@linkplain
+ * ThrowableChain#getPublisher() expose} a {@link ThrowablePublisher}
+ * that publishes every affiliated {@link Throwable} as it is
+ * {@linkplain ThrowableChain#add(Throwable) added}, so that consumers
+ * learn about new failures as they happen instead of repeatedly
+ * rescanning the {@linkplain ThrowableChain#asList() chain's
+ * contents}.</p>
+ *
+ * <p>Each subscriber is given a bounded buffer of (at least) {@link
+ * #getBufferSize()} {@link Throwable}s, delivered asynchronously by
+ * an {@link Executor}.  When a slow subscriber's buffer is full, the
+ * {@link OverflowPolicy} in effect determines whether the {@link
+ * Throwable} being published is {@linkplain OverflowPolicy#DROP
+ * dropped} for that subscriber or whether the publishing thread
+ * {@linkplain OverflowPolicy#BLOCK blocks} until there is room.</p>
+ *
+ * <p>Instances of this class are safe for use by multiple
+ * threads.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see ThrowableChain#getPublisher()
+ *
+ * @see SubmissionPublisher
+ */
+public final class ThrowablePublisher implements Flow.Publisher<Throwable>, AutoCloseable {
+
+  /**
+   * The {@link SubmissionPublisher} that does the actual work.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final SubmissionPublisher<Throwable> delegate;
+
+  /**
+   * The {@link OverflowPolicy} in effect.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final OverflowPolicy overflowPolicy;
+
+  /**
+   * The number of times a {@link Throwable} has been dropped for a
+   * subscriber.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final AtomicLong droppedCount;
+
+  /**
+   * The {@link BiPredicate} supplied to {@link
+   * SubmissionPublisher#offer(Object, BiPredicate)} that records a
+   * drop.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final BiPredicate<Flow.Subscriber<? super Throwable>, Throwable> onDrop;
+
+  /**
+   * Creates a new {@link ThrowablePublisher} with a {@linkplain
+   * Flow#defaultBufferSize() default buffer size} and an {@link
+   * OverflowPolicy} of {@link OverflowPolicy#DROP}.
+   */
+  public ThrowablePublisher() {
+    this(null, Flow.defaultBufferSize(), OverflowPolicy.DROP);
+  }
+
+  /**
+   * Creates a new {@link ThrowablePublisher}.
+   *
+   * @param bufferSize the maximum number of {@link Throwable}s
+   * buffered for each subscriber; will be rounded up to the next
+   * power of two; must be greater than {@code 0}
+   *
+   * @param overflowPolicy the {@link OverflowPolicy} to apply when a
+   * subscriber's buffer is full; must not be {@code null}
+   *
+   * @exception IllegalArgumentException if {@code bufferSize} is
+   * less than {@code 1} or {@code overflowPolicy} is {@code null}
+   */
+  public ThrowablePublisher(final int bufferSize, final OverflowPolicy overflowPolicy) {
+    this(null, bufferSize, overflowPolicy);
+  }
+
+  /**
+   * Creates a new {@link ThrowablePublisher}.
+   *
+   * @param executor the {@link Executor} used to deliver {@link
+   * Throwable}s to subscribers; may be {@code null} in which case the
+   * {@linkplain ForkJoinPool#commonPool() common pool} will be used
+   * if it supports parallelism, and a new {@link Thread} per
+   * subscriber otherwise
+   *
+   * @param bufferSize the maximum number of {@link Throwable}s
+   * buffered for each subscriber; will be rounded up to the next
+   * power of two; must be greater than {@code 0}
+   *
+   * @param overflowPolicy the {@link OverflowPolicy} to apply when a
+   * subscriber's buffer is full; must not be {@code null}
+   *
+   * @exception IllegalArgumentException if {@code bufferSize} is
+   * less than {@code 1} or {@code overflowPolicy} is {@code null}
+   */
+  public ThrowablePublisher(Executor executor, final int bufferSize, final OverflowPolicy overflowPolicy) {
+    super();
+    if (bufferSize < 1) {
+      throw new IllegalArgumentException(String.format("bufferSize < 1: %d", bufferSize));
+    }
+    if (overflowPolicy == null) {
+      throw new IllegalArgumentException("overflowPolicy", new NullPointerException("overflowPolicy"));
+    }
+    if (executor == null) {
+      if (ForkJoinPool.getCommonPoolParallelism() > 1) {
+        executor = ForkJoinPool.commonPool();
+      } else {
+        executor = new Executor() {
+            @Override
+            public final void execute(final Runnable runnable) {
+              final Thread thread = new Thread(runnable, "ThrowablePublisher");
+              thread.setDaemon(true);
+              thread.start();
+            }
+          };
+      }
+    }
+    this.delegate = new SubmissionPublisher<Throwable>(executor, bufferSize);
+    this.overflowPolicy = overflowPolicy;
+    this.droppedCount = new AtomicLong();
+    final AtomicLong droppedCount = this.droppedCount;
+    this.onDrop = new BiPredicate<Flow.Subscriber<? super Throwable>, Throwable>() {
+        @Override
+        public final boolean test(final Flow.Subscriber<? super Throwable> subscriber, final Throwable throwable) {
+          droppedCount.incrementAndGet();
+          return false; // don't retry
+        }
+      };
+  }
+
+  /**
+   * Subscribes the supplied {@link Flow.Subscriber} to this {@link
+   * ThrowablePublisher}.  The subscriber will receive every {@link
+   * Throwable} {@linkplain #publish(Throwable) published} from now on,
+   * subject to its demand and this {@link ThrowablePublisher}'s {@link
+   * OverflowPolicy}.
+   *
+   * @param subscriber the {@link Flow.Subscriber}; must not be {@code
+   * null}
+   *
+   * @exception IllegalArgumentException if {@code subscriber} is
+   * {@code null}
+   */
+  @Override
+  public final void subscribe(final Flow.Subscriber<? super Throwable> subscriber) {
+    if (subscriber == null) {
+      throw new IllegalArgumentException("subscriber", new NullPointerException("subscriber"));
+    }
+    this.delegate.subscribe(subscriber);
+  }
+
+  /**
+   * Publishes the supplied {@link Throwable} to every current
+   * subscriber.
+   *
+   * <p>If there are no subscribers, or if this {@link
+   * ThrowablePublisher} has been {@linkplain #close() closed}, no
+   * action is taken.  If the {@link OverflowPolicy} in effect is
+   * {@link OverflowPolicy#BLOCK}, this method may block until every
+   * subscriber's buffer has room.</p>
+   *
+   * @param throwable the {@link Throwable} to publish; may be {@code
+   * null} in which case no action is taken
+   *
+   * @return {@code true} if the supplied {@link Throwable} was
+   * accepted for delivery by every current subscriber; {@code false}
+   * if it was dropped for at least one subscriber, if it was {@code
+   * null}, or if this {@link ThrowablePublisher} is closed
+   */
+  public final boolean publish(final Throwable throwable) {
+    boolean returnValue = false;
+    if (throwable != null && !this.delegate.isClosed()) {
+      try {
+        switch (this.overflowPolicy) {
+        case BLOCK:
+          this.delegate.submit(throwable);
+          returnValue = true;
+          break;
+        case DROP:
+          returnValue = this.delegate.offer(throwable, this.onDrop) >= 0;
+          break;
+        default:
+          throw new IllegalStateException();
+        }
+      } catch (final IllegalStateException closedConcurrently) {
+        returnValue = false;
+      }
+    }
+    return returnValue;
+  }
+
+  /**
+   * Returns the maximum number of {@link Throwable}s buffered for each
+   * subscriber.
+   *
+   * @return the buffer size; always greater than {@code 0}
+   */
+  public final int getBufferSize() {
+    return this.delegate.getMaxBufferCapacity();
+  }
+
+  /**
+   * Returns the {@link OverflowPolicy} in effect.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return the {@link OverflowPolicy}; never {@code null}
+   */
+  public final OverflowPolicy getOverflowPolicy() {
+    return this.overflowPolicy;
+  }
+
+  /**
+   * Returns the number of times, summed across all subscribers, that
+   * a {@link Throwable} has been dropped because a subscriber's buffer
+   * was full.
+   *
+   * @return the number of drops; never less than {@code 0}
+   */
+  public final long getDroppedCount() {
+    return this.droppedCount.get();
+  }
+
+  /**
+   * Returns the number of current subscribers.
+   *
+   * @return the number of current subscribers; never less than
+   * {@code 0}
+   */
+  public final int getNumberOfSubscribers() {
+    return this.delegate.getNumberOfSubscribers();
+  }
+
+  /**
+   * Returns {@code true} if this {@link ThrowablePublisher} has been
+   * {@linkplain #close() closed}.
+   *
+   * @return {@code true} if this {@link ThrowablePublisher} has been
+   * closed
+   */
+  public final boolean isClosed() {
+    return this.delegate.isClosed();
+  }
+
+  /**
+   * Closes this {@link ThrowablePublisher}.  Each subscriber is
+   * {@linkplain Flow.Subscriber#onComplete() notified} once the
+   * {@link Throwable}s already buffered for it have been delivered.
+   * Subsequent {@linkplain #publish(Throwable) publications} are
+   * ignored.
+   */
+  @Override
+  public final void close() {
+    this.delegate.close();
+  }
+
+  /**
+   * Returns a {@link String} representation of this {@link
+   * ThrowablePublisher}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} {@link String}
+   */
+  @Override
+  public String toString() {
+    return String.format("%s[bufferSize=%d; overflowPolicy=%s; subscribers=%d; dropped=%d; closed=%b]",
+                         this.getClass().getSimpleName(),
+                         this.getBufferSize(),
+                         this.getOverflowPolicy(),
+                         this.getNumberOfSubscribers(),
+                         this.getDroppedCount(),
+                         this.isClosed());
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * What a {@link ThrowablePublisher} does when a subscriber's buffer
+   * is full.
+   *
+   * @author <a href="http://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  public static enum OverflowPolicy {
+
+    /**
+     * The {@link Throwable} being published is dropped for the slow
+     * subscriber only, and the {@linkplain
+     * ThrowablePublisher#getDroppedCount() drop count} is
+     * incremented.  The publishing thread never blocks.
+     */
+    DROP,
+
+    /**
+     * The publishing thread blocks until the slow subscriber's buffer
+     * has room.
+     */
+    BLOCK;
+
+  }
+
+}
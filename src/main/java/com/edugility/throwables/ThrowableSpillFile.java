@@ -0,0 +1,513 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.throwables;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.RandomAccessFile;
+
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+
+import java.nio.channels.FileChannel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * An append-only, memory-mapped file of encoded {@link Throwable}s,
+ * used by a {@link ThrowableChain} to hold members that should not
+ * occupy the Java heap.
+ *
+ * <p>Each {@link Throwable} is {@linkplain ObjectOutputStream
+ * serialized}, compressed, and appended to the file as a
+ * length-prefixed record.  The only per-record state kept on the heap
+ * is the record's offset within the file.  Records are decoded only
+ * when they are {@linkplain #get(int) retrieved}, and a decoded
+ * {@link Throwable} is a new, equivalent copy of the one that was
+ * appended, not the same object.</p>
+ *
+ * <p>The file is mapped into memory in regions of a fixed size as it
+ * grows, so that appends and reads are simple memory copies.</p>
+ *
+ * <p>A {@link ThrowableSpillFile} must be {@linkplain #close() closed}
+ * when it is no longer needed; any {@link ThrowableChain} that has
+ * spilled members into it can no longer retrieve them afterwards.</p>
+ *
+ * <p>This class is safe for use by multiple threads.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see ThrowableChain#spillTo(ThrowableSpillFile, int, long)
+ */
+public final class ThrowableSpillFile implements Closeable {
+
+  /**
+   * The default size, in bytes, of each mapped region of the file.
+   */
+  private static final int DEFAULT_REGION_SIZE = 16 * 1024 * 1024;
+
+  /**
+   * The file, or {@code null} if it was a temporary file that has
+   * already been deleted.
+   */
+  private final File file;
+
+  /**
+   * Whether {@link #file} should be deleted when this {@link
+   * ThrowableSpillFile} is {@linkplain #close() closed}.
+   */
+  private final boolean deleteOnClose;
+
+  /**
+   * The {@link RandomAccessFile} backing the {@link #channel}.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final RandomAccessFile randomAccessFile;
+
+  /**
+   * The {@link FileChannel} used to map regions.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final FileChannel channel;
+
+  /**
+   * The size of each mapped region.
+   */
+  private final int regionSize;
+
+  /**
+   * The mapped regions, in file order.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final List<MappedByteBuffer> regions;
+
+  /**
+   * The file offset at which each of the {@link #regions} begins.
+   */
+  private long[] regionOffsets;
+
+  /**
+   * The file offset of each record.
+   */
+  private long[] recordOffsets;
+
+  /**
+   * The number of records.
+   */
+  private volatile int size;
+
+  /**
+   * The file offset at which the next record will be written.
+   */
+  private long position;
+
+  /**
+   * A reusable buffer for encoding.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final ByteArrayOutputStream encodingBuffer;
+
+  /**
+   * Whether this {@link ThrowableSpillFile} has been {@linkplain
+   * #close() closed}.
+   */
+  private volatile boolean closed;
+
+  /**
+   * Creates a new {@link ThrowableSpillFile} backed by a new temporary
+   * file that is deleted when this {@link ThrowableSpillFile} is
+   * {@linkplain #close() closed}.
+   *
+   * @exception IOException if the file could not be created or mapped
+   */
+  public ThrowableSpillFile() throws IOException {
+    this(File.createTempFile("throwables", ".spill"), true, DEFAULT_REGION_SIZE);
+  }
+
+  /**
+   * Creates a new {@link ThrowableSpillFile} backed by the supplied
+   * {@link File}, which will be truncated.  The file is not deleted
+   * when this {@link ThrowableSpillFile} is {@linkplain #close()
+   * closed}.
+   *
+   * @param file the {@link File} to use; must not be {@code null}
+   *
+   * @exception IOException if the file could not be created or mapped
+   *
+   * @exception IllegalArgumentException if {@code file} is {@code
+   * null}
+   */
+  public ThrowableSpillFile(final File file) throws IOException {
+    this(file, false, DEFAULT_REGION_SIZE);
+  }
+
+  /**
+   * Creates a new {@link ThrowableSpillFile}.
+   *
+   * @param file the {@link File} to use; must not be {@code null}
+   *
+   * @param deleteOnClose whether to delete the {@link File} when this
+   * {@link ThrowableSpillFile} is {@linkplain #close() closed}
+   *
+   * @param regionSize the size in bytes of each mapped region; must
+   * be greater than {@code 0}
+   *
+   * @exception IOException if the file could not be created or mapped
+   *
+   * @exception IllegalArgumentException if {@code file} is {@code
+   * null} or {@code regionSize} is less than {@code 1}
+   */
+  ThrowableSpillFile(final File file, final boolean deleteOnClose, final int regionSize) throws IOException {
+    super();
+    if (file == null) {
+      throw new IllegalArgumentException("file", new NullPointerException("file"));
+    }
+    if (regionSize < 1) {
+      throw new IllegalArgumentException(String.format("regionSize < 1: %d", regionSize));
+    }
+    this.file = file;
+    this.deleteOnClose = deleteOnClose;
+    this.regionSize = regionSize;
+    this.randomAccessFile = new RandomAccessFile(file, "rw");
+    this.randomAccessFile.setLength(0L);
+    this.channel = this.randomAccessFile.getChannel();
+    this.regions = new ArrayList<MappedByteBuffer>();
+    this.regionOffsets = new long[8];
+    this.recordOffsets = new long[64];
+    this.encodingBuffer = new ByteArrayOutputStream(4096);
+  }
+
+  /**
+   * Returns the number of records in this {@link ThrowableSpillFile}.
+   *
+   * @return the number of records; never less than {@code 0}
+   */
+  public final int size() {
+    return this.size;
+  }
+
+  /**
+   * Returns the number of bytes occupied by records in this {@link
+   * ThrowableSpillFile}.
+   *
+   * @return the number of bytes used; never less than {@code 0}
+   */
+  public synchronized final long getByteCount() {
+    return this.position;
+  }
+
+  /**
+   * Encodes the supplied {@link Throwable} and appends it to this
+   * {@link ThrowableSpillFile}.
+   *
+   * @param t the {@link Throwable} to append; must not be {@code null}
+   *
+   * @return the index of the new record
+   *
+   * @exception IOException if the supplied {@link Throwable} (or
+   * anything it refers to) could not be serialized, or if the file
+   * could not be extended; in either case this {@link
+   * ThrowableSpillFile} is unaffected
+   *
+   * @exception IllegalArgumentException if {@code t} is {@code null}
+   *
+   * @exception IllegalStateException if this {@link
+   * ThrowableSpillFile} has been {@linkplain #close() closed}
+   */
+  public synchronized final int append(final Throwable t) throws IOException {
+    if (t == null) {
+      throw new IllegalArgumentException("t", new NullPointerException("t"));
+    }
+    this.ensureOpen();
+    this.encodingBuffer.reset();
+    final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    try {
+      final DeflaterOutputStream deflaterOutputStream = new DeflaterOutputStream(this.encodingBuffer, deflater);
+      final ObjectOutputStream out = new ObjectOutputStream(deflaterOutputStream);
+      out.writeObject(t);
+      out.flush();
+      deflaterOutputStream.finish();
+    } finally {
+      deflater.end();
+    }
+    final byte[] bytes = this.encodingBuffer.toByteArray();
+    final int recordLength = 4 + bytes.length;
+
+    // Records never straddle regions.
+    ByteBuffer region = this.regions.isEmpty() ? null : this.regions.get(this.regions.size() - 1);
+    if (region == null || region.remaining() < recordLength) {
+      region = this.map(Math.max(this.regionSize, recordLength));
+    }
+    final int index = this.size;
+    if (index == this.recordOffsets.length) {
+      this.recordOffsets = Arrays.copyOf(this.recordOffsets, index * 2);
+    }
+    this.recordOffsets[index] = this.position;
+    region.putInt(bytes.length);
+    region.put(bytes);
+    this.position += recordLength;
+    this.size = index + 1;
+    return index;
+  }
+
+  /**
+   * Decodes and returns a new copy of the {@link Throwable} stored at
+   * the supplied index.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param index the index of the record; must be greater than or
+   * equal to {@code 0} and less than the return value of the {@link
+   * #size()} method
+   *
+   * @return a new {@link Throwable}; never {@code null}
+   *
+   * @exception IndexOutOfBoundsException if {@code index} is out of
+   * bounds
+   *
+   * @exception IllegalStateException if this {@link
+   * ThrowableSpillFile} has been {@linkplain #close() closed} or the
+   * record could not be decoded
+   */
+  public final Throwable get(final int index) {
+    final ByteBuffer record;
+    synchronized (this) {
+      this.ensureOpen();
+      if (index < 0 || index >= this.size) {
+        throw new IndexOutOfBoundsException(String.format("index: %d; size: %d", index, this.size));
+      }
+      final long offset = this.recordOffsets[index];
+      int regionIndex = Arrays.binarySearch(this.regionOffsets, 0, this.regions.size(), offset);
+      if (regionIndex < 0) {
+        regionIndex = -regionIndex - 2;
+      }
+      final ByteBuffer region = this.regions.get(regionIndex).duplicate();
+      region.position((int)(offset - this.regionOffsets[regionIndex]));
+      final int length = region.getInt();
+      region.limit(region.position() + length);
+      record = region.slice();
+    }
+    // Decode outside the lock; the mapped bytes never change.
+    try {
+      final ObjectInputStream in = new ClassLoaderAwareObjectInputStream(new InflaterInputStream(new ByteBufferInputStream(record)));
+      try {
+        return (Throwable)in.readObject();
+      } finally {
+        in.close();
+      }
+    } catch (final IOException | ClassNotFoundException | ClassCastException e) {
+      throw new IllegalStateException(String.format("Could not decode record %d", index), e);
+    }
+  }
+
+  /**
+   * Closes this {@link ThrowableSpillFile}, releasing its file and,
+   * if it was created as a temporary file, deleting it.
+   *
+   * <p>Mapped regions are released by the Java platform once they
+   * are no longer reachable.</p>
+   *
+   * @exception IOException if an error occurs
+   */
+  @Override
+  public synchronized final void close() throws IOException {
+    if (!this.closed) {
+      this.closed = true;
+      this.regions.clear();
+      this.recordOffsets = new long[0];
+      this.size = 0;
+      try {
+        this.randomAccessFile.close();
+      } finally {
+        if (this.deleteOnClose && !this.file.delete() && this.file.exists()) {
+          this.file.deleteOnExit();
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns a {@link String} representation of this {@link
+   * ThrowableSpillFile}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} {@link String}
+   */
+  @Override
+  public String toString() {
+    return String.format("%s[%s; %d records]", this.getClass().getSimpleName(), this.file, this.size);
+  }
+
+  /**
+   * Maps a new region beginning at the current {@link #position}.
+   *
+   * @param size the size of the region
+   *
+   * @return the new region; never {@code null}
+   *
+   * @exception IOException if the region could not be mapped
+   */
+  private final ByteBuffer map(final int size) throws IOException {
+    assert Thread.holdsLock(this);
+    final MappedByteBuffer region = this.channel.map(FileChannel.MapMode.READ_WRITE, this.position, size);
+    final int regionCount = this.regions.size();
+    if (regionCount == this.regionOffsets.length) {
+      this.regionOffsets = Arrays.copyOf(this.regionOffsets, regionCount * 2);
+    }
+    this.regionOffsets[regionCount] = this.position;
+    this.regions.add(region);
+    return region;
+  }
+
+  /**
+   * Throws an {@link IllegalStateException} if this {@link
+   * ThrowableSpillFile} has been {@linkplain #close() closed}.
+   *
+   * @exception IllegalStateException if this {@link
+   * ThrowableSpillFile} has been {@linkplain #close() closed}
+   */
+  private final void ensureOpen() {
+    if (this.closed) {
+      throw new IllegalStateException("closed");
+    }
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * An {@link InputStream} that reads from a {@link ByteBuffer}.
+   *
+   * @author <a href="http://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class ByteBufferInputStream extends InputStream {
+
+    /**
+     * The {@link ByteBuffer} to read from.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * Creates a new {@link ByteBufferInputStream}.
+     *
+     * @param buffer the {@link ByteBuffer} to read from; must not be
+     * {@code null}
+     */
+    private ByteBufferInputStream(final ByteBuffer buffer) {
+      super();
+      this.buffer = buffer;
+    }
+
+    @Override
+    public final int read() {
+      return this.buffer.hasRemaining() ? this.buffer.get() & 0xFF : -1;
+    }
+
+    @Override
+    public final int read(final byte[] bytes, final int offset, final int length) {
+      if (length == 0) {
+        return 0;
+      }
+      final int remaining = this.buffer.remaining();
+      if (remaining == 0) {
+        return -1;
+      }
+      final int count = Math.min(remaining, length);
+      this.buffer.get(bytes, offset, count);
+      return count;
+    }
+
+    @Override
+    public final int available() {
+      return this.buffer.remaining();
+    }
+
+  }
+
+  /**
+   * An {@link ObjectInputStream} that also tries the {@linkplain
+   * Thread#getContextClassLoader() context <code>ClassLoader</code>}
+   * when resolving classes.
+   *
+   * @author <a href="http://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class ClassLoaderAwareObjectInputStream extends ObjectInputStream {
+
+    /**
+     * Creates a new {@link ClassLoaderAwareObjectInputStream}.
+     *
+     * @param in the {@link InputStream} to read from; must not be
+     * {@code null}
+     *
+     * @exception IOException if the stream header could not be read
+     */
+    private ClassLoaderAwareObjectInputStream(final InputStream in) throws IOException {
+      super(in);
+    }
+
+    @Override
+    protected final Class<?> resolveClass(final ObjectStreamClass descriptor) throws IOException, ClassNotFoundException {
+      final ClassLoader loader = Thread.currentThread().getContextClassLoader();
+      if (loader != null) {
+        try {
+          return Class.forName(descriptor.getName(), false, loader);
+        } catch (final ClassNotFoundException tryDefault) {
+          // Fall through.
+        }
+      }
+      return super.resolveClass(descriptor);
+    }
+
+  }
+
+}
@@ -0,0 +1,281 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.throwables;
+
+/**
+ * A compact, strongly-held stand-in for an affiliated {@link
+ * Throwable} that a {@link ThrowableChain} {@linkplain
+ * ThrowableChain#setRetention(ThrowableChain.Retention) retains only
+ * by reference}, reported in its place once the garbage collector has
+ * cleared it.
+ *
+ * <p>A {@link ThrowableSummary} records the {@linkplain
+ * #getSummarizedClassName() class name} of the original, a
+ * {@linkplain #getMessage() prefix of its message}, its {@linkplain
+ * #getFingerprint() fingerprint} and its {@linkplain
+ * #getStackTrace() topmost stack frame}, and nothing else: it has no
+ * {@linkplain #getCause() cause} and no {@linkplain #getSuppressed()
+ * suppressed <code>Throwable</code>s}.</p>
+ *
+ * <p>If the {@link ThrowableChain} that created a {@link
+ * ThrowableSummary} has a {@linkplain
+ * ThrowableChain#setFrameArena(FrameArena) frame arena}, all of the
+ * original's stack frames are also archived there, and the {@link
+ * ThrowableChain} {@linkplain ThrowableChain#getStackTrace(Throwable)
+ * reports} and prints them in place of the single frame recorded
+ * here.</p>
+ *
+ * <p>Instances of this class are safe for use by multiple
+ * threads.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see ThrowableChain#setRetention(ThrowableChain.Retention)
+ */
+public final class ThrowableSummary extends Exception {
+
+  /**
+   * The version of this class for {@linkplain java.io.Serializable
+   * serialization purposes}.
+   */
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * The maximum number of characters of the original {@link
+   * Throwable}'s {@linkplain Throwable#getMessage() message} that a
+   * {@link ThrowableSummary} records.
+   */
+  public static final int MAXIMUM_MESSAGE_LENGTH = 128;
+
+  /**
+   * The name of the class of the summarized {@link Throwable}.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final String className;
+
+  /**
+   * The {@linkplain Throwables#fingerprint(Throwable, int)
+   * fingerprint} of the summarized {@link Throwable}.
+   */
+  private final long fingerprint;
+
+  /**
+   * The {@link FrameArena} in which all of the stack frames of the
+   * summarized {@link Throwable} are archived.
+   *
+   * <p>This field may be {@code null}.</p>
+   *
+   * @see #getArchivedStackTrace()
+   */
+  private final transient FrameArena frameArena;
+
+  /**
+   * The handle under which the stack frames of the summarized {@link
+   * Throwable} are archived in the {@link #frameArena}; meaningless if
+   * the {@link #frameArena} is {@code null}.
+   */
+  private final transient long frameHandle;
+
+  /**
+   * Creates a new {@link ThrowableSummary} of the supplied {@link
+   * Throwable} whose {@linkplain #getFingerprint() fingerprint}
+   * considers the {@linkplain
+   * RootCauseIndex#DEFAULT_FINGERPRINT_FRAMES default number of stack
+   * frames}.
+   *
+   * @param t the {@link Throwable} to summarize; must not be {@code
+   * null}
+   *
+   * @exception IllegalArgumentException if {@code t} is {@code null}
+   */
+  public ThrowableSummary(final Throwable t) {
+    this(t, RootCauseIndex.DEFAULT_FINGERPRINT_FRAMES);
+  }
+
+  /**
+   * Creates a new {@link ThrowableSummary} of the supplied {@link
+   * Throwable}.
+   *
+   * @param t the {@link Throwable} to summarize; must not be {@code
+   * null}
+   *
+   * @param fingerprintFrames the number of stack frames considered
+   * when {@linkplain Throwables#fingerprint(Throwable, int)
+   * fingerprinting}; must not be less than {@code 0}
+   *
+   * @exception IllegalArgumentException if {@code t} is {@code null}
+   * or {@code fingerprintFrames} is less than {@code 0}
+   */
+  public ThrowableSummary(final Throwable t, final int fingerprintFrames) {
+    this(t, fingerprintFrames, null);
+  }
+
+  /**
+   * Creates a new {@link ThrowableSummary} of the supplied {@link
+   * Throwable}, archiving all of its stack frames in the supplied
+   * {@link FrameArena}.
+   *
+   * @param t the {@link Throwable} to summarize; must not be {@code
+   * null}
+   *
+   * @param fingerprintFrames the number of stack frames considered
+   * when {@linkplain Throwables#fingerprint(Throwable, int)
+   * fingerprinting}; must not be less than {@code 0}
+   *
+   * @param frameArena the {@link FrameArena} in which to archive the
+   * stack frames of {@code t}; may be {@code null} in which case only
+   * the topmost frame is recorded
+   *
+   * @exception IllegalArgumentException if {@code t} is {@code null}
+   * or {@code fingerprintFrames} is less than {@code 0}
+   */
+  ThrowableSummary(final Throwable t, final int fingerprintFrames, final FrameArena frameArena) {
+    super(abbreviate(t), null, false, true);
+    this.fingerprint = Throwables.fingerprint(t, fingerprintFrames);
+    if (t instanceof RemoteThrowable) {
+      this.className = ((RemoteThrowable)t).getRemoteClassName();
+    } else if (t instanceof ThrowableSummary) {
+      this.className = ((ThrowableSummary)t).getSummarizedClassName();
+    } else {
+      this.className = t.getClass().getName();
+    }
+    final StackTraceElement[] frames = t.getStackTrace();
+    if (frames.length > 0) {
+      this.setStackTrace(new StackTraceElement[] { frames[0] });
+    }
+    long frameHandle = -1L;
+    if (frameArena != null && frames.length > 1) {
+      try {
+        frameHandle = frameArena.store(frames);
+      } catch (final IllegalStateException closed) {
+        frameHandle = -1L;
+      }
+    }
+    this.frameArena = frameHandle < 0L ? null : frameArena;
+    this.frameHandle = frameHandle;
+  }
+
+  /**
+   * Returns at most the first {@link #MAXIMUM_MESSAGE_LENGTH}
+   * characters of the supplied {@link Throwable}'s {@linkplain
+   * Throwable#getMessage() message}, followed by an ellipsis if any
+   * were dropped.
+   *
+   * @param t the {@link Throwable}; must not be {@code null}
+   *
+   * @return the abbreviated message, or {@code null}
+   *
+   * @exception IllegalArgumentException if {@code t} is {@code null}
+   */
+  private static final String abbreviate(final Throwable t) {
+    if (t == null) {
+      throw new IllegalArgumentException("t", new NullPointerException("t"));
+    }
+    final String message = t.getMessage();
+    if (message == null || message.length() <= MAXIMUM_MESSAGE_LENGTH) {
+      return message;
+    }
+    return message.substring(0, MAXIMUM_MESSAGE_LENGTH) + "...";
+  }
+
+  /**
+   * Does nothing, since a {@link ThrowableSummary}'s stack trace is
+   * the topmost frame of the {@link Throwable} it summarizes.
+   *
+   * @return this {@link ThrowableSummary}
+   */
+  @Override
+  public final synchronized Throwable fillInStackTrace() {
+    return this;
+  }
+
+  /**
+   * Returns the name of the class of the {@link Throwable} this
+   * {@link ThrowableSummary} summarizes.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return the class name; never {@code null}
+   */
+  public final String getSummarizedClassName() {
+    return this.className;
+  }
+
+  /**
+   * Returns the {@linkplain Throwables#fingerprint(Throwable, int)
+   * fingerprint} of the {@link Throwable} this {@link
+   * ThrowableSummary} summarizes.
+   *
+   * @return the fingerprint
+   */
+  public final long getFingerprint() {
+    return this.fingerprint;
+  }
+
+  /**
+   * Returns all of the stack frames of the {@link Throwable} this
+   * {@link ThrowableSummary} summarizes, decoded from the {@link
+   * FrameArena} in which they were archived, or {@code null} if they
+   * were not archived or the {@link FrameArena} has since been
+   * {@linkplain FrameArena#close() closed}.
+   *
+   * @return a new array of {@link StackTraceElement}s, or {@code
+   * null}
+   */
+  final StackTraceElement[] getArchivedStackTrace() {
+    final FrameArena frameArena = this.frameArena;
+    if (frameArena != null) {
+      try {
+        return frameArena.load(this.frameHandle);
+      } catch (final IllegalStateException closed) {
+        return null;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns a {@link String} representation of the {@link Throwable}
+   * this {@link ThrowableSummary} summarizes, in the same form as
+   * {@link Throwable#toString()}, using its {@linkplain
+   * #getSummarizedClassName() class name} and {@linkplain
+   * #getMessage() abbreviated message}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a {@link String} representation; never {@code null}
+   */
+  @Override
+  public final String toString() {
+    final String message = this.getLocalizedMessage();
+    return message == null ? this.className : this.className + ": " + message;
+  }
+
+}
@@ -0,0 +1,317 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.throwables;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.UndeclaredThrowableException;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * An immutable set of <em>wrapper</em> {@link Throwable} types:
+ * types whose instances carry no meaning of their own and merely
+ * transport their {@linkplain Throwable#getCause() causes} across
+ * some boundary, such as a reflective method invocation or a thread
+ * hand-off.
+ *
+ * <p>The {@linkplain #getDefault() default} {@link ThrowableWrappers}
+ * contains {@link InvocationTargetException}, {@link
+ * UndeclaredThrowableException}, {@link ExecutionException} and
+ * {@link CompletionException}.  Applications may {@linkplain
+ * #register(Class) register} additional types, such as their own
+ * framework's {@link RuntimeException} wrappers, at startup.
+ * Registration replaces the default instance with a new one.  The
+ * default instance is {@linkplain #freeze() frozen} the first time it
+ * is {@linkplain #getDefault() read}, after which it never changes,
+ * registration fails, and reading it is a simple, lock-free volatile
+ * read.  Code that needs additional wrapper types only locally, such
+ * as a test, should instead {@linkplain #with(Class) derive} its own
+ * {@link ThrowableWrappers} and pass it to {@link
+ * Throwables#unwrap(Throwable, ThrowableWrappers)}.</p>
+ *
+ * <p>Whether a given concrete {@link Class} is a wrapper type (that
+ * is, whether it is assignable to any of the types in a {@link
+ * ThrowableWrappers}) is computed once per {@link Class} and cached
+ * using a {@link ClassValue}, so {@linkplain #unwrap(Throwable)
+ * unwrapping} costs one cached lookup per {@link Throwable} skipped
+ * no matter how many wrapper types there are.</p>
+ *
+ * <p>This class is safe for use by multiple threads.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see Throwables#unwrap(Throwable)
+ */
+public final class ThrowableWrappers {
+
+  /**
+   * The current default {@link ThrowableWrappers}.
+   *
+   * <p>This field is never {@code null}.  It is only written while
+   * holding the {@link ThrowableWrappers} class' monitor, and never
+   * once {@link #frozen} is {@code true}.</p>
+   */
+  private static volatile ThrowableWrappers defaultWrappers =
+    new ThrowableWrappers(Arrays.<Class<? extends Throwable>>asList(InvocationTargetException.class,
+                                                                   UndeclaredThrowableException.class,
+                                                                   ExecutionException.class,
+                                                                   CompletionException.class));
+
+  /**
+   * Whether the {@linkplain #defaultWrappers default
+   * <code>ThrowableWrappers</code>} has been {@linkplain #freeze()
+   * frozen}.
+   *
+   * <p>This field is only written while holding the {@link
+   * ThrowableWrappers} class' monitor.</p>
+   */
+  private static volatile boolean frozen;
+
+  /**
+   * The wrapper types.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final Set<Class<? extends Throwable>> types;
+
+  /**
+   * A cache recording whether a given {@link Class} is assignable to
+   * any of the {@link #types}.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final ClassValue<Boolean> wrapperTypes;
+
+  /**
+   * Creates a new {@link ThrowableWrappers}.
+   *
+   * @param types the wrapper types; may be {@code null} in which case
+   * the new {@link ThrowableWrappers} will not treat any type as a
+   * wrapper type; {@code null} elements are ignored
+   */
+  public ThrowableWrappers(final Collection<? extends Class<? extends Throwable>> types) {
+    super();
+    final Set<Class<? extends Throwable>> set = new LinkedHashSet<Class<? extends Throwable>>();
+    if (types != null) {
+      for (final Class<? extends Throwable> type : types) {
+        if (type != null) {
+          set.add(type);
+        }
+      }
+    }
+    this.types = Collections.unmodifiableSet(set);
+    final Class<?>[] array = set.toArray(new Class<?>[set.size()]);
+    this.wrapperTypes = new ClassValue<Boolean>() {
+        @Override
+        protected final Boolean computeValue(final Class<?> c) {
+          for (final Class<?> type : array) {
+            if (type.isAssignableFrom(c)) {
+              return Boolean.TRUE;
+            }
+          }
+          return Boolean.FALSE;
+        }
+      };
+  }
+
+  /**
+   * Returns the default {@link ThrowableWrappers}, {@linkplain
+   * #freeze() freezing} it first if necessary.
+   *
+   * <p>This method never returns {@code null}.  Once it has been
+   * called it always returns the same {@link ThrowableWrappers}.</p>
+   *
+   * @return the default {@link ThrowableWrappers}; never {@code null}
+   *
+   * @see #register(Class)
+   *
+   * @see #freeze()
+   */
+  public static final ThrowableWrappers getDefault() {
+    if (!frozen) {
+      return freeze();
+    }
+    return defaultWrappers;
+  }
+
+  /**
+   * Prevents any further {@linkplain #register(Class) registration}
+   * of wrapper types, so that the {@linkplain #getDefault() default
+   * <code>ThrowableWrappers</code>} never changes again, and returns
+   * it.
+   *
+   * <p>This method is called automatically the first time the default
+   * {@link ThrowableWrappers} is read.  Applications may call it
+   * explicitly at the end of startup.  Calling it more than once has
+   * no further effect.</p>
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return the default {@link ThrowableWrappers}; never {@code null}
+   */
+  public static final synchronized ThrowableWrappers freeze() {
+    frozen = true;
+    return defaultWrappers;
+  }
+
+  /**
+   * Adds the supplied wrapper type to the {@linkplain #getDefault()
+   * default <code>ThrowableWrappers</code>} by replacing it with a
+   * new instance that also contains the supplied type.
+   *
+   * <p>This method may only be called during application startup,
+   * before the default {@link ThrowableWrappers} is first read or
+   * {@linkplain #freeze() frozen}, so that every caller of {@link
+   * #getDefault()} sees the same wrapper types.</p>
+   *
+   * @param type the wrapper type to add; must not be {@code null}
+   *
+   * @return the new default {@link ThrowableWrappers}; never {@code
+   * null}
+   *
+   * @exception IllegalArgumentException if {@code type} is {@code
+   * null}
+   *
+   * @exception IllegalStateException if the default {@link
+   * ThrowableWrappers} has been {@linkplain #freeze() frozen}
+   */
+  public static final synchronized ThrowableWrappers register(final Class<? extends Throwable> type) {
+    if (type == null) {
+      throw new IllegalArgumentException("type", new NullPointerException("type"));
+    }
+    if (frozen) {
+      throw new IllegalStateException("frozen");
+    }
+    final ThrowableWrappers current = defaultWrappers;
+    if (current.types.contains(type)) {
+      return current;
+    }
+    final ThrowableWrappers replacement = current.with(type);
+    defaultWrappers = replacement;
+    return replacement;
+  }
+
+  /**
+   * Returns a new {@link ThrowableWrappers} containing this {@link
+   * ThrowableWrappers}' types and the supplied type.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param type the additional wrapper type; must not be {@code null}
+   *
+   * @return a new {@link ThrowableWrappers}; never {@code null}
+   *
+   * @exception IllegalArgumentException if {@code type} is {@code
+   * null}
+   */
+  public final ThrowableWrappers with(final Class<? extends Throwable> type) {
+    if (type == null) {
+      throw new IllegalArgumentException("type", new NullPointerException("type"));
+    }
+    final Set<Class<? extends Throwable>> types = new LinkedHashSet<Class<? extends Throwable>>(this.types);
+    types.add(type);
+    return new ThrowableWrappers(types);
+  }
+
+  /**
+   * Returns an {@linkplain Collections#unmodifiableSet(Set)
+   * unmodifiable} {@link Set} of the wrapper types in this {@link
+   * ThrowableWrappers}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a {@link Set} of wrapper types; never {@code null}
+   */
+  public final Set<Class<? extends Throwable>> getTypes() {
+    return this.types;
+  }
+
+  /**
+   * Returns {@code true} if the supplied {@link Throwable} is an
+   * instance of any of this {@link ThrowableWrappers}' types.
+   *
+   * @param t the {@link Throwable} to test; may be {@code null} in
+   * which case {@code false} will be returned
+   *
+   * @return {@code true} if the supplied {@link Throwable} is an
+   * instance of a wrapper type
+   */
+  public final boolean isWrapper(final Throwable t) {
+    return t != null && this.wrapperTypes.get(t.getClass()).booleanValue();
+  }
+
+  /**
+   * Returns the first {@link Throwable} in the {@linkplain
+   * Throwable#getCause() causal chain} of the supplied {@link
+   * Throwable} (or the supplied {@link Throwable} itself) that is not
+   * a {@linkplain #isWrapper(Throwable) wrapper}.
+   *
+   * <p>A wrapper with no cause is returned as-is, since there is
+   * nothing more meaningful to return.</p>
+   *
+   * <p>This method returns {@code null} only if the supplied {@link
+   * Throwable} is {@code null}.</p>
+   *
+   * @param t the {@link Throwable} to unwrap; may be {@code null}
+   *
+   * @return the first meaningful {@link Throwable} in the causal
+   * chain, or {@code null}
+   */
+  public final Throwable unwrap(Throwable t) {
+    while (this.isWrapper(t)) {
+      final Throwable cause = t.getCause();
+      if (cause == null) {
+        break;
+      }
+      t = cause;
+    }
+    return t;
+  }
+
+  /**
+   * Returns a {@link String} representation of this {@link
+   * ThrowableWrappers}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} {@link String}
+   */
+  @Override
+  public String toString() {
+    return this.types.toString();
+  }
+
+}
@@ -30,10 +30,16 @@ package com.edugility.throwables;
 import java.io.Serializable;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
 /**
  * A class to assist with processing {@link Throwable} instances.
  *
@@ -121,6 +127,112 @@ public final class Throwables {
     }
   }
   
+  /**
+   * Returns a {@link List} equal to that which would be returned by
+   * the {@link #toList(Throwable)} method, computed in parallel using
+   * the supplied {@link ForkJoinPool} when the supplied {@link
+   * Throwable} (or something in its {@linkplain Throwable#getCause()
+   * causal chain}) is an {@link Iterable} with many members.
+   *
+   * <p>This method behaves exactly as if {@link
+   * #parallelToList(Throwable, ForkJoinPool, int)} were called with a
+   * threshold of {@code 1024}.</p>
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param throwable the {@link Throwable} in question; may be {@code
+   * null}
+   *
+   * @param pool the {@link ForkJoinPool} to use; may be {@code null}
+   * in which case the {@linkplain ForkJoinPool#commonPool() common
+   * pool} will be used
+   *
+   * @return an {@linkplain Collections#unmodifiableList(List)
+   * unmodifiable} {@link List} of {@link Throwable}s; never {@code
+   * null}
+   *
+   * @see #parallelToList(Throwable, ForkJoinPool, int)
+   */
+  public static final List<Throwable> parallelToList(final Throwable throwable, final ForkJoinPool pool) {
+    return parallelToList(throwable, pool, 1024);
+  }
+
+  /**
+   * Returns a {@link List} equal to that which would be returned by
+   * the {@link #toList(Throwable)} method, computed in parallel using
+   * the supplied {@link ForkJoinPool} when the supplied {@link
+   * Throwable} (or something in its {@linkplain Throwable#getCause()
+   * causal chain}) is an {@link Iterable} with many members.
+   *
+   * <p>The members of each {@link Iterable} {@link Throwable}
+   * encountered are split into ranges of no fewer than {@code
+   * threshold} members, and each range, together with the causal
+   * chains of its members (including any {@link Iterable} {@link
+   * Throwable}s found in them, which are split in turn), is flattened
+   * by its own task.  The per-task results are linked together in the
+   * order documented by the {@link #toList(Throwable)} method without
+   * being copied, and are copied exactly once, into the {@link List}
+   * that is returned.  Work below the threshold is performed
+   * sequentially.</p>
+   *
+   * <p>In the rare case of an {@link Iterable} {@link Throwable} that
+   * does not include itself in its own iteration, the placement rules
+   * of the {@link #toList(Throwable)} method depend on the entire list
+   * built so far; this method detects such cases and computes the
+   * result sequentially instead so that the result is always the
+   * same.</p>
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param throwable the {@link Throwable} in question; may be {@code
+   * null}
+   *
+   * @param pool the {@link ForkJoinPool} to use; may be {@code null}
+   * in which case the {@linkplain ForkJoinPool#commonPool() common
+   * pool} will be used
+   *
+   * @param threshold the number of members of an {@link Iterable}
+   * {@link Throwable} below which they will be processed
+   * sequentially; must be greater than {@code 0}
+   *
+   * @return an {@linkplain Collections#unmodifiableList(List)
+   * unmodifiable} {@link List} of {@link Throwable}s; never {@code
+   * null}
+   *
+   * @exception IllegalArgumentException if {@code threshold} is less
+   * than {@code 1}
+   *
+   * @see #toList(Throwable)
+   */
+  public static final List<Throwable> parallelToList(final Throwable throwable, ForkJoinPool pool, final int threshold) {
+    if (threshold < 1) {
+      throw new IllegalArgumentException(String.format("threshold < 1: %d", threshold));
+    }
+    if (throwable == null) {
+      return Collections.emptyList();
+    }
+    boolean iterable = false;
+    for (Throwable t = throwable; t != null; t = t.getCause()) {
+      if (t instanceof Iterable) {
+        iterable = true;
+        break;
+      }
+    }
+    if (!iterable) {
+      // Nothing to split.
+      return toList(throwable);
+    }
+    if (pool == null) {
+      pool = ForkJoinPool.commonPool();
+    }
+    final AtomicBoolean sequential = new AtomicBoolean();
+    final Segment segment = pool.invoke(new FlattenTask(throwable, threshold, sequential));
+    if (sequential.get()) {
+      return toList(throwable);
+    }
+    return Collections.unmodifiableList(Arrays.asList(segment.toArray()));
+  }
+
   /**
    * Creates and returns a view of the supplied {@link Throwable} and
    * its {@linkplain Throwable#getCause() causal chain} as a {@link
@@ -254,6 +366,39 @@ public final class Throwables {
     return returnValue;
   }
 
+  /**
+   * Returns the first {@link Throwable} in the {@linkplain
+   * Throwable#getCause() causal chain} of the {@linkplain
+   * #unwrap(Throwable, ThrowableWrappers) unwrapped} form of the
+   * supplied {@link Throwable} that is an instance of the supplied
+   * {@link Class}.  Wrappers at the head of the chain are therefore
+   * never returned, even if they are instances of the supplied {@link
+   * Class}.
+   *
+   * <p>This method may return {@code null}.</p>
+   *
+   * @param t the {@link Throwable} whose causal chain should be
+   * investigated; may be {@code null} in which case {@code null} will
+   * be returned
+   *
+   * @param throwableClass the {@link Class} whose {@link
+   * Class#isInstance(Object)} method will be called; if {@code null}
+   * then {@code null} will be returned
+   *
+   * @param wrappers the {@link ThrowableWrappers} describing which
+   * {@link Throwable}s to skip; may be {@code null} in which case the
+   * {@linkplain ThrowableWrappers#getDefault() default
+   * <code>ThrowableWrappers</code>} will be used
+   *
+   * @return the first {@link Throwable} in the unwrapped causal chain
+   * that is an instance of the supplied {@link Class}, or {@code null}
+   *
+   * @see #firstInstance(Throwable, Class)
+   */
+  public static final <T extends Throwable> T firstInstance(final Throwable t, final Class<T> throwableClass, final ThrowableWrappers wrappers) {
+    return firstInstance(unwrap(t, wrappers), throwableClass);
+  }
+
   /**
    * Returns the last {@link Throwable} in the {@linkplain
    * Throwable#getCause() causal chain} of the supplied {@link
@@ -286,4 +431,505 @@ public final class Throwables {
     return returnValue;
   }
 
+  /**
+   * Returns the last {@link Throwable} in the {@linkplain
+   * Throwable#getCause() causal chain} of the {@linkplain
+   * #unwrap(Throwable, ThrowableWrappers) unwrapped} form of the
+   * supplied {@link Throwable} that is an instance of the supplied
+   * {@link Class}.
+   *
+   * <p>This method may return {@code null}.</p>
+   *
+   * @param t the {@link Throwable} whose causal chain should be
+   * investigated; may be {@code null} in which case {@code null} will
+   * be returned
+   *
+   * @param throwableClass the {@link Class} whose {@link
+   * Class#isInstance(Object)} method will be called; if {@code null}
+   * then {@code null} will be returned
+   *
+   * @param wrappers the {@link ThrowableWrappers} describing which
+   * {@link Throwable}s to skip; may be {@code null} in which case the
+   * {@linkplain ThrowableWrappers#getDefault() default
+   * <code>ThrowableWrappers</code>} will be used
+   *
+   * @return the last {@link Throwable} in the unwrapped causal chain
+   * that is an instance of the supplied {@link Class}, or {@code null}
+   *
+   * @see #lastInstance(Throwable, Class)
+   */
+  public static final <T extends Throwable> T lastInstance(final Throwable t, final Class<T> throwableClass, final ThrowableWrappers wrappers) {
+    return lastInstance(unwrap(t, wrappers), throwableClass);
+  }
+
+  /**
+   * Skips any {@linkplain ThrowableWrappers#getDefault() default
+   * wrapper} {@link Throwable}s at the head of the supplied {@link
+   * Throwable}'s {@linkplain Throwable#getCause() causal chain} and
+   * returns the first meaningful {@link Throwable}.
+   *
+   * <p>This method returns {@code null} only if the supplied {@link
+   * Throwable} is {@code null}.</p>
+   *
+   * @param t the {@link Throwable} to unwrap; may be {@code null}
+   *
+   * @return the first {@link Throwable} in the causal chain that is
+   * not a wrapper, or the last wrapper if it has no cause, or {@code
+   * null}
+   *
+   * @see ThrowableWrappers#unwrap(Throwable)
+   */
+  public static final Throwable unwrap(final Throwable t) {
+    return unwrap(t, null);
+  }
+
+  /**
+   * Skips any wrapper {@link Throwable}s, as defined by the supplied
+   * {@link ThrowableWrappers}, at the head of the supplied {@link
+   * Throwable}'s {@linkplain Throwable#getCause() causal chain} and
+   * returns the first meaningful {@link Throwable}.
+   *
+   * <p>Note that unwrapping has no effect on the {@linkplain
+   * #getRootCause(Throwable) root cause}, which is the same whether
+   * or not it is sought from the unwrapped point.</p>
+   *
+   * <p>This method returns {@code null} only if the supplied {@link
+   * Throwable} is {@code null}.</p>
+   *
+   * @param t the {@link Throwable} to unwrap; may be {@code null}
+   *
+   * @param wrappers the {@link ThrowableWrappers} describing which
+   * {@link Throwable}s to skip; may be {@code null} in which case the
+   * {@linkplain ThrowableWrappers#getDefault() default
+   * <code>ThrowableWrappers</code>} will be used
+   *
+   * @return the first {@link Throwable} in the causal chain that is
+   * not a wrapper, or the last wrapper if it has no cause, or {@code
+   * null}
+   *
+   * @see ThrowableWrappers#unwrap(Throwable)
+   */
+  public static final Throwable unwrap(final Throwable t, final ThrowableWrappers wrappers) {
+    if (t == null) {
+      return null;
+    } else if (wrappers == null) {
+      return ThrowableWrappers.getDefault().unwrap(t);
+    } else {
+      return wrappers.unwrap(t);
+    }
+  }
+
+
+  /**
+   * Returns a 64-bit fingerprint of the <em>shape</em> of the supplied
+   * {@link Throwable}: the {@linkplain Class#getName() names of the
+   * classes} of every {@link Throwable} in its {@linkplain
+   * Throwable#getCause() causal chain}, in order, together with the
+   * class name, method name and line number of up to {@code
+   * frameCount} of the topmost {@linkplain Throwable#getStackTrace()
+   * stack frames} of its {@linkplain #getRootCause(Throwable) root
+   * cause}.
+   *
+   * <p>{@linkplain Throwable#getMessage() Messages} are deliberately
+   * not considered, since they frequently contain identifiers,
+   * timestamps and the like; two failures that were thrown from the
+   * same place for the same reasons will therefore have the same
+   * fingerprint even if their messages differ.  Distinct shapes
+   * usually, but not always, have distinct fingerprints.</p>
+   *
+   * @param t the {@link Throwable} to fingerprint; may be {@code
+   * null} in which case {@code 0L} will be returned
+   *
+   * @param frameCount the maximum number of stack frames to consider;
+   * must not be less than {@code 0}
+   *
+   * @return the fingerprint
+   *
+   * @exception IllegalArgumentException if {@code frameCount} is
+   * less than {@code 0}
+   */
+  public static final long fingerprint(Throwable t, final int frameCount) {
+    if (frameCount < 0) {
+      throw new IllegalArgumentException(String.format("frameCount < 0: %d", frameCount));
+    }
+    if (t == null) {
+      return 0L;
+    }
+    long h = 0xcbf29ce484222325L; // FNV-1a offset basis
+    Throwable root = t;
+    for (; t != null; t = t.getCause()) {
+      h = mix(h, t.getClass().getName().hashCode());
+      root = t;
+    }
+    if (frameCount > 0) {
+      final StackTraceElement[] frames = root.getStackTrace();
+      if (frames != null) {
+        final int size = Math.min(frameCount, frames.length);
+        for (int i = 0; i < size; i++) {
+          final StackTraceElement frame = frames[i];
+          if (frame != null) {
+            h = mix(h, frame.getClassName().hashCode());
+            h = mix(h, frame.getMethodName().hashCode());
+            h = mix(h, frame.getLineNumber());
+          }
+        }
+      }
+    }
+    // Final avalanche (from MurmurHash3's fmix64).
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  /**
+   * {@linkplain FrameFilter#apply(Throwable) Filters}, in place, the
+   * {@linkplain Throwable#getStackTrace() stack traces} of the
+   * supplied {@link Throwable}, its {@linkplain Throwable#getCause()
+   * causes} and their {@linkplain Throwable#getSuppressed() suppressed
+   * <code>Throwable</code>s} using the supplied {@link FrameFilter}.
+   *
+   * @param t the {@link Throwable}; may be {@code null} in which case
+   * no action is taken
+   *
+   * @param filter the {@link FrameFilter}; may be {@code null} in
+   * which case no action is taken
+   *
+   * @see FrameFilter#apply(Throwable)
+   */
+  public static final void filterStackTraces(final Throwable t, final FrameFilter filter) {
+    if (t != null && filter != null) {
+      filter.apply(t);
+    }
+  }
+
+  /**
+   * Folds the supplied {@code int} into the supplied running hash.
+   *
+   * @param h the running hash
+   *
+   * @param value the value to fold in
+   *
+   * @return the new running hash
+   */
+  private static final long mix(final long h, final int value) {
+    return (h ^ (value & 0xffffffffL)) * 0x100000001b3L; // FNV-1a prime
+  }
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * A sequence of {@link Throwable}s stored as a linked list of
+   * chunks so that two {@link Segment}s may be concatenated in
+   * constant time.
+   *
+   * <p>Instances of this class are not safe for use by multiple
+   * threads.</p>
+   *
+   * @author <a href="http://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   *
+   * @see Throwables#parallelToList(Throwable, ForkJoinPool, int)
+   */
+  private static final class Segment {
+
+    /**
+     * The first chunk; {@code null} if this {@link Segment} is empty.
+     */
+    private Chunk head;
+
+    /**
+     * The last chunk; {@code null} if this {@link Segment} is empty.
+     */
+    private Chunk tail;
+
+    /**
+     * The total number of {@link Throwable}s in this {@link Segment}.
+     */
+    private int size;
+
+    /**
+     * Creates a new, empty {@link Segment}.
+     */
+    private Segment() {
+      super();
+    }
+
+    /**
+     * Appends the supplied {@link Throwable} to this {@link Segment}.
+     *
+     * @param t the {@link Throwable} to append; must not be {@code
+     * null}
+     */
+    private final void add(final Throwable t) {
+      assert t != null;
+      if (this.tail == null) {
+        this.head = this.tail = new Chunk();
+      }
+      this.tail.items.add(t);
+      this.size++;
+    }
+
+    /**
+     * Moves the contents of the supplied {@link Segment} to the end of
+     * this one in constant time.  The supplied {@link Segment} must
+     * not be used afterwards.
+     *
+     * @param other the {@link Segment} to append; must not be {@code
+     * null}
+     */
+    private final void append(final Segment other) {
+      assert other != null;
+      if (other.head != null) {
+        if (this.tail == null) {
+          this.head = other.head;
+        } else {
+          this.tail.next = other.head;
+        }
+        this.tail = other.tail;
+        this.size += other.size;
+      }
+    }
+
+    /**
+     * Copies the contents of this {@link Segment} into a new array.
+     *
+     * @return a new {@link Throwable} array; never {@code null}
+     */
+    private final Throwable[] toArray() {
+      final Throwable[] returnValue = new Throwable[this.size];
+      int i = 0;
+      for (Chunk chunk = this.head; chunk != null; chunk = chunk.next) {
+        for (final Throwable t : chunk.items) {
+          returnValue[i++] = t;
+        }
+      }
+      assert i == this.size;
+      return returnValue;
+    }
+
+    /**
+     * A link in a {@link Segment}.
+     *
+     * @author <a href="http://about.me/lairdnelson"
+     * target="_parent">Laird Nelson</a>
+     */
+    private static final class Chunk {
+
+      /**
+       * The {@link Throwable}s in this {@link Chunk}.
+       *
+       * <p>This field is never {@code null}.</p>
+       */
+      private final ArrayList<Throwable> items;
+
+      /**
+       * The next {@link Chunk}; may be {@code null}.
+       */
+      private Chunk next;
+
+      /**
+       * Creates a new {@link Chunk}.
+       */
+      private Chunk() {
+        super();
+        this.items = new ArrayList<Throwable>();
+      }
+
+    }
+
+  }
+
+  /**
+   * A {@link RecursiveTask} that flattens a {@link Throwable} exactly
+   * as the {@link Throwables#toList(Throwable, List)} method does,
+   * splitting the members of {@link Iterable} {@link Throwable}s
+   * across subtasks.
+   *
+   * @author <a href="http://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   *
+   * @see Throwables#parallelToList(Throwable, ForkJoinPool, int)
+   */
+  private static final class FlattenTask extends RecursiveTask<Segment> {
+
+    /**
+     * The version of this class for {@linkplain Serializable
+     * serialization purposes}.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The {@link Throwable} whose members this {@link FlattenTask}
+     * will flatten; non-{@code null} unless {@link #members} is
+     * non-{@code null}.
+     */
+    private final Throwable throwable;
+
+    /**
+     * The members to flatten; {@code null} until {@link #compute()}
+     * splits them.
+     */
+    private final Throwable[] members;
+
+    /**
+     * The index of the first member this {@link FlattenTask} is
+     * responsible for.
+     */
+    private final int low;
+
+    /**
+     * The index one past the last member this {@link FlattenTask} is
+     * responsible for.
+     */
+    private final int high;
+
+    /**
+     * The number of members below which work is performed
+     * sequentially.
+     */
+    private final int threshold;
+
+    /**
+     * Set when a situation is found that only a sequential
+     * computation can handle faithfully.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final AtomicBoolean sequential;
+
+    /**
+     * Creates a new {@link FlattenTask} responsible for an entire
+     * {@link Throwable}.
+     *
+     * @param throwable the {@link Throwable} to flatten; must not be
+     * {@code null}
+     *
+     * @param threshold the sequential threshold; must be greater than
+     * {@code 0}
+     *
+     * @param sequential the shared flag that is set when a sequential
+     * computation is required; must not be {@code null}
+     */
+    private FlattenTask(final Throwable throwable, final int threshold, final AtomicBoolean sequential) {
+      super();
+      assert throwable != null;
+      this.throwable = throwable;
+      this.members = null;
+      this.low = 0;
+      this.high = 0;
+      this.threshold = threshold;
+      this.sequential = sequential;
+    }
+
+    /**
+     * Creates a new {@link FlattenTask} responsible for a range of
+     * members.
+     *
+     * @param members the members; must not be {@code null}
+     *
+     * @param low the index of the first member to flatten
+     *
+     * @param high the index one past the last member to flatten
+     *
+     * @param threshold the sequential threshold; must be greater than
+     * {@code 0}
+     *
+     * @param sequential the shared flag that is set when a sequential
+     * computation is required; must not be {@code null}
+     */
+    private FlattenTask(final Throwable[] members, final int low, final int high, final int threshold, final AtomicBoolean sequential) {
+      super();
+      assert members != null;
+      this.throwable = null;
+      this.members = members;
+      this.low = low;
+      this.high = high;
+      this.threshold = threshold;
+      this.sequential = sequential;
+    }
+
+    /**
+     * Flattens the {@link Throwable} or range of members for which
+     * this {@link FlattenTask} is responsible.
+     *
+     * @return a {@link Segment}; never {@code null}
+     */
+    @Override
+    protected final Segment compute() {
+      if (this.members == null) {
+        return this.flatten(this.throwable);
+      }
+      if (this.sequential.get()) {
+        return new Segment();
+      }
+      final int length = this.high - this.low;
+      if (length <= this.threshold) {
+        final Segment returnValue = new Segment();
+        for (int i = this.low; i < this.high; i++) {
+          final Throwable member = this.members[i];
+          returnValue.add(member);
+          final Throwable cause = member.getCause();
+          if (cause != null) {
+            returnValue.append(this.flatten(cause));
+          }
+        }
+        return returnValue;
+      }
+      final int middle = this.low + length / 2;
+      final FlattenTask left = new FlattenTask(this.members, this.low, middle, this.threshold, this.sequential);
+      final FlattenTask right = new FlattenTask(this.members, middle, this.high, this.threshold, this.sequential);
+      left.fork();
+      final Segment rightSegment = right.compute();
+      final Segment returnValue = left.join();
+      returnValue.append(rightSegment);
+      return returnValue;
+    }
+
+    /**
+     * Flattens the supplied {@link Throwable} as the {@link
+     * Throwables#toList(Throwable, List)} method would.
+     *
+     * @param t the {@link Throwable} to flatten; must not be {@code
+     * null}
+     *
+     * @return a {@link Segment}; never {@code null}
+     */
+    private final Segment flatten(Throwable t) {
+      assert t != null;
+      final Segment returnValue = new Segment();
+      // Non-Iterable links of a causal chain are simply appended
+      // in order.
+      while (t != null && !(t instanceof Iterable)) {
+        returnValue.add(t);
+        t = t.getCause();
+      }
+      if (t != null) {
+        final List<Throwable> members = new ArrayList<Throwable>();
+        boolean found = false;
+        for (final Object o : (Iterable<?>)t) {
+          if (o instanceof Throwable) {
+            members.add((Throwable)o);
+            found = found || o == t;
+          }
+        }
+        if (!found) {
+          // toList(Throwable, List) would consult, and possibly
+          // insert into, the whole list built so far.
+          this.sequential.set(true);
+        } else {
+          final FlattenTask task = new FlattenTask(members.toArray(new Throwable[members.size()]), 0, members.size(), this.threshold, this.sequential);
+          returnValue.append(task.compute());
+        }
+      }
+      return returnValue;
+    }
+
+  }
+
 }
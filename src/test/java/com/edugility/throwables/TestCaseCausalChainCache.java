@@ -0,0 +1,140 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil -*-
+ *
+ * Copyright (c) 2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.throwables;
+
+import java.lang.ref.WeakReference;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TestCaseCausalChainCache {
+
+  private CausalChainCache cache;
+
+  private Throwable first;
+
+  private Throwable middle;
+
+  private Throwable last;
+
+  public TestCaseCausalChainCache() {
+    super();
+  }
+
+  @Before
+  public void setUp() {
+    this.cache = new CausalChainCache(4);
+    this.last = new NumberFormatException();
+    this.middle = new IllegalArgumentException(this.last);
+    this.first = new Throwable(this.middle);
+  }
+
+  @Test
+  public void testAgreesWithThrowables() {
+    assertNull(this.cache.getRootCause(null));
+    assertEquals(0, this.cache.getDepth(null));
+    assertSame(Throwables.getRootCause(this.first), this.cache.getRootCause(this.first));
+    assertEquals(new ThrowableList(this.first).size(), this.cache.getDepth(this.first));
+    assertSame(this.middle, this.cache.firstInstance(this.first, IllegalArgumentException.class));
+    assertSame(this.last, this.cache.firstInstance(this.first, NumberFormatException.class));
+    assertSame(this.first, this.cache.firstInstance(this.first, Throwable.class));
+    assertNull(this.cache.firstInstance(this.first, IllegalStateException.class));
+    assertEquals(1, this.cache.size());
+
+    // Asking again yields the same (memoized) answers.
+    assertSame(this.middle, this.cache.firstInstance(this.first, IllegalArgumentException.class));
+    assertSame(this.last, this.cache.getRootCause(this.first));
+    assertEquals(1, this.cache.size());
+
+    this.cache.remove(this.first);
+    assertEquals(0, this.cache.size());
+  }
+
+  @Test
+  public void testLateInitCause() {
+    final ThrowableChain chain = new ThrowableChain();
+    assertSame(chain, this.cache.getRootCause(chain));
+    assertEquals(1, this.cache.getDepth(chain));
+    assertNull(this.cache.firstInstance(chain, IllegalArgumentException.class));
+
+    // Adding the first affiliate initializes the chain's cause.
+    chain.add(this.middle);
+    assertSame(this.last, this.cache.getRootCause(chain));
+    assertEquals(3, this.cache.getDepth(chain));
+    assertSame(this.middle, this.cache.firstInstance(chain, IllegalArgumentException.class));
+
+    // Initializing the cause of the old root cause later still
+    // extends the chain.
+    final Throwable tail = new IllegalStateException();
+    final Throwable oldRoot = new Exception();
+    final Throwable top = new RuntimeException(oldRoot);
+    assertSame(oldRoot, this.cache.getRootCause(top));
+    assertNull(this.cache.firstInstance(top, IllegalStateException.class));
+    oldRoot.initCause(tail);
+    assertSame(tail, this.cache.getRootCause(top));
+    assertSame(tail, this.cache.firstInstance(top, IllegalStateException.class));
+    assertSame(top, this.cache.firstInstance(top, RuntimeException.class));
+  }
+
+  @Test
+  public void testManyThrowables() {
+    final Throwable[] throwables = new Throwable[200];
+    for (int i = 0; i < throwables.length; i++) {
+      throwables[i] = new IllegalStateException(this.first);
+      assertSame(this.last, this.cache.getRootCause(throwables[i]));
+    }
+    assertEquals(throwables.length, this.cache.size());
+    for (int i = 0; i < throwables.length; i++) {
+      assertEquals(4, this.cache.getDepth(throwables[i]));
+      assertSame(this.middle, this.cache.firstInstance(throwables[i], IllegalArgumentException.class));
+    }
+    assertEquals(throwables.length, this.cache.size());
+  }
+
+  @Test
+  public void testCauseReferringBackIsCollected() throws InterruptedException {
+    final WeakReference<Throwable> reference = this.cacheSelfReferentialThrowable();
+    for (int i = 0; i < 50 && reference.get() != null; i++) {
+      System.gc();
+      Thread.sleep(10L);
+    }
+    assertNull(reference.get());
+  }
+
+  private final WeakReference<Throwable> cacheSelfReferentialThrowable() {
+    final Throwable t = new Exception();
+    final Throwable cause = new Exception();
+    t.initCause(cause);
+    cause.addSuppressed(t);
+    assertSame(cause, this.cache.getRootCause(t));
+    return new WeakReference<Throwable>(t);
+  }
+
+}
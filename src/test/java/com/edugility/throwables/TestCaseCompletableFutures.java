@@ -0,0 +1,89 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil -*-
+ *
+ * Copyright (c) 2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.throwables;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TestCaseCompletableFutures {
+
+  public TestCaseCompletableFutures() {
+    super();
+  }
+
+  @Test
+  public void testAllSucceed() throws Exception {
+    final CompletableFuture<Integer> first = new CompletableFuture<Integer>();
+    final CompletableFuture<Integer> second = new CompletableFuture<Integer>();
+    final CompletableFuture<List<Integer>> all = CompletableFutures.allOf(Arrays.asList(first, second));
+    assertFalse(all.isDone());
+    second.complete(Integer.valueOf(2));
+    assertFalse(all.isDone());
+    first.complete(Integer.valueOf(1));
+    assertTrue(all.isDone());
+    assertEquals(Arrays.asList(Integer.valueOf(1), Integer.valueOf(2)), all.get());
+
+    assertTrue(CompletableFutures.<Object>allOf(null).get().isEmpty());
+  }
+
+  @Test
+  public void testAllFailuresReported() throws Exception {
+    final List<CompletableFuture<String>> futures = new ArrayList<CompletableFuture<String>>();
+    for (int i = 0; i < 5; i++) {
+      futures.add(new CompletableFuture<String>());
+    }
+    final CompletableFuture<List<String>> all = CompletableFutures.allOf(futures);
+    final IllegalStateException third = new IllegalStateException("third");
+    final IllegalArgumentException fifth = new IllegalArgumentException("fifth");
+    futures.get(4).completeExceptionally(new CompletionException(new ExecutionException(fifth)));
+    futures.get(0).complete("first");
+    futures.get(2).completeExceptionally(third);
+    futures.get(1).complete("second");
+    assertFalse(all.isDone());
+    futures.get(3).complete("fourth");
+    assertTrue(all.isCompletedExceptionally());
+    try {
+      all.get();
+      fail();
+    } catch (final ExecutionException expected) {
+      final ThrowableChain chain = (ThrowableChain)expected.getCause();
+      assertSame(third, chain.getCause());
+      assertEquals(Arrays.<Throwable>asList(fifth), chain.getAffiliatedThrowables());
+    }
+  }
+
+}
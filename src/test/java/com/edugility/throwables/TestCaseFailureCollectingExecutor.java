@@ -0,0 +1,145 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil -*-
+ *
+ * Copyright (c) 2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.throwables;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TestCaseFailureCollectingExecutor {
+
+  public TestCaseFailureCollectingExecutor() {
+    super();
+  }
+
+  @Test
+  public void testCollectAll() throws Exception {
+    final AtomicInteger running = new AtomicInteger();
+    final AtomicInteger maxRunning = new AtomicInteger();
+    final List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+    for (int i = 0; i < 20; i++) {
+      final int n = i;
+      tasks.add(new Callable<Integer>() {
+          @Override
+          public final Integer call() throws Exception {
+            final int r = running.incrementAndGet();
+            int max;
+            while ((max = maxRunning.get()) < r && !maxRunning.compareAndSet(max, r)) {
+            }
+            try {
+              Thread.sleep(5L);
+              if (n % 5 == 0) {
+                throw new IllegalStateException(String.valueOf(n));
+              }
+              return Integer.valueOf(n);
+            } finally {
+              running.decrementAndGet();
+            }
+          }
+        });
+    }
+    final FailureCollectingExecutor executor = new FailureCollectingExecutor(3, FailureCollectingExecutor.COLLECT_ALL);
+    try {
+      executor.invokeAll(tasks);
+      fail();
+    } catch (final ThrowableChain expected) {
+      assertTrue(maxRunning.get() <= 3);
+      // The cause is the first failure; the rest are affiliates, in
+      // task order.
+      assertEquals("0", expected.getCause().getMessage());
+      final List<Throwable> affiliates = expected.getAffiliatedThrowables();
+      assertEquals(3, affiliates.size());
+      assertEquals("5", affiliates.get(0).getMessage());
+      assertEquals("10", affiliates.get(1).getMessage());
+      assertEquals("15", affiliates.get(2).getMessage());
+    }
+
+    // Successful runs return results in order.
+    final List<Callable<Integer>> good = new ArrayList<Callable<Integer>>();
+    for (int i = 0; i < 10; i++) {
+      final int n = i;
+      good.add(new Callable<Integer>() {
+          @Override
+          public final Integer call() {
+            return Integer.valueOf(n);
+          }
+        });
+    }
+    final List<Integer> results = executor.invokeAll(good);
+    assertEquals(10, results.size());
+    for (int i = 0; i < 10; i++) {
+      assertEquals(Integer.valueOf(i), results.get(i));
+    }
+  }
+
+  @Test
+  public void testFailFast() throws Exception {
+    final CountDownLatch never = new CountDownLatch(1);
+    final List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+    for (int i = 0; i < 4; i++) {
+      tasks.add(new Callable<Object>() {
+          @Override
+          public final Object call() throws Exception {
+            // Blocks until cancelled.
+            never.await();
+            return null;
+          }
+        });
+    }
+    tasks.add(new Callable<Object>() {
+        @Override
+        public final Object call() {
+          throw new UnsupportedOperationException("boom");
+        }
+      });
+    for (int i = 0; i < 100; i++) {
+      tasks.add(new Callable<Object>() {
+          @Override
+          public final Object call() {
+            return null;
+          }
+        });
+    }
+    try {
+      new FailureCollectingExecutor(5, FailureCollectingExecutor.FAIL_FAST).invokeAll(tasks);
+      fail();
+    } catch (final ThrowableChain expected) {
+      assertEquals(1, expected.size());
+      assertEquals("boom", expected.getCause().getMessage());
+    }
+  }
+
+}
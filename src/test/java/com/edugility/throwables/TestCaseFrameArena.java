@@ -0,0 +1,160 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil -*-
+ *
+ * Copyright (c) 2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.throwables;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TestCaseFrameArena {
+
+  public TestCaseFrameArena() {
+    super();
+  }
+
+  private static final void assertFramesEqual(final StackTraceElement[] expected, final StackTraceElement[] actual) {
+    assertEquals(expected.length, actual.length);
+    for (int i = 0; i < expected.length; i++) {
+      assertEquals(expected[i].toString(), actual[i].toString());
+    }
+  }
+
+  private static final String print(final Throwable t) {
+    final StringWriter sw = new StringWriter();
+    t.printStackTrace(new PrintWriter(sw));
+    return sw.toString();
+  }
+
+  @Test
+  public void testStoreAndLoad() {
+    final FrameArena arena = new FrameArena(256);
+    final StackTraceElement[] frames = new Exception().getStackTrace();
+    final long handle = arena.store(frames);
+    final long empty = arena.store(new StackTraceElement[0]);
+    assertFramesEqual(frames, arena.load(handle));
+    assertEquals(frames.length, arena.getFrameCount(handle));
+    assertEquals(0, arena.load(empty).length);
+    assertTrue(arena.getByteCount() > 0L);
+    assertTrue(arena.getCapacity() >= arena.getByteCount());
+    assertTrue(arena.getStringCount() > 0);
+    try {
+      arena.load(Long.MAX_VALUE);
+      fail();
+    } catch (final IllegalArgumentException expected) {
+
+    }
+    arena.close();
+    assertTrue(arena.isClosed());
+    assertEquals(0L, arena.getCapacity());
+    try {
+      arena.load(handle);
+      fail();
+    } catch (final IllegalStateException expected) {
+
+    }
+  }
+
+  @Test
+  public void testChain() throws Exception {
+    final FrameArena arena = new FrameArena();
+    final ThrowableChain chain = new ThrowableChain("chain");
+    chain.setFrameArena(arena);
+    assertSame(arena, chain.getFrameArena());
+    chain.add(new IllegalArgumentException("cause"));
+
+    // Affiliates held strongly are left alone.
+    final Exception first = new IllegalStateException("first");
+    final StackTraceElement[] firstFrames = first.getStackTrace();
+    final String firstTrace = print(first);
+    chain.add(first);
+    assertFramesEqual(firstFrames, first.getStackTrace());
+    assertFramesEqual(firstFrames, chain.getStackTrace(first));
+    assertTrue(print(chain).contains("2. " + firstTrace));
+    assertEquals(0L, arena.getByteCount());
+
+    // Affiliates retained by reference have their frames archived,
+    // and are themselves left alone.
+    chain.setRetention(ThrowableChain.Retention.WEAK);
+    final StackTraceElement[] deepFrames = addDeep(chain, 10);
+    assertTrue(arena.getByteCount() > 0L);
+    assertEquals(10, chain.clearRetained(t -> true));
+    assertEquals(10, chain.getClearedCount());
+    ThrowableSummary summary = null;
+    for (final Throwable t : chain) {
+      if (t instanceof ThrowableSummary) {
+        summary = (ThrowableSummary)t;
+        break;
+      }
+    }
+    assertNotNull(summary);
+    assertEquals(1, summary.getStackTrace().length);
+
+    // The cleared affiliate's full frames are still reported.
+    assertFramesEqual(deepFrames, chain.getStackTrace(summary));
+    final StringBuilder expected = new StringBuilder("(cleared) ").append(summary).append(System.lineSeparator());
+    for (final StackTraceElement frame : deepFrames) {
+      expected.append("\tat ").append(frame).append(System.lineSeparator());
+    }
+    assertTrue(print(chain).contains(expected.toString()));
+    final StringBuilder json = new StringBuilder();
+    new ThrowableJsonEncoder().encode(chain, json);
+    assertTrue(json.toString().contains("\"method\":\"addDeep\""));
+
+    // Closing the arena loses them, but nothing else.
+    arena.close();
+    assertEquals(1, chain.getStackTrace(summary).length);
+    assertTrue(print(chain).contains("(cleared) " + summary));
+    assertFramesEqual(firstFrames, first.getStackTrace());
+
+    // Serialization leaves affiliates alone, too.
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final ObjectOutputStream out = new ObjectOutputStream(bytes);
+    out.writeObject(chain);
+    out.close();
+    final ThrowableChain copy = (ThrowableChain)new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+    assertFramesEqual(firstFrames, copy.asList().get(1).getStackTrace());
+  }
+
+  private static final StackTraceElement[] addDeep(final ThrowableChain chain, final int count) {
+    StackTraceElement[] frames = null;
+    for (int i = 0; i < count; i++) {
+      final Exception e = new UnsupportedOperationException("deep " + i);
+      frames = e.getStackTrace();
+      chain.add(e);
+    }
+    return frames;
+  }
+
+}
@@ -0,0 +1,109 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil -*-
+ *
+ * Copyright (c) 2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.throwables;
+
+import java.util.Arrays;
+
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TestCaseFrameFilter {
+
+  public TestCaseFrameFilter() {
+    super();
+  }
+
+  private static final StackTraceElement frame(final String className) {
+    return new StackTraceElement(className, "m", null, -1);
+  }
+
+  @Test
+  public void testIsFiltered() {
+    final FrameFilter filter = new FrameFilter(Arrays.asList("sun.reflect", "org.apache.catalina"), Pattern.compile(".*\\$\\$Proxy\\d+"), 0);
+    assertTrue(filter.isFiltered("sun.reflect.GeneratedMethodAccessor1"));
+    assertTrue(filter.isFiltered("sun.reflect.misc.Trampoline"));
+    assertTrue(filter.isFiltered("org.apache.catalina.core.StandardWrapperValve"));
+    assertTrue(filter.isFiltered("com.foo.Bar$$Proxy12"));
+    assertFalse(filter.isFiltered("sun.reflectx.Foo"));
+    assertFalse(filter.isFiltered("sun.Reflect"));
+    assertFalse(filter.isFiltered("org.apache.Foo"));
+    assertFalse(filter.isFiltered("com.foo.Bar"));
+    assertFalse(filter.isFiltered(null));
+    // Cached answers agree.
+    assertTrue(filter.isFiltered("sun.reflect.GeneratedMethodAccessor1"));
+    assertFalse(filter.isFiltered("com.foo.Bar"));
+  }
+
+  @Test
+  public void testFilter() {
+    final FrameFilter filter = new FrameFilter(Arrays.asList("sun.reflect"), null, 4);
+    final StackTraceElement[] frames = {
+      frame("com.foo.A"),
+      frame("sun.reflect.X"),
+      frame("sun.reflect.Y"),
+      frame("com.foo.B"),
+      frame("com.foo.C"),
+      frame("com.foo.D"),
+      frame("com.foo.E")
+    };
+    final StackTraceElement[] filtered = filter.filter(frames);
+    assertEquals(4, filtered.length);
+    assertEquals("com.foo.A", filtered[0].getClassName());
+    assertEquals(FrameFilter.MARKER_CLASS_NAME, filtered[1].getClassName());
+    assertEquals("2 frames filtered", filtered[1].getMethodName());
+    assertEquals("com.foo.B", filtered[2].getClassName());
+    assertEquals("3 frames trimmed", filtered[3].getMethodName());
+
+    // Nothing to do returns the same array.
+    final StackTraceElement[] clean = { frame("com.foo.A") };
+    assertSame(clean, filter.filter(clean));
+  }
+
+  @Test
+  public void testChain() {
+    final FrameFilter filter = new FrameFilter(Arrays.asList("org.junit", "sun", "jdk.internal", "java.lang.reflect", "org.apache.maven"));
+    final ThrowableChain chain = new ThrowableChain();
+    chain.setFrameFilter(filter);
+    assertSame(filter, chain.getFrameFilter());
+    final Exception cause = new IllegalStateException();
+    final int unfiltered = cause.getStackTrace().length;
+    chain.add(cause);
+    assertTrue(cause.getStackTrace().length < unfiltered);
+    final Exception inner = new IllegalArgumentException();
+    final Exception affiliate = new RuntimeException(inner);
+    chain.add(affiliate);
+    final StackTraceElement[] frames = affiliate.getStackTrace();
+    assertEquals(TestCaseFrameFilter.class.getName(), frames[0].getClassName());
+    assertEquals(FrameFilter.MARKER_CLASS_NAME, frames[1].getClassName());
+    assertEquals(FrameFilter.MARKER_CLASS_NAME, inner.getStackTrace()[1].getClassName());
+  }
+
+}
@@ -0,0 +1,130 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil -*-
+ *
+ * Copyright (c) 2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.throwables;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TestCaseRemoteThrowable {
+
+  public TestCaseRemoteThrowable() {
+    super();
+  }
+
+  @Test
+  public void testRoundTrip() {
+    final IllegalStateException root = new IllegalStateException("root é");
+    final RuntimeException top = new RuntimeException("top", root);
+    top.addSuppressed(new UnsupportedOperationException());
+
+    final RemoteThrowable remote = RemoteThrowable.decode(RemoteThrowable.encode(top), 0);
+    assertEquals(RuntimeException.class.getName(), remote.getRemoteClassName());
+    assertEquals("top", remote.getMessage());
+    assertEquals(top.getStackTrace().length, remote.getStackTraceDepth());
+    assertArrayEquals(top.getStackTrace(), remote.getStackTrace());
+    assertEquals(top.toString(), remote.toString());
+
+    final Throwable remoteRoot = Throwables.getRootCause(remote);
+    assertTrue(remoteRoot instanceof RemoteThrowable);
+    assertEquals(root.toString(), remoteRoot.toString());
+    assertEquals(2, Throwables.toList(remote).size());
+
+    final Throwable[] suppressed = remote.getSuppressed();
+    assertEquals(1, suppressed.length);
+    assertEquals(UnsupportedOperationException.class.getName(), ((RemoteThrowable)suppressed[0]).getRemoteClassName());
+
+    // Rebuilt frames name their class loaders explicitly, so only
+    // the structure of the printed trace is compared.
+    final StringWriter actual = new StringWriter();
+    remote.printStackTrace(new PrintWriter(actual));
+    final String trace = actual.toString();
+    assertTrue(trace.startsWith(top.toString()));
+    assertTrue(trace.contains("Suppressed: " + UnsupportedOperationException.class.getName()));
+    assertTrue(trace.contains("Caused by: " + root.toString()));
+  }
+
+  @Test
+  public void testAffiliates() {
+    final ThrowableChain chain = new ThrowableChain("chain");
+    chain.add(new IllegalArgumentException("first"));
+    chain.add(new IllegalStateException("second"));
+
+    final RemoteThrowable remote = RemoteThrowable.decode(RemoteThrowable.encode(chain), 0);
+    final List<String> names = new ArrayList<String>();
+    for (final Throwable t : remote) {
+      names.add(t.toString());
+    }
+    // The first Throwable added to a chain becomes its cause.
+    assertEquals(2, names.size());
+    assertEquals(ThrowableChain.class.getName() + ": chain", names.get(0));
+    assertEquals(IllegalStateException.class.getName() + ": second", names.get(1));
+    assertEquals(IllegalArgumentException.class.getName() + ": first", remote.getCause().toString());
+
+    final StringWriter actual = new StringWriter();
+    remote.printStackTrace(new PrintWriter(actual));
+    assertTrue(actual.toString().startsWith("1. " + ThrowableChain.class.getName() + ": chain"));
+    assertTrue(actual.toString().contains("2. " + IllegalStateException.class.getName() + ": second"));
+
+    // A remote proxy can itself be added to a local chain.
+    final ThrowableChain local = new ThrowableChain();
+    local.add(new Exception());
+    assertTrue(local.add(remote));
+    final StringWriter sw = new StringWriter();
+    local.printStackTrace(new PrintWriter(sw));
+    // Nested chains print with nested numbering, just as local ones do.
+    assertTrue(sw.toString().contains("2. 1. " + ThrowableChain.class.getName() + ": chain"));
+  }
+
+  @Test
+  public void testBatch() throws Exception {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (int i = 0; i < 5; i++) {
+      RemoteThrowable.encode(new IllegalStateException(Integer.toString(i)), out);
+    }
+    int i = 0;
+    for (final RemoteThrowable remote : RemoteThrowable.decodeAll(out.toByteArray())) {
+      assertEquals(Integer.toString(i++), remote.getMessage());
+    }
+    assertEquals(5, i);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testTruncated() {
+    final byte[] bytes = RemoteThrowable.encode(new Exception());
+    RemoteThrowable.decode(java.util.Arrays.copyOf(bytes, bytes.length - 1), 0);
+  }
+
+}
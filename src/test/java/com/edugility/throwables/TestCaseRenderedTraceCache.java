@@ -0,0 +1,104 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil -*-
+ *
+ * Copyright (c) 2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.throwables;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TestCaseRenderedTraceCache {
+
+  public TestCaseRenderedTraceCache() {
+    super();
+  }
+
+  private static final String print(final Throwable t) {
+    final StringWriter sw = new StringWriter();
+    t.printStackTrace(new PrintWriter(sw));
+    return sw.toString();
+  }
+
+  @Test
+  public void testRender() {
+    final RenderedTraceCache cache = new RenderedTraceCache(1024L * 1024L, 4);
+    final Exception e = new IllegalStateException("été ☃", new NumberFormatException());
+    final String text = cache.render(e);
+    assertEquals(print(e), text);
+    assertEquals(1, cache.size());
+    assertTrue(cache.getByteCount() > 0L);
+    assertEquals(text, cache.render(e));
+    assertEquals(1, cache.size());
+
+    // Adding a suppressed Throwable invalidates the recorded text.
+    e.addSuppressed(new UnsupportedOperationException());
+    assertEquals(print(e), cache.render(e));
+    assertEquals(1, cache.size());
+
+    cache.remove(e);
+    assertEquals(0, cache.size());
+    assertEquals(0L, cache.getByteCount());
+  }
+
+  @Test
+  public void testEviction() {
+    final Exception sample = new Exception();
+    final long size = print(sample).length();
+    final RenderedTraceCache cache = new RenderedTraceCache(size * 3, 1);
+    final Exception[] exceptions = new Exception[10];
+    for (int i = 0; i < exceptions.length; i++) {
+      exceptions[i] = new Exception();
+      cache.render(exceptions[i]);
+      assertTrue(cache.getByteCount() <= cache.getMaximumBytes());
+    }
+    assertTrue(cache.size() <= 3);
+    assertTrue(cache.size() > 0);
+  }
+
+  @Test
+  public void testChain() {
+    final RenderedTraceCache cache = new RenderedTraceCache();
+    final ThrowableChain chain = new ThrowableChain("chain");
+    chain.add(new IllegalArgumentException("cause"));
+    chain.add(new IllegalStateException("first"));
+    chain.add(new UnsupportedOperationException("second"));
+    final String expected = print(chain);
+    chain.setRenderedTraceCache(cache);
+    assertSame(cache, chain.getRenderedTraceCache());
+    assertEquals(expected, print(chain));
+    assertEquals(2, cache.size());
+    assertEquals(expected, print(chain));
+    assertEquals(2, cache.size());
+    // Chains themselves are never recorded.
+    assertEquals(expected, cache.render(chain));
+    assertEquals(2, cache.size());
+  }
+
+}
@@ -0,0 +1,158 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil -*-
+ *
+ * Copyright (c) 2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.throwables;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TestCaseRootCauseIndex {
+
+  public TestCaseRootCauseIndex() {
+    super();
+  }
+
+  @Test
+  public void testGrouping() throws Exception {
+    final ThrowableChain chain = new ThrowableChain(new IllegalStateException("cause"));
+    final Throwable[] sameShape = new Throwable[5];
+    for (int i = 0; i < sameShape.length; i++) {
+      sameShape[i] = new RuntimeException("request " + i, new NumberFormatException("id " + i));
+      assertTrue(chain.add(sameShape[i]));
+    }
+    final Throwable other = new IllegalArgumentException("other");
+    assertTrue(chain.add(other));
+
+    final RootCauseIndex index = chain.getRootCauseIndex();
+    final Map<Class<? extends Throwable>, RootCauseIndex.Group> byClass = index.getRootCauseGroups();
+    // The cause counts too.
+    assertEquals(3, byClass.size());
+    assertEquals(1, byClass.get(IllegalStateException.class).getCount());
+    final RootCauseIndex.Group nfe = byClass.get(NumberFormatException.class);
+    assertNotNull(nfe);
+    assertEquals(5, nfe.getCount());
+    assertEquals(NumberFormatException.class, nfe.getRootCauseClass());
+    assertEquals(Arrays.asList(sameShape[0], sameShape[1], sameShape[2]), nfe.getRepresentatives());
+    assertEquals(1, byClass.get(IllegalArgumentException.class).getCount());
+
+    final Map<Long, RootCauseIndex.Group> byFingerprint = index.getFingerprintGroups();
+    assertEquals(3, byFingerprint.size());
+    assertEquals(5, byFingerprint.get(Long.valueOf(Throwables.fingerprint(sameShape[0], index.getFingerprintFrames()))).getCount());
+
+    try {
+      byClass.clear();
+      fail();
+    } catch (final UnsupportedOperationException expected) {
+
+    }
+
+    // Removal keeps the index current.
+    assertTrue(chain.remove(sameShape[0]));
+    assertEquals(4, byClass.get(NumberFormatException.class).getCount());
+    assertFalse(byClass.get(NumberFormatException.class).getRepresentatives().contains(sameShape[0]));
+    assertTrue(chain.removeAll(Arrays.asList(other)));
+    assertNull(byClass.get(IllegalArgumentException.class));
+    assertEquals(2, byFingerprint.size());
+
+    // The index is rebuilt on deserialization.
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final ObjectOutputStream out = new ObjectOutputStream(bytes);
+    out.writeObject(chain);
+    out.close();
+    final ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+    final ThrowableChain copy = (ThrowableChain)in.readObject();
+    in.close();
+    assertEquals(4, copy.getRootCauseIndex().getRootCauseGroups().get(NumberFormatException.class).getCount());
+  }
+
+  @Test
+  public void testCauseIsIndexed() {
+    final ThrowableChain chain = new ThrowableChain();
+    final Throwable first = new IllegalStateException("first");
+    chain.add(first);
+    assertSame(first, chain.getCause());
+    final RootCauseIndex.Group group = chain.getRootCauseIndex().getRootCauseGroups().get(IllegalStateException.class);
+    assertEquals(1, group.getCount());
+    assertEquals(Collections.singletonList(first), group.getRepresentatives());
+
+    // The cause cannot be removed, so it stays indexed.
+    assertFalse(chain.remove(first));
+    assertEquals(1, chain.getRootCauseIndex().getRootCauseGroups().get(IllegalStateException.class).getCount());
+  }
+
+  @Test
+  public void testRemoveAfterChange() {
+    final ThrowableChain chain = new ThrowableChain(new IllegalStateException("cause"));
+    final FrameArena arena = new FrameArena();
+    chain.setFrameArena(arena);
+    final Throwable root = new NumberFormatException("root");
+    final Throwable member = new RuntimeException("member", root);
+    assertTrue(chain.add(member));
+    final RootCauseIndex index = chain.getRootCauseIndex();
+    assertEquals(1, index.getRootCauseGroups().get(NumberFormatException.class).getCount());
+    assertEquals(2, index.getFingerprintGroups().size());
+
+    // Someone else changes the member's frames and root cause after
+    // it was indexed.
+    member.setStackTrace(new StackTraceElement[0]);
+    root.initCause(new ArithmeticException("deeper"));
+    assertTrue(chain.remove(member));
+    assertEquals(Collections.singleton(IllegalStateException.class), index.getRootCauseGroups().keySet());
+    assertEquals(1, index.getFingerprintGroups().size());
+    arena.close();
+  }
+
+  @Test
+  public void testWeaklyRetainedRepresentatives() {
+    final ThrowableChain chain = new ThrowableChain(new IllegalStateException("cause"));
+    chain.setRetention(ThrowableChain.Retention.WEAK);
+    for (int i = 0; i < 5; i++) {
+      assertTrue(chain.add(new RuntimeException("weak " + i, new NumberFormatException("id " + i))));
+    }
+    final RootCauseIndex.Group nfe = chain.getRootCauseIndex().getRootCauseGroups().get(NumberFormatException.class);
+    assertEquals(5, nfe.getCount());
+    for (final Throwable representative : nfe.getRepresentatives()) {
+      assertTrue(representative instanceof ThrowableSummary);
+    }
+
+    // Clearing the affiliates leaves the index as it was.
+    assertEquals(5, chain.clearRetained(t -> true));
+    assertEquals(5, chain.getClearedCount());
+    assertEquals(5, chain.getRootCauseIndex().getRootCauseGroups().get(NumberFormatException.class).getCount());
+  }
+
+}
@@ -0,0 +1,123 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil -*-
+ *
+ * Copyright (c) 2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.throwables;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import java.util.List;
+
+import java.util.concurrent.TimeUnit;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import java.util.function.LongSupplier;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TestCaseStormSuppressor {
+
+  private AtomicLong now;
+
+  private StormSuppressor suppressor;
+
+  public TestCaseStormSuppressor() {
+    super();
+  }
+
+  @Before
+  public void setUp() {
+    this.now = new AtomicLong();
+    final AtomicLong now = this.now;
+    this.suppressor = new StormSuppressor(3, 60L, TimeUnit.SECONDS, 3, 256, 4, 4, new LongSupplier() {
+        @Override
+        public final long getAsLong() {
+          return now.get();
+        }
+      });
+  }
+
+  private static final Throwable[] storm(final int size) {
+    // Created at the same place so they all have the same shape.
+    final Throwable[] returnValue = new Throwable[size];
+    for (int i = 0; i < size; i++) {
+      returnValue[i] = new IllegalStateException("request " + i, new NumberFormatException("id " + i));
+    }
+    return returnValue;
+  }
+
+  @Test
+  public void testSuppressionAndWindow() {
+    final Throwable[] storm = storm(101);
+    for (int i = 0; i < 3; i++) {
+      assertTrue(this.suppressor.shouldEmit(storm[i]));
+    }
+    for (int i = 3; i < 100; i++) {
+      assertFalse(this.suppressor.shouldEmit(storm[i]));
+    }
+    assertEquals(97L, this.suppressor.getSuppressedCount());
+    assertTrue(this.suppressor.getCount(storm[0]) >= 100L);
+
+    // A different shape is unaffected.
+    assertTrue(this.suppressor.shouldEmit(new IllegalArgumentException()));
+
+    final List<StormSuppressor.HeavyHitter> heavyHitters = this.suppressor.getHeavyHitters();
+    assertEquals(2, heavyHitters.size());
+    assertTrue(heavyHitters.get(0).getCount() >= 100L);
+    assertEquals(storm[0].toString(), heavyHitters.get(0).getExample());
+    assertEquals(Throwables.fingerprint(storm[1], 3), heavyHitters.get(0).getFingerprint());
+
+    // Once the window has passed, the storm shape is emitted again.
+    this.now.addAndGet(TimeUnit.SECONDS.toNanos(61L));
+    assertEquals(0L, this.suppressor.getCount(storm[0]));
+    assertTrue(this.suppressor.getHeavyHitters().isEmpty());
+    assertTrue(this.suppressor.shouldEmit(storm[100]));
+  }
+
+  @Test
+  public void testPrintStackTrace() {
+    final ThrowableChain chain = new ThrowableChain(new IllegalStateException("cause"));
+    chain.setStormSuppressor(this.suppressor);
+    assertSame(this.suppressor, chain.getStormSuppressor());
+    for (final Throwable t : storm(5)) {
+      chain.add(t);
+    }
+    final StringWriter sw = new StringWriter();
+    final PrintWriter pw = new PrintWriter(sw);
+    chain.printStackTrace(pw);
+    pw.close();
+    final String output = sw.toString();
+    assertTrue(output.contains("4. java.lang.IllegalStateException: request 2\n\tat "));
+    assertTrue(output.contains("5. (suppressed) java.lang.IllegalStateException: request 3\n"));
+    assertTrue(output.contains("6. (suppressed) java.lang.IllegalStateException: request 4\n"));
+  }
+
+}
@@ -0,0 +1,178 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil -*-
+ *
+ * Copyright (c) 2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.throwables;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import java.util.concurrent.TimeUnit;
+
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TestCaseThrowableAggregatingHandler {
+
+  private Target target;
+
+  private ThrowableAggregatingHandler handler;
+
+  public TestCaseThrowableAggregatingHandler() {
+    super();
+  }
+
+  @Before
+  public void setUp() {
+    this.target = new Target();
+  }
+
+  @After
+  public void tearDown() {
+    if (this.handler != null) {
+      this.handler.close();
+    }
+  }
+
+  private static final LogRecord record(final String loggerName, final Level level, final String message, final Throwable thrown) {
+    final LogRecord record = new LogRecord(level, message);
+    record.setLoggerName(loggerName);
+    record.setThrown(thrown);
+    return record;
+  }
+
+  @Test
+  public void testAggregation() {
+    this.handler = new ThrowableAggregatingHandler(this.target, 1L, TimeUnit.HOURS, 100);
+    this.handler.publish(record("a", Level.INFO, "plain", null));
+    for (int i = 0; i < 10; i++) {
+      this.handler.publish(record("a", i == 5 ? Level.SEVERE : Level.WARNING, "failed", new IllegalStateException(Integer.toString(i))));
+    }
+    this.handler.publish(record("b", Level.WARNING, "failed", new IllegalStateException("elsewhere")));
+    this.handler.publish(record("a", Level.WARNING, "different", new IllegalArgumentException()));
+    assertTrue(this.target.records().isEmpty());
+
+    this.handler.flush();
+    assertTrue(this.target.flushed);
+    final List<LogRecord> records = this.target.records();
+    assertEquals(4, records.size());
+    assertEquals("plain", records.get(0).getMessage());
+
+    final LogRecord aggregate = records.get(1);
+    assertEquals("failed", aggregate.getMessage());
+    assertEquals("a", aggregate.getLoggerName());
+    assertEquals(Level.SEVERE, aggregate.getLevel());
+    final ThrowableChain chain = (ThrowableChain)aggregate.getThrown();
+    assertTrue(chain.getMessage().startsWith("10 records like this were logged by a between "));
+    assertEquals("0", chain.getCause().getMessage());
+    assertEquals(2, chain.size());
+    assertEquals("9", chain.asList().get(1).getMessage());
+    assertEquals(0, chain.getStackTrace().length);
+
+    assertEquals("b", records.get(2).getLoggerName());
+    assertEquals("elsewhere", records.get(2).getThrown().getMessage());
+    assertTrue(records.get(3).getThrown() instanceof IllegalArgumentException);
+  }
+
+  @Test
+  public void testMaximumBatchSize() throws InterruptedException {
+    this.handler = new ThrowableAggregatingHandler(this.target, 1L, TimeUnit.HOURS, 2);
+    assertEquals(2, this.handler.getMaximumBatchSize());
+    this.handler.publish(record("a", Level.INFO, "one", null));
+    this.handler.publish(record("a", Level.INFO, "two", null));
+    // The batch is full, so it is handed off without waiting for the
+    // window to elapse.
+    for (int i = 0; i < 500 && this.target.records().size() < 2; i++) {
+      Thread.sleep(10L);
+    }
+    assertEquals(2, this.target.records().size());
+    // A publisher blocked on a full batch proceeds once it is taken.
+    for (int i = 0; i < 5; i++) {
+      this.handler.publish(record("a", Level.INFO, Integer.toString(i), null));
+    }
+    this.handler.close();
+    assertTrue(this.target.closed);
+    assertEquals(7, this.target.records().size());
+    assertEquals("4", this.target.records().get(6).getMessage());
+    this.handler.publish(record("a", Level.INFO, "ignored", null));
+    assertEquals(7, this.target.records().size());
+  }
+
+  @Test
+  public void testWindow() throws InterruptedException {
+    this.handler = new ThrowableAggregatingHandler(this.target, 50L, TimeUnit.MILLISECONDS, 100);
+    for (int i = 0; i < 3; i++) {
+      this.handler.publish(record("a", Level.WARNING, "failed", new IllegalStateException()));
+    }
+    for (int i = 0; i < 500 && this.target.records().isEmpty(); i++) {
+      Thread.sleep(10L);
+    }
+    assertEquals(1, this.target.records().size());
+    assertTrue(this.target.records().get(0).getThrown().getMessage().startsWith("3 records "));
+  }
+
+  private static final class Target extends Handler {
+
+    private final List<LogRecord> records;
+
+    private volatile boolean flushed;
+
+    private volatile boolean closed;
+
+    private Target() {
+      super();
+      this.records = new ArrayList<LogRecord>();
+    }
+
+    private synchronized final List<LogRecord> records() {
+      return new ArrayList<LogRecord>(this.records);
+    }
+
+    @Override
+    public synchronized final void publish(final LogRecord record) {
+      this.records.add(record);
+    }
+
+    @Override
+    public final void flush() {
+      this.flushed = true;
+    }
+
+    @Override
+    public final void close() {
+      this.closed = true;
+    }
+
+  }
+
+}
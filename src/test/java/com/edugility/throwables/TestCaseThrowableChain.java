@@ -27,7 +27,22 @@
  */
 package com.edugility.throwables;
 
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import java.util.function.Supplier;
 
 import org.junit.After;
 import org.junit.Before;
@@ -35,6 +50,7 @@ import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertFalse;
@@ -132,5 +148,313 @@ public class TestCaseThrowableChain {
 
   }
   
+  @Test
+  public void testLazyMessage() throws Exception {
+    // A null message must not be ambiguous with a null message Supplier.
+    assertNull(new ThrowableChain(null, null).getMessage());
+    final AtomicInteger calls = new AtomicInteger();
+    final ThrowableChain chain = ThrowableChain.supplied(new Supplier<String>() {
+        @Override
+        public final String get() {
+          calls.incrementAndGet();
+          return "lazy";
+        }
+      });
+    chain.add(new IllegalStateException());
+    chain.add(new IllegalArgumentException());
+    assertEquals(0, calls.get());
+    assertEquals("lazy", chain.getMessage());
+    assertEquals(ThrowableChain.class.getName() + ": lazy", chain.toString());
+    assertEquals("lazy", chain.getMessage());
+    assertEquals(1, calls.get());
+
+    assertEquals("2 of 3", ThrowableChain.formatted("%d of %d", 2, 3).getMessage());
+    assertNull(ThrowableChain.formatted(null).getMessage());
+
+    final ThrowableChain broken = ThrowableChain.supplied(new Supplier<String>() {
+        @Override
+        public final String get() {
+          throw new IllegalStateException("broken");
+        }
+      });
+    assertNull(broken.getMessage());
+    assertEquals(1, broken.getSuppressed().length);
+
+    // The Supplier does not run under the chain's monitor.
+    final ThrowableChain[] self = new ThrowableChain[1];
+    self[0] = ThrowableChain.supplied(new Supplier<String>() {
+        @Override
+        public final String get() {
+          return Thread.holdsLock(self[0]) ? "locked" : "unlocked";
+        }
+      });
+    assertEquals("unlocked", self[0].getMessage());
+  }
+
+  @Test
+  public void testSnapshots() throws Exception {
+    final ThrowableChain chain = new ThrowableChain(new IllegalStateException());
+    final List<Throwable> affiliates = new ArrayList<Throwable>();
+    for (int i = 0; i < 100; i++) {
+      final Throwable t = new RuntimeException(Integer.toString(i));
+      affiliates.add(t);
+      chain.add(t);
+    }
+    final List<Throwable> snapshot = chain.asList();
+    assertEquals(101, snapshot.size());
+
+    // Later additions and removals do not affect the snapshot.
+    chain.add(new IllegalArgumentException());
+    assertTrue(chain.remove(affiliates.get(50)));
+    assertEquals(101, chain.size());
+    assertEquals(101, snapshot.size());
+    assertSame(affiliates.get(50), snapshot.get(51));
+    assertFalse(chain.contains(affiliates.get(50)));
+    assertSame(affiliates.get(51), chain.asList().get(51));
+
+    // Concurrent additions are neither lost nor duplicated.
+    final Thread[] threads = new Thread[4];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread() {
+          @Override
+          public final void run() {
+            for (int j = 0; j < 1000; j++) {
+              chain.add(new RuntimeException());
+            }
+          }
+        };
+      threads[i].start();
+    }
+    assertTrue(chain.removeAll(affiliates.subList(0, 10)));
+    for (final Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(101 - 10 + 4000, chain.size());
+    assertEquals(chain.size(), chain.asList().size());
+    assertEquals(100 - 1 - 10 + 4000, chain.getRootCauseIndex().getRootCauseGroups().get(RuntimeException.class).getCount());
+  }
+
+  @Test
+  public void testMerge() {
+    final List<ThrowableChain> shards = new ArrayList<ThrowableChain>();
+    final Exception shared = new IllegalStateException("shared");
+    for (int i = 0; i < 10; i++) {
+      final ThrowableChain shard = new ThrowableChain("shard " + i);
+      shard.add(new IllegalArgumentException("cause " + i));
+      for (int j = 0; j < 10000; j++) {
+        shard.add(new RuntimeException());
+      }
+      shard.add(shared);
+      shards.add(shard);
+    }
+    // A nested chain is flattened rather than added.
+    final ThrowableChain nested = new ThrowableChain("nested");
+    final Exception nestedCause = new UnsupportedOperationException();
+    nested.add(nestedCause);
+    nested.add(shared);
+    shards.get(3).add(nested);
+
+    final ThrowableChain job = new ThrowableChain("job");
+    assertTrue(job.merge(shards));
+    // The first shard's cause becomes the job's cause; the remaining
+    // 9 causes, 100,000 affiliates, the shared Throwable and the
+    // nested chain's cause become affiliates.
+    assertSame(shards.get(0).getCause(), job.getCause());
+    assertEquals(1 + 9 + 100000 + 1 + 1, job.size());
+    assertFalse(job.contains(nested));
+    assertTrue(job.contains(nestedCause));
+    for (final ThrowableChain shard : shards) {
+      assertFalse(job.contains(shard));
+    }
+    assertEquals(100000, job.getRootCauseIndex().getRootCauseGroups().get(RuntimeException.class).getCount());
+
+    // Merging again adds nothing.
+    assertFalse(job.merge(shards));
+    final List<Throwable> affiliates = shards.get(1).asList();
+    assertFalse(job.addAll(affiliates.subList(1, affiliates.size())));
+    assertEquals(1 + 9 + 100000 + 1 + 1, job.size());
+  }
+
+  private static final void addFromHere(final ThrowableChain chain, final Throwable t) {
+    chain.add(t);
+  }
+
+  @Test
+  public void testAddSites() {
+    final ThrowableChain chain = new ThrowableChain("chain");
+    chain.add(new IllegalStateException("cause"));
+    final Throwable untracked = new IllegalStateException("untracked");
+    chain.add(untracked);
+    chain.setAddSiteDepth(2);
+    assertEquals(2, chain.getAddSiteDepth());
+    final Throwable a = new RuntimeException("a");
+    final Throwable b = new RuntimeException("b");
+    final Throwable c = new RuntimeException("c");
+    for (final Throwable t : new Throwable[] { a, b }) {
+      addFromHere(chain, t);
+    }
+    chain.add(c);
+    final List<Throwable> bulk = new ArrayList<Throwable>();
+    bulk.add(new RuntimeException("d"));
+    bulk.add(new RuntimeException("e"));
+    chain.addAll(bulk);
+
+    assertNull(chain.getAddSite(untracked));
+    final AddSite siteA = chain.getAddSite(a);
+    assertNotNull(siteA);
+    assertSame(siteA, chain.getAddSite(b));
+    assertEquals(2, siteA.getFrames().size());
+    assertEquals("addFromHere", siteA.getFrames().get(0).getMethodName());
+    assertEquals("testAddSites", siteA.getFrames().get(1).getMethodName());
+    final AddSite siteC = chain.getAddSite(c);
+    assertEquals("testAddSites", siteC.getFrames().get(0).getMethodName());
+    assertFalse(siteA.equals(siteC));
+    assertEquals(siteA.hashCode(), chain.getAddSite(b).hashCode());
+    assertSame(chain.getAddSite(bulk.get(0)), chain.getAddSite(bulk.get(1)));
+
+    final Map<AddSite, List<Throwable>> groups = chain.getAffiliatesByAddSite();
+    assertEquals(4, groups.size());
+    assertEquals(1, groups.get(null).size());
+    assertEquals(2, groups.get(siteA).size());
+
+    final StringWriter sw = new StringWriter();
+    chain.printStackTraceByAddSite(new PrintWriter(sw));
+    final String printed = sw.toString();
+    assertTrue(printed.startsWith("1. " + ThrowableChain.class.getName() + ": chain"));
+    assertTrue(printed.contains("Added at an unknown site:" + System.lineSeparator() + "2. java.lang.IllegalStateException: untracked"));
+    assertTrue(printed.contains("Added at " + siteA + ":" + System.lineSeparator() + "3. java.lang.RuntimeException: a"));
+    assertTrue(printed.contains("7. java.lang.RuntimeException: e"));
+
+    assertTrue(chain.remove(a));
+    assertNull(chain.getAddSite(a));
+  }
+
+  private static final String print(final ThrowableChain chain) {
+    final StringWriter sw = new StringWriter();
+    final PrintWriter w = new PrintWriter(sw);
+    chain.printStackTrace(w);
+    w.flush();
+    return sw.toString();
+  }
+
+  @Test
+  public void testParallelRendering() throws Exception {
+    final ThrowableChain chain = new ThrowableChain("chain");
+    for (int i = 0; i < 1000; i++) {
+      chain.add(new IllegalStateException(Integer.toString(i), new RuntimeException("cause " + i)));
+    }
+    final String expected = print(chain);
+    chain.setStormSuppressor(new StormSuppressor(3, 1L, TimeUnit.HOURS));
+    final String expectedSuppressed = print(chain);
+    assertTrue(expectedSuppressed.contains("1000. (suppressed) java.lang.IllegalStateException: 999"));
+
+    final ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      chain.setRenderingPool(pool);
+      assertSame(pool, chain.getRenderingPool());
+      chain.setStormSuppressor(null);
+      assertEquals(expected, print(chain));
+
+      final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+      final PrintStream s = new PrintStream(baos, true, "UTF-8");
+      chain.printStackTrace(s);
+      s.flush();
+      assertEquals(expected, baos.toString("UTF-8"));
+
+      chain.setStormSuppressor(new StormSuppressor(3, 1L, TimeUnit.HOURS));
+      assertEquals(expectedSuppressed, print(chain));
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void testWeakRetention() {
+    final ThrowableChain chain = new ThrowableChain("chain");
+    assertEquals(ThrowableChain.Retention.STRONG, chain.getRetention());
+    final Throwable cause = new IllegalStateException("cause");
+    chain.add(cause);
+    chain.setRetention(ThrowableChain.Retention.WEAK);
+    assertEquals(ThrowableChain.Retention.WEAK, chain.getRetention());
+    final Throwable kept = new IllegalArgumentException("kept");
+    chain.add(kept);
+    final StringBuilder longMessage = new StringBuilder();
+    for (int i = 0; i < 200; i++) {
+      longMessage.append('x');
+    }
+    for (int i = 0; i < 100; i++) {
+      chain.add(new RuntimeException(i + " " + longMessage));
+    }
+    assertEquals(102, chain.size());
+    assertSame(kept, chain.asList().get(1));
+
+    assertEquals(0, chain.getClearedCount());
+    assertEquals(100, chain.clearRetained(t -> t != kept));
+    assertEquals(100, chain.getClearedCount());
+    assertEquals(0, chain.clearRetained(t -> t != kept));
+    assertEquals(102, chain.size());
+    assertSame(cause, chain.getCause());
+    assertSame(kept, chain.asList().get(1));
+
+    ThrowableSummary summary = null;
+    for (final Throwable t : chain) {
+      if (t instanceof ThrowableSummary) {
+        summary = (ThrowableSummary)t;
+        break;
+      }
+    }
+    assertNotNull(summary);
+    assertEquals(RuntimeException.class.getName(), summary.getSummarizedClassName());
+    assertTrue(summary.getMessage().endsWith("..."));
+    assertEquals(ThrowableSummary.MAXIMUM_MESSAGE_LENGTH + 3, summary.getMessage().length());
+    assertEquals(1, summary.getStackTrace().length);
+    assertEquals("testWeakRetention", summary.getStackTrace()[0].getMethodName());
+    assertNull(summary.getCause());
+
+    final String printed = print(chain);
+    assertTrue(printed.contains(". (cleared) " + summary));
+    assertTrue(printed.contains("102. "));
+
+    chain.setRetention(null);
+    assertEquals(ThrowableChain.Retention.STRONG, chain.getRetention());
+  }
+
+
+  @Test
+  public void testRetainedMembership() {
+    final ThrowableChain chain = new ThrowableChain(new IllegalStateException("cause"));
+    chain.setRetention(ThrowableChain.Retention.WEAK);
+    final Throwable a = new RuntimeException("a");
+    final Throwable b = new RuntimeException("b");
+    final Throwable c = new RuntimeException("c");
+    assertTrue(chain.add(a));
+    assertTrue(chain.add(b));
+    assertTrue(chain.add(c));
+    assertFalse(chain.add(a));
+    chain.setRetention(null);
+    assertFalse(chain.add(b));
+    assertEquals(4, chain.size());
+    assertTrue(chain.contains(a));
+
+    // A cleared affiliate is represented, and found, by its summary.
+    assertEquals(1, chain.clearRetained(t -> t == b));
+    assertFalse(chain.contains(b));
+    final Throwable summary = chain.asList().get(2);
+    assertTrue(summary instanceof ThrowableSummary);
+    for (final Throwable t : chain) {
+      assertTrue(chain.contains(t));
+    }
+
+    assertTrue(chain.remove(summary));
+    assertEquals(0, chain.getClearedCount());
+    assertTrue(chain.remove(a));
+    assertFalse(chain.remove(a));
+    assertEquals(2, chain.size());
+    assertSame(c, chain.asList().get(1));
+    final RootCauseIndex.Group group = chain.getRootCauseIndex().getRootCauseGroups().get(RuntimeException.class);
+    assertEquals(1, group.getCount());
+    assertEquals(1, group.getRepresentatives().size());
+  }
+
 
 }
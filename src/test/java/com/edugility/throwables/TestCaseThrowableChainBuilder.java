@@ -0,0 +1,79 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil -*-
+ *
+ * Copyright (c) 2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.throwables;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TestCaseThrowableChainBuilder {
+
+  public TestCaseThrowableChainBuilder() {
+    super();
+  }
+
+  @Test
+  public void testBuildAndReset() throws Exception {
+    final ThrowableChainBuilder builder = new ThrowableChainBuilder();
+    assertTrue(builder.isEmpty());
+    assertNull(builder.build("nothing"));
+    builder.throwIfNotEmpty("nothing"); // does not throw
+
+    final IllegalStateException first = new IllegalStateException();
+    final IllegalArgumentException second = new IllegalArgumentException();
+    assertTrue(builder.add(first));
+    assertFalse(builder.add(first));
+    assertFalse(builder.add(null));
+    assertTrue(builder.add(second));
+    assertEquals(2, builder.size());
+    try {
+      builder.throwIfNotEmpty("record 7");
+      fail();
+    } catch (final ThrowableChain expected) {
+      assertEquals("record 7", expected.getMessage());
+      assertSame(first, expected.getCause());
+      assertEquals(2, expected.size());
+      assertSame(second, expected.getAffiliatedThrowables().get(0));
+    }
+    assertTrue(builder.isEmpty());
+
+    // The buffer grows and is reused.
+    for (int i = 0; i < 10; i++) {
+      builder.add(new RuntimeException(Integer.toString(i)));
+    }
+    builder.reset();
+    assertEquals(0, builder.size());
+    builder.add(second);
+    final ThrowableChain chain = builder.build("lazy");
+    assertNotNull(chain);
+    assertSame(second, chain.getCause());
+    assertEquals(1, chain.size());
+    assertTrue(builder.isEmpty());
+  }
+
+}
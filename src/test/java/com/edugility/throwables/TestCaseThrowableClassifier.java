@@ -0,0 +1,105 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil -*-
+ *
+ * Copyright (c) 2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.throwables;
+
+import java.io.IOException;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TestCaseThrowableClassifier {
+
+  private AtomicInteger ruleInvocations;
+
+  private ThrowableClassifier<Boolean> classifier;
+
+  public TestCaseThrowableClassifier() {
+    super();
+  }
+
+  @Before
+  public void setUp() {
+    this.ruleInvocations = new AtomicInteger();
+    this.classifier = new ThrowableClassifier<Boolean>(new ThrowableClassifier.Rule<Boolean>() {
+        @Override
+        public final Boolean classify(final Throwable throwable) {
+          ruleInvocations.incrementAndGet();
+          if (Throwables.firstInstance(throwable, IllegalStateException.class) != null) {
+            return null;
+          }
+          return Boolean.valueOf(Throwables.getRootCause(throwable) instanceof IOException);
+        }
+      }, 2);
+  }
+
+  @Test
+  public void testCaching() {
+    assertEquals(Boolean.TRUE, this.classifier.classify(new RuntimeException(new IOException("a"))));
+    assertEquals(1, this.ruleInvocations.get());
+
+    // Same shape, different instances and messages: no rule
+    // invocation.
+    assertEquals(Boolean.TRUE, this.classifier.classify(new RuntimeException("x", new IOException("b"))));
+    assertEquals(1, this.ruleInvocations.get());
+
+    // Different shapes.
+    assertEquals(Boolean.FALSE, this.classifier.classify(new RuntimeException()));
+    assertEquals(2, this.ruleInvocations.get());
+    assertEquals(Boolean.FALSE, this.classifier.classify(new RuntimeException(new RuntimeException())));
+    assertEquals(3, this.ruleInvocations.get());
+
+    // null decisions are cached too.
+    assertNull(this.classifier.classify(new IllegalStateException()));
+    assertNull(this.classifier.classify(new IllegalStateException()));
+    assertEquals(4, this.ruleInvocations.get());
+  }
+
+  @Test
+  public void testEviction() {
+    this.classifier.classify(new RuntimeException());
+    this.classifier.classify(new IllegalArgumentException());
+    assertEquals(2, this.classifier.size());
+    // Touch the first so that the second is least recently used.
+    this.classifier.classify(new RuntimeException());
+    this.classifier.classify(new UnsupportedOperationException());
+    assertEquals(2, this.classifier.size());
+    assertEquals(3, this.ruleInvocations.get());
+    this.classifier.classify(new RuntimeException());
+    assertEquals(3, this.ruleInvocations.get());
+    this.classifier.classify(new IllegalArgumentException());
+    assertEquals(4, this.ruleInvocations.get());
+
+    this.classifier.clear();
+    assertEquals(0, this.classifier.size());
+  }
+
+}
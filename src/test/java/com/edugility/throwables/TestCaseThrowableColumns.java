@@ -0,0 +1,118 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil -*-
+ *
+ * Copyright (c) 2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.throwables;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TestCaseThrowableColumns {
+
+  public TestCaseThrowableColumns() {
+    super();
+  }
+
+  @Test
+  public void testAnalyze() {
+    final List<Throwable> throwables = new ArrayList<Throwable>();
+    for (int i = 0; i < 20000; i++) {
+      switch (i % 4) {
+      case 0:
+        throwables.add(new IllegalStateException(new NumberFormatException()));
+        break;
+      case 1:
+        throwables.add(new RuntimeException(new IllegalArgumentException(new NumberFormatException())));
+        break;
+      case 2:
+        throwables.add(new IllegalStateException());
+        break;
+      default:
+        throwables.add(null);
+        break;
+      }
+    }
+
+    final ThrowableColumns columns = ThrowableColumns.analyze(throwables);
+    assertEquals(throwables.size(), columns.size());
+    assertEquals(3, columns.getClassCount());
+    assertEquals(IllegalStateException.class.getName(), columns.getClassName(0));
+    assertEquals(NumberFormatException.class.getName(), columns.getClassName(1));
+
+    final int[] classIds = columns.getClassIds();
+    final int[] depths = columns.getDepths();
+    final int[] rootCauseClassIds = columns.getRootCauseClassIds();
+    final int[] topFrameIds = columns.getTopFrameIds();
+    for (int i = 0; i < throwables.size(); i++) {
+      final Throwable t = throwables.get(i);
+      if (t == null) {
+        assertEquals(-1, classIds[i]);
+        assertEquals(0, depths[i]);
+        assertEquals(-1, topFrameIds[i]);
+      } else {
+        assertEquals(t.getClass().getName(), columns.getClassName(classIds[i]));
+        assertEquals(new ThrowableList(t).size(), depths[i]);
+        final Throwable root = Throwables.getRootCause(t);
+        assertEquals(root.getClass().getName(), columns.getClassName(rootCauseClassIds[i]));
+        assertEquals(root.getStackTrace()[0], columns.getFrame(topFrameIds[i]));
+      }
+    }
+
+    final int[] rootCauseCounts = ThrowableColumns.histogram(rootCauseClassIds, columns.getClassCount());
+    assertEquals(10000, rootCauseCounts[1]);
+    assertEquals(5000, rootCauseCounts[0]);
+    assertEquals(3, columns.getFrameCount());
+  }
+
+  @Test
+  public void testChain() {
+    final ThrowableChain chain = new ThrowableChain();
+    chain.add(new IllegalArgumentException());
+    chain.add(new IllegalStateException(new NumberFormatException()));
+    final ThrowableColumns columns = ThrowableColumns.analyze(chain);
+    assertEquals(2, columns.size());
+    assertEquals(ThrowableChain.class.getName(), columns.getClassName(columns.getClassIds()[0]));
+    assertEquals(2, columns.getDepths()[0]);
+    assertEquals(IllegalArgumentException.class.getName(), columns.getClassName(columns.getRootCauseClassIds()[0]));
+    assertEquals(2, columns.getDepths()[1]);
+    assertEquals(NumberFormatException.class.getName(), columns.getClassName(columns.getRootCauseClassIds()[1]));
+  }
+
+  @Test
+  public void testCycle() {
+    final Exception a = new Exception();
+    final Exception b = new Exception(a);
+    a.initCause(b);
+    final ThrowableColumns columns = ThrowableColumns.analyze(Collections.singleton(a));
+    assertTrue(columns.getDepths()[0] >= 2);
+  }
+
+}
@@ -0,0 +1,124 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil -*-
+ *
+ * Copyright (c) 2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.throwables;
+
+import java.io.ByteArrayOutputStream;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TestCaseThrowableJsonEncoder {
+
+  public TestCaseThrowableJsonEncoder() {
+    super();
+  }
+
+  private static final String encode(final ThrowableJsonEncoder encoder, final Throwable t) throws Exception {
+    final StringBuilder sb = new StringBuilder();
+    encoder.encode(t, sb);
+    return sb.toString();
+  }
+
+  @Test
+  public void testSinksAgree() throws Exception {
+    final ThrowableChain chain = new ThrowableChain("chain \"quoted\"\n\u00e9\ud83d\ude00", new IllegalStateException("cause"));
+    chain.add(new IllegalArgumentException("affiliate"));
+    chain.addSuppressed(new NumberFormatException("suppressed"));
+    final ThrowableJsonEncoder encoder = new ThrowableJsonEncoder();
+
+    final String json = encode(encoder, chain);
+    assertTrue(json.startsWith("{\"class\":\"com.edugility.throwables.ThrowableChain\",\"message\":\"chain \\\"quoted\\\"\\n\u00e9\ud83d\ude00\",\"frames\":[{"));
+    assertTrue(json.contains(",\"suppressed\":[{\"class\":\"java.lang.NumberFormatException\",\"message\":\"suppressed\""));
+    assertTrue(json.contains(",\"cause\":{\"class\":\"java.lang.IllegalStateException\",\"message\":\"cause\""));
+    assertTrue(json.contains(",\"affiliates\":[{\"class\":\"java.lang.IllegalArgumentException\",\"message\":\"affiliate\""));
+    assertTrue(json.endsWith("}"));
+
+    final byte[] expected = json.getBytes(StandardCharsets.UTF_8);
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    encoder.encode(chain, bytes);
+    assertArrayEquals(expected, bytes.toByteArray());
+
+    final ByteBuffer buffer = ByteBuffer.allocate(expected.length);
+    encoder.encode(chain, buffer);
+    assertFalse(buffer.hasRemaining());
+    assertArrayEquals(expected, buffer.array());
+
+    assertEquals("null", encode(encoder, null));
+  }
+
+  @Test
+  public void testFrames() throws Exception {
+    final Throwable cause = new IllegalStateException();
+    final Throwable t = new RuntimeException(cause);
+    final int depth = t.getStackTrace().length;
+    assertTrue(depth > 3);
+
+    // The cause was created one line above, so all frames but the
+    // first are in common.
+    String json = encode(new ThrowableJsonEncoder(), t);
+    assertTrue(json.contains("\"framesInCommon\":" + (depth - 1) + "}"));
+    assertFalse(json.contains("framesOmitted"));
+
+    json = encode(new ThrowableJsonEncoder(2, false), t);
+    assertTrue(json.contains("\"framesOmitted\":" + (depth - 2) + ","));
+    assertFalse(json.contains("framesInCommon"));
+
+    json = encode(new ThrowableJsonEncoder(0, true), t);
+    assertFalse(json.contains("\"frames\""));
+
+    // Cycles are detected.
+    final Throwable a = new Exception("a");
+    final Throwable b = new Exception("b", a);
+    a.initCause(b);
+    json = encode(new ThrowableJsonEncoder(0, true), a);
+    assertTrue(json.startsWith("{\"class\":\"java.lang.Exception\",\"message\":\"a\","));
+    assertTrue(json.contains(",\"cause\":{\"class\":\"java.lang.Exception\",\"message\":\"b\","));
+    assertTrue(json.endsWith(",\"cause\":{\"class\":\"java.lang.Exception\",\"circular\":true}}}"));
+  }
+
+  @Test
+  public void testLines() throws Exception {
+    final ThrowableChain chain = new ThrowableChain(new IllegalStateException());
+    chain.add(new IllegalArgumentException());
+    chain.add(new NumberFormatException());
+    final StringBuilder sb = new StringBuilder();
+    new ThrowableJsonEncoder(0, true).encodeLines(chain, sb);
+    final String[] lines = sb.toString().split("\n");
+    assertEquals(3, lines.length);
+    assertTrue(lines[0].startsWith("{\"class\":\"com.edugility.throwables.ThrowableChain\""));
+    assertFalse(lines[0].contains("affiliates"));
+    // With no frames written, only the count of omitted frames remains.
+    assertTrue(lines[1].matches("\\{\"class\":\"java.lang.IllegalArgumentException\",\"framesOmitted\":\\d+\\}"));
+    assertTrue(lines[2].matches("\\{\"class\":\"java.lang.NumberFormatException\",\"framesOmitted\":\\d+\\}"));
+  }
+
+}
@@ -0,0 +1,119 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil -*-
+ *
+ * Copyright (c) 2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.throwables;
+
+import java.io.IOException;
+
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+
+import java.sql.SQLException;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TestCaseThrowableMatcher {
+
+  private ThrowableMatcher<String> matcher;
+
+  public TestCaseThrowableMatcher() {
+    super();
+  }
+
+  @Before
+  public void setUp() {
+    this.matcher = new ThrowableMatcher.Builder<String>()
+      .causedBy("sqlTimeout", SQLException.class, SocketTimeoutException.class)
+      .rootCause("ioConnect", IOException.class, ConnectException.class)
+      .member("chainWithState", ThrowableChain.class, IllegalStateException.class)
+      .causedBy("anyIOException", IOException.class)
+      .build();
+  }
+
+  @Test
+  public void testCausedBy() {
+    final Throwable t = new RuntimeException(new SQLException("sql", new IllegalStateException(new SocketTimeoutException())));
+    // SocketTimeoutException is an IOException.
+    assertEquals(Arrays.asList("sqlTimeout", "anyIOException"), Arrays.asList(this.matcher.match(t).toArray()));
+    assertEquals("sqlTimeout", this.matcher.firstMatch(t));
+
+    // Order matters.
+    final Throwable backwards = new SocketTimeoutException();
+    backwards.initCause(new SQLException());
+    assertEquals(Arrays.asList("anyIOException"), Arrays.asList(this.matcher.match(backwards).toArray()));
+
+    assertTrue(this.matcher.match(null).isEmpty());
+    assertNull(this.matcher.firstMatch(new Exception()));
+  }
+
+  @Test
+  public void testRootCause() {
+    final Throwable t = new IOException(new IllegalStateException(new ConnectException()));
+    assertEquals(Arrays.asList("ioConnect", "anyIOException"), Arrays.asList(this.matcher.match(t).toArray()));
+
+    // The ConnectException is not the root cause here.
+    final Throwable notRoot = new IOException(new ConnectException());
+    notRoot.getCause().initCause(new IllegalStateException());
+    assertEquals(Collections.singleton("anyIOException"), this.matcher.match(notRoot));
+
+    // Evaluating the same shape again hits only cached transitions
+    // and yields the same answer.
+    assertEquals(Arrays.asList("ioConnect", "anyIOException"), Arrays.asList(this.matcher.match(new IOException(new IllegalStateException(new ConnectException()))).toArray()));
+  }
+
+  @Test
+  public void testMember() {
+    final ThrowableChain chain = new ThrowableChain();
+    chain.add(new Exception("cause"));
+    chain.add(new IllegalArgumentException());
+    assertTrue(this.matcher.match(chain).isEmpty());
+
+    // Nested chains are searched too.
+    final ThrowableChain nested = new ThrowableChain();
+    nested.add(new Exception("nested cause"));
+    nested.add(new RuntimeException(new IllegalStateException()));
+    chain.add(nested);
+    assertEquals(Collections.singleton("chainWithState"), this.matcher.match(chain));
+    assertEquals(Collections.singleton("chainWithState"), this.matcher.match(new RuntimeException(chain)));
+  }
+
+  @Test
+  public void testSingleFailureChain() {
+    // The only failure added to a ThrowableChain becomes its cause.
+    final ThrowableChain chain = new ThrowableChain();
+    chain.add(new IllegalStateException());
+    assertEquals(1, chain.size());
+    assertEquals(Collections.singleton("chainWithState"), this.matcher.match(chain));
+  }
+
+}
@@ -0,0 +1,134 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil -*-
+ *
+ * Copyright (c) 2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.throwables;
+
+import java.util.List;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TestCaseThrowablePublisher {
+
+  public TestCaseThrowablePublisher() {
+    super();
+  }
+
+  @Test
+  public void testChainPublishesAdditions() throws Exception {
+    final ThrowableChain chain = new ThrowableChain();
+    final ThrowablePublisher publisher = chain.getPublisher();
+    assertSame(publisher, chain.getPublisher());
+    final Recorder recorder = new Recorder(2);
+    publisher.subscribe(recorder);
+
+    final IllegalStateException cause = new IllegalStateException();
+    final IllegalArgumentException first = new IllegalArgumentException();
+    final NumberFormatException second = new NumberFormatException();
+    chain.add(cause); // becomes the cause; not published
+    assertTrue(chain.add(first));
+    assertFalse(chain.add(first)); // duplicate; not published
+    assertTrue(chain.add(second));
+    assertTrue(recorder.latch.await(10L, TimeUnit.SECONDS));
+
+    publisher.close();
+    assertTrue(recorder.completed.await(10L, TimeUnit.SECONDS));
+    assertEquals(2, recorder.received.size());
+    assertSame(first, recorder.received.get(0));
+    assertSame(second, recorder.received.get(1));
+  }
+
+  @Test
+  public void testDropPolicy() throws Exception {
+    // An executor that never runs anything leaves the buffer full.
+    final Executor stalled = new Executor() {
+        @Override
+        public final void execute(final Runnable runnable) {
+        }
+      };
+    final ThrowablePublisher publisher = new ThrowablePublisher(stalled, 1, ThrowablePublisher.OverflowPolicy.DROP);
+    assertEquals(ThrowablePublisher.OverflowPolicy.DROP, publisher.getOverflowPolicy());
+    publisher.subscribe(new Recorder(0));
+    assertEquals(1, publisher.getNumberOfSubscribers());
+
+    final ThrowableChain chain = new ThrowableChain(new IllegalStateException());
+    chain.setPublisher(publisher);
+    assertSame(publisher, chain.getPublisher());
+    for (int i = 0; i < 10; i++) {
+      assertTrue(chain.add(new RuntimeException(Integer.toString(i))));
+    }
+    assertEquals(11, chain.size());
+    assertTrue(publisher.getDroppedCount() > 0L);
+    publisher.close();
+    assertFalse(publisher.publish(new RuntimeException()));
+  }
+
+  private static final class Recorder implements Flow.Subscriber<Throwable> {
+
+    private final List<Throwable> received;
+
+    private final CountDownLatch latch;
+
+    private final CountDownLatch completed;
+
+    private Recorder(final int expected) {
+      super();
+      this.received = new CopyOnWriteArrayList<Throwable>();
+      this.latch = new CountDownLatch(expected);
+      this.completed = new CountDownLatch(1);
+    }
+
+    @Override
+    public final void onSubscribe(final Flow.Subscription subscription) {
+      subscription.request(Long.MAX_VALUE);
+    }
+
+    @Override
+    public final void onNext(final Throwable throwable) {
+      this.received.add(throwable);
+      this.latch.countDown();
+    }
+
+    @Override
+    public final void onError(final Throwable throwable) {
+    }
+
+    @Override
+    public final void onComplete() {
+      this.completed.countDown();
+    }
+
+  }
+
+}
@@ -0,0 +1,172 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil -*-
+ *
+ * Copyright (c) 2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.throwables;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TestCaseThrowableSpillFile {
+
+  private ThrowableSpillFile file;
+
+  public TestCaseThrowableSpillFile() {
+    super();
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    // A small region size forces records across several regions.
+    final File f = File.createTempFile("TestCaseThrowableSpillFile", ".spill");
+    f.deleteOnExit();
+    this.file = new ThrowableSpillFile(f, true, 4096);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    if (this.file != null) {
+      this.file.close();
+    }
+  }
+
+  @Test
+  public void testAppendAndGet() throws Exception {
+    assertEquals(0, this.file.size());
+    for (int i = 0; i < 100; i++) {
+      assertEquals(i, this.file.append(new IllegalStateException("Failure " + i, new NumberFormatException(String.valueOf(i)))));
+    }
+    assertEquals(100, this.file.size());
+    assertTrue(this.file.getByteCount() > 0L);
+    final Throwable t = this.file.get(42);
+    assertTrue(t instanceof IllegalStateException);
+    assertEquals("Failure 42", t.getMessage());
+    assertTrue(t.getCause() instanceof NumberFormatException);
+    assertEquals("42", t.getCause().getMessage());
+    assertTrue(t.getStackTrace().length > 0);
+  }
+
+  @Test
+  public void testChainSpill() throws Exception {
+    final ThrowableChain chain = new ThrowableChain("chain");
+    chain.spillTo(this.file, 2, Long.MAX_VALUE);
+    final IllegalStateException cause = new IllegalStateException("cause");
+    final IllegalArgumentException onHeap = new IllegalArgumentException("onHeap");
+    chain.add(cause);
+    assertTrue(chain.add(onHeap));
+    for (int i = 0; i < 50; i++) {
+      assertTrue(chain.add(new RuntimeException(Integer.toString(i))));
+    }
+    assertEquals(52, chain.size());
+    assertEquals(50, this.file.size());
+    assertTrue(chain.contains(onHeap));
+
+    final List<Throwable> list = chain.asList();
+    assertEquals(52, list.size());
+    assertSame(chain, list.get(0));
+    assertSame(onHeap, list.get(1));
+    assertEquals("0", list.get(2).getMessage());
+    assertEquals("49", list.get(51).getMessage());
+    assertEquals(51, chain.getAffiliatedThrowables().size());
+    assertEquals(52, chain.toArray().length);
+
+    final Iterator<Throwable> iterator = chain.iterator();
+    assertSame(chain, iterator.next());
+    assertSame(onHeap, iterator.next());
+    for (int i = 0; i < 50; i++) {
+      assertEquals(Integer.toString(i), iterator.next().getMessage());
+    }
+    assertFalse(iterator.hasNext());
+
+    // Spilled affiliates survive serialization.
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final ObjectOutputStream out = new ObjectOutputStream(bytes);
+    out.writeObject(chain);
+    out.close();
+    final ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+    final ThrowableChain copy = (ThrowableChain)in.readObject();
+    in.close();
+    assertEquals(52, copy.size());
+    assertEquals("49", copy.asList().get(51).getMessage());
+  }
+
+  @Test
+  public void testByteBudget() throws Exception {
+    final ThrowableChain chain = new ThrowableChain(new IllegalStateException());
+    chain.spillTo(this.file, Integer.MAX_VALUE, 0L);
+    assertTrue(chain.add(new IllegalArgumentException()));
+    assertEquals(1, this.file.size());
+    assertEquals(2, chain.size());
+  }
+
+  @Test
+  public void testSpilledMembership() throws Exception {
+    final ThrowableChain chain = new ThrowableChain(new IllegalStateException("cause"));
+    chain.spillTo(this.file, 0, Long.MAX_VALUE);
+    final Throwable a = new RuntimeException("a");
+    final Throwable b = new RuntimeException("b");
+    assertTrue(chain.add(a));
+    assertTrue(chain.add(b));
+    assertFalse(chain.add(a));
+    assertEquals(2, this.file.size());
+    assertTrue(chain.contains(a));
+    assertSame(a, chain.asList().get(1));
+
+    // Whether or not it has been decoded, an affiliate nothing else
+    // refers to is reported consistently while it is held.
+    assertTrue(chain.add(new RuntimeException("c")));
+    final Throwable c = chain.asList().get(3);
+    assertEquals("c", c.getMessage());
+    assertSame(c, chain.asList().get(3));
+    assertTrue(chain.contains(c));
+
+    assertTrue(chain.remove(a));
+    assertFalse(chain.contains(a));
+    assertFalse(chain.remove(a));
+    assertEquals(3, chain.size());
+    assertSame(b, chain.asList().get(1));
+    assertTrue(chain.removeAll(Collections.singleton(c)));
+    assertEquals(2, chain.size());
+    assertTrue(chain.retainAll(Collections.singleton(chain)));
+    assertEquals(1, chain.size());
+    assertNull(chain.getRootCauseIndex().getRootCauseGroups().get(RuntimeException.class));
+    assertEquals(3, this.file.size());
+  }
+
+}
@@ -27,10 +27,17 @@
  */
 package com.edugility.throwables;
 
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.UndeclaredThrowableException;
+
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+
 import org.junit.Before;
 import org.junit.Test;
 
@@ -131,6 +138,74 @@ public class TestCaseThrowables {
     assertSame(firstAffiliate, list.get(2));
   }
 
+  @Test
+  public void testParallelToList() {
+    assertTrue(Throwables.parallelToList(null, null).isEmpty());
+    assertEquals(Throwables.toList(this.first), Throwables.parallelToList(this.first, null));
+
+    final ThrowableChain job = new ThrowableChain("job");
+    for (int shardIndex = 0; shardIndex < 10; shardIndex++) {
+      final ThrowableChain shard = new ThrowableChain("shard " + shardIndex);
+      for (int i = 0; i < 100; i++) {
+        shard.add(new IllegalStateException(shardIndex + "/" + i, new NumberFormatException()));
+      }
+      job.add(shard);
+    }
+    // The first shard became the job's cause, so it is expanded too.
+    assertTrue(job.getCause() instanceof ThrowableChain);
+    final Throwable top = new RuntimeException(job);
+    final ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      assertEquals(Throwables.toList(top), Throwables.parallelToList(top, pool, 7));
+      assertEquals(Throwables.toList(job), Throwables.parallelToList(job, pool, 1));
+
+      // A self-excluding Iterable forces a faithful sequential
+      // computation.
+      final Throwable weird = new RuntimeException(new ThrowableCollection());
+      assertEquals(Throwables.toList(weird), Throwables.parallelToList(weird, pool, 1));
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void testUnwrap() {
+    assertNull(Throwables.unwrap(null));
+    assertSame(this.first, Throwables.unwrap(this.first));
+
+    final Throwable wrapped = new CompletionException(new ExecutionException(new InvocationTargetException(this.first)));
+    assertSame(this.first, Throwables.unwrap(wrapped));
+    assertSame(this.last, Throwables.getRootCause(wrapped));
+
+    // A wrapper without a cause is returned as-is.
+    final Throwable empty = new ExecutionException(null);
+    assertSame(empty, Throwables.unwrap(empty));
+
+    // Custom wrapper types.
+    final Throwable custom = new WrapperException(new UndeclaredThrowableException(this.thirdToLast));
+    assertSame(custom, Throwables.unwrap(custom));
+    final ThrowableWrappers wrappers = ThrowableWrappers.getDefault().with(WrapperException.class);
+    assertTrue(wrappers.isWrapper(custom));
+    assertSame(this.thirdToLast, Throwables.unwrap(custom, wrappers));
+
+    // Wrappers at the head are skipped by the instance variants.
+    assertSame(custom, Throwables.firstInstance(custom, RuntimeException.class));
+    assertSame(this.thirdToLast, Throwables.firstInstance(custom, RuntimeException.class, wrappers));
+    assertSame(this.last, Throwables.lastInstance(custom, RuntimeException.class, wrappers));
+
+    // The default is frozen once read, and deriving wrappers leaves
+    // it alone.
+    assertSame(ThrowableWrappers.getDefault(), ThrowableWrappers.freeze());
+    assertFalse(ThrowableWrappers.getDefault().isWrapper(custom));
+    try {
+      ThrowableWrappers.register(WrapperException.class);
+      fail();
+    } catch (final IllegalStateException expected) {
+
+    }
+    assertSame(custom, Throwables.unwrap(custom));
+  }
+
   @Test
   public void testWeird() {
     // Tests a throwable that is an Iterable<Throwable> that does NOT
@@ -147,6 +222,32 @@ public class TestCaseThrowables {
     assertSame(c, list.get(0));
   }
 
+  private static final class WrapperException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private WrapperException(final Throwable cause) {
+      super(cause);
+    }
+
+  }
+
+  @Test
+  public void testFingerprint() {
+    assertEquals(0L, Throwables.fingerprint(null, 3));
+    final List<Throwable> failures = new ArrayList<Throwable>();
+    for (int i = 0; i < 2; i++) {
+      // Same place, same classes, different messages.
+      failures.add(new IllegalStateException("request " + i, new NumberFormatException("id " + i)));
+    }
+    final Throwable elsewhere = new IllegalStateException("request", new NumberFormatException("id"));
+    final Throwable otherClasses = new IllegalStateException("request", new IllegalArgumentException("id"));
+    assertEquals(Throwables.fingerprint(failures.get(0), 3), Throwables.fingerprint(failures.get(1), 3));
+    assertTrue(Throwables.fingerprint(failures.get(0), 3) != Throwables.fingerprint(elsewhere, 3));
+    assertEquals(Throwables.fingerprint(failures.get(0), 0), Throwables.fingerprint(elsewhere, 0));
+    assertTrue(Throwables.fingerprint(failures.get(0), 0) != Throwables.fingerprint(otherClasses, 0));
+  }
+
   private static final class ThrowableCollection extends Throwable implements Iterable<Throwable> {
 
     /**
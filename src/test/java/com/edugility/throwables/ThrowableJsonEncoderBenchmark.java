@@ -0,0 +1,218 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil -*-
+ *
+ * Copyright (c) 2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.throwables;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A simple benchmark comparing {@link ThrowableJsonEncoder} with
+ * {@link Throwable#printStackTrace(PrintWriter)} into a {@link
+ * StringWriter}, reporting output bytes per second and heap bytes
+ * allocated per encoding.  This is not a unit test; run its {@link
+ * #main(String[])} method by hand.
+ *
+ * <p>Allocation figures are only reported on virtual machines whose
+ * {@link ThreadMXBean} can measure per-thread allocation.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ */
+public final class ThrowableJsonEncoderBenchmark {
+
+  /**
+   * The number of times each {@link Task} is run to warm up, and
+   * then again to be measured.
+   */
+  private static final int ITERATIONS = 20000;
+
+  /**
+   * Creates a new {@link ThrowableJsonEncoderBenchmark}.
+   */
+  private ThrowableJsonEncoderBenchmark() {
+    super();
+  }
+
+  /**
+   * Returns the number of heap bytes allocated so far by the current
+   * {@link Thread}, or {@code -1} if the {@link ThreadMXBean} in
+   * effect cannot say.
+   *
+   * @return the number of bytes allocated by the current {@link
+   * Thread}, or {@code -1}
+   */
+  private static final long allocatedBytes() {
+    final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (bean instanceof com.sun.management.ThreadMXBean) {
+      final com.sun.management.ThreadMXBean extendedBean = (com.sun.management.ThreadMXBean)bean;
+      if (extendedBean.isThreadAllocatedMemorySupported() && extendedBean.isThreadAllocatedMemoryEnabled()) {
+        return extendedBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+      }
+    }
+    return -1L;
+  }
+
+  /**
+   * Warms up and then measures the supplied {@link Task}, printing
+   * its throughput and, if possible, the number of bytes it allocates
+   * per run to {@link System#out}.
+   *
+   * @param name a label for the {@link Task}; must not be {@code
+   * null}
+   *
+   * @param task the {@link Task} to measure; must not be {@code null}
+   *
+   * @exception Exception if the {@link Task} fails
+   */
+  private static final void measure(final String name, final Task task) throws Exception {
+    for (int i = 0; i < ITERATIONS; i++) {
+      task.run(); // warm up
+    }
+    final long allocatedBefore = allocatedBytes();
+    final long start = System.nanoTime();
+    long bytes = 0L;
+    for (int i = 0; i < ITERATIONS; i++) {
+      bytes += task.run();
+    }
+    final long nanos = System.nanoTime() - start;
+    final long allocatedAfter = allocatedBytes();
+    final String allocated;
+    if (allocatedBefore < 0L || allocatedAfter < 0L) {
+      allocated = "unknown";
+    } else {
+      allocated = String.valueOf((allocatedAfter - allocatedBefore) / ITERATIONS);
+    }
+    System.out.printf("%-36s %8.1f MB/s %10s bytes allocated per encoding (%d bytes output)%n",
+                      name,
+                      bytes / (nanos / 1e9) / (1024 * 1024),
+                      allocated,
+                      bytes / ITERATIONS);
+  }
+
+  /**
+   * Returns a new {@link IllegalStateException} created the supplied
+   * number of stack frames deeper than the caller.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param depth the number of additional stack frames; must not be
+   * less than {@code 0}
+   *
+   * @return a new {@link IllegalStateException}; never {@code null}
+   */
+  private static final Throwable deep(final int depth) {
+    if (depth == 0) {
+      return new IllegalStateException("Record 12345 failed \"validation\"");
+    }
+    return deep(depth - 1);
+  }
+
+  /**
+   * Runs the benchmark.
+   *
+   * @param arguments ignored
+   *
+   * @exception Exception if an encoding fails
+   */
+  public static final void main(final String[] arguments) throws Exception {
+    final ThrowableChain chain = new ThrowableChain("Batch 42 failed", new RuntimeException("wrapper", deep(20)));
+    for (int i = 0; i < 5; i++) {
+      chain.add(new IllegalArgumentException("field " + i, deep(10)));
+    }
+    final ThrowableJsonEncoder encoder = new ThrowableJsonEncoder();
+    final StringBuilder sb = new StringBuilder(1 << 16);
+    final ByteArrayOutputStream out = new ByteArrayOutputStream(1 << 16);
+    final ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+
+    measure("printStackTrace(StringWriter)", new Task() {
+        @Override
+        public final long run() {
+          final StringWriter sw = new StringWriter();
+          chain.printStackTrace(new PrintWriter(sw));
+          return sw.getBuffer().length();
+        }
+      });
+    measure("encode(Appendable) (reused)", new Task() {
+        @Override
+        public final long run() throws Exception {
+          sb.setLength(0);
+          encoder.encode(chain, sb);
+          return sb.length();
+        }
+      });
+    measure("encode(OutputStream) (reused)", new Task() {
+        @Override
+        public final long run() throws Exception {
+          out.reset();
+          encoder.encode(chain, out);
+          return out.size();
+        }
+      });
+    measure("encode(ByteBuffer) (reused)", new Task() {
+        @Override
+        public final long run() {
+          buffer.clear();
+          encoder.encode(chain, buffer);
+          return buffer.position();
+        }
+      });
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * A unit of work to be {@linkplain
+   * ThrowableJsonEncoderBenchmark#measure(String, Task) measured}.
+   *
+   * @author <a href="http://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static interface Task {
+
+    /**
+     * Performs the work once.
+     *
+     * @return the number of bytes of output produced
+     *
+     * @exception Exception if the work fails
+     */
+    public long run() throws Exception;
+
+  }
+
+}